@@ -0,0 +1,47 @@
+package benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH version of the harness's getBookDepth case, on a book of the given
+ * depth and levels
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BookDepthBenchmark {
+
+	@Param({"1000", "10000"})
+	int depth;
+	
+	@Param({"10", "100"})
+	int levels;
+	
+	private benchmark.BookDepthBenchmark harness = new benchmark.BookDepthBenchmark();
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		harness.setUp(depth, levels, 0);
+	}
+	
+	@Benchmark
+	public long getBookDepth() throws Exception{
+		return harness.run(1);
+	}
+}
@@ -0,0 +1,54 @@
+package benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH version of the harness's openMarket crossing case. Each invocation
+ * is one opening auction of a freshly built PREOPEN book whose depth
+ * Orders, over the given number of levels, all cross.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class OpenMarketBenchmark {
+
+	@Param({"1000", "10000"})
+	int depth;
+	
+	@Param({"10", "100"})
+	int levels;
+	
+	private benchmark.OpenMarketBenchmark harness = new benchmark.OpenMarketBenchmark();
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		harness.setUp(depth, levels, 0);
+	}
+	
+	//Opening empties the book, so each auction gets a new one
+	@Setup(Level.Invocation)
+	public void beforeInvocation() throws Exception{
+		harness.beforeIteration(1);
+	}
+	
+	@Benchmark
+	public long openMarket() throws Exception{
+		return harness.run(1);
+	}
+}
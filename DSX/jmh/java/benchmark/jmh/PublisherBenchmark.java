@@ -0,0 +1,60 @@
+package benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH version of the harness's publish cases: OPS publishes through the
+ * given publisher to the given number of subscribers of a product, so the
+ * count of deliveries returned is taken once per OPS. Delivery is inline
+ * on the publishing thread, as the DeliveryService is not started.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PublisherBenchmark {
+
+	static final int OPS = 1000;
+	
+	@Param({"CURRENT_MARKET", "LAST_SALE", "TICKER", "FILL", "MARKET_MESSAGE"})
+	String publisher;
+	
+	@Param({"1", "10", "100"})
+	int subscribers;
+	
+	private benchmark.PublisherBenchmark harness;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		harness = new benchmark.PublisherBenchmark(publisher);
+		harness.setUp(0, 1, subscribers);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception{
+		harness.tearDown();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(OPS)
+	public long publish() throws Exception{
+		return harness.run(OPS);
+	}
+}
@@ -0,0 +1,57 @@
+package benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH version of the harness's quote replace case. Each invocation replaces
+ * one user's Quote OPS times in a book of the given depth and levels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class QuoteReplaceBenchmark {
+
+	static final int OPS = 10000;
+	
+	@Param({"1000", "10000"})
+	int depth;
+	
+	@Param({"10", "100"})
+	int levels;
+	
+	private benchmark.QuoteReplaceBenchmark harness = new benchmark.QuoteReplaceBenchmark();
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		harness.setUp(depth, levels, 0);
+	}
+	
+	//The replacing Quotes are used up by the replacements, so each invocation gets its own
+	@Setup(Level.Invocation)
+	public void beforeInvocation() throws Exception{
+		harness.beforeIteration(OPS);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(OPS)
+	public long replaceQuote() throws Exception{
+		return harness.run(OPS);
+	}
+}
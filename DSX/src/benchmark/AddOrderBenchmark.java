@@ -0,0 +1,49 @@
+package benchmark;
+
+import book.ProductBook;
+import pricePackage.PriceFactory;
+import tradablePackage.Order;
+
+/*
+ * Adds Orders that do not cross to a book of the given depth and levels.
+ * Each iteration starts from a freshly built book.
+ */
+public class AddOrderBenchmark extends Benchmark {
+
+	private ProductBook book;
+	private Order[] orders;
+	
+	public String getName(){
+		return "addToBook(Order)";
+	}
+	
+	public String[] getParameters(){
+		return new String[] {"depth", "levels"};
+	}
+	
+	public void setUp(int d, int l, int s) throws Exception{
+		super.setUp(d, l, s);
+		setMarketState("OPEN");
+	}
+	
+	public void beforeIteration(int ops) throws Exception{
+		book = buildBook("ADD");
+		orders = new Order[ops];
+		for(int i = 0; i < ops; i++){
+			int level = (i / 2) % levels;
+			if(i % 2 == 0){
+				orders[i] = new Order("NB", "ADD", PriceFactory.makeLimitPrice(MID_PRICE - 1 - level), VOLUME, "BUY");
+			}
+			else{
+				orders[i] = new Order("NS", "ADD", PriceFactory.makeLimitPrice(MID_PRICE + 1 + level), VOLUME, "SELL");
+			}
+		}
+	}
+	
+	public long run(int ops) throws Exception{
+		for(int i = 0; i < ops; i++){
+			book.addToBook(orders[i]);
+		}
+		return book.getMarketData().getBuyVolume();
+	}
+}
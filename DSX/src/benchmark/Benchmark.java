@@ -0,0 +1,93 @@
+package benchmark;
+
+import book.ProductBook;
+import book.ProductService;
+import exceptions.InvalidVolumeOperation;
+import pricePackage.PriceFactory;
+import tradablePackage.Order;
+
+/*
+ * A Benchmark measures one engine operation for the BenchmarkRunner. The
+ * runner calls setUp once for each combination of the parameters the
+ * benchmark names, then for every warmup and measured iteration calls
+ * beforeIteration (not timed) followed by run (timed). run performs the
+ * given number of operations and returns a value derived from their
+ * results, which the runner keeps so the work cannot be optimized away.
+ */
+public abstract class Benchmark {
+
+	//Resting prices are laid out around this price, in cents
+	protected static final long MID_PRICE = 10000;
+	protected static final int VOLUME = 100;
+	
+	protected int depth;
+	protected int levels;
+	protected int subscribers;
+	
+	public abstract String getName();
+	
+	//The parameters this benchmark is run over: "depth", "levels", "subscribers"
+	public abstract String[] getParameters();
+	
+	public void setUp(int d, int l, int s) throws Exception{
+		depth = d;
+		levels = l;
+		subscribers = s;
+	}
+	
+	public void beforeIteration(int ops) throws Exception{
+	}
+	
+	public abstract long run(int ops) throws Exception;
+	
+	public void tearDown() throws Exception{
+	}
+	
+	//The number of operations each iteration performs, given the number asked for
+	public int getOperations(int ops){
+		return ops;
+	}
+	
+	/*
+	 * Builds a book holding depth resting Orders, half on each side, spread
+	 * evenly over levels prices per side below and above MID_PRICE. The
+	 * book is not registered with the ProductService.
+	 */
+	protected ProductBook buildBook(String product) throws InvalidVolumeOperation{
+		ProductBook book = new ProductBook(product);
+		for(int i = 0; i < depth; i++){
+			int level = (i / 2) % levels;
+			if(i % 2 == 0){
+				book.addToBook(new Order("B" + (i % 100), product, PriceFactory.makeLimitPrice(MID_PRICE - 1 - level),
+										 VOLUME, "BUY"));
+			}
+			else{
+				book.addToBook(new Order("S" + (i % 100), product, PriceFactory.makeLimitPrice(MID_PRICE + 1 + level),
+										 VOLUME, "SELL"));
+			}
+		}
+		return book;
+	}
+	
+	/*
+	 * Moves the market through its legal transitions until it is in state.
+	 * Benchmark books are not registered with the ProductService, so this
+	 * only changes what their commands see.
+	 */
+	protected static void setMarketState(String state) throws Exception{
+		ProductService service = ProductService.getInstance();
+		while(!service.getMarketState().equals(state)){
+			switch(service.getMarketState()){
+			case "CLOSED":
+				service.setMarketState("PREOPEN");
+				break;
+			case "PREOPEN":
+				service.setMarketState("OPEN");
+				break;
+			default:
+				service.setMarketState("CLOSED");
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package benchmark;
+
+import java.util.ArrayList;
+
+/*
+ * Runs the engine benchmarks from the command line, with no dependencies
+ * beyond the JDK. Usage:
+ * 
+ *   java benchmark.BenchmarkRunner [-depth 1000,10000] [-levels 10,100]
+ *        [-subscribers 1,10,100] [-warmup 5] [-iterations 10] [-ops 10000]
+ *        [name filter ...]
+ * 
+ * Each benchmark is run once for every combination of the parameters it
+ * uses. Names containing any of the filters are run; with no filters all
+ * of them are. For each combination it prints the mean and best time per
+ * operation over the measured iterations, and the mean throughput.
+ * 
+ * Everything runs in this one JVM, so run a single benchmark per JVM when
+ * comparing numbers closely, or use the JMH versions of these cases in
+ * jmh/java, which fork a JVM per benchmark (mvn -Pjmh package; see pom.xml).
+ */
+public class BenchmarkRunner {
+
+	private static int[] depths = {1000, 10000};
+	private static int[] levels = {10, 100};
+	private static int[] subscriberCounts = {1, 10, 100};
+	private static int warmup = 5;
+	private static int iterations = 10;
+	private static int ops = 10000;
+	
+	//Collects the benchmark results so their work cannot be optimized away
+	private static long sink;
+	
+	public static void main(String[] args) throws Exception{
+		ArrayList<String> filters = new ArrayList<>();
+		for(int i = 0; i < args.length; i++){
+			switch(args[i]){
+			case "-depth":
+				depths = parseList(args[++i]);
+				break;
+			case "-levels":
+				levels = parseList(args[++i]);
+				break;
+			case "-subscribers":
+				subscriberCounts = parseList(args[++i]);
+				break;
+			case "-warmup":
+				warmup = Integer.parseInt(args[++i]);
+				break;
+			case "-iterations":
+				iterations = Integer.parseInt(args[++i]);
+				break;
+			case "-ops":
+				ops = Integer.parseInt(args[++i]);
+				break;
+			default:
+				filters.add(args[i]);
+				break;
+			}
+		}
+		
+		System.out.printf("%-28s %8s %7s %12s %14s %14s %14s%n", "Benchmark", "depth", "levels", "subscribers",
+						  "mean ns/op", "best ns/op", "ops/s");
+		for(Benchmark b : allBenchmarks()){
+			if(matches(b.getName(), filters)){
+				runAll(b);
+			}
+		}
+		System.out.println("(checksum " + sink + ")");
+	}
+	
+	private static ArrayList<Benchmark> allBenchmarks(){
+		ArrayList<Benchmark> list = new ArrayList<>();
+		list.add(new AddOrderBenchmark());
+		list.add(new QuoteReplaceBenchmark());
+		list.add(new CancelOrderBenchmark());
+		list.add(new BookDepthBenchmark());
+		list.add(new OpenMarketBenchmark());
+		list.add(new PublisherBenchmark("CURRENT_MARKET"));
+		list.add(new PublisherBenchmark("LAST_SALE"));
+		list.add(new PublisherBenchmark("TICKER"));
+		list.add(new PublisherBenchmark("FILL"));
+		list.add(new PublisherBenchmark("MARKET_MESSAGE"));
+		return list;
+	}
+	
+	//Runs b for every combination of the parameters it uses
+	private static void runAll(Benchmark b) throws Exception{
+		boolean useDepth = false;
+		boolean useLevels = false;
+		boolean useSubscribers = false;
+		for(String p : b.getParameters()){
+			useDepth |= p.equals("depth");
+			useLevels |= p.equals("levels");
+			useSubscribers |= p.equals("subscribers");
+		}
+		for(int d : useDepth ? depths : new int[] {0}){
+			for(int l : useLevels ? levels : new int[] {1}){
+				for(int s : useSubscribers ? subscriberCounts : new int[] {0}){
+					runOne(b, d, l, s, useDepth, useLevels, useSubscribers);
+				}
+			}
+		}
+	}
+	
+	private static void runOne(Benchmark b, int d, int l, int s,
+							   boolean useDepth, boolean useLevels, boolean useSubscribers) throws Exception{
+		System.gc();
+		b.setUp(d, l, s);
+		int n = b.getOperations(ops);
+		long total = 0;
+		long best = Long.MAX_VALUE;
+		try{
+			for(int i = 0; i < warmup + iterations; i++){
+				b.beforeIteration(n);
+				long start = System.nanoTime();
+				sink += b.run(n);
+				long elapsed = System.nanoTime() - start;
+				if(i >= warmup){
+					total += elapsed;
+					best = Math.min(best, elapsed);
+				}
+			}
+		}
+		finally{
+			b.tearDown();
+		}
+		
+		double mean = (double) total / ((long) iterations * n);
+		System.out.printf("%-28s %8s %7s %12s %14.1f %14.1f %14.0f%n", b.getName(),
+						  useDepth ? String.valueOf(d) : "-", useLevels ? String.valueOf(l) : "-",
+						  useSubscribers ? String.valueOf(s) : "-", mean, (double) best / n, 1e9 / mean);
+	}
+	
+	private static boolean matches(String name, ArrayList<String> filters){
+		if(filters.isEmpty()){
+			return true;
+		}
+		for(String f : filters){
+			if(name.contains(f)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static int[] parseList(String s){
+		String[] parts = s.split(",");
+		int[] values = new int[parts.length];
+		for(int i = 0; i < parts.length; i++){
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+}
@@ -0,0 +1,35 @@
+package benchmark;
+
+import book.ProductBook;
+import publishers.BookDepthDTO;
+
+/*
+ * Requests the book depth of a book of the given depth and levels
+ */
+public class BookDepthBenchmark extends Benchmark {
+
+	private ProductBook book;
+	
+	public String getName(){
+		return "getBookDepth";
+	}
+	
+	public String[] getParameters(){
+		return new String[] {"depth", "levels"};
+	}
+	
+	public void setUp(int d, int l, int s) throws Exception{
+		super.setUp(d, l, s);
+		setMarketState("OPEN");
+		book = buildBook("DPT");
+	}
+	
+	public long run(int ops) throws Exception{
+		long result = 0;
+		for(int i = 0; i < ops; i++){
+			BookDepthDTO bd = book.getBookDepth();
+			result += bd.getBuyLevels() + bd.getSellLevels();
+		}
+		return result;
+	}
+}
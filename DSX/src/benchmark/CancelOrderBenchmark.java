@@ -0,0 +1,57 @@
+package benchmark;
+
+import book.ProductBook;
+import pricePackage.PriceFactory;
+import tradablePackage.Order;
+
+/*
+ * Cancels Orders by id from a book of the given depth and levels. Each
+ * iteration starts from a freshly built book with the Orders to cancel
+ * added behind the resting ones, spread over every level.
+ */
+public class CancelOrderBenchmark extends Benchmark {
+
+	private ProductBook book;
+	private String[] sides;
+	private long[] ids;
+	
+	public String getName(){
+		return "cancel by id";
+	}
+	
+	public String[] getParameters(){
+		return new String[] {"depth", "levels"};
+	}
+	
+	public void setUp(int d, int l, int s) throws Exception{
+		super.setUp(d, l, s);
+		setMarketState("OPEN");
+	}
+	
+	public void beforeIteration(int ops) throws Exception{
+		book = buildBook("CXL");
+		sides = new String[ops];
+		ids = new long[ops];
+		for(int i = 0; i < ops; i++){
+			int level = (i / 2) % levels;
+			Order o;
+			if(i % 2 == 0){
+				sides[i] = "BUY";
+				o = new Order("CB", "CXL", PriceFactory.makeLimitPrice(MID_PRICE - 1 - level), VOLUME, "BUY");
+			}
+			else{
+				sides[i] = "SELL";
+				o = new Order("CS", "CXL", PriceFactory.makeLimitPrice(MID_PRICE + 1 + level), VOLUME, "SELL");
+			}
+			book.addToBook(o);
+			ids[i] = o.getOrderId();
+		}
+	}
+	
+	public long run(int ops) throws Exception{
+		for(int i = 0; i < ops; i++){
+			book.cancelOrder(sides[i], ids[i]);
+		}
+		return book.getMarketData().getBuyVolume();
+	}
+}
@@ -0,0 +1,133 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import messages.CancelMessage;
+import messages.FillMessage;
+import pricePackage.Price;
+import publishers.BookDepthDTO;
+import publishers.DepthUpdate;
+import tradablePackage.Order;
+import tradablePackage.Quote;
+import tradablePackage.TradableDTO;
+import user.TradableUserData;
+import user.User;
+
+/*
+ * A User that only counts what is delivered to it, used as a subscriber by
+ * the publisher benchmarks. It never connects, so the command methods do
+ * nothing.
+ */
+public class NullUser implements User {
+
+	private String userName;
+	private long received;
+	
+	public NullUser(String name){
+		userName = name;
+	}
+	
+	public synchronized long getReceived(){
+		return received;
+	}
+	
+	public String getUserName(){
+		return userName;
+	}
+	
+	// Delivery methods
+	public synchronized void acceptLastSale(String product, Price p, int v, long sequence){
+		received++;
+	}
+	public synchronized void acceptMessage(FillMessage fm, long sequence){
+		received++;
+	}
+	public synchronized void acceptMessage(CancelMessage cm, long sequence){
+		received++;
+	}
+	public synchronized void acceptMarketMessage(String message, long sequence){
+		received++;
+	}
+	public synchronized void acceptTicker(String product, Price p, char direction, long sequence){
+		received++;
+	}
+	public synchronized void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv, long sequence){
+		received++;
+	}
+	public synchronized void acceptDepthSnapshot(BookDepthDTO depth, long sequence){
+		received++;
+	}
+	public synchronized void acceptDepthUpdate(DepthUpdate update){
+		received++;
+	}
+	
+	// Command methods
+	public void connect(){
+	}
+	public void disConnect(){
+	}
+	public void showMarketDisplay(){
+	}
+	public String submitOrder(String product, Price price, int volume, String side){
+		return null;
+	}
+	public void submitOrderCancel(String product, String side, String orderId){
+	}
+	public void submitQuote(String product, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume){
+	}
+	public void submitQuoteCancel(String product){
+	}
+	public ArrayList<String> submitOrders(List<Order> orders){
+		return new ArrayList<>();
+	}
+	public void submitQuotes(List<Quote> quotes){
+	}
+	public void cancelOrders(List<TradableDTO> orders){
+	}
+	public void submitMassCancel(String product){
+	}
+	public void subscribeCurrentMarket(String product){
+	}
+	public void subscribeLastSale(String product){
+	}
+	public void subscribeMessages(String product){
+	}
+	public void subscribeTicker(String product){
+	}
+	public void subscribeDepth(String product){
+	}
+	public Price getAllStockValue(){
+		return null;
+	}
+	public Price getAccountCosts(){
+		return null;
+	}
+	public Price getNetAccountValue(){
+		return null;
+	}
+	public BookDepthDTO getBookDepth(String product){
+		return null;
+	}
+	public String getMarketState(){
+		return null;
+	}
+	public ArrayList<TradableUserData> getOrderIds(){
+		return new ArrayList<>();
+	}
+	public ArrayList<String> getProductList(){
+		return new ArrayList<>();
+	}
+	public Price getStockPositionValue(String sym){
+		return null;
+	}
+	public int getStockPositionVolume(String product){
+		return 0;
+	}
+	public ArrayList<String> getHoldings(){
+		return new ArrayList<>();
+	}
+	public ArrayList<TradableDTO> getOrdersWithRemainingQty(String product){
+		return new ArrayList<>();
+	}
+}
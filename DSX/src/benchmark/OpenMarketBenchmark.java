@@ -0,0 +1,50 @@
+package benchmark;
+
+import book.ProductBook;
+import pricePackage.PriceFactory;
+import tradablePackage.Order;
+
+/*
+ * Opens a book whose PREOPEN Orders all cross: depth Orders, half on each
+ * side, over the given number of levels, with every BUY priced at or above
+ * every SELL. One operation is one opening auction, so each iteration
+ * times a single openMarket call on a freshly built book.
+ */
+public class OpenMarketBenchmark extends Benchmark {
+
+	private ProductBook book;
+	
+	public String getName(){
+		return "openMarket crossing";
+	}
+	
+	public String[] getParameters(){
+		return new String[] {"depth", "levels"};
+	}
+	
+	public int getOperations(int ops){
+		return 1;
+	}
+	
+	public void beforeIteration(int ops) throws Exception{
+		setMarketState("PREOPEN");
+		book = new ProductBook("OPN");
+		for(int i = 0; i < depth; i++){
+			int level = (i / 2) % levels;
+			if(i % 2 == 0){
+				book.addToBook(new Order("B" + (i % 100), "OPN", PriceFactory.makeLimitPrice(MID_PRICE + level),
+										 VOLUME, "BUY"));
+			}
+			else{
+				book.addToBook(new Order("S" + (i % 100), "OPN", PriceFactory.makeLimitPrice(MID_PRICE - level),
+										 VOLUME, "SELL"));
+			}
+		}
+		setMarketState("OPEN");
+	}
+	
+	public long run(int ops) throws Exception{
+		book.openMarket();
+		return book.getMarketData().getBuyVolume();
+	}
+}
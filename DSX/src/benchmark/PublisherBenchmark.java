@@ -0,0 +1,120 @@
+package benchmark;
+
+import messages.FillMessage;
+import messages.MarketMessage;
+import pricePackage.Price;
+import pricePackage.PriceFactory;
+import publishers.CurrentMarketPublisher;
+import publishers.LastSalePublisher;
+import publishers.MarketDataDTO;
+import publishers.MessagePublisher;
+import publishers.TickerPublisher;
+
+/*
+ * Publishes through one publisher to the given number of subscribers of a
+ * product. The publisher is one of "CURRENT_MARKET", "LAST_SALE", "TICKER",
+ * "FILL" or "MARKET_MESSAGE" (the last two both go through the
+ * MessagePublisher). Delivery is whatever the DeliveryService is set up
+ * for; by default that is inline on the publishing thread.
+ */
+public class PublisherBenchmark extends Benchmark {
+
+	private static final String PRODUCT = "PUB";
+	
+	private String publisher;
+	private NullUser[] users;
+	private MarketDataDTO[] markets;
+	private Price[] prices;
+	private FillMessage fill;
+	private MarketMessage marketMessage;
+	
+	public PublisherBenchmark(String p){
+		publisher = p;
+	}
+	
+	public String getName(){
+		return "publish " + publisher;
+	}
+	
+	public String[] getParameters(){
+		return new String[] {"subscribers"};
+	}
+	
+	public void setUp(int d, int l, int s) throws Exception{
+		super.setUp(d, l, s);
+		users = new NullUser[subscribers];
+		for(int i = 0; i < subscribers; i++){
+			users[i] = new NullUser("SUB" + i);
+			switch(publisher){
+			case "CURRENT_MARKET":
+				CurrentMarketPublisher.getInstance().subscribe(users[i], PRODUCT);
+				break;
+			case "LAST_SALE":
+				LastSalePublisher.getInstance().subscribe(users[i], PRODUCT);
+				break;
+			case "TICKER":
+				TickerPublisher.getInstance().subscribe(users[i], PRODUCT);
+				break;
+			default:
+				MessagePublisher.getInstance().subscribe(users[i], PRODUCT);
+				break;
+			}
+		}
+		
+		//Alternate between two prices, so every update is a change
+		prices = new Price[] {PriceFactory.makeLimitPrice(MID_PRICE), PriceFactory.makeLimitPrice(MID_PRICE + 1)};
+		markets = new MarketDataDTO[2];
+		for(int i = 0; i < 2; i++){
+			markets[i] = new MarketDataDTO(PRODUCT, prices[i], VOLUME, PriceFactory.makeLimitPrice(MID_PRICE + 2), VOLUME);
+		}
+		String last = users.length == 0 ? "NONE" : users[users.length - 1].getUserName();
+		fill = new FillMessage(last, PRODUCT, prices[0], VOLUME, 0, "BUY", "F1");
+		marketMessage = new MarketMessage("OPEN");
+	}
+	
+	public long run(int ops) throws Exception{
+		for(int i = 0; i < ops; i++){
+			switch(publisher){
+			case "CURRENT_MARKET":
+				CurrentMarketPublisher.getInstance().publishCurrentMarket(markets[i & 1]);
+				break;
+			case "LAST_SALE":
+				LastSalePublisher.getInstance().publishLastSale(PRODUCT, prices[i & 1], VOLUME);
+				break;
+			case "TICKER":
+				TickerPublisher.getInstance().publishTicker(PRODUCT, prices[i & 1]);
+				break;
+			case "FILL":
+				MessagePublisher.getInstance().publishFill(fill);
+				break;
+			default:
+				MessagePublisher.getInstance().publishMarketMessage(marketMessage);
+				break;
+			}
+		}
+		long result = 0;
+		for(NullUser u : users){
+			result += u.getReceived();
+		}
+		return result;
+	}
+	
+	public void tearDown() throws Exception{
+		for(NullUser u : users){
+			switch(publisher){
+			case "CURRENT_MARKET":
+				CurrentMarketPublisher.getInstance().unSubscribe(u, PRODUCT);
+				break;
+			case "LAST_SALE":
+				LastSalePublisher.getInstance().unSubscribe(u, PRODUCT);
+				break;
+			case "TICKER":
+				TickerPublisher.getInstance().unSubscribe(u, PRODUCT);
+				break;
+			default:
+				MessagePublisher.getInstance().unSubscribe(u, PRODUCT);
+				break;
+			}
+		}
+	}
+}
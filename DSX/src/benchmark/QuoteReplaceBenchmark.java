@@ -0,0 +1,47 @@
+package benchmark;
+
+import book.ProductBook;
+import pricePackage.PriceFactory;
+import tradablePackage.Quote;
+
+/*
+ * Replaces one user's Quote over and over in a book of the given depth and
+ * levels. Every other Quote moves both sides one cent, so half of the
+ * replacements update the sides in place and half move them to another
+ * price level.
+ */
+public class QuoteReplaceBenchmark extends Benchmark {
+
+	private ProductBook book;
+	private Quote[] quotes;
+	
+	public String getName(){
+		return "quote replace";
+	}
+	
+	public String[] getParameters(){
+		return new String[] {"depth", "levels"};
+	}
+	
+	public void setUp(int d, int l, int s) throws Exception{
+		super.setUp(d, l, s);
+		setMarketState("OPEN");
+		book = buildBook("QTE");
+	}
+	
+	public void beforeIteration(int ops) throws Exception{
+		quotes = new Quote[ops];
+		for(int i = 0; i < ops; i++){
+			int move = (i / 2) % 2;
+			quotes[i] = new Quote("MM", "QTE", PriceFactory.makeLimitPrice(MID_PRICE - 1 - move), VOLUME,
+								  PriceFactory.makeLimitPrice(MID_PRICE + 1 + move), VOLUME);
+		}
+	}
+	
+	public long run(int ops) throws Exception{
+		for(int i = 0; i < ops; i++){
+			book.addToBook(quotes[i]);
+		}
+		return book.getMarketData().getSellVolume();
+	}
+}
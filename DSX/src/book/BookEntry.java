@@ -0,0 +1,49 @@
+package book;
+
+import tradablePackage.Tradable;
+
+/*
+ * A BookEntry is the handle for one Tradable resting on a ProductBookSide.
+ * It carries the links that thread the Tradable into its PriceLevel's FIFO
+ * queue, so the entry can be unlinked in constant time from wherever the
+ * book finds it (the head of the level, the order id index or the user's
+ * quote index) without searching the level. A second pair of links threads
+ * it into the list of everything its user has resting on the side.
+ */
+class BookEntry {
+
+	private Tradable tradable;
+	private PriceLevel level;
+	BookEntry prev;
+	BookEntry next;
+	BookEntry userPrev;
+	BookEntry userNext;
+	//The volume this entry last added to its level's total
+	int volume;
+	
+	BookEntry(Tradable t){
+		this.setTradable(t);
+	}
+	
+	// set methods
+	void setTradable(Tradable t){
+		if(t == null){
+			throw new NullPointerException("Tradable parameter cannot be null");
+		}
+		tradable = t;
+	}
+	void setLevel(PriceLevel pl){
+		level = pl;
+	}
+	
+	// get methods
+	Tradable getTradable(){
+		return tradable;
+	}
+	PriceLevel getLevel(){
+		return level;
+	}
+	BookEntry getNext(){
+		return next;
+	}
+}
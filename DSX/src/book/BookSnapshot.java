@@ -0,0 +1,84 @@
+package book;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import pricePackage.PriceTicks;
+import tradablePackage.TradableDTO;
+
+/*
+ * A copy of one ProductBook's state, taken under the book's lock by
+ * ProductBook.snapshot and written out later without it. Resting entries
+ * are kept in book order (BUY then SELL, best price first, oldest first
+ * within a price), so adding them back in order restores time priority.
+ * Completed Tradables are kept only as the book's compact history, and
+ * the last order id the book gave out is kept so it never gives one twice.
+ */
+class BookSnapshot {
+
+	String product;
+	long journalOffset;
+	long orderSequence;
+	ArrayList<TradableDTO> resting = new ArrayList<>();
+	CompletedHistory history;
+	ArrayList<String> quoteUsers = new ArrayList<>();
+	
+	void write(DataOutputStream out) throws IOException{
+		out.writeUTF(product);
+		out.writeLong(journalOffset);
+		out.writeLong(orderSequence);
+		writeTradables(out, resting);
+		history.write(out);
+		out.writeInt(quoteUsers.size());
+		for(String user : quoteUsers){
+			out.writeUTF(user);
+		}
+	}
+	
+	static BookSnapshot read(DataInputStream in) throws IOException{
+		BookSnapshot s = new BookSnapshot();
+		s.product = in.readUTF();
+		s.journalOffset = in.readLong();
+		s.orderSequence = in.readLong();
+		readTradables(in, s.product, s.resting);
+		s.history = new CompletedHistory(Integer.MAX_VALUE, 0);
+		s.history.read(in);
+		int users = in.readInt();
+		for(int i = 0; i < users; i++){
+			s.quoteUsers.add(in.readUTF());
+		}
+		return s;
+	}
+	
+	private static void writeTradables(DataOutputStream out, ArrayList<TradableDTO> list) throws IOException{
+		out.writeInt(list.size());
+		for(TradableDTO t : list){
+			out.writeBoolean(t.isQuote);
+			out.writeUTF(t.user);
+			out.writeLong(PriceTicks.toTicks(t.price));
+			out.writeUTF(t.bookSide);
+			out.writeUTF(t.id);
+			out.writeInt(t.originalVolume);
+			out.writeInt(t.remainingVolume);
+			out.writeInt(t.cancelledVolume);
+		}
+	}
+	
+	private static void readTradables(DataInputStream in, String product, ArrayList<TradableDTO> list) throws IOException{
+		int count = in.readInt();
+		for(int i = 0; i < count; i++){
+			boolean quote = in.readBoolean();
+			String user = in.readUTF();
+			long ticks = in.readLong();
+			String side = in.readUTF();
+			String id = in.readUTF();
+			int original = in.readInt();
+			int remaining = in.readInt();
+			int cancelled = in.readInt();
+			list.add(new TradableDTO(product, PriceTicks.toPrice(ticks), original, remaining, cancelled,
+									 user, side, quote, id));
+		}
+	}
+}
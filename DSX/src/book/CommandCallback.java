@@ -0,0 +1,13 @@
+package book;
+
+/*
+ * Implemented by callers of the ProductService's asynchronous submit
+ * methods that want to be told when their command has been processed,
+ * rather than waiting on the CommandResult. Callbacks run on the matching
+ * thread that processed the command, so they should return quickly.
+ */
+public interface CommandCallback {
+
+	void commandCompleted(String orderId);
+	void commandFailed(Exception e);
+}
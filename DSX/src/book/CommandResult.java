@@ -0,0 +1,97 @@
+package book;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * The CommandResult is handed back by the ProductService's asynchronous
+ * submit methods. It completes once the matching thread that owns the
+ * product has processed the command, holding either the order id (null
+ * for cancels and quote cancels) or the exception the command failed with.
+ */
+public class CommandResult implements Future<String> {
+
+	private CountDownLatch done = new CountDownLatch(1);
+	private CommandCallback callback;
+	private String orderId;
+	private Exception failure;
+	
+	CommandResult(CommandCallback cb){
+		callback = cb;
+	}
+	
+	void complete(String id){
+		orderId = id;
+		done.countDown();
+		if(callback != null){
+			callback.commandCompleted(id);
+		}
+	}
+	
+	void fail(Exception e){
+		failure = e;
+		done.countDown();
+		if(callback != null){
+			callback.commandFailed(e);
+		}
+	}
+	
+	/*
+	 * Waits for the command to be processed and returns the exception it
+	 * failed with, or null if it succeeded. The command runs whether or not
+	 * the caller is interrupted, so the wait is not cut short by one; the
+	 * interrupt status is restored before returning.
+	 */
+	public Exception awaitFailure(){
+		boolean interrupted = false;
+		while(true){
+			try{
+				done.await();
+				break;
+			}
+			catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		return failure;
+	}
+	
+	// Future methods. Commands cannot be cancelled once queued.
+	public boolean cancel(boolean mayInterruptIfRunning){
+		return false;
+	}
+	
+	public boolean isCancelled(){
+		return false;
+	}
+	
+	public boolean isDone(){
+		return done.getCount() == 0;
+	}
+	
+	public String get() throws InterruptedException, ExecutionException{
+		done.await();
+		return getResult();
+	}
+	
+	public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+														  TimeoutException{
+		if(!done.await(timeout, unit)){
+			throw new TimeoutException("Command not processed within " + timeout + " " + unit);
+		}
+		return getResult();
+	}
+	
+	private String getResult() throws ExecutionException{
+		if(failure != null){
+			throw new ExecutionException(failure);
+		}
+		return orderId;
+	}
+}
@@ -0,0 +1,277 @@
+package book;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import ids.NameRegistry;
+
+/*
+ * CompletedHistory remembers the Tradables a book has finished with (fully
+ * traded or cancelled), which is only needed to answer a late cancel with
+ * "Too Late to Cancel". Rather than keeping the Tradables themselves, each
+ * completion is stored as a few primitive fields in a ring of parallel
+ * arrays, keyed by the order id:
+ * 
+ * - the ring holds at most maxEntries completions; once full, the oldest
+ *   is overwritten. It starts small and doubles up to that size.
+ * - completions older than maxAgeMillis (if not 0) are expired.
+ * - an open-addressing table from order id to ring slot gives O(1) lookup.
+ * 
+ * Users are kept by their registry id and only named again for a reply.
+ */
+class CompletedHistory {
+
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private int maxEntries;
+	private long maxAgeMillis;
+	
+	//The ring: slot head is the oldest completion, and count slots are in use
+	private long[] ids;
+	private boolean[] buySide;
+	private int[] users;
+	private long[] prices;
+	private int[] cancelledVolumes;
+	private long[] timestamps;
+	private int head;
+	private int count;
+	
+	//Linear-probing table of order id -> ring slot + 1 (0 means empty, and is never an id)
+	private long[] tableKeys;
+	private int[] tableSlots;
+	
+	CompletedHistory(int max, long maxAge){
+		setRetention(max, maxAge);
+		allocate(Math.min(INITIAL_CAPACITY, maxEntries));
+	}
+	
+	/*
+	 * Changes the retention limits. Completions beyond the new limits are
+	 * dropped straight away.
+	 */
+	void setRetention(int max, long maxAge){
+		if(max < 1){
+			throw new IllegalArgumentException("History must keep at least 1 entry: " + max);
+		}
+		maxEntries = max;
+		maxAgeMillis = maxAge;
+		if(ids != null){
+			while(count > maxEntries){
+				removeOldest();
+			}
+			if(ids.length > maxEntries){
+				resize(Math.max(count, 1));
+			}
+		}
+	}
+	
+	int size(){
+		return count;
+	}
+	
+	/*
+	 * Records a completed Tradable
+	 */
+	void add(long id, String side, int userId, long priceTicks, int cancelledVolume, long now){
+		add(id, side.equals("BUY"), userId, priceTicks, cancelledVolume, now);
+	}
+	
+	private void add(long id, boolean buy, int userId, long priceTicks, int cancelledVolume, long now){
+		expire(now);
+		if(count == ids.length){
+			if(ids.length < maxEntries){
+				resize(Math.min(ids.length * 2, maxEntries));
+			}
+			else{
+				removeOldest();
+			}
+		}
+		
+		int slot = (head + count) % ids.length;
+		ids[slot] = id;
+		buySide[slot] = buy;
+		users[slot] = userId;
+		prices[slot] = priceTicks;
+		cancelledVolumes[slot] = cancelledVolume;
+		timestamps[slot] = now;
+		count++;
+		tablePut(id, slot);
+	}
+	
+	/*
+	 * Returns the ring slot of the completion with this id, or -1
+	 */
+	int find(long id, long now){
+		expire(now);
+		if(id == 0){
+			return -1;
+		}
+		int i = tableIndex(id);
+		return tableKeys[i] == 0 ? -1 : tableSlots[i] - 1;
+	}
+	
+	// get methods for a slot returned by find
+	String getSide(int slot){
+		return buySide[slot] ? "BUY" : "SELL";
+	}
+	String getUser(int slot){
+		return NameRegistry.getUsers().nameOf(users[slot]);
+	}
+	long getPrice(int slot){
+		return prices[slot];
+	}
+	int getCancelledVolume(int slot){
+		return cancelledVolumes[slot];
+	}
+	
+	/*
+	 * Returns a copy, for a snapshot taken under the book's lock
+	 */
+	CompletedHistory copy(){
+		CompletedHistory c = new CompletedHistory(maxEntries, maxAgeMillis);
+		c.addAll(this);
+		return c;
+	}
+	
+	/*
+	 * Adds every completion held by other, oldest first, subject to this
+	 * history's retention
+	 */
+	void addAll(CompletedHistory other){
+		for(int i = 0; i < other.count; i++){
+			int slot = (other.head + i) % other.ids.length;
+			add(other.ids[slot], other.buySide[slot], other.users[slot], other.prices[slot],
+				other.cancelledVolumes[slot], other.timestamps[slot]);
+		}
+	}
+	
+	void write(DataOutputStream out) throws IOException{
+		out.writeInt(count);
+		for(int i = 0; i < count; i++){
+			int slot = (head + i) % ids.length;
+			out.writeLong(ids[slot]);
+			out.writeBoolean(buySide[slot]);
+			out.writeUTF(NameRegistry.getUsers().nameOf(users[slot]));
+			out.writeLong(prices[slot]);
+			out.writeInt(cancelledVolumes[slot]);
+			out.writeLong(timestamps[slot]);
+		}
+	}
+	
+	/*
+	 * Adds the completions written by write, oldest first
+	 */
+	void read(DataInputStream in) throws IOException{
+		int n = in.readInt();
+		for(int i = 0; i < n; i++){
+			long id = in.readLong();
+			boolean buy = in.readBoolean();
+			int user = NameRegistry.getUsers().idOf(in.readUTF());
+			long price = in.readLong();
+			int cancelled = in.readInt();
+			long timestamp = in.readLong();
+			add(id, buy, user, price, cancelled, timestamp);
+		}
+	}
+	
+	private void expire(long now){
+		if(maxAgeMillis <= 0){
+			return;
+		}
+		while(count > 0 && now - timestamps[head] > maxAgeMillis){
+			removeOldest();
+		}
+	}
+	
+	private void removeOldest(){
+		int i = tableIndex(ids[head]);
+		//A newer completion with the same id may own the table entry
+		if(tableKeys[i] != 0 && tableSlots[i] - 1 == head){
+			tableRemove(i);
+		}
+		head = (head + 1) % ids.length;
+		count--;
+	}
+	
+	// Ring Storage
+	
+	private void allocate(int capacity){
+		ids = new long[capacity];
+		buySide = new boolean[capacity];
+		users = new int[capacity];
+		prices = new long[capacity];
+		cancelledVolumes = new int[capacity];
+		timestamps = new long[capacity];
+		head = 0;
+		count = 0;
+		
+		int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		tableKeys = new long[tableSize];
+		tableSlots = new int[tableSize];
+	}
+	
+	//Moves the completions, oldest first, into a ring of the new capacity
+	private void resize(int capacity){
+		long[] oldIds = ids;
+		boolean[] oldBuy = buySide;
+		int[] oldUsers = users;
+		long[] oldPrices = prices;
+		int[] oldCancelled = cancelledVolumes;
+		long[] oldTimestamps = timestamps;
+		int oldHead = head;
+		int oldCount = count;
+		
+		allocate(capacity);
+		for(int i = 0; i < oldCount; i++){
+			int slot = (oldHead + i) % oldIds.length;
+			ids[i] = oldIds[slot];
+			buySide[i] = oldBuy[slot];
+			users[i] = oldUsers[slot];
+			prices[i] = oldPrices[slot];
+			cancelledVolumes[i] = oldCancelled[slot];
+			timestamps[i] = oldTimestamps[slot];
+			tablePut(ids[i], i);
+		}
+		count = oldCount;
+	}
+	
+	// Hash Table
+	
+	//Returns the index holding the key, or the empty index where it would go
+	private int tableIndex(long key){
+		int mask = tableKeys.length - 1;
+		int i = (int) (key ^ (key >>> 32)) & mask;
+		while(tableKeys[i] != 0 && tableKeys[i] != key){
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+	
+	private void tablePut(long key, int slot){
+		int i = tableIndex(key);
+		tableKeys[i] = key;
+		tableSlots[i] = slot + 1;
+	}
+	
+	//Removes the entry at i, shifting later entries of the probe run back
+	private void tableRemove(int i){
+		int mask = tableKeys.length - 1;
+		tableKeys[i] = 0;
+		tableSlots[i] = 0;
+		int j = (i + 1) & mask;
+		while(tableKeys[j] != 0){
+			long key = tableKeys[j];
+			int home = (int) (key ^ (key >>> 32)) & mask;
+			//Move the entry back if its home is not between the hole and j
+			if(((j - home) & mask) >= ((j - i) & mask)){
+				tableKeys[i] = key;
+				tableSlots[i] = tableSlots[j];
+				tableKeys[j] = 0;
+				tableSlots[j] = 0;
+				i = j;
+			}
+			j = (j + 1) & mask;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package book;
+
+import java.util.List;
+
+import ids.OrderIds;
+
+import tradablePackage.Order;
+import tradablePackage.Quote;
+
+/*
+ * One slot in a MatchingShard's ring buffer. Slots are allocated once when
+ * the shard is created and are overwritten by each command that passes
+ * through them; only the fields used by the command's type are set.
+ */
+class EngineCommand {
+
+	String type;
+	ProductBook book;
+	Order order;
+	Quote quote;
+	List<?> batch;
+	String side;
+	long orderId;
+	String userName;
+	CommandResult result;
+	
+	//Fills the slot for a new command. payload is the Order, Quote or batch list, if any.
+	void set(String t, ProductBook b, Object payload, String s, long id, String u, CommandResult r){
+		type = t;
+		book = b;
+		if(payload instanceof Order){
+			order = (Order) payload;
+		}
+		else if(payload instanceof Quote){
+			quote = (Quote) payload;
+		}
+		else if(payload instanceof List){
+			batch = (List<?>) payload;
+		}
+		side = s;
+		orderId = id;
+		userName = u;
+		result = r;
+	}
+	
+	//Drops the references held by the slot once the command is processed
+	void clear(){
+		type = null;
+		book = null;
+		order = null;
+		quote = null;
+		batch = null;
+		side = null;
+		orderId = OrderIds.NONE;
+		userName = null;
+		result = null;
+	}
+}
@@ -0,0 +1,125 @@
+package book;
+
+import messages.FillMessage;
+import pricePackage.Price;
+import pricePackage.PriceTicks;
+import tradablePackage.Tradable;
+
+/*
+ * The FillBuffer collects the fills produced while one Tradable trades
+ * against a ProductBookSide. Each ProductBookSide owns a single buffer
+ * that is cleared and reused for every trade, and fills are stored as
+ * parallel arrays of the filled Tradable, price in ticks, volume and
+ * remaining volume, so matching itself allocates nothing. A FillMessage is only
+ * built from a slot when it is actually going to be published, and the
+ * journal encodes fills straight from the slots.
+ */
+public class FillBuffer {
+
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private Tradable[] tradables = new Tradable[INITIAL_CAPACITY];
+	private long[] prices = new long[INITIAL_CAPACITY];
+	private int[] volumes = new int[INITIAL_CAPACITY];
+	private int[] leaving = new int[INITIAL_CAPACITY];
+	private int size;
+	private int aggressorSlot = -1;
+	
+	//Empties the buffer ready for the next trade. The arrays are kept.
+	void clear(){
+		for(int i = 0; i < size; i++){
+			tradables[i] = null;
+		}
+		size = 0;
+		aggressorSlot = -1;
+	}
+	
+	/*
+	 * Records a fill for a resting Tradable. A resting entry is matched
+	 * at most once per trade, so it always takes a new slot.
+	 */
+	void addRestingFill(Tradable t, long p, int volume, int remaining){
+		addSlot(t, p, volume, remaining);
+	}
+	
+	/*
+	 * Records a fill for the incoming Tradable. Consecutive fills at the
+	 * same price are folded into one slot, as they make up one trade.
+	 */
+	void addAggressorFill(Tradable t, long p, int volume, int remaining){
+		if(aggressorSlot >= 0 && tradables[aggressorSlot] == t && prices[aggressorSlot] == p){
+			volumes[aggressorSlot] += volume;
+			leaving[aggressorSlot] = remaining;
+			return;
+		}
+		aggressorSlot = addSlot(t, p, volume, remaining);
+	}
+	
+	private int addSlot(Tradable t, long p, int volume, int remaining){
+		if(size == tradables.length){
+			grow();
+		}
+		tradables[size] = t;
+		prices[size] = p;
+		volumes[size] = volume;
+		leaving[size] = remaining;
+		return size++;
+	}
+	
+	private void grow(){
+		int capacity = tradables.length * 2;
+		Tradable[] newTradables = new Tradable[capacity];
+		long[] newPrices = new long[capacity];
+		int[] newVolumes = new int[capacity];
+		int[] newLeaving = new int[capacity];
+		System.arraycopy(tradables, 0, newTradables, 0, size);
+		System.arraycopy(prices, 0, newPrices, 0, size);
+		System.arraycopy(volumes, 0, newVolumes, 0, size);
+		System.arraycopy(leaving, 0, newLeaving, 0, size);
+		tradables = newTradables;
+		prices = newPrices;
+		volumes = newVolumes;
+		leaving = newLeaving;
+	}
+	
+	// get methods
+	public int size(){
+		return size;
+	}
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	public Tradable getTradable(int i){
+		return tradables[i];
+	}
+	public Price getPrice(int i){
+		return PriceTicks.toPrice(prices[i]);
+	}
+	public long getTicks(int i){
+		return prices[i];
+	}
+	public int getVolume(int i){
+		return volumes[i];
+	}
+	public int getLeaving(int i){
+		return leaving[i];
+	}
+	
+	//Returns the slot holding the lowest fill price, or -1 if the buffer is empty
+	public int lowestPriceSlot(){
+		int lowest = -1;
+		for(int i = 0; i < size; i++){
+			if(lowest < 0 || prices[i] < prices[lowest]){
+				lowest = i;
+			}
+		}
+		return lowest;
+	}
+	
+	//Builds the FillMessage for the given slot
+	public FillMessage toFillMessage(int i){
+		Tradable t = tradables[i];
+		return new FillMessage(t.getUser(), t.getProduct(), getPrice(i), volumes[i],
+							   leaving[i], t.getSide(), t.getId());
+	}
+}
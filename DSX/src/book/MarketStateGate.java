@@ -0,0 +1,126 @@
+package book;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * The MarketStateGate lets order flow run while the market state stays put,
+ * and lets a market state change wait until no order flow is in progress.
+ * It does the job of a read/write lock without one shared counter that
+ * every order on every product updates.
+ *
+ * Order flow enters the gate by counting itself in on one of STRIPES
+ * counters, picked by thread and each on its own cache line, and checking
+ * that the gate is open; it leaves by counting itself out. A state change
+ * closes the gate and then waits for every stripe to drain to zero, so it
+ * runs with nothing in flight; order flow arriving meanwhile waits for the
+ * gate to open again. Both are reentrant: a thread already inside, or the
+ * thread holding the gate closed, goes straight through. As with a read
+ * lock, a thread inside the gate must not try to close it.
+ */
+final class MarketStateGate {
+	
+	private static final int STRIPES = 64;
+	//Longs per stripe, so each counter has a 128 byte line to itself
+	private static final int STRIDE = 16;
+	private static final int OWNER = -1;
+	private static final int NESTED = -2;
+	private static final long DRAIN_PARK_NANOS = 10000;
+	
+	private AtomicLongArray inFlight = new AtomicLongArray(STRIPES * STRIDE);
+	private volatile boolean closed;
+	private volatile Thread owner;
+	private ReentrantLock closeLock = new ReentrantLock();
+	private ThreadLocal<int[]> depth = new ThreadLocal<int[]>(){
+		protected int[] initialValue(){
+			return new int[1];
+		}
+	};
+	
+	/*
+	 * Enters the gate, waiting while it is closed. Returns the token to pass
+	 * to exit.
+	 */
+	int enter(){
+		Thread t = Thread.currentThread();
+		if(owner == t){
+			return OWNER;
+		}
+		int[] d = depth.get();
+		if(d[0]++ > 0){
+			return NESTED;
+		}
+		int stripe = ((int) t.getId() & (STRIPES - 1)) * STRIDE;
+		while(true){
+			inFlight.incrementAndGet(stripe);
+			if(!closed){
+				return stripe;
+			}
+			inFlight.decrementAndGet(stripe);
+			awaitOpen();
+		}
+	}
+	
+	void exit(int token){
+		if(token == OWNER){
+			return;
+		}
+		depth.get()[0]--;
+		if(token >= 0){
+			inFlight.decrementAndGet(token);
+		}
+	}
+	
+	/*
+	 * Closes the gate and waits for the order flow already inside to leave.
+	 * The caller must open it again.
+	 */
+	void close(){
+		closeLock.lock();
+		if(closeLock.getHoldCount() > 1){
+			return;
+		}
+		owner = Thread.currentThread();
+		closed = true;
+		while(inFlightCount() != 0){
+			LockSupport.parkNanos(DRAIN_PARK_NANOS);
+		}
+	}
+	
+	private long inFlightCount(){
+		long total = 0;
+		for(int i = 0; i < STRIPES; i++){
+			total += inFlight.get(i * STRIDE);
+		}
+		return total;
+	}
+	
+	void open(){
+		if(closeLock.getHoldCount() == 1){
+			owner = null;
+			synchronized(this){
+				closed = false;
+				notifyAll();
+			}
+		}
+		closeLock.unlock();
+	}
+	
+	private void awaitOpen(){
+		boolean interrupted = false;
+		synchronized(this){
+			while(closed){
+				try{
+					wait();
+				}
+				catch(InterruptedException e){
+					interrupted = true;
+				}
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
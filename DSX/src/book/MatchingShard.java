@@ -0,0 +1,269 @@
+package book;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import tradablePackage.Order;
+import tradablePackage.Quote;
+import tradablePackage.TradableDTO;
+
+/*
+ * A MatchingShard is a single matching thread together with the ring buffer
+ * that feeds it. Every ProductBook is owned by exactly one shard, and in the
+ * ProductService's sequenced mode all commands for the book are processed by
+ * that shard's thread and nothing else, so matching runs without contention.
+ * 
+ * The ring is a fixed array of preallocated EngineCommand slots. Producers
+ * claim a sequence number, fill the slot and then publish the sequence; the
+ * shard thread consumes slots strictly in sequence order.
+ * 
+ * Once shut down, the shard fails anything submitted to it, and anything
+ * it had not yet processed, with an IllegalStateException rather than
+ * leaving the caller waiting on a result that never completes.
+ */
+class MatchingShard implements Runnable {
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 50000;
+	
+	private EngineCommand[] ring;
+	private int mask;
+	private AtomicLong claimSequence = new AtomicLong(0);
+	private AtomicLongArray published;
+	private volatile long consumedSequence = -1;
+	private volatile boolean running = true;
+	private Thread thread;
+	
+	MatchingShard(String name, int ringSize){
+		if(ringSize < 1 || Integer.bitCount(ringSize) != 1){
+			throw new IllegalArgumentException("Ring size must be a power of two: " + ringSize);
+		}
+		ring = new EngineCommand[ringSize];
+		published = new AtomicLongArray(ringSize);
+		for(int i = 0; i < ringSize; i++){
+			ring[i] = new EngineCommand();
+			published.set(i, -1);
+		}
+		mask = ringSize - 1;
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+	
+	void start(){
+		thread.start();
+	}
+	
+	/*
+	 * Stops the shard thread and waits for it to finish the command it is
+	 * processing
+	 */
+	void shutdown(){
+		running = false;
+		LockSupport.unpark(thread);
+		boolean interrupted = false;
+		while(thread.isAlive()){
+			try{
+				thread.join();
+			}
+			catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/*
+	 * Claims the next slot, copies the command into it and publishes it to
+	 * the shard thread. Waits if the ring is full.
+	 */
+	CommandResult submit(String type, ProductBook book, Object payload, String side,
+						 long orderId, String userName, CommandCallback cb){
+		CommandResult result = new CommandResult(cb);
+		if(!running){
+			result.fail(stopped());
+			return result;
+		}
+		long sequence = claimSequence.getAndIncrement();
+		
+		while(sequence - consumedSequence > ring.length){
+			if(!running){
+				result.fail(stopped());
+				return result;
+			}
+			Thread.yield();
+		}
+		
+		ring[(int) sequence & mask].set(type, book, payload, side, orderId, userName, result);
+		published.lazySet((int) sequence & mask, sequence);
+		
+		LockSupport.unpark(thread);
+		return result;
+	}
+	
+	public void run(){
+		long next = 0;
+		int idle = 0;
+		
+		while(running){
+			int index = (int) next & mask;
+			if(published.get(index) != next){
+				idle = waitForCommand(idle);
+				continue;
+			}
+			idle = 0;
+			
+			EngineCommand command = ring[index];
+			CommandResult result = command.result;
+			String orderId = null;
+			Exception failure = null;
+			try{
+				orderId = execute(command);
+			}
+			catch(Throwable t){
+				failure = asException(t);
+			}
+			command.clear();
+			consumedSequence = next;
+			next++;
+			
+			//The slot is released before the caller is woken up
+			try{
+				if(failure != null){
+					result.fail(failure);
+				}
+				else{
+					result.complete(orderId);
+				}
+			}
+			catch(Throwable t){
+				System.out.println(thread.getName() + ": command callback failed: " + t);
+			}
+		}
+		failRemaining(next);
+	}
+	
+	//Fails whatever was published to the ring after the shard stopped taking commands
+	private void failRemaining(long next){
+		while(true){
+			int index = (int) next & mask;
+			if(published.get(index) != next){
+				return;
+			}
+			CommandResult result = ring[index].result;
+			ring[index].clear();
+			consumedSequence = next;
+			next++;
+			try{
+				result.fail(stopped());
+			}
+			catch(Throwable t){
+				System.out.println(thread.getName() + ": command callback failed: " + t);
+			}
+		}
+	}
+	
+	private IllegalStateException stopped(){
+		return new IllegalStateException(thread.getName() + " has been shut down");
+	}
+	
+	/*
+	 * Anything thrown by a command fails only that command, so an Error such
+	 * as a StackOverflowError in one book does not stop the shard thread and
+	 * leave its producers waiting on results that never complete. An Error
+	 * is passed back wrapped, to be rethrown on the caller's thread.
+	 */
+	private static Exception asException(Throwable t){
+		if(t instanceof Exception){
+			return (Exception) t;
+		}
+		return new IllegalStateException("Command failed with " + t, t);
+	}
+	
+	//Spins, then yields, then parks until the next command is published
+	private int waitForCommand(int idle){
+		if(idle < SPIN_TRIES){
+			return idle + 1;
+		}
+		if(idle < SPIN_TRIES + YIELD_TRIES){
+			Thread.yield();
+		}
+		else{
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		return idle + 1;
+	}
+	
+	/*
+	 * Runs a command on the calling thread instead of queueing it. Used for
+	 * asynchronous submits while the service is not in sequenced mode.
+	 */
+	static CommandResult runDirect(String type, ProductBook book, Object payload, String side,
+								   long orderId, String userName, CommandCallback cb){
+		CommandResult result = new CommandResult(cb);
+		EngineCommand command = new EngineCommand();
+		command.set(type, book, payload, side, orderId, userName, result);
+		
+		String id;
+		try{
+			id = execute(command);
+		}
+		catch(Throwable t){
+			result.fail(asException(t));
+			return result;
+		}
+		result.complete(id);
+		return result;
+	}
+	
+	/*
+	 * Runs one command against its book. Validation against the market state
+	 * and the product list was done when the command was queued.
+	 */
+	@SuppressWarnings("unchecked")
+	private static String execute(EngineCommand command) throws Exception{
+		switch(command.type){
+			case "ORDER":
+				command.book.addToBook(command.order);
+				return command.order.getId();
+			case "QUOTE":
+				command.book.addToBook(command.quote);
+				return null;
+			case "ORDER_CANCEL":
+				command.book.cancelOrder(command.side, command.orderId);
+				return null;
+			case "QUOTE_CANCEL":
+				command.book.cancelQuote(command.userName);
+				return null;
+			case "ORDERS":
+				command.book.addOrders((List<Order>) command.batch);
+				return null;
+			case "QUOTES":
+				command.book.addQuotes((List<Quote>) command.batch);
+				return null;
+			case "ORDER_CANCELS":
+				command.book.cancelOrders((List<TradableDTO>) command.batch);
+				return null;
+			case "MASS_CANCEL":
+				command.book.cancelUser(command.userName);
+				return null;
+			case "BOOK_CANCEL":
+				command.book.cancelAll();
+				return null;
+			case "OPEN":
+				command.book.openMarket();
+				return null;
+			case "CLOSE":
+				command.book.closeMarket();
+				return null;
+			case "SYNC":
+				return null;
+			default:
+				throw new IllegalArgumentException("Unknown command type: " + command.type);
+		}
+	}
+}
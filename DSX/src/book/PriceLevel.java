@@ -0,0 +1,113 @@
+package book;
+
+import pricePackage.Price;
+import pricePackage.PriceTicks;
+
+/*
+ * A PriceLevel is the time-ordered queue of BookEntries resting at one
+ * price on one side of the book. It is a doubly-linked list threaded
+ * through the entries themselves: appending, popping the head and
+ * unlinking any entry by its handle are all constant time, and no
+ * elements are ever shifted. The level's price is also kept in ticks
+ * so the book can compare levels without going through Price, and the
+ * total remaining volume is kept up to date as entries come and go, so
+ * depth never has to sum the queue.
+ */
+class PriceLevel {
+
+	private Price price;
+	private long ticks;
+	private BookEntry head;
+	private BookEntry tail;
+	private int size;
+	private int volume;
+	//Depth feed bookkeeping: the volume last published for this level, and
+	//whether the level is on its side's list of levels changed since then
+	int publishedVolume;
+	boolean changed;
+	
+	PriceLevel(Price p){
+		if(p == null){
+			throw new NullPointerException("Price parameter cannot be null");
+		}
+		price = p;
+		ticks = PriceTicks.toTicks(p);
+	}
+	
+	// get methods
+	Price getPrice(){
+		return price;
+	}
+	long getTicks(){
+		return ticks;
+	}
+	BookEntry getFirst(){
+		return head;
+	}
+	int size(){
+		return size;
+	}
+	int getVolume(){
+		return volume;
+	}
+	boolean isEmpty(){
+		return head == null;
+	}
+	
+	//Adds the entry to the back of the queue
+	void add(BookEntry e){
+		e.setLevel(this);
+		e.prev = tail;
+		e.next = null;
+		if(tail == null){
+			head = e;
+		}
+		else{
+			tail.next = e;
+		}
+		tail = e;
+		size++;
+		e.volume = e.getTradable().getRemainingVolume();
+		volume += e.volume;
+	}
+	
+	//Empties the level without unlinking its entries, which are being discarded
+	void clear(){
+		head = null;
+		tail = null;
+		size = 0;
+		volume = 0;
+	}
+	
+	//Picks up a change in the remaining volume of an entry in the queue
+	void updateVolume(BookEntry e){
+		int remaining = e.getTradable().getRemainingVolume();
+		volume += remaining - e.volume;
+		e.volume = remaining;
+	}
+	
+	//Unlinks the entry from wherever it sits in the queue
+	void remove(BookEntry e){
+		if(e.getLevel() != this){
+			return;
+		}
+		if(e.prev == null){
+			head = e.next;
+		}
+		else{
+			e.prev.next = e.next;
+		}
+		if(e.next == null){
+			tail = e.prev;
+		}
+		else{
+			e.next.prev = e.prev;
+		}
+		e.prev = null;
+		e.next = null;
+		e.setLevel(null);
+		size--;
+		volume -= e.volume;
+		e.volume = 0;
+	}
+}
@@ -1,37 +1,64 @@
 package book;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.List;
 
+import exceptions.AlreadySubscribedException;
 import exceptions.InvalidVolumeOperation;
+import exceptions.NotSubscribedException;
 import exceptions.OrderNotFoundException;
+import ids.NameRegistry;
+import ids.OrderIds;
+import journal.Journal;
 import messages.CancelMessage;
-import messages.FillMessage;
+import metrics.MetricsRegistry;
 import pricePackage.Price;
 import pricePackage.PriceFactory;
+import pricePackage.PriceTicks;
+import publishers.BookDepthDTO;
 import publishers.CurrentMarketPublisher;
+import publishers.DepthPublisher;
+import publishers.DepthUpdate;
 import publishers.LastSalePublisher;
 import publishers.MarketDataDTO;
 import publishers.MessagePublisher;
 import tradablePackage.Order;
 import tradablePackage.Quote;
+import tradablePackage.QuoteSide;
 import tradablePackage.Tradable;
 import tradablePackage.TradableDTO;
+import user.User;
 
 public class ProductBook {
 
+	static final int DEFAULT_HISTORY_ENTRIES = 100000;
+	
 	private String product;
+	private int productId;
+	//The sequence number of the last order id this book gave out
+	private long orderSequence;
 	private ProductBookSide buySide;
 	private ProductBookSide sellSide;
-	private String marketDataValue = "";
-	private HashSet<String> userQuotes = new HashSet<>();
-	private HashMap<Price, ArrayList<Tradable>> oldEntries = 
-													new HashMap<>();
+	private MarketDataDTO lastMarketData;
+	private long lastBuyPrice;
+	private int lastBuyVolume;
+	private long lastSellPrice;
+	private int lastSellVolume;
+	//The ids of the users with a Quote in the book
+	private BitSet userQuotes = new BitSet();
+	//Completed Tradables, kept only to answer late cancels
+	private CompletedHistory history = new CompletedHistory(DEFAULT_HISTORY_ENTRIES, 0);
+	//The depth last built by getBookDepth
+	private BookDepthDTO depth;
+	//The sequence number of the last depth update made to this book
+	private long depthSequence;
+	//True while a batch is applied; the batch publishes one market update when it ends
+	private boolean batching;
 	
 	public ProductBook(String p){
 		this.setProduct(p);
+		productId = NameRegistry.getProducts().idOf(p);
 		buySide = new ProductBookSide(this, "BUY");
 		sellSide = new ProductBookSide(this, "SELL");
 	}
@@ -48,50 +75,102 @@ public class ProductBook {
 	public String getProduct(){
 		return product;
 	}
-	public String marketDataValue(){
-		return marketDataValue;
+	
+	public int getProductId(){
+		return productId;
+	}
+	public synchronized String marketDataValue(){
+		if(lastMarketData == null){
+			return "";
+		}
+		return String.valueOf(lastMarketData.getBuyPrice()) + lastMarketData.getBuyVolume() +
+				String.valueOf(lastMarketData.getSellPrice()) + lastMarketData.getSellVolume();
 	}
 	
 	// Query Methods
 	public synchronized ArrayList<TradableDTO> getOrdersWithRemainingQty(String userName){
 		ArrayList<TradableDTO> tradableDTOList = new ArrayList<>();
+		int userId = NameRegistry.getUsers().lookup(userName);
+		if(userId < 0){
+			return tradableDTOList;
+		}
 		
-		ArrayList<TradableDTO> buySideDTOList = buySide.getOrdersWithRemaining(userName);
+		ArrayList<TradableDTO> buySideDTOList = buySide.getOrdersWithRemaining(userId);
 		tradableDTOList.addAll(buySideDTOList);
 		
-		ArrayList<TradableDTO> sellSideDTOList = sellSide.getOrdersWithRemaining(userName);
+		ArrayList<TradableDTO> sellSideDTOList = sellSide.getOrdersWithRemaining(userId);
 		tradableDTOList.addAll(sellSideDTOList);
 		
 		return tradableDTOList;
 	}
 	
-	public synchronized void checkTooLateToCancel(String orderId) throws OrderNotFoundException{
-		boolean flag = false;
+	public synchronized void checkTooLateToCancel(long orderId) throws OrderNotFoundException{
+		int slot = history.find(orderId, System.currentTimeMillis());
 		
-		for(Price price : oldEntries.keySet()){
-			for(Tradable tradable : oldEntries.get(price)){
-				if(tradable.getId().equals(orderId)){
-					
-					CancelMessage cancelMessage = new CancelMessage(tradable.getUser(), tradable.getProduct(),
-							tradable.getPrice(), tradable.getRemainingVolume(),
-							"Too Late to Cancel", tradable.getSide(),
-							tradable.getId());
-					
-					MessagePublisher.getInstance().publishCancel(cancelMessage);
-					flag = true;
-				}
-			}
-		}
-		if(flag == false){
+		if(slot < 0){
 			throw new OrderNotFoundException("Order not found");
 		}
+		
+		if(MessagePublisher.getInstance().hasSubscribers(product)){
+			CancelMessage cancelMessage = new CancelMessage(history.getUser(slot), product,
+					PriceTicks.toPrice(history.getPrice(slot)), 0,
+					"Too Late to Cancel", history.getSide(slot),
+					OrderIds.toString(orderId));
+			
+			MessagePublisher.getInstance().publishCancel(cancelMessage);
+		}
+	}
+	
+	/*
+	 * Returns the depth of the book. The last depth built is kept and
+	 * handed out again until either side changes, so repeated requests
+	 * against a quiet book cost nothing.
+	 */
+	public synchronized BookDepthDTO getBookDepth(){
+		long version = buySide.getVersion() + sellSide.getVersion();
+		if(depth == null || depth.getVersion() != version){
+			long[] buyPrices = new long[buySide.getLevelCount()];
+			int[] buyVolumes = new int[buyPrices.length];
+			buySide.copyDepth(buyPrices, buyVolumes);
+			long[] sellPrices = new long[sellSide.getLevelCount()];
+			int[] sellVolumes = new int[sellPrices.length];
+			sellSide.copyDepth(sellPrices, sellVolumes);
+			depth = new BookDepthDTO(product, version, buyPrices, buyVolumes, sellPrices, sellVolumes);
+		}
+		return depth;
 	}
 	
-	public synchronized String[][] getBookDepth(){
-		String[][] bd = new String[2][];
-		bd[0] = buySide.getBookDepth();
-		bd[1] = sellSide.getBookDepth();
-		return bd;
+	/*
+	 * Subscribes the user to the depth of this book. Anything changed by the
+	 * last command is published first, so the snapshot the user is sent
+	 * matches depthSequence exactly.
+	 */
+	public synchronized void subscribeDepth(User u) throws AlreadySubscribedException{
+		publishDepth();
+		DepthPublisher.getInstance().subscribe(u, getBookDepth(), depthSequence);
+	}
+	
+	//Sends a subscriber that has missed depth updates a new snapshot
+	public synchronized void resendDepth(User u) throws NotSubscribedException{
+		publishDepth();
+		DepthPublisher.getInstance().resendSnapshot(u, getBookDepth(), depthSequence);
+	}
+	
+	/*
+	 * Publishes the levels changed by the latest command as depth updates.
+	 * The sides number the updates even when nobody is subscribed, so the
+	 * sequence always matches the book.
+	 */
+	private void publishDepth(){
+		ArrayList<DepthUpdate> updates = null;
+		if(DepthPublisher.getInstance().hasSubscribers(product)){
+			updates = new ArrayList<>();
+		}
+		depthSequence = buySide.collectDepthUpdates(product, depthSequence, updates);
+		depthSequence = sellSide.collectDepthUpdates(product, depthSequence, updates);
+		if(updates != null && !updates.isEmpty()){
+			DepthPublisher.getInstance().publishDepthUpdates(updates);
+		}
 	}
 	
 	public synchronized MarketDataDTO getMarketData(){
@@ -115,17 +194,92 @@ public class ProductBook {
 	
 
 	public synchronized void addOldEntry(Tradable t) throws InvalidVolumeOperation{
-		if(!oldEntries.containsKey(t.getPrice())){
-			oldEntries.put(t.getPrice(), new ArrayList<Tradable>());
-		}
-	    
 		int x = t.getRemainingVolume();
 	    t.setRemainingVolume(0);
 	    t.setCancelledVolume(x);
 		
 		//t.setCancelledVolume(t.getRemainingVolume());
 		//t.setRemainingVolume(0);
-		oldEntries.get(t.getPrice()).add(t);
+		history.add(t.getOrderId(), t.getSide(), t.getUserId(), PriceTicks.toTicks(t.getPrice()), x,
+					System.currentTimeMillis());
+	}
+	
+	/*
+	 * Limits the history of completed Tradables to maxEntries, and to those
+	 * completed within maxAgeMillis (0 keeps them regardless of age)
+	 */
+	synchronized void setHistoryRetention(int maxEntries, long maxAgeMillis){
+		history.setRetention(maxEntries, maxAgeMillis);
+	}
+	
+	/*
+	 * Copies the book's state for a snapshot. Taken under the book's lock,
+	 * together with the journal offset: every journal record for this book
+	 * before the offset is reflected in the copy and none after it is.
+	 */
+	synchronized BookSnapshot snapshot(Journal journal){
+		BookSnapshot s = new BookSnapshot();
+		s.product = product;
+		s.journalOffset = journal.getOffset();
+		s.orderSequence = orderSequence;
+		buySide.copyEntries(s.resting);
+		sellSide.copyEntries(s.resting);
+		s.history = history.copy();
+		for(int i = userQuotes.nextSetBit(0); i >= 0; i = userQuotes.nextSetBit(i + 1)){
+			s.quoteUsers.add(NameRegistry.getUsers().nameOf(i));
+		}
+		return s;
+	}
+	
+	/*
+	 * Loads a snapshot into this newly created book. Resting entries are
+	 * added back in the order they were copied, which keeps time priority.
+	 */
+	synchronized void restore(BookSnapshot s) throws InvalidVolumeOperation{
+		for(TradableDTO d : s.resting){
+			Tradable t = restoreTradable(d);
+			if(t.getSide().equals("BUY")){
+				buySide.addToBook(t);
+			}
+			else{
+				sellSide.addToBook(t);
+			}
+		}
+		history.addAll(s.history);
+		for(String user : s.quoteUsers){
+			userQuotes.set(NameRegistry.getUsers().idOf(user));
+		}
+		orderSequence = s.orderSequence;
+	}
+	
+	/*
+	 * Gives a new Tradable the book's next order id. Only the thread holding
+	 * the book's lock (in sequenced mode, the owning shard's thread) gets
+	 * here, so the sequence needs no synchronization of its own. A Tradable
+	 * that already has an id, replayed from the journal, keeps it, and the
+	 * sequence moves past it so the id is not given out again.
+	 */
+	private void assignId(Tradable t){
+		long id = t.getOrderId();
+		if(id == OrderIds.NONE){
+			t.setOrderId(OrderIds.make(productId, ++orderSequence));
+		}
+		else if(OrderIds.sequenceOf(id) > orderSequence){
+			orderSequence = OrderIds.sequenceOf(id);
+		}
+	}
+	
+	private static Tradable restoreTradable(TradableDTO d) throws InvalidVolumeOperation{
+		Tradable t;
+		if(d.isQuote){
+			t = new QuoteSide(d.user, d.product, d.price, d.originalVolume, d.bookSide, OrderIds.parse(d.id));
+		}
+		else{
+			t = new Order(d.user, d.product, d.price, d.originalVolume, d.bookSide, OrderIds.parse(d.id));
+		}
+		t.setRemainingVolume(d.remainingVolume);
+		t.setCancelledVolume(d.cancelledVolume);
+		return t;
 	}
 	
 	//This method "opens" the book for trading. Any resting Order and QuoteSides
@@ -140,43 +294,44 @@ public class ProductBook {
 		if(buyPrice == null || sellPrice == null){
 			return;
 		}
+		long start = System.nanoTime();
 		
 		while(buyPrice.greaterOrEqual(sellPrice) || buyPrice.isMarket() || sellPrice.isMarket()){
 			
-			//Create new list to hold entries at top of buy-side book
-			ArrayList<Tradable> topOfBuySide = buySide.getEntriesAtPrice(buyPrice);
+			//Take the level at the top of the buy-side book
+			PriceLevel topOfBuySide = buySide.getEntriesAtPrice(buyPrice);
 			
-			//Create new hashMap to hold fillMessages
-			HashMap<String, FillMessage> allFills = null;
+			//Holds the fills from the latest trade against the sell side
+			FillBuffer allFills = null;
 			
-			//Create new List to hold entries that fully trade as result of processing.
-			//These are the tradables that will be removed from the book when opening
-			//trade is complete
-			ArrayList<Tradable> toRemove = new ArrayList<>();
-			
-			//Tries to trade every Tradable in topOfBuySide. If all Tradables
-			//are traded, then the Tradable gets added to the toRemove list.
-			for(Tradable t : topOfBuySide){
+			//Tries to trade every Tradable in topOfBuySide. Any Tradable that
+			//fully trades is unlinked from the buySide ProductBookSide straight away.
+			BookEntry entry = topOfBuySide.getFirst();
+			while(entry != null){
+				BookEntry next = entry.getNext();
+				Tradable t = entry.getTradable();
 				allFills = sellSide.tryTrade(t);
+				journalFills(allFills);
 				if(t.getRemainingVolume() == 0){
-					toRemove.add(t);
+					buySide.removeEntry(entry);
 				}
-			}
-			
-			//Removes all Tradables in toRemove from the buySide ProductBookSide
-			for(Tradable t : toRemove){
-				buySide.removeTradable(t);
+				else{
+					buySide.updateVolume(entry);
+				}
+				entry = next;
 			}
 			
 			//Update the current market
 			updateCurrentMarket();
 			
-			//Determine the Book's last sale price and volume
-			Price lastSalePrice = determineLastSalePrice(allFills);
-			int lastSaleVolume = determineLastSaleQuantity(allFills);
-			
-			//Publishes a Last Sale message 
-			LastSalePublisher.getInstance().publishLastSale(product, lastSalePrice, lastSaleVolume);
+			//Determine the Book's last sale price and volume and publish a
+			//Last Sale message, if the last trade filled anything
+			if(!allFills.isEmpty()){
+				Price lastSalePrice = determineLastSalePrice(allFills);
+				int lastSaleVolume = determineLastSaleQuantity(allFills);
+				
+				LastSalePublisher.getInstance().publishLastSale(product, lastSalePrice, lastSaleVolume);
+			}
 			
 			//Reset top buy and sell prices
 			buyPrice = buySide.topOfBookPrice();
@@ -184,23 +339,82 @@ public class ProductBook {
 			
 			//If either of these prices is null, then one of these sides has
 			//no tradables, so there will be no trade.
-			if(buyPrice == null || buyPrice == null){
+			if(buyPrice == null || sellPrice == null){
 				break;
 			}
 		}
+		MetricsRegistry.getInstance().recordLatency("stage.openMarket", product, start);
 	}
 	
 	//Closes the book for trading
 	public synchronized void closeMarket() throws InvalidVolumeOperation,
 												  OrderNotFoundException {
-		buySide.cancelAll(); 
-		sellSide.cancelAll();
+		cancelEverything();
+	}
+	
+	/*
+	 * Cancels every Order and Quote in the book, leaving the market state
+	 * as it is. Closing the market does the same without journaling, since
+	 * the close is itself journaled.
+	 */
+	public synchronized void cancelAll() throws InvalidVolumeOperation{
+		Journal journal = ProductService.getInstance().getJournal();
+		if(journal != null){
+			journal.appendMassCancel(product, null);
+		}
+		cancelEverything();
+	}
+	
+	/*
+	 * Cancels every Order and Quote the specified user has in the book.
+	 * Only that user's entries are visited, and the cancel messages are
+	 * published together once both sides are done.
+	 */
+	public synchronized void cancelUser(String userName) throws InvalidVolumeOperation{
+		Journal journal = ProductService.getInstance().getJournal();
+		if(journal != null){
+			journal.appendMassCancel(product, userName);
+		}
+		int userId = NameRegistry.getUsers().lookup(userName);
+		if(userId < 0){
+			return;
+		}
+		ArrayList<CancelMessage> cancels = newCancelBatch();
+		buySide.cancelUser(userId, cancels);
+		sellSide.cancelUser(userId, cancels);
+		userQuotes.clear(userId);
+		publishCancels(cancels);
+		updateCurrentMarket();
+	}
+	
+	private void cancelEverything() throws InvalidVolumeOperation{
+		ArrayList<CancelMessage> cancels = newCancelBatch();
+		buySide.cancelAll(cancels);
+		sellSide.cancelAll(cancels);
+		userQuotes.clear();
+		publishCancels(cancels);
 		updateCurrentMarket();
 	}
 	
+	//Cancel messages are only built when someone is listening for them
+	private ArrayList<CancelMessage> newCancelBatch(){
+		return MessagePublisher.getInstance().hasSubscribers(product) ? new ArrayList<CancelMessage>() : null;
+	}
+	
+	private void publishCancels(ArrayList<CancelMessage> cancels){
+		if(cancels != null && !cancels.isEmpty()){
+			MessagePublisher.getInstance().publishCancels(cancels);
+		}
+	}
+	
 	//Cancels the Order specified by the provided orderId on the specified side
-	public synchronized void cancelOrder(String side, String orderId) throws InvalidVolumeOperation,
+	public synchronized void cancelOrder(String side, long orderId) throws InvalidVolumeOperation,
 																			 OrderNotFoundException{
+		Journal journal = ProductService.getInstance().getJournal();
+		if(journal != null){
+			journal.appendOrderCancel(product, side, orderId);
+		}
+		
 		if(side.equals("BUY")){
 			buySide.submitOrderCancel(orderId);			
 		}
@@ -210,17 +424,31 @@ public class ProductBook {
 		else{
 			throw new OrderNotFoundException("The order you want to cancel has not been found");
 		}
+		if(!batching){
+			publishDepth();
+		}
 	}
 	
 	//Cancels the specified user's Quote on both the BUY and SELL sides
 	public synchronized void cancelQuote(String userName){
-		buySide.submitQuoteCancel(userName);
-		sellSide.submitQuoteCancel(userName);
+		Journal journal = ProductService.getInstance().getJournal();
+		if(journal != null){
+			journal.appendQuoteCancel(userName, product);
+		}
+		int userId = NameRegistry.getUsers().lookup(userName);
+		buySide.submitQuoteCancel(userId);
+		sellSide.submitQuoteCancel(userId);
 		updateCurrentMarket();
 	}
 	
 	//Adds the provided Quote's sides to the Buy and Sell ProductSideBooks
 	public synchronized void addToBook(Quote q) throws InvalidVolumeOperation{
+		assignId(q.getQuoteSide("BUY"));
+		assignId(q.getQuoteSide("SELL"));
+		Journal journal = ProductService.getInstance().getJournal();
+		if(journal != null){
+			journal.appendQuote(q);
+		}
 		
 		//If q's SELL side's Price is less than or equal to the BUY side, then throw an exception
 		if(q.getQuoteSide("SELL").getPrice().lessOrEqual(q.getQuoteSide("BUY").getPrice())){
@@ -239,75 +467,174 @@ public class ProductBook {
 			//THROW DataValidationException
 		}
 		
-		//If the userQuotes contains the q's user, remove the quote from the book sides
-		//and then updates the market
-		if(userQuotes.contains(q.getUserName())){
-			buySide.removeQuote(q.getUserName());
-			sellSide.removeQuote(q.getUserName());
-			updateCurrentMarket();
+		//If the userQuotes contains the q's user, a side resting at the same price with
+		//no more volume is updated in place. Any other side is removed from the book
+		//and the market is updated before the new side is added.
+		boolean buyUpdated = false;
+		boolean sellUpdated = false;
+		int userId = q.getQuoteSide("BUY").getUserId();
+		if(userQuotes.get(userId)){
+			buyUpdated = buySide.updateQuote(q.getQuoteSide("BUY"));
+			sellUpdated = sellSide.updateQuote(q.getQuoteSide("SELL"));
+			if(!buyUpdated){
+				buySide.removeQuote(userId);
+			}
+			if(!sellUpdated){
+				sellSide.removeQuote(userId);
+			}
+			if(!buyUpdated || !sellUpdated){
+				updateCurrentMarket();
+			}
 		}
 		
-		//Add quote sides to the Product Book
-		addToBook("BUY", q.getQuoteSide("BUY"));
-		addToBook("SELL", q.getQuoteSide("SELL"));
+		//Add any quote sides not already updated in place to the Product Book
+		if(!buyUpdated){
+			addToBook("BUY", q.getQuoteSide("BUY"));
+		}
+		if(!sellUpdated){
+			addToBook("SELL", q.getQuoteSide("SELL"));
+		}
 		
 		//add the quote's username to the quote username list and update the market
-		userQuotes.add(q.getUserName());
+		userQuotes.set(userId);
 		updateCurrentMarket();
 	}
 	
 	//Add the provided Order to the appropriate ProductSideBook
 	//and update the market
 	public synchronized void addToBook(Order o) throws InvalidVolumeOperation{
+		assignId(o);
+		Journal journal = ProductService.getInstance().getJournal();
+		if(journal != null){
+			journal.appendOrder(o);
+		}
 		addToBook(o.getSide(), o);
 		updateCurrentMarket();
 	}
 	
+	//Adds the provided Orders in order, under one lock, publishing a single
+	//current market update at the end instead of one per Order
+	public synchronized void addOrders(List<Order> orders) throws InvalidVolumeOperation{
+		batching = true;
+		try{
+			for(Order o : orders){
+				addToBook(o);
+			}
+		}
+		finally{
+			batching = false;
+			updateCurrentMarket();
+		}
+	}
+	
+	//Adds the provided Quotes in order, as addOrders does for Orders
+	public synchronized void addQuotes(List<Quote> quotes) throws InvalidVolumeOperation{
+		batching = true;
+		try{
+			for(Quote q : quotes){
+				addToBook(q);
+			}
+		}
+		finally{
+			batching = false;
+			updateCurrentMarket();
+		}
+	}
+	
+	/*
+	 * Cancels the Orders described by the provided DTOs (by side and id),
+	 * publishing a single current market update at the end. Every Order
+	 * found is cancelled; if any were not, an OrderNotFoundException naming
+	 * them is thrown afterwards.
+	 */
+	public synchronized void cancelOrders(List<TradableDTO> orders) throws InvalidVolumeOperation,
+																		   OrderNotFoundException{
+		String notFound = null;
+		batching = true;
+		try{
+			for(TradableDTO d : orders){
+				try{
+					cancelOrder(d.bookSide, OrderIds.parse(d.id));
+				}
+				catch(OrderNotFoundException e){
+					notFound = notFound == null ? d.id : notFound + ", " + d.id;
+				}
+			}
+		}
+		finally{
+			batching = false;
+			updateCurrentMarket();
+		}
+		if(notFound != null){
+			throw new OrderNotFoundException("Orders not found: " + notFound);
+		}
+	}
+	
 	//Updates the market for this current stock product
 	public synchronized void updateCurrentMarket(){
+		if(batching){
+			return;
+		}
+		publishDepth();
 		
-        Price bp = buySide.topOfBookPrice();
-        if (bp == null) {
-            bp = PriceFactory.makeLimitPrice("0.00");
-        }
-        Price sp = sellSide.topOfBookPrice();
-        if (sp == null) {
-            sp = PriceFactory.makeLimitPrice("0.00");
-        }
+		Price bp = buySide.topOfBookPrice();
+		int bv = buySide.topOfBookVolume();
+		Price sp = sellSide.topOfBookPrice();
+		int sv = sellSide.topOfBookVolume();
 		
-        String s = bp.toString() + buySide.topOfBookVolume() + sp.toString() + sellSide.topOfBookVolume();;
-        
-		//Sets temporary string variable
-		//String s = buySide.topOfBookPrice().toString() + buySide.topOfBookVolume() +
-		//			sellSide.topOfBookPrice().toString() + sellSide.topOfBookVolume();
+		long bpValue = marketDataKey(bp);
+		long spValue = marketDataKey(sp);
 		
-		//Checks to see if the last current market value is the same as the
-		//temporary string. If not, creates a new MarketDataDTO and publishes a 
-		//current market Message, then sets the marketDataValue String to 
-		//the temporary string
-		if(!marketDataValue.equals(s)){
-			MarketDataDTO marketDataDTO = new MarketDataDTO(product, buySide.topOfBookPrice(),
-															buySide.topOfBookVolume(), sellSide.topOfBookPrice(),
-															sellSide.topOfBookVolume());
+		//Checks to see if the top of book has changed since the last current
+		//market message. If it has, creates a new MarketDataDTO, publishes a
+		//current market message and remembers the values published
+		if(lastMarketData == null || bpValue != lastBuyPrice || bv != lastBuyVolume ||
+				spValue != lastSellPrice || sv != lastSellVolume){
+			MarketDataDTO marketDataDTO = new MarketDataDTO(product, bp, bv, sp, sv);
 			CurrentMarketPublisher.getInstance().publishCurrentMarket(marketDataDTO);
-			marketDataValue = s;
+			lastMarketData = marketDataDTO;
+			lastBuyPrice = bpValue;
+			lastBuyVolume = bv;
+			lastSellPrice = spValue;
+			lastSellVolume = sv;
+		}
+	}
+	
+	//Returns the value compared for a top of book price: an empty side is
+	//published as $0.00, and MKT gets a value no limit price can have
+	private static long marketDataKey(Price p){
+		if(p == null){
+			return 0;
+		}
+		if(p.isMarket()){
+			return Long.MIN_VALUE;
 		}
+		return p.getValue();
 	}
 	
-	//Takes a hashMap of FillMessages passed in and determines from the 
+	//Takes the FillBuffer passed in and determines from the 
 	//information it contains what the Last Sale price is
-	private synchronized Price determineLastSalePrice(HashMap<String, FillMessage> fills){
-		ArrayList<FillMessage> msgs = new ArrayList<>(fills.values());
-		Collections.sort(msgs);
-		return msgs.get(0).getPrice();
+	private synchronized Price determineLastSalePrice(FillBuffer fills){
+		return fills.getPrice(fills.lowestPriceSlot());
 	}
 	
-	//Takes a hashMap of FillMessages passed in and determines from the
+	//Takes the FillBuffer passed in and determines from the
 	//information it contains what the Last Sale quantity is
-	private synchronized int determineLastSaleQuantity(HashMap<String, FillMessage> fills){
-		ArrayList<FillMessage> msgs = new ArrayList<>(fills.values());
-		Collections.sort(msgs);
-		return msgs.get(0).getVolume();
+	private synchronized int determineLastSaleQuantity(FillBuffer fills){
+		return fills.getVolume(fills.lowestPriceSlot());
+	}
+	
+	//Writes the fills from a trade to the journal, if there is one. The
+	//journal is written under the book's lock, so records for a product are
+	//always in the order the book processed them.
+	private void journalFills(FillBuffer fills){
+		Journal journal = ProductService.getInstance().getJournal();
+		if(journal == null || fills == null){
+			return;
+		}
+		for(int i = 0; i < fills.size(); i++){
+			journal.appendFill(fills.getTradable(i), fills.getTicks(i), fills.getVolume(i), fills.getLeaving(i));
+		}
 	}
 	
 	//Deals with the addition of Tradables to the Buy/Sell ProductSideBook
@@ -325,8 +652,8 @@ public class ProductBook {
 				return;
 			}
 		}
-		//temporary HashMap to collect potential Fill Messages
-		HashMap<String, FillMessage> allFills = null;
+		//the side's FillBuffer, holding the fills from this trade
+		FillBuffer allFills = null;
 		
 		//Tries the trade
 		if(side.equals("BUY")){
@@ -335,25 +662,29 @@ public class ProductBook {
 		if(side.equals("SELL")){
 			allFills = buySide.tryTrade(trd);
 		}
+		journalFills(allFills);
 		
 		/*
-		 * If the allFills Hashmap is not null or empty, update the market
+		 * If the allFills buffer is not null or empty, update the market
 		 * and publish a message with the last sale and remaining volume
 		 */
-		if(!allFills.isEmpty() && !(allFills == null)){
+		if(allFills != null && !allFills.isEmpty()){
 			updateCurrentMarket();
 			int dif = trd.getOriginalVolume() - trd.getRemainingVolume();
 			Price lastSalePrice = determineLastSalePrice(allFills);
-			LastSalePublisher.getInstance().publishLastSale(side, lastSalePrice, dif);
+			LastSalePublisher.getInstance().publishLastSale(product, lastSalePrice, dif);
 		}
 		
 		//If the Tradable's volume is greater than zero...
 		if(trd.getRemainingVolume() > 0){
 			//Check to see if the tradable is a MKT price. If so, Cancel it, because it will be traded automatically. 
 			if(trd.getPrice().isMarket()){
-				MessagePublisher.getInstance().publishCancel(new CancelMessage(trd.getUser(), trd.getProduct(),
-															 					trd.getPrice(), trd.getRemainingVolume(),
-															 					"Cancelled", trd.getSide(), trd.getId()));
+				MetricsRegistry.getInstance().increment("cancels", product);
+				if(MessagePublisher.getInstance().hasSubscribers(product)){
+					MessagePublisher.getInstance().publishCancel(new CancelMessage(trd.getUser(), trd.getProduct(),
+																 					trd.getPrice(), trd.getRemainingVolume(),
+																 					"Cancelled", trd.getSide(), trd.getId()));
+				}
 			}
 			else{
 				if(side.equals("BUY")){
@@ -1,14 +1,19 @@
 package book;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
 
 import exceptions.InvalidVolumeOperation;
 import exceptions.OrderNotFoundException;
+import ids.IdMap;
 import messages.CancelMessage;
-import messages.FillMessage;
+import metrics.MetricsRegistry;
 import pricePackage.Price;
+import pricePackage.PriceTicks;
+import publishers.DepthUpdate;
 import publishers.MessagePublisher;
 import tradablePackage.Order;
 import tradablePackage.Tradable;
@@ -19,8 +24,19 @@ import tradablePackage.TradableDTO;
 public class ProductBookSide {
 	
 	private String side;
-	private HashMap<Price, ArrayList<Tradable>> bookEntries = 
-													new HashMap<>();
+	private PriceLevelComparator levelOrder;
+	private TreeMap<Price, PriceLevel> bookEntries;
+	private PriceLevel topLevel;
+	private IdMap<BookEntry> entriesById = new IdMap<>();
+	//Indexed by user id: each user's resting QuoteSide, and the head of the
+	//user's list of resting entries, linked through the entries
+	private BookEntry[] quotesByUser = new BookEntry[16];
+	private BookEntry[] entriesByUser = new BookEntry[16];
+	private FillBuffer fillBuffer = new FillBuffer();
+	//Counts every change to the levels of this side, so cached depth can tell it is stale
+	private long version;
+	//Levels whose volume has changed since the depth feed last looked
+	private ArrayList<PriceLevel> changedLevels = new ArrayList<>();
 	private TradeProcessor tradeProcessor;
 	private ProductBook productBook;
 	
@@ -28,6 +44,37 @@ public class ProductBookSide {
 		this.setProductBook(pb);
 		this.setSide(s);
 		this.setTradeProcessor();
+		levelOrder = new PriceLevelComparator(side);
+		bookEntries = new TreeMap<>(levelOrder);
+	}
+	
+	/*
+	 * Orders the price levels of this side best-first: MKT ahead of
+	 * any limit price, then highest first for BUY and lowest first
+	 * for SELL. Iterating bookEntries therefore walks the book from
+	 * the top down without any sorting. Prices are compared as ticks.
+	 */
+	private static class PriceLevelComparator implements Comparator<Price> {
+		
+		private boolean buySide;
+		
+		PriceLevelComparator(String side){
+			buySide = side.equals("BUY");
+		}
+		
+		public int compare(Price p1, Price p2){
+			return compareTicks(PriceTicks.toTicks(p1), PriceTicks.toTicks(p2));
+		}
+		
+		int compareTicks(long t1, long t2){
+			if(PriceTicks.isMarket(t1) || PriceTicks.isMarket(t2)){
+				if(t1 == t2){
+					return 0;
+				}
+				return PriceTicks.isMarket(t1) ? -1 : 1;
+			}
+			return buySide ? PriceTicks.compare(t2, t1) : PriceTicks.compare(t1, t2);
+		}
 	}
 	
 	// set methods
@@ -53,15 +100,14 @@ public class ProductBookSide {
 	}
 	
 	// ProductBookSide Query Methods
-	public synchronized ArrayList<TradableDTO> getOrdersWithRemaining(String userName){
+	public synchronized ArrayList<TradableDTO> getOrdersWithRemaining(int userId){
 		
 		ArrayList<TradableDTO> tradableDTOList =  new ArrayList<>();
 		
-		for(Price price : bookEntries.keySet()){
-			ArrayList<Tradable> orders = bookEntries.get(price);
-			
-			for(Tradable order: orders){
-				if(order.getUser().equals(userName) && order.getRemainingVolume() > 0){
+		for(PriceLevel level : bookEntries.values()){
+			for(BookEntry e = level.getFirst(); e != null; e = e.getNext()){
+				Tradable order = e.getTradable();
+				if(order.getUserId() == userId && order.getRemainingVolume() > 0){
 					TradableDTO orderInfo = new TradableDTO(order.getProduct(), order.getPrice(),
 															order.getOriginalVolume(), order.getRemainingVolume(),
 															order.getCancelledVolume(), order.getUser(),
@@ -73,107 +119,77 @@ public class ProductBookSide {
 		return tradableDTOList;
 	}
 	
-	synchronized ArrayList<Tradable> getEntriesAtTopOfBook(){
-		
-		if(bookEntries == null){
-			return null;
-		}
-		
-		ArrayList<Price> sorted = new ArrayList<>(bookEntries.keySet());
-		Collections.sort(sorted);
-		if(side.equals("BUY")){
-			Collections.reverse(sorted);
+	//Adds a copy of every resting entry to the list, best price first and
+	//oldest first within a price, for a snapshot
+	synchronized void copyEntries(ArrayList<TradableDTO> out){
+		for(PriceLevel level : bookEntries.values()){
+			for(BookEntry e = level.getFirst(); e != null; e = e.getNext()){
+				Tradable t = e.getTradable();
+				out.add(new TradableDTO(t.getProduct(), t.getPrice(), t.getOriginalVolume(), t.getRemainingVolume(),
+										t.getCancelledVolume(), t.getUser(), t.getSide(), t.isQuote(), t.getId()));
+			}
 		}
-		return bookEntries.get(sorted.get(0));
-		
 	}
 	
-	public synchronized String[] getBookDepth(){
-		
-		if(bookEntries.isEmpty()){
-			String[] emptyBook = new String[1];
-			emptyBook[0] = "<Empty>";
-			return emptyBook;
-		}
-		
-		String[] totalPriceVolume = new String[bookEntries.size()];
+	synchronized PriceLevel getEntriesAtTopOfBook(){
 		
-		ArrayList<Price> sorted = new ArrayList<>(bookEntries.keySet());
-		Collections.sort(sorted);
-		if(side.equals("BUY")){
-			Collections.reverse(sorted);
-		}
-
-		int sumVolume = 0;
+		return topLevel;
+	}
+	
+	synchronized long getVersion(){
+		return version;
+	}
+	
+	synchronized int getLevelCount(){
+		return bookEntries.size();
+	}
+	
+	/*
+	 * Copies the price and total volume of each level, best price first,
+	 * into the arrays, which must have room for getLevelCount() levels.
+	 * The totals are kept by the levels, so no entries are visited.
+	 */
+	synchronized void copyDepth(long[] prices, int[] volumes){
 		int i = 0;
-		
-		for(Price price : sorted){
-			ArrayList<Tradable> TradableList = bookEntries.get(price);
-			for(Tradable tradable : TradableList){
-				sumVolume += tradable.getRemainingVolume();
-			}
-			String priceDepth = price + " x " + sumVolume;
-			totalPriceVolume[i] = priceDepth;
+		for(PriceLevel level : bookEntries.values()){
+			prices[i] = level.getTicks();
+			volumes[i] = level.getVolume();
 			i++;
-			sumVolume = 0; //RESET 
 		}
-		return totalPriceVolume;
 	}
 	
-	synchronized ArrayList<Tradable> getEntriesAtPrice(Price price){
-		if(!bookEntries.containsKey(price)){
-			return null;
-		}
+	synchronized PriceLevel getEntriesAtPrice(Price price){
 		return bookEntries.get(price);
 	}
 	
-	public synchronized boolean hasMarketPrice(){ // POTENTIAL HUGE ERROR DUE TO MKT
-		if(bookEntries.containsKey("MKT")){
+	//MKT prices always sort to the top of the side, so only the best level needs checking
+	public synchronized boolean hasMarketPrice(){
+		if(topLevel != null && topLevel.getPrice().isMarket()){
 			return true;
 		}
 		return false;
 	}
 	
 	public synchronized boolean hasOnlyMarketPrice(){
-		if(bookEntries.size() == 1 && bookEntries.containsKey("MKT")){ //POTENTIAL HUGE ERROR DUE TO MKT
+		if(bookEntries.size() == 1 && hasMarketPrice()){
 			return true;
 		}
 		return false;
 	}
 	
 	public synchronized Price topOfBookPrice(){
-		if(bookEntries.isEmpty()){
+		if(topLevel == null){
 			return null;
 		}
-		
-		ArrayList<Price> sorted = new ArrayList<>(bookEntries.keySet());
-		Collections.sort(sorted);
-		if(side.equals("BUY")){
-			Collections.reverse(sorted);
-		}
-		return sorted.get(0);
-		
+		return topLevel.getPrice();
 	}
 	
 	public synchronized int topOfBookVolume(){
-		if(bookEntries.isEmpty()){
+		if(topLevel == null){
 			return 0;
 		}
 		
-		ArrayList<Price> sorted = new ArrayList<>(bookEntries.keySet());
-		Collections.sort(sorted);
-		if(side.equals("BUY")){
-			Collections.reverse(sorted);
-		}
-		
-		int sumVolume = 0;
-		Price p = sorted.get(0);
-		
-		ArrayList<Tradable> TradableList = bookEntries.get(p);
-		for(Tradable tradable : TradableList){
-			sumVolume += tradable.getRemainingVolume();
-		}
-		return sumVolume;
+		return topLevel.getVolume();
 	}
 	
 	public synchronized boolean isEmpty(){
@@ -184,75 +200,135 @@ public class ProductBookSide {
 	}
 	
 	//ProductBookSideManipulationMethods
-	public synchronized void cancelAll() throws InvalidVolumeOperation,
-												OrderNotFoundException{
-		for(Price price : bookEntries.keySet()){
-			for(Tradable tradable : bookEntries.get(price)){
-				if(tradable.isQuote()){
-					submitQuoteCancel(tradable.getUser());
-				}
-				submitOrderCancel(tradable.getId()); // POSSIBLE ERROR AS OF WRONG
-													 //	VALUE BEING PASSED IN
+	
+	/*
+	 * Cancels everything resting on this side. Each entry is visited once
+	 * and the indexes are then cleared wholesale, rather than unlinking the
+	 * entries one by one. Cancel messages are added to out, unless it is
+	 * null, for the caller to publish together.
+	 */
+	public synchronized void cancelAll(ArrayList<CancelMessage> out) throws InvalidVolumeOperation{
+		for(PriceLevel level : bookEntries.values()){
+			for(BookEntry e = level.getFirst(); e != null; e = e.getNext()){
+				cancelled(e.getTradable(), out);
 			}
+			level.clear();
+			levelChanged(level);
+		}
+		bookEntries.clear();
+		version++;
+		entriesById.clear();
+		Arrays.fill(quotesByUser, null);
+		Arrays.fill(entriesByUser, null);
+		topLevel = null;
+	}
+	
+	/*
+	 * Cancels everything the user has resting on this side, by walking the
+	 * user's own list of entries, so the cost is proportional to the number
+	 * cancelled. Cancel messages are added to out as for cancelAll.
+	 */
+	public synchronized void cancelUser(int userId, ArrayList<CancelMessage> out) throws InvalidVolumeOperation{
+		BookEntry e = entryFor(entriesByUser, userId);
+		while(e != null){
+			BookEntry next = e.userNext;
+			Tradable t = e.getTradable();
+			removeEntry(e);
+			cancelled(t, out);
+			e = next;
+		}
+	}
+	
+	//Records a Tradable taken off this side by a mass cancel
+	private void cancelled(Tradable t, ArrayList<CancelMessage> out) throws InvalidVolumeOperation{
+		MetricsRegistry.getInstance().increment("cancels", t.getProduct());
+		if(out != null){
+			out.add(cancelMessage(t));
+		}
+		if(!t.isQuote()){
+			addOldEntry(t);
 		}
 	}
 	
-	public synchronized TradableDTO removeQuote(String user){
-		TradableDTO tradableDTO = null;
+	//Builds the cancel message for a Tradable, before its volume is moved to cancelled
+	private CancelMessage cancelMessage(Tradable t){
+		String details = t.isQuote() ? "Quote " + side + "-Side Cancelled" : "Order " + t.getId() + "Cancelled";
+		return new CancelMessage(t.getUser(), t.getProduct(), t.getPrice(), t.getRemainingVolume(),
+								 details, t.getSide(), t.getId());
+	}
+	
+	public synchronized TradableDTO removeQuote(int userId){
+		BookEntry entry = entryFor(quotesByUser, userId);
 		
-		for(Price price : bookEntries.keySet()){
-			for(Tradable tradable : bookEntries.get(price)){
-				if(tradable.getUser().equals(user)){
-					tradableDTO = new TradableDTO(tradable.getProduct(),tradable.getPrice(),
-																tradable.getOriginalVolume(),tradable.getRemainingVolume(),
-																tradable.getCancelledVolume(), tradable.getUser(), tradable.getSide(),
-																tradable.isQuote(),tradable.getId());
-					bookEntries.get(price).remove(tradable);
-					if(bookEntries.get(price).isEmpty()){
-						bookEntries.remove(price);
-					}
-					return tradableDTO;
-				}
-			}
+		if(entry == null){
+			return null;
 		}
+		
+		Tradable tradable = entry.getTradable();
+		TradableDTO tradableDTO = new TradableDTO(tradable.getProduct(),tradable.getPrice(),
+												  tradable.getOriginalVolume(),tradable.getRemainingVolume(),
+												  tradable.getCancelledVolume(), tradable.getUser(), tradable.getSide(),
+												  tradable.isQuote(),tradable.getId());
+		removeEntry(entry);
 		return tradableDTO;
 	}
 	
-	public synchronized void submitOrderCancel(String orderId) throws InvalidVolumeOperation,
-																	  OrderNotFoundException{
-		boolean flag = false;
+	/*
+	 * Swaps the user's resting QuoteSide for the new one without taking it
+	 * off the book, provided the price is unchanged and the volume is not
+	 * increasing, so the quote keeps its place in the price level. Returns
+	 * false if the new side has to go through the normal remove and re-add.
+	 */
+	public synchronized boolean updateQuote(Tradable newSide){
+		BookEntry entry = entryFor(quotesByUser, newSide.getUserId());
 		
-		for(Price price : bookEntries.keySet()){
-			for(Tradable tradable : bookEntries.get(price)){
-				if(tradable.getId().equals(orderId)){
-					flag = true;
-					bookEntries.get(price).remove(tradable);
-					
-					CancelMessage cancelMessage = new CancelMessage(tradable.getUser(), tradable.getProduct(),
-																	tradable.getPrice(), tradable.getRemainingVolume(),
-																	"Order " + orderId + "Cancelled", tradable.getSide(),
-																	tradable.getId());
-					MessagePublisher.getInstance().publishCancel(cancelMessage);
-					
-					addOldEntry(tradable);
-					
-					if(bookEntries.get(price).isEmpty()){
-						bookEntries.remove(price);
-					}
-					return;
-				}
-			}
+		if(entry == null){
+			return false;
+		}
+		Tradable oldSide = entry.getTradable();
+		if(entry.getLevel().getTicks() != PriceTicks.toTicks(newSide.getPrice())){
+			return false;
+		}
+		if(newSide.getRemainingVolume() > oldSide.getRemainingVolume()){
+			return false;
 		}
-		if(flag == false){
+		
+		//The entry keeps its links, so its place in the level is untouched
+		entry.setTradable(newSide);
+		updateVolume(entry);
+		entriesById.remove(oldSide.getOrderId());
+		entriesById.put(newSide.getOrderId(), entry);
+		return true;
+	}
+	
+	public synchronized void submitOrderCancel(long orderId) throws InvalidVolumeOperation,
+																	  OrderNotFoundException{
+		//Resting entries are found through the id index rather than by scanning every level
+		BookEntry entry = entriesById.get(orderId);
+		
+		if(entry == null){
 			productBook.checkTooLateToCancel(orderId);
 			return;
 		}
+		
+		Tradable tradable = entry.getTradable();
+		removeEntry(entry);
+		MetricsRegistry.getInstance().increment("cancels", tradable.getProduct());
+		
+		if(MessagePublisher.getInstance().hasSubscribers(tradable.getProduct())){
+			MessagePublisher.getInstance().publishCancel(cancelMessage(tradable));
+		}
+		
+		addOldEntry(tradable);
 	}
 	
-	public synchronized void submitQuoteCancel(String userName){
-		TradableDTO tradableDTO = removeQuote(userName);
+	public synchronized void submitQuoteCancel(int userId){
+		TradableDTO tradableDTO = removeQuote(userId);
+		if(tradableDTO != null){
+			MetricsRegistry.getInstance().increment("cancels", tradableDTO.product);
+		}
 		
-		if(tradableDTO == null){
+		if(tradableDTO == null || !MessagePublisher.getInstance().hasSubscribers(tradableDTO.product)){
 			return;
 		}
 		
@@ -268,91 +344,186 @@ public class ProductBookSide {
 	}
 	
 	public synchronized void addToBook(Tradable trd){
-		if(!bookEntries.containsKey(trd.getPrice())){
-			ArrayList<Tradable> tradableList = new ArrayList<>();
-			bookEntries.put(trd.getPrice(), tradableList);
+		PriceLevel level = bookEntries.get(trd.getPrice());
+		if(level == null){
+			level = new PriceLevel(trd.getPrice());
+			bookEntries.put(trd.getPrice(), level);
+			
+			//A new level only displaces the cached top if it sorts ahead of it
+			if(topLevel == null || levelOrder.compareTicks(level.getTicks(), topLevel.getTicks()) < 0){
+				topLevel = level;
+			}
 		}
-		bookEntries.get(trd.getPrice()).add(trd);
+		BookEntry entry = new BookEntry(trd);
+		level.add(entry);
+		levelChanged(level);
+		version++;
+		entriesById.put(trd.getOrderId(), entry);
+		int userId = trd.getUserId();
+		if(userId >= entriesByUser.length){
+			int length = Math.max(entriesByUser.length * 2, userId + 1);
+			quotesByUser = Arrays.copyOf(quotesByUser, length);
+			entriesByUser = Arrays.copyOf(entriesByUser, length);
+		}
+		if(trd.isQuote()){
+			quotesByUser[userId] = entry;
+		}
+		BookEntry head = entriesByUser[userId];
+		if(head != null){
+			head.userPrev = entry;
+			entry.userNext = head;
+		}
+		entriesByUser[userId] = entry;
+	}
+	
+	//Returns the user's entry from one of the arrays indexed by user id, or null
+	private static BookEntry entryFor(BookEntry[] byUser, int userId){
+		return userId >= 0 && userId < byUser.length ? byUser[userId] : null;
 	}
 	
-	public HashMap<String, FillMessage> tryTrade(Tradable trd) throws InvalidVolumeOperation{
-		HashMap<String, FillMessage> allFills = new HashMap<>();
+	/*
+	 * Trades the Tradable against this side until it is filled or no
+	 * longer crosses. The fills are left in this side's FillBuffer, which
+	 * is reused by the next trade, and FillMessages are only built if
+	 * someone is subscribed to messages for the product.
+	 */
+	public FillBuffer tryTrade(Tradable trd) throws InvalidVolumeOperation{
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		long start = System.nanoTime();
+		FillBuffer allFills = null;
 		if(side.equals("BUY")){
 			allFills = trySellAgainstBuySideTrade(trd);
 		}
 		else if(side.equals("SELL")){
 			allFills = tryBuyAgainstSellSideTrade(trd);
 		}
-		for(String s : allFills.keySet()){
-			MessagePublisher.getInstance().publishFill(allFills.get(s));
-		}
-		return allFills;
-	}
-	
-	public synchronized HashMap<String, FillMessage> trySellAgainstBuySideTrade(Tradable trd) throws InvalidVolumeOperation{
-		HashMap<String, FillMessage> allFills = new HashMap<>();
-		HashMap<String, FillMessage> fillMsgs = new HashMap<>();
+		metrics.recordLatency("stage.match", trd.getProduct(), start);
+		metrics.add("fills", trd.getProduct(), allFills.size());
 		
-		while((trd.getRemainingVolume() > 0 && !(bookEntries.isEmpty()) && trd.getPrice().lessOrEqual(topOfBookPrice())) ||
-				trd.getRemainingVolume() > 0 && !bookEntries.isEmpty() && trd.getPrice().isMarket()){
-			HashMap<String, FillMessage> someMsgs = tradeProcessor.doTrade(trd);
-			fillMsgs = mergeFills(fillMsgs, someMsgs);
+		if(MessagePublisher.getInstance().hasSubscribers(trd.getProduct())){
+			for(int i = 0; i < allFills.size(); i++){
+				MessagePublisher.getInstance().publishFill(allFills.toFillMessage(i));
+			}
 		}
-		allFills.putAll(fillMsgs);
 		return allFills;
 	}
 	
-	private HashMap<String, FillMessage> mergeFills(HashMap<String, FillMessage> existing, HashMap<String,
-			FillMessage> newOnes){
+	public synchronized FillBuffer trySellAgainstBuySideTrade(Tradable trd) throws InvalidVolumeOperation{
+		fillBuffer.clear();
+		long trdTicks = PriceTicks.toTicks(trd.getPrice());
 		
-		if(existing.isEmpty()){
-			return new HashMap<String, FillMessage>(newOnes);
+		while(trd.getRemainingVolume() > 0 && topLevel != null &&
+				(PriceTicks.isMarket(trdTicks) || PriceTicks.lessOrEqual(trdTicks, topLevel.getTicks()))){
+			tradeProcessor.doTrade(trd, fillBuffer);
 		}
-		
-		HashMap<String, FillMessage> results = new HashMap<>(existing);
-		for(String key : newOnes.keySet()){ 			// For each Trade Id key in the newOnes HashMap
-			if(!existing.containsKey(key)){ 			// If the existing HashMap does not have that key
-				results.put(key, newOnes.get(key)); 	// then simply add this entry to the results HashMap
-			} else { 									// Otherwise, the existing HashMap does have that key  we need to update the data
-				FillMessage fm = results.get(key); 		// Get the FillMessage from the results HashMap
-				fm.setVolume(newOnes.get(key).getVolume()); 	// Update the fill volume
-				fm.setDetails(newOnes.get(key).getDetails()); 	// Update the fill details
-			}
-		}
-		return results;
+		return fillBuffer;
 	}
 	
-	public synchronized HashMap<String, FillMessage> tryBuyAgainstSellSideTrade(Tradable trd) throws InvalidVolumeOperation{
-		HashMap<String, FillMessage> allFills = new HashMap<>();
-		HashMap<String, FillMessage> fillMsgs = new HashMap<>();
+	public synchronized FillBuffer tryBuyAgainstSellSideTrade(Tradable trd) throws InvalidVolumeOperation{
+		fillBuffer.clear();
+		long trdTicks = PriceTicks.toTicks(trd.getPrice());
 		
-		while(trd.getRemainingVolume() > 0 && !(bookEntries.isEmpty()) && trd.getPrice().greaterOrEqual(topOfBookPrice()) ||
-				trd.getRemainingVolume() > 0 && !bookEntries.isEmpty() && trd.getPrice().isMarket()){
-			HashMap<String, FillMessage> someMsgs = tradeProcessor.doTrade(trd);
-			fillMsgs = mergeFills(fillMsgs, someMsgs);
+		while(trd.getRemainingVolume() > 0 && topLevel != null &&
+				(PriceTicks.isMarket(trdTicks) || PriceTicks.greaterOrEqual(trdTicks, topLevel.getTicks()))){
+			tradeProcessor.doTrade(trd, fillBuffer);
 		}
-		allFills.putAll(fillMsgs);
-		return allFills;
+		return fillBuffer;
 	}
 	
 	public synchronized void clearIfEmpty(Price p){
-		if(bookEntries.get(p).isEmpty()){
+		PriceLevel level = bookEntries.get(p);
+		if(level != null && level.isEmpty()){
 			bookEntries.remove(p);
+			
+			//Only removing the top level invalidates the cached best price
+			if(level == topLevel){
+				Map.Entry<Price, PriceLevel> top = bookEntries.firstEntry();
+				topLevel = (top == null) ? null : top.getValue();
+			}
 		}
 	}
 	
 	
 	public synchronized void removeTradable(Tradable t){
-		ArrayList<Tradable> entries = bookEntries.get(t.getPrice());
-		if(entries == null){
+		BookEntry entry = entriesById.get(t.getOrderId());
+		if(entry == null || entry.getTradable() != t){
 			return;
 		}
-		boolean b = entries.remove(t);
-		if( b == false){
-			return;
+		removeEntry(entry);
+	}
+	
+	/*
+	 * Every path that takes a Tradable off this side (cancel, quote
+	 * replace, fill) comes through here so the id, quote and user
+	 * indexes stay in step with bookEntries. Unlinking the entry is constant
+	 * time; only an emptied level touches the TreeMap.
+	 */
+	synchronized void removeEntry(BookEntry entry){
+		Tradable t = entry.getTradable();
+		PriceLevel level = entry.getLevel();
+		
+		int userId = t.getUserId();
+		entriesById.remove(t.getOrderId());
+		if(t.isQuote() && quotesByUser[userId] == entry){
+			quotesByUser[userId] = null;
+		}
+		if(entry.userPrev != null){
+			entry.userPrev.userNext = entry.userNext;
 		}
-		if(entries.isEmpty()){
-			clearIfEmpty(t.getPrice());
+		else{
+			entriesByUser[userId] = entry.userNext;
+		}
+		if(entry.userNext != null){
+			entry.userNext.userPrev = entry.userPrev;
+		}
+		entry.userPrev = null;
+		entry.userNext = null;
+		
+		level.remove(entry);
+		levelChanged(level);
+		version++;
+		if(level.isEmpty()){
+			clearIfEmpty(level.getPrice());
+		}
+	}
+	
+	//Called after the remaining volume of a resting Tradable is reduced in place
+	synchronized void updateVolume(BookEntry entry){
+		entry.getLevel().updateVolume(entry);
+		levelChanged(entry.getLevel());
+		version++;
+	}
+	
+	private void levelChanged(PriceLevel level){
+		if(!level.changed){
+			level.changed = true;
+			changedLevels.add(level);
+		}
+	}
+	
+	/*
+	 * Turns the levels changed since the last call into depth updates,
+	 * numbered on from sequence, and returns the last sequence used. A
+	 * level whose volume ends up where it was last published produces no
+	 * update. If out is null nothing is built, but the levels are still
+	 * marked as published, so they stay in step with the book.
+	 */
+	synchronized long collectDepthUpdates(String product, long sequence, ArrayList<DepthUpdate> out){
+		for(int i = 0; i < changedLevels.size(); i++){
+			PriceLevel level = changedLevels.get(i);
+			level.changed = false;
+			int volume = level.getVolume();
+			if(volume == level.publishedVolume){
+				continue;
+			}
+			String action = level.publishedVolume == 0 ? "ADD" : volume == 0 ? "DELETE" : "CHANGE";
+			level.publishedVolume = volume;
+			sequence++;
+			if(out != null){
+				out.add(new DepthUpdate(product, sequence, side, action, level.getTicks(), volume));
+			}
 		}
+		changedLevels.clear();
+		return sequence;
 	}
 }
@@ -1,42 +1,91 @@
 package book;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import exceptions.AlreadySubscribedException;
 import exceptions.DataValidationException;
 import exceptions.InvalidMarketStateException;
 import exceptions.InvalidMarketStateTransition;
 import exceptions.InvalidMessageState;
 import exceptions.InvalidVolumeOperation;
 import exceptions.NoSuchProductException;
+import exceptions.NotSubscribedException;
 import exceptions.OrderNotFoundException;
 import exceptions.ProductAlreadyExistsException;
+import ids.NameRegistry;
+import ids.OrderIds;
+import journal.Journal;
+import journal.JournalHandler;
 import messages.MarketMessage;
 import pricePackage.PriceFactory;
+import publishers.BookDepthDTO;
 import publishers.CurrentMarketPublisher;
+import publishers.LastSalePublisher;
 import publishers.MarketDataDTO;
 import publishers.MessagePublisher;
+import publishers.TickerPublisher;
 import tradablePackage.Order;
 import tradablePackage.Quote;
 import tradablePackage.TradableDTO;
+import user.User;
 
 /*The ProductService is the Facade to the entities that make up the
  * Products and the Product Books. All interaction with the product
  * book and the buy and sell sides of a stock's book will go through
  * this Facade.  
+ * 
+ * The service itself holds no lock while a command is processed. Each
+ * ProductBook is guarded by its own monitor, so order flow for different
+ * products runs in parallel. Order flow passes through the
+ * MarketStateGate, which a market state transition closes and drains,
+ * so a transition never interleaves with a command in flight and every
+ * book opens or closes at the same point in the order flow. Passing the
+ * open gate writes only a per-thread counter, so it is not a point of
+ * contention between products.
+ * 
+ * In sequenced mode (see startSequencedMode) each book is instead owned by
+ * one MatchingShard thread. Order flow is validated on the caller's thread
+ * and queued to the owning shard while inside the gate; a market state
+ * transition first waits for every queued command to be processed, then has
+ * each shard open or close its own books.
+ * 
+ * When a Journal is open, every accepted command is written to it before
+ * it is applied: product creation and market state changes here, and
+ * order flow by each ProductBook under its own lock.
+ * 
+ * Products are known inside the service by their NameRegistry id, and the
+ * books are kept in an array indexed by it. Order ids come in and go out as
+ * Strings and are turned into the books' long ids on the way in.
  */
 
 public class ProductService {
 
-	private String currentMarketState = "CLOSED";
-	private HashMap<String, ProductBook> allBooks = new HashMap<>();
-	private static ProductService ourInstance;
+	private volatile String currentMarketState = "CLOSED";
+	//Indexed by product id. Replaced, never changed, when a product is created.
+	private volatile ProductBook[] allBooks = new ProductBook[0];
+	private MarketStateGate gate = new MarketStateGate();
+	private volatile MatchingShard[] shards;
+	private volatile Journal journal;
+	private SnapshotWriter snapshotWriter;
+	private volatile int historyMaxEntries = ProductBook.DEFAULT_HISTORY_ENTRIES;
+	private volatile long historyMaxAge;
+	private static volatile ProductService ourInstance;
 	
-	//Singleton initialization
-	public static synchronized ProductService getInstance(){
+	//Singleton initialization. The books check the market state on every
+	//command, so only the first call takes the class lock.
+	public static ProductService getInstance(){
 		
 		if(ourInstance == null){
-			ourInstance = new ProductService();
+			synchronized(ProductService.class){
+				if(ourInstance == null){
+					ourInstance = new ProductService();
+				}
+			}
 		}
 		return ourInstance;
 	}
@@ -51,43 +100,143 @@ public class ProductService {
 	 * Returns a list of TradableDTOs containing any orders with remaining
 	 * quantity for the user and stock specified
 	 */
-	public synchronized ArrayList<TradableDTO> getOrdersWithRemainingQty(String userName, String product){
-		return allBooks.get(product).getOrdersWithRemainingQty(userName);
+	public ArrayList<TradableDTO> getOrdersWithRemainingQty(String userName, String product){
+		return getBook(product).getOrdersWithRemainingQty(userName);
 	}
 	
 	/*
 	 *Returns a list of MarketDataDTOs containing the best buy price/volume
 	 *and sell price/volume for the specified stock product 
 	 */
-	public synchronized MarketDataDTO getMarketData(String product){
-		return allBooks.get(product).getMarketData();
+	public MarketDataDTO getMarketData(String product){
+		return getBook(product).getMarketData();
 	}
 	
 	/*
 	 * Returns the current product state
 	 */
-	public synchronized String getMarketState(){
+	public String getMarketState(){
 		return currentMarketState;
 	}
 	
 	/*
 	 * Checks that the product is a real stock symbol. If not, throws a
-	 * NoSuchProductException. Otherwise, get the ProductBook from the
-	 * allBooks HashMap using the String stock symbol passed in as the
-	 * key.
+	 * NoSuchProductException. Otherwise, get the ProductBook from
+	 * allBooks using the id of the String stock symbol passed in.
+	 */
+	public BookDepthDTO getBookDepth(String product) throws NoSuchProductException {
+		ProductBook book = getBook(product);
+		if(book == null){
+			throw new NoSuchProductException(product + " does not exist");
+		}
+		return book.getBookDepth();
+	}
+	
+	/*
+	 * Subscribes the user to the depth of the product's book. The user is
+	 * sent a snapshot of the book and then every change to it.
 	 */
-	public synchronized String[][] getBookDepth(String product) throws NoSuchProductException {
-		if(!allBooks.containsKey(product)){
+	public void subscribeDepth(User u, String product) throws NoSuchProductException, AlreadySubscribedException {
+		ProductBook book = getBook(product);
+		if(book == null){
 			throw new NoSuchProductException(product + " does not exist");
 		}
-		return allBooks.get(product).getBookDepth();
+		book.subscribeDepth(u);
+	}
+	
+	/*
+	 * Resends market data a subscriber has missed, from fromSequence on, for
+	 * one of the streams:
+	 * 
+	 * CURRENT_MARKET, TICKER, MARKET_MESSAGE - the latest value is resent
+	 * LAST_SALE, MESSAGES - the missed events are resent from the publisher's
+	 *                       replay buffer, or for LAST_SALE just the latest
+	 *                       if they are no longer all kept
+	 * DEPTH - a new snapshot of the book is sent
+	 * 
+	 * Returns false if some missed events could not be resent. Only the
+	 * product asked for is recovered; the user's other streams are untouched.
+	 */
+	public boolean requestReplay(User u, String stream, String product, long fromSequence) throws NoSuchProductException,
+																								  NotSubscribedException,
+																								  DataValidationException{
+		if(stream.equals("MARKET_MESSAGE")){
+			MessagePublisher.getInstance().replayMarketMessage(u);
+			return true;
+		}
+		ProductBook book = getBook(product);
+		if(book == null){
+			throw new NoSuchProductException(product + " does not exist");
+		}
+		switch(stream){
+			case "CURRENT_MARKET":
+				CurrentMarketPublisher.getInstance().replay(u, product);
+				return true;
+			case "TICKER":
+				TickerPublisher.getInstance().replay(u, product);
+				return true;
+			case "LAST_SALE":
+				return LastSalePublisher.getInstance().replay(u, product, fromSequence);
+			case "MESSAGES":
+				return MessagePublisher.getInstance().replay(u, product, fromSequence);
+			case "DEPTH":
+				book.resendDepth(u);
+				return true;
+			default:
+				throw new DataValidationException("Unknown market data stream: " + stream);
+		}
+	}
+	
+	/*
+	 * Returns an ArrayList containing every product, in the order they were created
+	 */
+	public ArrayList<String> getProductList(){
+		ArrayList<String> products = new ArrayList<>();
+		for(ProductBook book : getBooks()){
+			products.add(book.getProduct());
+		}
+		return products;
+	}
+	
+	//Returns the product's book, or null if there is no such product
+	private ProductBook getBook(String product){
+		return getBook(NameRegistry.getProducts().lookup(product));
+	}
+	
+	private ProductBook getBook(int productId){
+		ProductBook[] books = allBooks;
+		return productId >= 0 && productId < books.length ? books[productId] : null;
+	}
+	
+	//Returns every book, in the order their products were created
+	private ArrayList<ProductBook> getBooks(){
+		ArrayList<ProductBook> books = new ArrayList<>();
+		for(ProductBook book : allBooks){
+			if(book != null){
+				books.add(book);
+			}
+		}
+		return books;
 	}
 	
 	/*
-	 * Returns an ArrayList containing all the keys in allBooks
+	 * Adds the book unless its product already has one. Returns false if it
+	 * did. A new product is journaled before its book is published, so no
+	 * command for it can reach the journal ahead of the product itself.
 	 */
-	public synchronized ArrayList<String> getProductList(){
-		return new ArrayList<String>(allBooks.keySet());
+	private synchronized boolean addBook(ProductBook book, boolean journalProduct){
+		int id = book.getProductId();
+		if(getBook(id) != null){
+			return false;
+		}
+		Journal j = journal;
+		if(journalProduct && j != null){
+			j.appendProduct(book.getProduct());
+		}
+		ProductBook[] books = Arrays.copyOf(allBooks, Math.max(allBooks.length, id + 1));
+		books[id] = book;
+		allBooks = books;
+		return true;
 	}
 	
 	//Market And Product Service Manipulation Methods
@@ -96,11 +245,33 @@ public class ProductService {
 	 * Updates the market state to the new value passed in. Must
 	 * go from CLOSED -> PREOPEN -> OPEN
 	 */
-	public synchronized void setMarketState(String ms) throws InvalidMarketStateTransition, 
-															  InvalidMessageState,
-															  InvalidVolumeOperation,
-															  OrderNotFoundException {
-		
+	public void setMarketState(String ms) throws InvalidMarketStateTransition, 
+												 InvalidMessageState,
+												 InvalidVolumeOperation,
+												 OrderNotFoundException {
+		gate.close();
+		try{
+			MatchingShard[] s = shards;
+			if(s != null){
+				for(MatchingShard shard : s){
+					shard.submit("SYNC", null, null, null, OrderIds.NONE, null, null).awaitFailure();
+				}
+			}
+			changeMarketState(ms);
+		}
+		finally{
+			gate.open();
+		}
+	}
+	
+	/*
+	 * Performs the market state transition. Called with the gate closed,
+	 * so no order flow is in progress on any book while this runs.
+	 */
+	private void changeMarketState(String ms) throws InvalidMarketStateTransition, 
+													 InvalidMessageState,
+													 InvalidVolumeOperation,
+													 OrderNotFoundException {
 		
 		// If the market does not follow the required protocol, throw and exception
 		if((currentMarketState.equals("CLOSED") && !ms.equals("PREOPEN")) &&
@@ -114,110 +285,840 @@ public class ProductService {
 			throw new InvalidMarketStateTransition("Cannot go from OPEN to " + ms + ". OPEN must proceed to CLOSED");
 		}
 		
+		if(journal != null){
+			journal.appendMarketState(ms);
+		}
+		
 		//Sets current market state to the the value passed in, then publishes a market message
 		currentMarketState = ms;
 		MessagePublisher.getInstance().publishMarketMessage(new MarketMessage(currentMarketState));
 		
 		//If market state is open, opens all books
 		if(currentMarketState.equals("OPEN")){
-			for(String product : allBooks.keySet()){
-				allBooks.get(product).openMarket();
+			if(shards != null){
+				runOnAllBooks("OPEN");
+				return;
+			}
+			for(ProductBook book : getBooks()){
+				book.openMarket();
 			}
 		}
 		
 		//If market state is closed, then closes all books
 		if(currentMarketState.equals("CLOSED")){
-			for(String product : allBooks.keySet()){
-				allBooks.get(product).closeMarket();
+			if(shards != null){
+				runOnAllBooks("CLOSE");
+				return;
+			}
+			for(ProductBook book : getBooks()){
+				book.closeMarket();
 			}
 		}
 	}
 	
+	/*
+	 * Sequenced mode: queues the command to every book's shard so the shards
+	 * open or close their books in parallel, then waits for all of them
+	 */
+	private void runOnAllBooks(String type) throws InvalidVolumeOperation, OrderNotFoundException{
+		ArrayList<CommandResult> results = new ArrayList<>();
+		for(ProductBook book : getBooks()){
+			results.add(dispatch(type, book, null, null, OrderIds.NONE, null, null));
+		}
+		
+		Exception failure = null;
+		for(CommandResult result : results){
+			Exception e = result.awaitFailure();
+			if(failure == null){
+				failure = e;
+			}
+		}
+		if(failure instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) failure;
+		}
+		if(failure instanceof OrderNotFoundException){
+			throw (OrderNotFoundException) failure;
+		}
+		rethrowUnchecked(failure);
+	}
+	
 	/*
 	 * Creates a new stock product that can be used for trading
 	 */
-	public synchronized void createProduct(String product) throws DataValidationException, ProductAlreadyExistsException {
+	public void createProduct(String product) throws DataValidationException, ProductAlreadyExistsException {
 		//Checks if passed in value contains anything
 		if(product == null || product.isEmpty()){
 			throw new DataValidationException("String entered is either null or empty");
 		}
-		//Checks if allBooks already has the product
-		else if(allBooks.containsKey(product)){
+		//Creates the new product unless allBooks already has it
+		if(!addBook(newBook(product), true)){
 			throw new ProductAlreadyExistsException(product + " already exists.");
 		}
-		//If not, creates new product
-		else{
-			allBooks.put(product, new ProductBook(product));
+	}
+	
+	/*
+	 * Limits how many completed orders and quote sides each book remembers
+	 * for "Too Late to Cancel" replies, and for how long (0 keeps them
+	 * regardless of age). Applies to existing and future books.
+	 */
+	public void setHistoryRetention(int maxEntries, long maxAgeMillis) throws DataValidationException{
+		if(maxEntries < 1 || maxAgeMillis < 0){
+			throw new DataValidationException("Invalid history retention: " + maxEntries + " entries, " + maxAgeMillis + " ms");
+		}
+		historyMaxEntries = maxEntries;
+		historyMaxAge = maxAgeMillis;
+		for(ProductBook book : getBooks()){
+			book.setHistoryRetention(maxEntries, maxAgeMillis);
+		}
+	}
+	
+	private ProductBook newBook(String product){
+		ProductBook book = new ProductBook(product);
+		book.setHistoryRetention(historyMaxEntries, historyMaxAge);
+		return book;
+	}
+	
+	/*
+	 * Switches the service into sequenced mode. Each product is owned by one
+	 * of shardCount matching shards, and from then on all order flow for the
+	 * product is queued to its shard's ring buffer and processed by that
+	 * shard's thread alone. ringSize must be a power of two.
+	 */
+	public void startSequencedMode(int shardCount, int ringSize) throws DataValidationException {
+		if(shardCount < 1){
+			throw new DataValidationException("Shard count must be at least 1: " + shardCount);
+		}
+		if(ringSize < 1 || Integer.bitCount(ringSize) != 1){
+			throw new DataValidationException("Ring size must be a power of two: " + ringSize);
+		}
+		gate.close();
+		try{
+			if(shards != null){
+				throw new DataValidationException("Sequenced mode has already been started");
+			}
+			MatchingShard[] newShards = new MatchingShard[shardCount];
+			for(int i = 0; i < shardCount; i++){
+				newShards[i] = new MatchingShard("MatchingShard-" + i, ringSize);
+				newShards[i].start();
+			}
+			shards = newShards;
+		}
+		finally{
+			gate.open();
+		}
+	}
+	
+	/*
+	 * Leaves sequenced mode. Order flow is held at the gate while every
+	 * command already queued is processed, then the shard threads are
+	 * stopped and the books are run on the callers' threads again, as they
+	 * were before startSequencedMode. Must not be called from a command
+	 * callback, which runs on a shard thread.
+	 */
+	public void stopSequencedMode() throws DataValidationException {
+		gate.close();
+		try{
+			MatchingShard[] s = shards;
+			if(s == null){
+				throw new DataValidationException("Sequenced mode has not been started");
+			}
+			for(MatchingShard shard : s){
+				shard.submit("SYNC", null, null, null, OrderIds.NONE, null, null).awaitFailure();
+			}
+			shards = null;
+			for(MatchingShard shard : s){
+				shard.shutdown();
+			}
+		}
+		finally{
+			gate.open();
+		}
+	}
+	
+	public boolean isSequencedMode(){
+		return shards != null;
+	}
+	
+	//Journal Methods
+	
+	/*
+	 * Opens the journal at path and rebuilds every product and book by
+	 * replaying the commands already in it, then journals everything from
+	 * here on. Must be called at startup, before any product is created.
+	 * syncPolicy is NONE, EVERY_WRITE or GROUP (see Journal).
+	 */
+	public void openJournal(String path, String syncPolicy, long groupCommitMillis) throws IOException,
+																						   DataValidationException{
+		openJournal(path, null, syncPolicy, groupCommitMillis);
+	}
+	
+	/*
+	 * As above, but first loads the snapshot file at snapshotPath, if there
+	 * is one, and then replays only the journal written after it
+	 */
+	public synchronized void openJournal(String path, String snapshotPath, String syncPolicy,
+										 long groupCommitMillis) throws IOException, DataValidationException{
+		if(journal != null){
+			throw new DataValidationException("A journal is already open");
+		}
+		if(!getBooks().isEmpty()){
+			throw new DataValidationException("The journal must be opened before any product is created");
+		}
+		
+		JournalReplayer replayer = new JournalReplayer();
+		long replayFrom = 0;
+		Snapshot snapshot = snapshotPath == null ? null : SnapshotWriter.readSnapshot(snapshotPath);
+		if(snapshot != null){
+			replayFrom = restoreSnapshot(snapshot, replayer);
+		}
+		
+		journal = Journal.open(path, syncPolicy, groupCommitMillis, replayFrom, replayer);
+		if(replayer.records > 0){
+			System.out.println("Replayed " + replayer.records + " journal commands, " + replayer.rejected + " rejected");
+		}
+	}
+	
+	public synchronized void closeJournal() throws IOException{
+		stopSnapshots();
+		if(journal != null){
+			journal.close();
+			journal = null;
+		}
+	}
+	
+	/*
+	 * Rebuilds the books held in the snapshot and tells the replayer where
+	 * each book's journal tail starts. Returns the offset to replay from.
+	 */
+	private long restoreSnapshot(Snapshot snapshot, JournalReplayer replayer) throws DataValidationException{
+		long replayFrom = snapshot.stateOffset;
+		currentMarketState = snapshot.marketState;
+		replayer.stateOffset = snapshot.stateOffset;
+		
+		for(BookSnapshot s : snapshot.books){
+			ProductBook book = newBook(s.product);
+			try{
+				book.restore(s);
+			}
+			catch(InvalidVolumeOperation e){
+				throw new DataValidationException("Snapshot of " + s.product + " is invalid: " + e.getMessage());
+			}
+			addBook(book, false);
+			replayer.setBookOffset(book.getProductId(), s.journalOffset);
+			replayFrom = Math.min(replayFrom, s.journalOffset);
+		}
+		return replayFrom;
+	}
+	
+	//Snapshot Methods
+	
+	/*
+	 * Starts writing snapshots to path every intervalMillis, or whenever the
+	 * journal has grown by journalBytes, whichever comes first (0 turns a
+	 * trigger off). Requires an open journal.
+	 */
+	public synchronized void startSnapshots(String path, long intervalMillis, long journalBytes) throws DataValidationException{
+		if(journal == null){
+			throw new DataValidationException("Snapshots need an open journal");
+		}
+		if(snapshotWriter != null){
+			throw new DataValidationException("Snapshots have already been started");
+		}
+		if(intervalMillis <= 0 && journalBytes <= 0){
+			throw new DataValidationException("Either a snapshot interval or a journal size must be given");
+		}
+		snapshotWriter = new SnapshotWriter(path, intervalMillis, journalBytes);
+		snapshotWriter.start();
+	}
+	
+	public synchronized void stopSnapshots(){
+		if(snapshotWriter != null){
+			snapshotWriter.stop();
+			snapshotWriter = null;
+		}
+	}
+	
+	/*
+	 * Writes a snapshot now rather than waiting for the next trigger
+	 */
+	public void writeSnapshot() throws IOException, DataValidationException{
+		SnapshotWriter writer;
+		synchronized(this){
+			writer = snapshotWriter;
+		}
+		if(writer == null){
+			throw new DataValidationException("Snapshots have not been started");
+		}
+		writer.writeSnapshot();
+	}
+	
+	/*
+	 * Copies the market state and every book. Being inside the gate keeps
+	 * the market state fixed while the books are copied, but order flow
+	 * carries on; each book is only locked while it is being copied.
+	 */
+	Snapshot captureSnapshot(){
+		Snapshot snapshot = new Snapshot();
+		int gateToken = gate.enter();
+		try{
+			snapshot.marketState = currentMarketState;
+			snapshot.stateOffset = journal.getOffset();
+			for(ProductBook book : getBooks()){
+				snapshot.books.add(book.snapshot(journal));
+			}
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+		return snapshot;
+	}
+	
+	Journal getJournal(){
+		return journal;
+	}
+	
+	/*
+	 * Feeds replayed commands back through the service exactly as they were
+	 * first submitted. A command that was rejected when it was first
+	 * submitted is rejected again, the same way, and is only counted.
+	 * After a snapshot has been restored, records the snapshot already
+	 * holds are skipped: state changes before stateOffset, and a book's
+	 * commands before that book's own offset.
+	 */
+	private class JournalReplayer implements JournalHandler {
+		
+		private int records;
+		private int rejected;
+		private long position;
+		private long stateOffset;
+		//Indexed by product id; 0 for a book not in the snapshot
+		private long[] bookOffsets = new long[0];
+		
+		public void recordOffset(long offset){
+			position = offset;
+		}
+		
+		private void setBookOffset(int productId, long offset){
+			if(productId >= bookOffsets.length){
+				bookOffsets = Arrays.copyOf(bookOffsets, productId + 1);
+			}
+			bookOffsets[productId] = offset;
+		}
+		
+		private boolean inSnapshot(String product){
+			int id = NameRegistry.getProducts().lookup(product);
+			return id >= 0 && id < bookOffsets.length && position < bookOffsets[id];
+		}
+		
+		public void productCreated(String product){
+			if(getBook(product) != null){
+				return;
+			}
+			records++;
+			try{
+				createProduct(product);
+			}
+			catch(Exception e){
+				rejected++;
+			}
+		}
+		
+		public void marketStateChanged(String state){
+			if(position < stateOffset){
+				return;
+			}
+			records++;
+			try{
+				setMarketState(state);
+			}
+			catch(Exception e){
+				rejected++;
+			}
+		}
+		
+		public void orderSubmitted(Order o){
+			if(inSnapshot(o.getProduct())){
+				return;
+			}
+			records++;
+			try{
+				submitOrder(o);
+			}
+			catch(Exception e){
+				rejected++;
+			}
+		}
+		
+		public void quoteSubmitted(Quote q){
+			if(inSnapshot(q.getProduct())){
+				return;
+			}
+			records++;
+			try{
+				submitQuote(q);
+			}
+			catch(Exception e){
+				rejected++;
+			}
+		}
+		
+		public void orderCancelled(String product, String side, long orderId){
+			if(inSnapshot(product)){
+				return;
+			}
+			records++;
+			try{
+				submitOrderCancel(product, side, orderId);
+			}
+			catch(Exception e){
+				rejected++;
+			}
+		}
+		
+		public void quoteCancelled(String userName, String product){
+			if(inSnapshot(product)){
+				return;
+			}
+			records++;
+			try{
+				submitQuoteCancel(userName, product);
+			}
+			catch(Exception e){
+				rejected++;
+			}
+		}
+		
+		public void massCancelled(String product, String userName){
+			if(inSnapshot(product)){
+				return;
+			}
+			records++;
+			try{
+				if(userName == null){
+					submitBookCancel(product);
+				}
+				else{
+					submitMassCancel(userName, product);
+				}
+			}
+			catch(Exception e){
+				rejected++;
+			}
 		}
 	}
 	
 	/*
 	 * Forwards the provided Quote to the appropriate product book
 	 */
-	public synchronized void submitQuote(Quote q) throws InvalidMarketStateException, NoSuchProductException, InvalidVolumeOperation{
-		//Checks to see if 
-		if(currentMarketState.equals("CLOSED")){
-			throw new InvalidMarketStateException("Market is closed.");
+	public void submitQuote(Quote q) throws InvalidMarketStateException, NoSuchProductException, InvalidVolumeOperation{
+		CommandResult result;
+		int gateToken = gate.enter();
+		try{
+			ProductBook book = getOpenBook(q.getProduct());
+			if(shards == null){
+				book.addToBook(q);
+				return;
+			}
+			result = dispatch("QUOTE", book, q, null, OrderIds.NONE, null, null);
 		}
-		else if(!allBooks.containsKey(q.getProduct())){
-			throw new NoSuchProductException(q.getProduct() + " does not exist.");
+		finally{
+			gate.exit(gateToken);
 		}
-		else{
-			allBooks.get(q.getProduct()).addToBook(q);
+		
+		Exception e = result.awaitFailure();
+		if(e instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) e;
 		}
+		rethrowUnchecked(e);
 	}
 	
 	/*
 	 * Forwards the provided Order to the appropriate product book
 	 */
-	public synchronized String submitOrder(Order o) throws InvalidMarketStateException, NoSuchProductException, InvalidVolumeOperation {
-		if(currentMarketState.equals("CLOSED")){
-			throw new InvalidMarketStateException("Market is closed.");
-		}
-		//MKT orders cannot be submitted during PREOPEN
-		else if(currentMarketState.equals("PREOPEN") && o.getPrice().equals("MKT")){
-			throw new InvalidMarketStateException("MKT orders cannot be submitted during PREOPEN");
+	public String submitOrder(Order o) throws InvalidMarketStateException, NoSuchProductException, InvalidVolumeOperation {
+		CommandResult result;
+		int gateToken = gate.enter();
+		try{
+			ProductBook book = getOpenBook(o);
+			if(shards == null){
+				book.addToBook(o);
+				return o.getId();
+			}
+			result = dispatch("ORDER", book, o, null, OrderIds.NONE, null, null);
 		}
-		else if(!allBooks.containsKey(o.getProduct())){
-			throw new NoSuchProductException(o.getProduct() + " does not exist.");
+		finally{
+			gate.exit(gateToken);
 		}
-		else{
-			allBooks.get(o.getProduct()).addToBook(o);
-			return o.getId();
+		
+		Exception e = result.awaitFailure();
+		if(e instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) e;
 		}
+		rethrowUnchecked(e);
+		return o.getId();
 	}
 	
 	/*
 	 * Forwards the provided Order Cancel to the appropriate product book
 	 */
-	public synchronized void submitOrderCancel(String product, String side, String orderId) throws InvalidMarketStateException, 
-																								   NoSuchProductException,
-																								   InvalidVolumeOperation,
-																								   OrderNotFoundException {
-		if(currentMarketState.equals("CLOSED")){
-			throw new InvalidMarketStateException("Market is closed.");
+	public void submitOrderCancel(String product, String side, String orderId) throws InvalidMarketStateException, 
+																					  NoSuchProductException,
+																					  InvalidVolumeOperation,
+																					  OrderNotFoundException {
+		submitOrderCancel(product, side, OrderIds.parse(orderId));
+	}
+	
+	private void submitOrderCancel(String product, String side, long orderId) throws InvalidMarketStateException, 
+																					 NoSuchProductException,
+																					 InvalidVolumeOperation,
+																					 OrderNotFoundException {
+		CommandResult result;
+		int gateToken = gate.enter();
+		try{
+			ProductBook book = getOpenBook(product);
+			if(shards == null){
+				book.cancelOrder(side, orderId);
+				return;
+			}
+			result = dispatch("ORDER_CANCEL", book, null, side, orderId, null, null);
 		}
-		else if(!allBooks.containsKey(product)){
-			throw new NoSuchProductException(product + " does not exist");
+		finally{
+			gate.exit(gateToken);
 		}
-		else{
-			allBooks.get(product).cancelOrder(side, orderId);
+		
+		Exception e = result.awaitFailure();
+		if(e instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) e;
 		}
+		if(e instanceof OrderNotFoundException){
+			throw (OrderNotFoundException) e;
+		}
+		rethrowUnchecked(e);
 	}
 	
 	/*
 	 * Forwards the provided Quote Cancel to the appropriate product book
 	 */
-	public synchronized void submitQuoteCancel(String userName, String product) throws InvalidMarketStateException, NoSuchProductException{
+	public void submitQuoteCancel(String userName, String product) throws InvalidMarketStateException, NoSuchProductException{
+		CommandResult result;
+		int gateToken = gate.enter();
+		try{
+			ProductBook book = getOpenBook(product);
+			if(shards == null){
+				book.cancelQuote(userName);
+				return;
+			}
+			result = dispatch("QUOTE_CANCEL", book, null, null, OrderIds.NONE, userName, null);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+		rethrowUnchecked(result.awaitFailure());
+	}
+	
+	//Batch Order Flow Methods
+	
+	/*
+	 * The batch submit methods check the market state and every product
+	 * once, inside the gate, before anything is applied: if any product
+	 * is unknown or the market is closed, nothing in the batch is. The work
+	 * is then grouped by product and each book applies its share as one
+	 * command, under one lock, with one current market update at the end.
+	 * Books are processed in the order their products first appear.
+	 */
+	public ArrayList<String> submitOrders(List<Order> orders) throws InvalidMarketStateException, NoSuchProductException,
+																	 InvalidVolumeOperation{
+		ArrayList<CommandResult> results;
+		int gateToken = gate.enter();
+		try{
+			LinkedHashMap<ProductBook, ArrayList<Order>> byBook = new LinkedHashMap<>();
+			for(Order o : orders){
+				ProductBook book = getOpenBook(o);
+				ArrayList<Order> list = byBook.get(book);
+				if(list == null){
+					list = new ArrayList<>();
+					byBook.put(book, list);
+				}
+				list.add(o);
+			}
+			results = dispatchBatch("ORDERS", byBook);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+		
+		Exception e = awaitAll(results);
+		if(e instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) e;
+		}
+		rethrowUnchecked(e);
+		
+		ArrayList<String> ids = new ArrayList<>();
+		for(Order o : orders){
+			ids.add(o.getId());
+		}
+		return ids;
+	}
+	
+	public void submitQuotes(List<Quote> quotes) throws InvalidMarketStateException, NoSuchProductException,
+														InvalidVolumeOperation{
+		ArrayList<CommandResult> results;
+		int gateToken = gate.enter();
+		try{
+			LinkedHashMap<ProductBook, ArrayList<Quote>> byBook = new LinkedHashMap<>();
+			for(Quote q : quotes){
+				ProductBook book = getOpenBook(q.getProduct());
+				ArrayList<Quote> list = byBook.get(book);
+				if(list == null){
+					list = new ArrayList<>();
+					byBook.put(book, list);
+				}
+				list.add(q);
+			}
+			results = dispatchBatch("QUOTES", byBook);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+		
+		Exception e = awaitAll(results);
+		if(e instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) e;
+		}
+		rethrowUnchecked(e);
+	}
+	
+	/*
+	 * Cancels the Orders described by the DTOs (product, side and id). Every
+	 * Order that is found is cancelled; the ones that are not are named in
+	 * the OrderNotFoundException thrown afterwards.
+	 */
+	public void submitOrderCancels(List<TradableDTO> orders) throws InvalidMarketStateException, NoSuchProductException,
+																	InvalidVolumeOperation, OrderNotFoundException{
+		ArrayList<CommandResult> results;
+		int gateToken = gate.enter();
+		try{
+			LinkedHashMap<ProductBook, ArrayList<TradableDTO>> byBook = new LinkedHashMap<>();
+			for(TradableDTO d : orders){
+				ProductBook book = getOpenBook(d.product);
+				ArrayList<TradableDTO> list = byBook.get(book);
+				if(list == null){
+					list = new ArrayList<>();
+					byBook.put(book, list);
+				}
+				list.add(d);
+			}
+			results = dispatchBatch("ORDER_CANCELS", byBook);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+		
+		//Not found failures from several books are merged into one
+		String notFound = null;
+		Exception failure = null;
+		for(CommandResult result : results){
+			Exception e = result.awaitFailure();
+			if(e instanceof OrderNotFoundException){
+				notFound = notFound == null ? e.getMessage() : notFound + "; " + e.getMessage();
+			}
+			else if(e != null && failure == null){
+				failure = e;
+			}
+		}
+		if(failure instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) failure;
+		}
+		rethrowUnchecked(failure);
+		if(notFound != null){
+			throw new OrderNotFoundException(notFound);
+		}
+	}
+	
+	//Mass Cancel Methods
+	
+	/*
+	 * Cancels every Order and Quote the user has in the product's book, or
+	 * in every book when product is null. Each book does its share as one
+	 * command, visiting only that user's entries.
+	 */
+	public void submitMassCancel(String userName, String product) throws InvalidMarketStateException, NoSuchProductException,
+																		 InvalidVolumeOperation{
+		ArrayList<CommandResult> results = new ArrayList<>();
+		int gateToken = gate.enter();
+		try{
+			if(product != null){
+				results.add(dispatch("MASS_CANCEL", getOpenBook(product), null, null, OrderIds.NONE, userName, null));
+			}
+			else{
+				for(ProductBook book : getBooks()){
+					results.add(dispatch("MASS_CANCEL", getOpenBook(book.getProduct()), null, null, OrderIds.NONE, userName, null));
+				}
+			}
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+		
+		Exception e = awaitAll(results);
+		if(e instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) e;
+		}
+		rethrowUnchecked(e);
+	}
+	
+	/*
+	 * Cancels every Order and Quote in the product's book, for all users,
+	 * without changing the market state
+	 */
+	public void submitBookCancel(String product) throws InvalidMarketStateException, NoSuchProductException,
+														InvalidVolumeOperation{
+		CommandResult result;
+		int gateToken = gate.enter();
+		try{
+			result = dispatch("BOOK_CANCEL", getOpenBook(product), null, null, OrderIds.NONE, null, null);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+		
+		Exception e = result.awaitFailure();
+		if(e instanceof InvalidVolumeOperation){
+			throw (InvalidVolumeOperation) e;
+		}
+		rethrowUnchecked(e);
+	}
+	
+	//Asynchronous Order Flow Methods
+	
+	/*
+	 * The async submit methods validate the command against the market state
+	 * and the product list on the caller's thread, queue it to the shard that
+	 * owns the product and return at once. The CommandResult completes with
+	 * the order id (null for quotes and cancels) or the exception the book
+	 * threw; the callback, if not null, is told the same thing. When the
+	 * service is not in sequenced mode the command runs before returning.
+	 */
+	public CommandResult submitQuoteAsync(Quote q, CommandCallback cb) throws InvalidMarketStateException, NoSuchProductException{
+		int gateToken = gate.enter();
+		try{
+			return dispatch("QUOTE", getOpenBook(q.getProduct()), q, null, OrderIds.NONE, null, cb);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+	}
+	
+	public CommandResult submitOrderAsync(Order o, CommandCallback cb) throws InvalidMarketStateException, NoSuchProductException{
+		int gateToken = gate.enter();
+		try{
+			return dispatch("ORDER", getOpenBook(o), o, null, OrderIds.NONE, null, cb);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+	}
+	
+	public CommandResult submitOrderCancelAsync(String product, String side, String orderId, CommandCallback cb) throws InvalidMarketStateException, 
+																														NoSuchProductException{
+		int gateToken = gate.enter();
+		try{
+			return dispatch("ORDER_CANCEL", getOpenBook(product), null, side, OrderIds.parse(orderId), null, cb);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+	}
+	
+	public CommandResult submitQuoteCancelAsync(String userName, String product, CommandCallback cb) throws InvalidMarketStateException, 
+																										   NoSuchProductException{
+		int gateToken = gate.enter();
+		try{
+			return dispatch("QUOTE_CANCEL", getOpenBook(product), null, null, OrderIds.NONE, userName, cb);
+		}
+		finally{
+			gate.exit(gateToken);
+		}
+	}
+	
+	//Order Flow Helper Methods. All are called inside the gate.
+	
+	/*
+	 * Returns the book for the product, checking that the market is not
+	 * closed and that the product exists
+	 */
+	private ProductBook getOpenBook(String product) throws InvalidMarketStateException, NoSuchProductException{
+		return getOpenBook(getBook(product), product);
+	}
+	
+	private ProductBook getOpenBook(ProductBook book, String product) throws InvalidMarketStateException, NoSuchProductException{
 		if(currentMarketState.equals("CLOSED")){
 			throw new InvalidMarketStateException("Market is closed.");
 		}
-		else if(!allBooks.containsKey(product)){
-			throw new NoSuchProductException(product + " does not exist");
+		else if(book == null){
+			throw new NoSuchProductException(product + " does not exist.");
+		}
+		return book;
+	}
+	
+	private ProductBook getOpenBook(Order o) throws InvalidMarketStateException, NoSuchProductException{
+		//MKT orders cannot be submitted during PREOPEN
+		if(currentMarketState.equals("PREOPEN") && o.getPrice().equals("MKT")){
+			throw new InvalidMarketStateException("MKT orders cannot be submitted during PREOPEN");
+		}
+		//The Order already holds its product's id, unless the product did not exist when it was made
+		int id = o.getProductId();
+		return getOpenBook(id >= 0 ? getBook(id) : getBook(o.getProduct()), o.getProduct());
+	}
+	
+	/*
+	 * Queues the command to the shard that owns the book, or runs it directly
+	 * when the service is not in sequenced mode
+	 */
+	private CommandResult dispatch(String type, ProductBook book, Object payload, String side,
+								   long orderId, String userName, CommandCallback cb){
+		MatchingShard[] s = shards;
+		if(s == null){
+			return MatchingShard.runDirect(type, book, payload, side, orderId, userName, cb);
+		}
+		return shardFor(s, book).submit(type, book, payload, side, orderId, userName, cb);
+	}
+	
+	//Dispatches each book's share of a batch as a single command
+	private <T> ArrayList<CommandResult> dispatchBatch(String type, Map<ProductBook, ArrayList<T>> byBook){
+		ArrayList<CommandResult> results = new ArrayList<>();
+		for(Map.Entry<ProductBook, ArrayList<T>> e : byBook.entrySet()){
+			results.add(dispatch(type, e.getKey(), e.getValue(), null, OrderIds.NONE, null, null));
+		}
+		return results;
+	}
+	
+	//Waits for every result and returns the first failure, if any
+	private static Exception awaitAll(ArrayList<CommandResult> results){
+		Exception failure = null;
+		for(CommandResult result : results){
+			Exception e = result.awaitFailure();
+			if(failure == null){
+				failure = e;
+			}
+		}
+		return failure;
+	}
+	
+	//Product ids are dense, so the books are dealt out to the shards in turn
+	private static MatchingShard shardFor(MatchingShard[] s, ProductBook book){
+		return s[book.getProductId() % s.length];
+	}
+	
+	//The checked exceptions are rethrown by the callers; anything else ends up here
+	private static void rethrowUnchecked(Exception e){
+		if(e == null){
+			return;
 		}
-		else{
-			allBooks.get(product).cancelQuote(userName);
+		if(e instanceof RuntimeException){
+			throw (RuntimeException) e;
 		}
+		throw new IllegalStateException("Unexpected failure processing command: " + e.getMessage(), e);
 	}
 	
 	public static void main(String[] args) throws InvalidMarketStateTransition, InvalidMessageState, InvalidVolumeOperation{
@@ -0,0 +1,43 @@
+package book;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/*
+ * The state saved in a snapshot file: the market state, the journal
+ * offset it was captured at, and a BookSnapshot for every product.
+ */
+class Snapshot {
+
+	private static final int MAGIC = 0x44535831;
+	
+	String marketState;
+	long stateOffset;
+	ArrayList<BookSnapshot> books = new ArrayList<>();
+	
+	void write(DataOutputStream out) throws IOException{
+		out.writeInt(MAGIC);
+		out.writeUTF(marketState);
+		out.writeLong(stateOffset);
+		out.writeInt(books.size());
+		for(BookSnapshot book : books){
+			book.write(out);
+		}
+	}
+	
+	static Snapshot read(DataInputStream in) throws IOException{
+		if(in.readInt() != MAGIC){
+			throw new IOException("Not a snapshot file");
+		}
+		Snapshot s = new Snapshot();
+		s.marketState = in.readUTF();
+		s.stateOffset = in.readLong();
+		int count = in.readInt();
+		for(int i = 0; i < count; i++){
+			s.books.add(BookSnapshot.read(in));
+		}
+		return s;
+	}
+}
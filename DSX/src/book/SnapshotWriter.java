@@ -0,0 +1,137 @@
+package book;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The SnapshotWriter periodically saves every book to a snapshot file, so
+ * that recovery only has to replay the journal written after it. A
+ * snapshot is taken once intervalMillis have passed or the journal has
+ * grown by journalBytes since the last one (either can be 0 to disable it).
+ * 
+ * Each book is copied under its own lock, one at a time, and the copies
+ * are serialized with no lock held. Each book records the journal offset
+ * it was copied at, which is where its replay resumes. The file is written
+ * to a temporary file, forced to disk and only then moved into place, so a
+ * crash while writing leaves the previous snapshot intact and a crash just
+ * after the move cannot leave a snapshot whose contents never reached the
+ * disk.
+ */
+public class SnapshotWriter implements Runnable {
+
+	private static final long CHECK_MILLIS = 1000;
+	
+	private String path;
+	private long intervalMillis;
+	private long journalBytes;
+	private long lastSnapshotTime;
+	private long lastSnapshotOffset;
+	private ScheduledExecutorService scheduler;
+	
+	SnapshotWriter(String p, long interval, long bytes){
+		path = p;
+		intervalMillis = interval;
+		journalBytes = bytes;
+		lastSnapshotTime = System.currentTimeMillis();
+	}
+	
+	void start(){
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "SnapshotWriter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = intervalMillis > 0 ? Math.min(intervalMillis, CHECK_MILLIS) : CHECK_MILLIS;
+		scheduler.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	void stop(){
+		if(scheduler != null){
+			scheduler.shutdown();
+		}
+	}
+	
+	/*
+	 * Anything thrown out of here would cancel the scheduled task and stop
+	 * snapshots for good, so a failed snapshot is only reported and the
+	 * next check tries again
+	 */
+	public void run(){
+		try{
+			snapshotIfDue();
+		}
+		catch(IOException e){
+			System.out.println("Snapshot to " + path + " failed: " + e.getMessage());
+		}
+		catch(RuntimeException e){
+			System.out.println("Snapshot to " + path + " failed: " + e);
+		}
+	}
+	
+	private void snapshotIfDue() throws IOException{
+		long offset = ProductService.getInstance().getJournal().getOffset();
+		boolean due = (intervalMillis > 0 && System.currentTimeMillis() - lastSnapshotTime >= intervalMillis) ||
+					  (journalBytes > 0 && offset - lastSnapshotOffset >= journalBytes);
+		if(!due || offset == lastSnapshotOffset){
+			return;
+		}
+		writeSnapshot();
+	}
+	
+	/*
+	 * Copies every book and writes the snapshot file. Returns the journal
+	 * offset the market state was captured at.
+	 */
+	synchronized long writeSnapshot() throws IOException{
+		Snapshot snapshot = ProductService.getInstance().captureSnapshot();
+		
+		File temp = new File(path + ".tmp");
+		FileOutputStream file = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+		try{
+			snapshot.write(out);
+			out.flush();
+			file.getFD().sync();
+		}
+		finally{
+			out.close();
+		}
+		Files.move(temp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				   StandardCopyOption.ATOMIC_MOVE);
+		
+		lastSnapshotTime = System.currentTimeMillis();
+		lastSnapshotOffset = snapshot.stateOffset;
+		return snapshot.stateOffset;
+	}
+	
+	/*
+	 * Reads the snapshot file, or returns null if there is none
+	 */
+	static Snapshot readSnapshot(String path) throws IOException{
+		File file = new File(path);
+		if(!file.exists()){
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try{
+			return Snapshot.read(in);
+		}
+		finally{
+			in.close();
+		}
+	}
+}
@@ -1,12 +1,9 @@
 package book;
 
-import java.util.HashMap;
-
 import exceptions.InvalidVolumeOperation;
-import messages.FillMessage;
 import tradablePackage.Tradable;
 
 public interface TradeProcessor {
 
-	public HashMap<String, FillMessage> doTrade(Tradable trd) throws InvalidVolumeOperation;
+	public void doTrade(Tradable trd, FillBuffer fills) throws InvalidVolumeOperation;
 }
@@ -1,17 +1,11 @@
 package book;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
 import exceptions.InvalidVolumeOperation;
-import pricePackage.Price;
-import pricePackage.PriceFactory;
+import pricePackage.PriceTicks;
 import tradablePackage.Tradable;
-import messages.FillMessage;
 
 public class TradeProcessorPriceTimeImpl implements TradeProcessor {
 
-	private HashMap<String, FillMessage> fillMessages = new HashMap<>();
 	private ProductBookSide productBookSide;
 	
 	public TradeProcessorPriceTimeImpl(ProductBookSide pbs){
@@ -23,148 +17,55 @@ public class TradeProcessorPriceTimeImpl implements TradeProcessor {
 		productBookSide = p;
 	}
 	
-	//Utility Methods
-	
-	/*
-	 * Will be used when executing a trade. All Trades results
-	 * in Fill Messages, which need a Trade Key so the system
-	 * can tell them apart.
-	 */
-	private String makeFillKey(FillMessage fm){
-		return fm.getUser() + fm.getId() + fm.getPrice();
-	}
-	
-	/*
-	 * Checks the contents of fillMessages to see if the FillMEssage
-	 * passed in is a fillMessage for an existing known trade or if its
-	 * for a new previously unrecorded trade.
-	 */
-	private boolean isNewFill(FillMessage fm){
-		String key = makeFillKey(fm);
-		if(!fillMessages.containsKey(key)){
-			return true;
-		}
-		FillMessage oldFill = fillMessages.get(key);
-		if(!oldFill.getSide().equals(fm.getSide())){
-			return true;
-		}
-		if(!oldFill.getId().equals(fm.getId())){
-			return true;
-		}
-		return false;
-	}
-	
-	/*
-	 * Adds a FillMessage to the fillMessages HashMap it its a new trade,
-	 * or should update an existing fill message if its another
-	 * part of an existing trade 
-	 */
-	private void addFillMessage(FillMessage fm){
-		if(isNewFill(fm) == true){
-			fillMessages.put(makeFillKey(fm), fm);
-		}
-		else{
-			FillMessage temp = fillMessages.get(makeFillKey(fm));
-			temp.setVolume(temp.getVolume() + fm.getVolume());
-			temp.setDetails(fm.getDetails());
-		}
-	}
-	
-	
 	//Interface "doTrade" method
 	
 	/*
 	 * This method will be called when it has been determined
 	 * that a Tradable can trade against the content of the book.
+	 * Every match is written into the FillBuffer passed in: one
+	 * slot per resting Tradable, and one slot for the incoming
+	 * Tradable at this price holding the total it traded here.
 	 * (non-Javadoc)
-	 * @see book.TradeProcessor#doTrade(tradablePackage.Tradable)
+	 * @see book.TradeProcessor#doTrade(tradablePackage.Tradable, book.FillBuffer)
 	 */
-	public HashMap<String, FillMessage> doTrade(Tradable trd) throws InvalidVolumeOperation{
-		//Reset the fillMessages to a new HashMap
-		fillMessages = new HashMap<String, FillMessage>();
+	public void doTrade(Tradable trd, FillBuffer fills) throws InvalidVolumeOperation{
 		
-		//Create a new temporary ArrayList to hold the Tradables that are completely traded during this trade.
-		ArrayList<Tradable> tradedOut = new ArrayList<>();
+		//Take the top price level of the book. Entries are traded from the head of
+		//its queue, and a fully traded entry is unlinked as soon as it is filled.
+		PriceLevel entriesAtPrice = productBookSide.getEntriesAtTopOfBook();
+		long trdTicks = PriceTicks.toTicks(trd.getPrice());
 		
-		//Create a new temporary ArrayList to store the top entries of each book
-		ArrayList<Tradable> entriesAtPrice = productBookSide.getEntriesAtTopOfBook();
+		//A resting MKT Tradable trades at the incoming Tradable's price
+		long tPrice = PriceTicks.isMarket(entriesAtPrice.getTicks()) ? trdTicks : entriesAtPrice.getTicks();
 		
-		for(Tradable t : entriesAtPrice){
+		BookEntry entry;
+		while((entry = entriesAtPrice.getFirst()) != null){
+			Tradable t = entry.getTradable();
 			if(trd.getRemainingVolume() == 0){
-				//For each tradable in tradedOut<>, remove it from entriesAtPrice<>
-				for(Tradable t2 : tradedOut){
-					entriesAtPrice.remove(t2);
-				}
-				if(entriesAtPrice.isEmpty()){
-					productBookSide.clearIfEmpty(productBookSide.topOfBookPrice());
-				}
-				return fillMessages;
+				return;
 			}
-			else if(trd.getRemainingVolume() >= t.getRemainingVolume()){
-				tradedOut.add(t);
-				Price tPrice = PriceFactory.makeLimitPrice(0);
-				if(t.getPrice().isMarket()){
-					tPrice = trd.getPrice();
-				}
-				else{
-					tPrice = t.getPrice();
-				}
-				FillMessage tFM = new FillMessage(t.getUser(), t.getProduct(),
-												 tPrice, t.getRemainingVolume(),
-												 "leaving 0", t.getSide(), t.getId());
-				addFillMessage(tFM);
-				FillMessage trdFM = new FillMessage(trd.getUser(), trd.getProduct(),
-													tPrice, trd.getRemainingVolume(),
-													"leaving " + (trd.getRemainingVolume() - t.getRemainingVolume()),
-													trd.getSide(), trd.getId());
-				addFillMessage(trdFM);
-				trd.setRemainingVolume(trd.getRemainingVolume() - t.getRemainingVolume());
+			
+			if(trd.getRemainingVolume() >= t.getRemainingVolume()){
+				int traded = t.getRemainingVolume();
+				fills.addRestingFill(t, tPrice, traded, 0);
+				fills.addAggressorFill(trd, tPrice, traded, trd.getRemainingVolume() - traded);
+				trd.setRemainingVolume(trd.getRemainingVolume() - traded);
 				t.setRemainingVolume(0);
+				productBookSide.removeEntry(entry);
 				productBookSide.addOldEntry(t);
-				
-				//BREAK
-				//For each tradable in tradedOut<>, remove it from entriesAtPrice<>
-
 			}
 			else{
-				int remainder = t.getRemainingVolume() - trd.getRemainingVolume();
-				Price tPrice = PriceFactory.makeLimitPrice(0);
-				if(t.getPrice().isMarket()){
-					tPrice = trd.getPrice();
-				}
-				else{
-					tPrice = t.getPrice();
-				}
-				FillMessage tFM = new FillMessage(t.getUser(), t.getProduct(),
-												  tPrice, trd.getRemainingVolume(),
-												  "leaving " + remainder, t.getSide(),
-												  t.getId());
-				addFillMessage(tFM);
-				FillMessage trdFM = new FillMessage(trd.getUser(), trd.getProduct(),
-													tPrice, trd.getRemainingVolume(),
-													"leaving 0", trd.getSide(), trd.getId());
-				addFillMessage(trdFM);
+				int traded = trd.getRemainingVolume();
+				int remainder = t.getRemainingVolume() - traded;
+				fills.addRestingFill(t, tPrice, traded, remainder);
+				fills.addAggressorFill(trd, tPrice, traded, 0);
 				trd.setRemainingVolume(0);
 				t.setRemainingVolume(remainder);
+				productBookSide.updateVolume(entry);
 				productBookSide.addOldEntry(trd);
-				
-				for(Tradable t2 : tradedOut){
-					entriesAtPrice.remove(t2);
-				}
-				if(entriesAtPrice.isEmpty()){
-					productBookSide.clearIfEmpty(productBookSide.topOfBookPrice());
-				}
-				return fillMessages;
+				return;
 			}
 		}
-		
-		for(Tradable t2 : tradedOut){
-			entriesAtPrice.remove(t2);
-		}
-		if(entriesAtPrice.isEmpty()){
-			productBookSide.clearIfEmpty(productBookSide.topOfBookPrice());
-		}
-		return fillMessages;
 	}
 }
 
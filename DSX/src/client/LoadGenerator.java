@@ -0,0 +1,235 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import metrics.LatencyHistogram;
+import pricePackage.Price;
+import pricePackage.PriceFactory;
+import user.TradableUserData;
+import user.User;
+import user.UserImpl;
+import book.ProductService;
+
+/*
+ * A headless version of UserSim for load testing. It runs many simulated
+ * users with UserSim's event mix (70% quote, 20% order, 10% book depth,
+ * with quote and order cancels) and UserSimSettings' price bases, but
+ * without the GUI and without waiting between events.
+ *
+ * The load is open loop: a single dispatcher issues events at the target
+ * rate whether or not earlier ones have finished, each to a random user,
+ * and a fixed pool of threads runs them. Latency is measured from the time
+ * an event was due, not from when a thread picked it up, so queueing
+ * behind a slow engine counts against it. A user runs one event at a time.
+ */
+public class LoadGenerator {
+
+    public static final String[] COMMANDS = {"QUOTE", "QUOTE_CANCEL", "ORDER", "ORDER_CANCEL", "BOOK_DEPTH"};
+
+    private final int userCount;
+    private final int threads;
+    private final double targetRate; // events per second
+    private final long runDuration; // ms
+    private final boolean subscribe;
+
+    private final ArrayList<User> users = new ArrayList<User>();
+    private ArrayList<String> products;
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+    private final Map<String, AtomicLong> errors = new LinkedHashMap<String, AtomicLong>();
+    private long dispatched;
+    private long elapsed; // ns
+
+    public LoadGenerator(int userCount, int threads, double targetRate, long runDuration, boolean subscribe) {
+        this.userCount = userCount;
+        this.threads = threads;
+        this.targetRate = targetRate;
+        this.runDuration = runDuration;
+        this.subscribe = subscribe;
+        for (String c : COMMANDS) {
+            latencies.put(c, new LatencyHistogram());
+            errors.put(c, new AtomicLong());
+        }
+    }
+
+    /*
+     * Connects the simulated users, subscribing them to every product if
+     * asked to. The products must exist, with UserSimSettings data, and
+     * the product list is read once here.
+     */
+    public void connectUsers() throws Exception {
+        products = ProductService.getInstance().getProductList();
+        for (int i = 0; i < userCount; i++) {
+            User u = new UserImpl("LOAD" + (i + 1));
+            u.connect();
+            if (subscribe) {
+                for (String s : products) {
+                    u.subscribeCurrentMarket(s);
+                    u.subscribeLastSale(s);
+                    u.subscribeMessages(s);
+                    u.subscribeTicker(s);
+                }
+            }
+            users.add(u);
+        }
+    }
+
+    /*
+     * Issues events at the target rate for the run duration, then waits
+     * for the ones still queued to finish
+     */
+    public void run() throws InterruptedException {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LoadGenerator-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        long interval = (long) (1000000000L / targetRate);
+        long start = System.nanoTime();
+        long end = start + runDuration * 1000000L;
+        long due = start;
+        while (due < end) {
+            long now = System.nanoTime();
+            if (now < due) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            final User u = users.get(ThreadLocalRandom.current().nextInt(users.size()));
+            final long eventDue = due;
+            pool.execute(new Runnable() {
+                public void run() {
+                    synchronized (u) {
+                        doRandomEvent(u, eventDue);
+                    }
+                }
+            });
+            dispatched++;
+            due += interval;
+        }
+
+        pool.shutdown();
+        if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
+            System.out.println("Events still running after 60 seconds - not waiting for them");
+            pool.shutdownNow();
+        }
+        elapsed = System.nanoTime() - start;
+    }
+
+    // Same mix as UserSim.doRandomEvent
+    private void doRandomEvent(User u, long due) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double num = random.nextDouble();
+        String command;
+        if (num < 0.70) {
+            command = random.nextDouble() < 0.85 ? "QUOTE" : "QUOTE_CANCEL";
+        } else if (num < 0.9) {
+            command = random.nextDouble() < 0.55 ? "ORDER" : "ORDER_CANCEL";
+        } else {
+            command = "BOOK_DEPTH";
+        }
+
+        String product = products.get(random.nextInt(products.size()));
+        try {
+            switch (command) {
+                case "QUOTE":
+                    makeQuote(u, product, random);
+                    break;
+                case "QUOTE_CANCEL":
+                    u.submitQuoteCancel(product);
+                    break;
+                case "ORDER":
+                    makeOrder(u, product, random);
+                    break;
+                case "ORDER_CANCEL":
+                    makeOrderCancel(u, random);
+                    break;
+                default:
+                    u.getBookDepth(product);
+                    break;
+            }
+        } catch (Exception ex) {
+            errors.get(command).incrementAndGet();
+        }
+        latencies.get(command).record(System.nanoTime() - due);
+    }
+
+    private void makeQuote(User u, String product, ThreadLocalRandom random) throws Exception {
+        long bp = makeRandomPrice("BUY", product, random);
+        long sp = makeRandomPrice("SELL", product, random);
+        if (bp >= sp) {
+            bp = sp - 1;
+        }
+        u.submitQuote(product, PriceFactory.makeLimitPrice(bp), makeRandomVolume(product, random),
+                PriceFactory.makeLimitPrice(sp), makeRandomVolume(product, random));
+    }
+
+    private void makeOrder(User u, String product, ThreadLocalRandom random) throws Exception {
+        String side = random.nextBoolean() ? "BUY" : "SELL";
+        Price p;
+        if (random.nextDouble() < 0.1) {
+            p = PriceFactory.makeMarketPrice();
+        } else {
+            p = PriceFactory.makeLimitPrice(makeRandomPrice(side, product, random));
+        }
+        u.submitOrder(product, p, makeRandomVolume(product, random), side);
+    }
+
+    private void makeOrderCancel(User u, ThreadLocalRandom random) throws Exception {
+        ArrayList<TradableUserData> list = u.getOrderIds();
+        if (list.isEmpty()) {
+            return;
+        }
+        TradableUserData order = list.get(random.nextInt(list.size()));
+        u.submitOrderCancel(order.getProduct(), order.getSide(), order.getOrderId());
+    }
+
+    // Price in cents within UserSimSettings.priceVariance of the side's base
+    private long makeRandomPrice(String side, String product, ThreadLocalRandom random) {
+        double priceBase = side.equals("BUY") ? UserSimSettings.getBuyPriceBase(product) : UserSimSettings.getSellPriceBase(product);
+        double price = priceBase * (1 - UserSimSettings.priceVariance);
+        price += priceBase * (UserSimSettings.priceVariance * 2) * random.nextDouble();
+        return Math.round(price * 100);
+    }
+
+    private int makeRandomVolume(String product, ThreadLocalRandom random) {
+        int vol = (int) (UserSimSettings.getVolumeBase(product) * (1 - UserSimSettings.volumeVariance));
+        vol += UserSimSettings.getVolumeBase(product) * (UserSimSettings.volumeVariance * 2) * random.nextDouble();
+        return Math.max(vol, 1);
+    }
+
+    /*
+     * Prints the achieved rate, and for each command type its count, error
+     * count, throughput and latency percentiles in microseconds
+     */
+    public void printReport() {
+        double seconds = elapsed / 1e9;
+        long completed = 0;
+        for (LatencyHistogram h : latencies.values()) {
+            completed += h.getCount();
+        }
+        System.out.println(String.format("%d users, %d threads, target %.0f/s, %d dispatched, %d completed in %.1f s (%.0f/s)",
+                userCount, threads, targetRate, dispatched, completed, seconds, completed / seconds));
+        System.out.println(String.format("%-14s%10s%8s%10s%10s%10s%10s%10s%10s",
+                "Command", "Count", "Errors", "Per sec", "p50 us", "p90 us", "p99 us", "p99.9 us", "Max us"));
+        for (String c : COMMANDS) {
+            LatencyHistogram h = latencies.get(c);
+            System.out.println(String.format("%-14s%10d%8d%10.0f%10.1f%10.1f%10.1f%10.1f%10.1f",
+                    c, h.getCount(), errors.get(c).get(), h.getCount() / seconds,
+                    h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3,
+                    h.getPercentile(99.9) / 1e3, h.getMax() / 1e3));
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.logging.Logger;
 
 import pricePackage.Price;
 import pricePackage.PriceFactory;
+import publishers.BookDepthDTO;
 import user.TradableUserData;
 import user.User;
 import book.ProductService;
@@ -136,7 +137,7 @@ public class UserSim implements Runnable {
     private void makeBookDepth() throws Exception {
         ArrayList<String> list = user.getProductList();
         String product = list.get((int) (Math.random() * list.size()));
-        String[][] bd = user.getBookDepth(product);
+        BookDepthDTO bd = user.getBookDepth(product);
         //printBookDepth(bd);
         bookDepthCount++;
     }
@@ -0,0 +1,94 @@
+package codec;
+
+import java.nio.ByteBuffer;
+
+import messages.CancelMessage;
+import pricePackage.PriceTicks;
+
+/*
+ * A flyweight over a cancel encoded in a ByteBuffer, used like FillCodec.
+ * 
+ * Layout: price in ticks (long), cancelled volume (int), side (byte), then
+ * user, product, id and details.
+ */
+public final class CancelCodec {
+
+	private static final int PRICE = 0;
+	private static final int VOLUME = 8;
+	private static final int SIDE = 12;
+	private static final int USER = 13;
+	
+	private ByteBuffer buffer;
+	private int offset;
+	
+	// Encoding
+	
+	public static int size(CancelMessage cm){
+		return USER + Codec.size(cm.getUser()) + Codec.size(cm.getProduct()) + Codec.size(cm.getId()) +
+			   Codec.size(cm.getDetails());
+	}
+	
+	public static void encode(ByteBuffer out, CancelMessage cm){
+		out.putLong(PriceTicks.toTicks(cm.getPrice()));
+		out.putInt(cm.getVolume());
+		out.put(Codec.sideCode(cm.getSide()));
+		Codec.putString(out, cm.getUser());
+		Codec.putString(out, cm.getProduct());
+		Codec.putString(out, cm.getId());
+		Codec.putString(out, cm.getDetails());
+	}
+	
+	// Decoding
+	
+	public CancelCodec wrap(ByteBuffer b, int off){
+		buffer = b;
+		offset = off;
+		return this;
+	}
+	
+	public long getPrice(){
+		return buffer.getLong(offset + PRICE);
+	}
+	
+	public int getVolume(){
+		return buffer.getInt(offset + VOLUME);
+	}
+	
+	public String getSide(){
+		return Codec.side(buffer.get(offset + SIDE));
+	}
+	
+	public String getUser(){
+		return Codec.getString(buffer, offset + USER);
+	}
+	
+	public String getProduct(){
+		return Codec.getString(buffer, productOffset());
+	}
+	
+	public String getId(){
+		return Codec.getString(buffer, idOffset());
+	}
+	
+	public String getDetails(){
+		return Codec.getString(buffer, Codec.skip(buffer, idOffset()));
+	}
+	
+	//The number of bytes the cancel takes
+	public int getLength(){
+		return Codec.skip(buffer, Codec.skip(buffer, idOffset())) - offset;
+	}
+	
+	public CancelMessage toCancelMessage(){
+		return new CancelMessage(getUser(), getProduct(), PriceTicks.toPrice(getPrice()), getVolume(),
+								 getDetails(), getSide(), getId());
+	}
+	
+	private int productOffset(){
+		return Codec.skip(buffer, offset + USER);
+	}
+	
+	private int idOffset(){
+		return Codec.skip(buffer, productOffset());
+	}
+}
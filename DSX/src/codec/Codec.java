@@ -0,0 +1,119 @@
+package codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Helpers shared by the flyweight codecs. Strings are a short byte length
+ * (-1 for null) followed by the string in UTF-8, so the ASCII symbols, user
+ * names and ids the system uses take a byte a char and are copied without
+ * going through a charset. A string longer than MAX_STRING_BYTES is
+ * refused by size, which every encoder calls before writing anything.
+ * Sides are one byte, 0 for BUY and 1 for SELL.
+ */
+public final class Codec {
+
+	public static final byte BUY = 0;
+	public static final byte SELL = 1;
+	public static final int MAX_STRING_BYTES = Short.MAX_VALUE;
+	
+	private Codec(){
+		
+	}
+	
+	// Sides
+	
+	public static byte sideCode(String side){
+		return side.equals("BUY") ? BUY : SELL;
+	}
+	
+	//Returns the side's String constant, so decoding a side makes nothing
+	public static String side(byte code){
+		return code == BUY ? "BUY" : "SELL";
+	}
+	
+	// Strings
+	
+	//Returns the encoded size of the string, refusing one too long to encode
+	public static int size(String s){
+		if(s == null){
+			return 2;
+		}
+		int length = isAscii(s) ? s.length() : s.getBytes(StandardCharsets.UTF_8).length;
+		checkLength(length);
+		return 2 + length;
+	}
+	
+	//Writes the string at the buffer's position
+	public static void putString(ByteBuffer out, String s){
+		if(s == null){
+			out.putShort((short) -1);
+			return;
+		}
+		if(isAscii(s)){
+			checkLength(s.length());
+			out.putShort((short) s.length());
+			for(int i = 0; i < s.length(); i++){
+				out.put((byte) s.charAt(i));
+			}
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		checkLength(bytes.length);
+		out.putShort((short) bytes.length);
+		out.put(bytes);
+	}
+	
+	private static boolean isAscii(String s){
+		for(int i = 0; i < s.length(); i++){
+			if(s.charAt(i) >= 0x80){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static void checkLength(int length){
+		if(length > MAX_STRING_BYTES){
+			throw new IllegalArgumentException("String of " + length + " bytes is too long to encode");
+		}
+	}
+	
+	//Reads the string at the buffer's position, moving past it
+	public static String getString(ByteBuffer in){
+		String s = getString(in, in.position());
+		in.position(skip(in, in.position()));
+		return s;
+	}
+	
+	//Reads the string at the offset, leaving the buffer's position alone
+	public static String getString(ByteBuffer in, int offset){
+		short length = in.getShort(offset);
+		if(length < 0){
+			return null;
+		}
+		char[] chars = new char[length];
+		for(int i = 0; i < length; i++){
+			byte b = in.get(offset + 2 + i);
+			if(b < 0){
+				return decode(in, offset + 2, length);
+			}
+			chars[i] = (char) b;
+		}
+		return new String(chars);
+	}
+	
+	//Decodes a string that is not all ASCII
+	private static String decode(ByteBuffer in, int offset, int length){
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++){
+			bytes[i] = in.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	//Returns the offset just past the string at the offset
+	public static int skip(ByteBuffer in, int offset){
+		return offset + 2 + Math.max(in.getShort(offset), 0);
+	}
+}
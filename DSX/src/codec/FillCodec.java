@@ -0,0 +1,133 @@
+package codec;
+
+import java.nio.ByteBuffer;
+
+import messages.FillMessage;
+import pricePackage.PriceTicks;
+import tradablePackage.Tradable;
+
+/*
+ * A flyweight over a fill encoded in a ByteBuffer. The static encode
+ * methods write a fill at the buffer's position, and wrap points the
+ * flyweight at one already written, whose fields the getters then read in
+ * place. One FillCodec can be reused for every fill read, and only the
+ * String getters and toFillMessage make objects, where a fill leaves for
+ * an API that needs them.
+ * 
+ * Layout: price in ticks (long), volume (int), leaving volume (int), side
+ * (byte), then user, product, id and details. Fills from the book have
+ * details of "leaving " and the leaving volume, which are not stored but
+ * rebuilt when asked for; the details are only stored, with a leaving
+ * volume of -1, for a fill made with other details.
+ */
+public final class FillCodec {
+
+	private static final int PRICE = 0;
+	private static final int VOLUME = 8;
+	private static final int LEAVING = 12;
+	private static final int SIDE = 16;
+	private static final int USER = 17;
+	
+	private ByteBuffer buffer;
+	private int offset;
+	
+	// Encoding
+	
+	public static int size(String user, String product, String id, String details){
+		return USER + Codec.size(user) + Codec.size(product) + Codec.size(id) + Codec.size(details);
+	}
+	
+	public static int size(FillMessage fm){
+		return size(fm.getUser(), fm.getProduct(), fm.getId(), fm.getLeavingVolume() < 0 ? fm.getDetails() : null);
+	}
+	
+	public static void encode(ByteBuffer out, String user, String product, long priceTicks, int volume,
+							  int leaving, String side, String id, String details){
+		out.putLong(priceTicks);
+		out.putInt(volume);
+		out.putInt(leaving);
+		out.put(Codec.sideCode(side));
+		Codec.putString(out, user);
+		Codec.putString(out, product);
+		Codec.putString(out, id);
+		Codec.putString(out, leaving < 0 ? details : null);
+	}
+	
+	public static void encode(ByteBuffer out, FillMessage fm){
+		int leaving = fm.getLeavingVolume();
+		encode(out, fm.getUser(), fm.getProduct(), PriceTicks.toTicks(fm.getPrice()), fm.getVolume(),
+			   leaving, fm.getSide(), fm.getId(), leaving < 0 ? fm.getDetails() : null);
+	}
+	
+	//Encodes a fill of the Tradable straight from the book, with no FillMessage
+	public static void encode(ByteBuffer out, Tradable t, long priceTicks, int volume, int leaving){
+		encode(out, t.getUser(), t.getProduct(), priceTicks, volume, leaving, t.getSide(), t.getId(), null);
+	}
+	
+	// Decoding
+	
+	public FillCodec wrap(ByteBuffer b, int off){
+		buffer = b;
+		offset = off;
+		return this;
+	}
+	
+	public long getPrice(){
+		return buffer.getLong(offset + PRICE);
+	}
+	
+	public int getVolume(){
+		return buffer.getInt(offset + VOLUME);
+	}
+	
+	public int getLeavingVolume(){
+		return buffer.getInt(offset + LEAVING);
+	}
+	
+	public String getSide(){
+		return Codec.side(buffer.get(offset + SIDE));
+	}
+	
+	public String getUser(){
+		return Codec.getString(buffer, offset + USER);
+	}
+	
+	public String getProduct(){
+		return Codec.getString(buffer, productOffset());
+	}
+	
+	public String getId(){
+		return Codec.getString(buffer, idOffset());
+	}
+	
+	public String getDetails(){
+		int leaving = getLeavingVolume();
+		if(leaving >= 0){
+			return "leaving " + leaving;
+		}
+		return Codec.getString(buffer, Codec.skip(buffer, idOffset()));
+	}
+	
+	//The number of bytes the fill takes
+	public int getLength(){
+		return Codec.skip(buffer, Codec.skip(buffer, idOffset())) - offset;
+	}
+	
+	public FillMessage toFillMessage(){
+		int leaving = getLeavingVolume();
+		if(leaving >= 0){
+			return new FillMessage(getUser(), getProduct(), PriceTicks.toPrice(getPrice()), getVolume(),
+								   leaving, getSide(), getId());
+		}
+		return new FillMessage(getUser(), getProduct(), PriceTicks.toPrice(getPrice()), getVolume(),
+							   getDetails(), getSide(), getId());
+	}
+	
+	private int productOffset(){
+		return Codec.skip(buffer, offset + USER);
+	}
+	
+	private int idOffset(){
+		return Codec.skip(buffer, productOffset());
+	}
+}
@@ -0,0 +1,83 @@
+package codec;
+
+import java.nio.ByteBuffer;
+
+import pricePackage.Price;
+import pricePackage.PriceTicks;
+import publishers.MarketDataDTO;
+
+/*
+ * A flyweight over a current market encoded in a ByteBuffer, used like
+ * FillCodec. Every field but the product has a fixed place, so reading
+ * the prices and volumes makes nothing.
+ * 
+ * Layout: buy price in ticks (long), buy volume (int), sell price in ticks
+ * (long), sell volume (int), then product.
+ */
+public final class MarketDataCodec {
+
+	private static final int BUY_PRICE = 0;
+	private static final int BUY_VOLUME = 8;
+	private static final int SELL_PRICE = 12;
+	private static final int SELL_VOLUME = 20;
+	private static final int PRODUCT = 24;
+	
+	private ByteBuffer buffer;
+	private int offset;
+	
+	// Encoding
+	
+	public static int size(String product){
+		return PRODUCT + Codec.size(product);
+	}
+	
+	public static void encode(ByteBuffer out, String product, Price bp, int bv, Price sp, int sv){
+		out.putLong(PriceTicks.toTicks(bp));
+		out.putInt(bv);
+		out.putLong(PriceTicks.toTicks(sp));
+		out.putInt(sv);
+		Codec.putString(out, product);
+	}
+	
+	public static void encode(ByteBuffer out, MarketDataDTO md){
+		encode(out, md.getProduct(), md.getBuyPrice(), md.getBuyVolume(), md.getSellPrice(), md.getSellVolume());
+	}
+	
+	// Decoding
+	
+	public MarketDataCodec wrap(ByteBuffer b, int off){
+		buffer = b;
+		offset = off;
+		return this;
+	}
+	
+	public long getBuyPrice(){
+		return buffer.getLong(offset + BUY_PRICE);
+	}
+	
+	public int getBuyVolume(){
+		return buffer.getInt(offset + BUY_VOLUME);
+	}
+	
+	public long getSellPrice(){
+		return buffer.getLong(offset + SELL_PRICE);
+	}
+	
+	public int getSellVolume(){
+		return buffer.getInt(offset + SELL_VOLUME);
+	}
+	
+	public String getProduct(){
+		return Codec.getString(buffer, offset + PRODUCT);
+	}
+	
+	//The number of bytes the current market takes
+	public int getLength(){
+		return Codec.skip(buffer, offset + PRODUCT) - offset;
+	}
+	
+	public MarketDataDTO toMarketDataDTO(){
+		return new MarketDataDTO(getProduct(), PriceTicks.toPrice(getBuyPrice()), getBuyVolume(),
+								 PriceTicks.toPrice(getSellPrice()), getSellVolume());
+	}
+}
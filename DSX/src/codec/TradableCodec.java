@@ -0,0 +1,124 @@
+package codec;
+
+import java.nio.ByteBuffer;
+
+import pricePackage.PriceTicks;
+import tradablePackage.Tradable;
+import tradablePackage.TradableDTO;
+
+/*
+ * A flyweight over an Order or Quote side encoded in a ByteBuffer, used
+ * like FillCodec. A live Tradable is encoded straight from the book, with
+ * no TradableDTO made for it.
+ * 
+ * Layout: price in ticks (long), original, remaining and cancelled volume
+ * (ints), side (byte), quote flag (byte), then user, product and id.
+ */
+public final class TradableCodec {
+
+	private static final int PRICE = 0;
+	private static final int ORIGINAL = 8;
+	private static final int REMAINING = 12;
+	private static final int CANCELLED = 16;
+	private static final int SIDE = 20;
+	private static final int QUOTE = 21;
+	private static final int USER = 22;
+	
+	private ByteBuffer buffer;
+	private int offset;
+	
+	// Encoding
+	
+	public static int size(String user, String product, String id){
+		return USER + Codec.size(user) + Codec.size(product) + Codec.size(id);
+	}
+	
+	public static int size(Tradable t){
+		return size(t.getUser(), t.getProduct(), t.getId());
+	}
+	
+	public static int size(TradableDTO dto){
+		return size(dto.user, dto.product, dto.id);
+	}
+	
+	public static void encode(ByteBuffer out, String user, String product, long priceTicks, int original,
+							  int remaining, int cancelled, String side, boolean quote, String id){
+		out.putLong(priceTicks);
+		out.putInt(original);
+		out.putInt(remaining);
+		out.putInt(cancelled);
+		out.put(Codec.sideCode(side));
+		out.put(quote ? (byte) 1 : (byte) 0);
+		Codec.putString(out, user);
+		Codec.putString(out, product);
+		Codec.putString(out, id);
+	}
+	
+	public static void encode(ByteBuffer out, Tradable t){
+		encode(out, t.getUser(), t.getProduct(), PriceTicks.toTicks(t.getPrice()), t.getOriginalVolume(),
+			   t.getRemainingVolume(), t.getCancelledVolume(), t.getSide(), t.isQuote(), t.getId());
+	}
+	
+	public static void encode(ByteBuffer out, TradableDTO dto){
+		encode(out, dto.user, dto.product, PriceTicks.toTicks(dto.price), dto.originalVolume,
+			   dto.remainingVolume, dto.cancelledVolume, dto.bookSide, dto.isQuote, dto.id);
+	}
+	
+	// Decoding
+	
+	public TradableCodec wrap(ByteBuffer b, int off){
+		buffer = b;
+		offset = off;
+		return this;
+	}
+	
+	public long getPrice(){
+		return buffer.getLong(offset + PRICE);
+	}
+	
+	public int getOriginalVolume(){
+		return buffer.getInt(offset + ORIGINAL);
+	}
+	
+	public int getRemainingVolume(){
+		return buffer.getInt(offset + REMAINING);
+	}
+	
+	public int getCancelledVolume(){
+		return buffer.getInt(offset + CANCELLED);
+	}
+	
+	public String getSide(){
+		return Codec.side(buffer.get(offset + SIDE));
+	}
+	
+	public boolean isQuote(){
+		return buffer.get(offset + QUOTE) != 0;
+	}
+	
+	public String getUser(){
+		return Codec.getString(buffer, offset + USER);
+	}
+	
+	public String getProduct(){
+		return Codec.getString(buffer, productOffset());
+	}
+	
+	public String getId(){
+		return Codec.getString(buffer, Codec.skip(buffer, productOffset()));
+	}
+	
+	//The number of bytes the Tradable takes
+	public int getLength(){
+		return Codec.skip(buffer, Codec.skip(buffer, productOffset())) - offset;
+	}
+	
+	public TradableDTO toTradableDTO(){
+		return new TradableDTO(getProduct(), PriceTicks.toPrice(getPrice()), getOriginalVolume(), getRemainingVolume(),
+							   getCancelledVolume(), getUser(), getSide(), isQuote(), getId());
+	}
+	
+	private int productOffset(){
+		return Codec.skip(buffer, offset + USER);
+	}
+}
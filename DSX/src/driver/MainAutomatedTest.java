@@ -9,6 +9,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
 import book.ProductService;
+import metrics.MetricsRegistry;
+import publishers.DeliveryService;
 
 public class MainAutomatedTest {
 
@@ -33,6 +35,9 @@ public class MainAutomatedTest {
             ProductService.getInstance().createProduct("AAPL");
             ProductService.getInstance().createProduct("GE");
             ProductService.getInstance().createProduct("T");
+            MetricsRegistry.getInstance().registerMBean();
+            // Deliver on a pool so a slow display never holds up matching
+            DeliveryService.getInstance().start(2, 1024, "CONFLATE");
         } catch (Exception ex) {
             Logger.getLogger(MainAutomatedTest.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -0,0 +1,155 @@
+package driver;
+
+import java.util.concurrent.CountDownLatch;
+
+import benchmark.NullUser;
+import book.ProductService;
+import pricePackage.Price;
+import pricePackage.PriceFactory;
+import publishers.CurrentMarketPublisher;
+import publishers.DeliveryService;
+import publishers.LastSalePublisher;
+import publishers.MarketDataDTO;
+
+/*
+ * Checks the DeliveryService's overflow policies. Three subscribers, one
+ * for each of DROP_OLDEST, CONFLATE and DISCONNECT, are held up on their
+ * first event while two current markets and a run of last sales overflow
+ * their queues, then let go. The disconnected subscriber then subscribes
+ * again. Prints each check and exits with 1 if any failed. Usage:
+ *
+ *   java driver.MainDeliveryTest
+ */
+public class MainDeliveryTest {
+
+    private static final int CAPACITY = 8;
+    private static final int LAST_SALES = 20;
+
+    private static int passed;
+    private static int failed;
+
+    /*
+     * Records the current markets and last sales delivered to it, holding
+     * up its delivery thread on the first event until the gate opens
+     */
+    private static class SlowUser extends NullUser {
+
+        private CountDownLatch gate;
+        private int lastSales;
+        private int lastSaleVolume;
+        private int currentMarkets;
+        private int currentMarketVolume;
+
+        SlowUser(String name, CountDownLatch g) {
+            super(name);
+            gate = g;
+        }
+
+        private void hold() {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void acceptLastSale(String product, Price p, int v, long sequence) {
+            hold();
+            synchronized (this) {
+                lastSales++;
+                lastSaleVolume = v;
+            }
+        }
+
+        public void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv, long sequence) {
+            hold();
+            synchronized (this) {
+                currentMarkets++;
+                currentMarketVolume = bv;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        ProductService.getInstance().createProduct("IBM");
+        DeliveryService delivery = DeliveryService.getInstance();
+        delivery.start(4, CAPACITY, "DROP_OLDEST");
+
+        CountDownLatch gate = new CountDownLatch(1);
+        SlowUser dropper = new SlowUser("DROPPER", gate);
+        SlowUser conflater = new SlowUser("CONFLATER", gate);
+        SlowUser leaver = new SlowUser("LEAVER", gate);
+        delivery.setOverflowPolicy(dropper, "DROP_OLDEST");
+        delivery.setOverflowPolicy(conflater, "CONFLATE");
+        delivery.setOverflowPolicy(leaver, "DISCONNECT");
+        for (SlowUser u : new SlowUser[] {dropper, conflater, leaver}) {
+            CurrentMarketPublisher.getInstance().subscribe(u, "IBM");
+            LastSalePublisher.getInstance().subscribe(u, "IBM");
+        }
+
+        // Each subscriber's delivery thread takes this one and waits on the gate
+        Price price = PriceFactory.makeLimitPrice("10.00");
+        LastSalePublisher.getInstance().publishLastSale("IBM", price, 1);
+        Thread.sleep(200);
+
+        // Two current markets, the second being the latest state, then enough
+        // last sales to push them to the front of a full queue
+        CurrentMarketPublisher.getInstance().publishCurrentMarket(new MarketDataDTO("IBM", price, 100, price, 100));
+        CurrentMarketPublisher.getInstance().publishCurrentMarket(new MarketDataDTO("IBM", price, 200, price, 200));
+        for (int i = 1; i <= LAST_SALES; i++) {
+            LastSalePublisher.getInstance().publishLastSale("IBM", price, 100 + i);
+        }
+        gate.countDown();
+        check("Queues drained", delivery.awaitIdle(5000));
+        Thread.sleep(100);
+
+        synchronized (dropper) {
+            check("DROP_OLDEST keeps the newest last sale", dropper.lastSaleVolume == 100 + LAST_SALES);
+            check("DROP_OLDEST keeps at most a queue full", dropper.lastSales == 1 + CAPACITY);
+            check("DROP_OLDEST drops the current markets at the front", dropper.currentMarkets == 0);
+            check("DROP_OLDEST counts what it dropped", delivery.getDroppedCount(dropper) == 2 + LAST_SALES - CAPACITY);
+        }
+        synchronized (conflater) {
+            check("CONFLATE delivers only the latest current market", conflater.currentMarkets == 1
+                    && conflater.currentMarketVolume == 200);
+            check("CONFLATE keeps the newest last sale", conflater.lastSaleVolume == 100 + LAST_SALES);
+            check("CONFLATE drops last sales, not the market", conflater.lastSales == CAPACITY);
+        }
+        synchronized (leaver) {
+            check("DISCONNECT drops the queue", leaver.lastSales == 1 && leaver.currentMarkets == 0);
+        }
+
+        // The disconnected subscriber has been removed from the publishers
+        LastSalePublisher.getInstance().publishLastSale("IBM", price, 500);
+        check("Queues drained again", delivery.awaitIdle(5000));
+        Thread.sleep(100);
+        synchronized (leaver) {
+            check("DISCONNECT removes the subscriber", leaver.lastSales == 1);
+        }
+        synchronized (dropper) {
+            check("Other subscribers still served", dropper.lastSaleVolume == 500);
+        }
+
+        // Subscribing again reopens the disconnected subscriber's queue
+        LastSalePublisher.getInstance().subscribe(leaver, "IBM");
+        LastSalePublisher.getInstance().publishLastSale("IBM", price, 600);
+        check("Queues drained once more", delivery.awaitIdle(5000));
+        Thread.sleep(100);
+        synchronized (leaver) {
+            check("DISCONNECT subscriber served again once it subscribes", leaver.lastSales == 2 && leaver.lastSaleVolume == 600);
+        }
+
+        System.out.println(passed + " checks passed, " + failed + " failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static void check(String what, boolean ok) {
+        if (ok) {
+            passed++;
+        } else {
+            failed++;
+        }
+        System.out.println((ok ? "OK      " : "FAILED  ") + what);
+    }
+}
@@ -0,0 +1,311 @@
+package driver;
+
+import java.util.ArrayList;
+
+import benchmark.NullUser;
+import book.ProductService;
+import exceptions.RequestRejectedException;
+import gateway.GatewayClient;
+import gateway.GatewayServer;
+import messages.CancelMessage;
+import messages.FillMessage;
+import pricePackage.Price;
+import pricePackage.PriceFactory;
+import publishers.BookDepthDTO;
+import publishers.DepthUpdate;
+import tradablePackage.Order;
+import tradablePackage.TradableDTO;
+import user.DepthMirror;
+
+/*
+ * Loopback test of the network gateway. Starts a GatewayServer on a free
+ * local port, connects two GatewayClients to it and checks that orders,
+ * cancels, quotes, subscriptions, depth requests, replays and rejects all
+ * make the round trip, printing each check and exiting with 1 if any
+ * failed. Usage:
+ *
+ *   java driver.MainGatewayTest [-orders 2000]
+ *
+ * -orders is the number of orders sent back to back at the end to time
+ * the request round trip.
+ */
+public class MainGatewayTest {
+
+    private static int passed;
+    private static int failed;
+
+    /*
+     * Records what the gateway streams back to a client
+     */
+    private static class Recorder extends NullUser {
+
+        private int fills;
+        private int cancels;
+        private int misrouted;
+        private int lastSales;
+        private int currentMarkets;
+        private Price lastSalePrice;
+        private int lastSaleVolume;
+        private int lastCancelVolume;
+        private ArrayList<String> fillDetails = new ArrayList<>();
+        private DepthMirror mirror = new DepthMirror("IBM");
+
+        Recorder(String name) {
+            super(name);
+        }
+
+        public synchronized void acceptMessage(FillMessage fm, long sequence) {
+            super.acceptMessage(fm, sequence);
+            fills++;
+            fillDetails.add(fm.getDetails());
+            if (!fm.getUser().equals(getUserName())) {
+                misrouted++;
+            }
+        }
+
+        public synchronized void acceptMessage(CancelMessage cm, long sequence) {
+            super.acceptMessage(cm, sequence);
+            cancels++;
+            lastCancelVolume = cm.getVolume();
+            if (!cm.getUser().equals(getUserName())) {
+                misrouted++;
+            }
+        }
+
+        public synchronized void acceptLastSale(String product, Price p, int v, long sequence) {
+            super.acceptLastSale(product, p, v, sequence);
+            lastSales++;
+            lastSalePrice = p;
+            lastSaleVolume = v;
+        }
+
+        public synchronized void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv, long sequence) {
+            super.acceptCurrentMarket(product, bp, bv, sp, sv, sequence);
+            currentMarkets++;
+        }
+
+        public synchronized void acceptDepthSnapshot(BookDepthDTO depth, long sequence) {
+            super.acceptDepthSnapshot(depth, sequence);
+            mirror.applySnapshot(depth, sequence);
+        }
+
+        public synchronized void acceptDepthUpdate(DepthUpdate update) {
+            super.acceptDepthUpdate(update);
+            mirror.applyUpdate(update);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int orders = 2000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-orders")) {
+                orders = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("Unknown argument: " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        ProductService.getInstance().createProduct("IBM");
+        ProductService.getInstance().createProduct("GE");
+        ProductService.getInstance().createProduct("T");
+        ProductService.getInstance().setMarketState("PREOPEN");
+        ProductService.getInstance().setMarketState("OPEN");
+
+        GatewayServer server = new GatewayServer("127.0.0.1", 0);
+        server.start();
+        System.out.println("Gateway listening on port " + server.getPort());
+
+        final Recorder rex = new Recorder("REX");
+        final Recorder ann = new Recorder("ANN");
+        GatewayClient rexClient = new GatewayClient("127.0.0.1", server.getPort(), rex);
+        GatewayClient annClient = new GatewayClient("127.0.0.1", server.getPort(), ann);
+
+        check("REX logs on", rexClient.connect("REX") != 0);
+        check("ANN logs on", annClient.connect("ANN") != 0);
+        check("Two sessions open", server.getSessionCount() == 2);
+        check("Market state is OPEN", annClient.getMarketState().equals("OPEN"));
+
+        for (String stream : new String[] {"MESSAGES", "LAST_SALE", "CURRENT_MARKET"}) {
+            rexClient.subscribe(stream, "IBM");
+            annClient.subscribe(stream, "IBM");
+        }
+        annClient.subscribe("DEPTH", "IBM");
+
+        // Order entry and depth
+        String buyId = rexClient.submitOrder("IBM", PriceFactory.makeLimitPrice("10.00"), 100, "BUY");
+        check("Order id returned", buyId != null);
+        BookDepthDTO depth = annClient.getBookDepth("IBM");
+        check("Depth shows the order", depth.getBuyLevels() == 1 && depth.getBuyPrice(0) == 1000 && depth.getBuyVolume(0) == 100);
+        ArrayList<TradableDTO> open = rexClient.getOrdersWithRemainingQty("IBM");
+        check("Order listed", open.size() == 1 && open.get(0).id.equals(buyId) && open.get(0).remainingVolume == 100);
+
+        // A trade streams fills and the last sale back
+        annClient.submitOrder("IBM", PriceFactory.makeLimitPrice("10.00"), 40, "SELL");
+        check("Each side gets its own fill", waitFor(new Condition() {
+            public boolean holds() {
+                synchronized (rex) {
+                    synchronized (ann) {
+                        return rex.fills == 1 && ann.fills == 1;
+                    }
+                }
+            }
+        }));
+        check("Fill details carried", waitFor(new Condition() {
+            public boolean holds() {
+                synchronized (rex) {
+                    synchronized (ann) {
+                        return rex.fillDetails.contains("leaving 60") && ann.fillDetails.contains("leaving 0");
+                    }
+                }
+            }
+        }));
+        check("Last sale delivered", waitFor(new Condition() {
+            public boolean holds() {
+                synchronized (rex) {
+                    return rex.lastSales == 1 && rex.lastSalePrice.equals(PriceFactory.makeLimitPrice("10.00"))
+                            && rex.lastSaleVolume == 40;
+                }
+            }
+        }));
+        check("Current market delivered", waitFor(new Condition() {
+            public boolean holds() {
+                synchronized (ann) {
+                    return ann.currentMarkets > 0;
+                }
+            }
+        }));
+
+        // Cancel the rest of the order
+        rexClient.submitOrderCancel("IBM", "BUY", buyId);
+        check("Cancel delivered to its owner only", waitFor(new Condition() {
+            public boolean holds() {
+                synchronized (rex) {
+                    synchronized (ann) {
+                        return rex.cancels == 1 && rex.lastCancelVolume == 60 && ann.cancels == 0;
+                    }
+                }
+            }
+        }));
+        check("Depth mirror follows the book", waitFor(new Condition() {
+            public boolean holds() {
+                try {
+                    synchronized (ann) {
+                        return ann.mirror.isInSync() && ann.mirror.getDepth().getBuyLevels() == 0;
+                    }
+                } catch (RuntimeException e) {
+                    return false;
+                }
+            }
+        }));
+
+        // Quotes and mass cancel
+        annClient.submitQuote("IBM", PriceFactory.makeLimitPrice("9.90"), 50, PriceFactory.makeLimitPrice("10.10"), 50);
+        depth = rexClient.getBookDepth("IBM");
+        check("Quote in the book", depth.getBuyLevels() == 1 && depth.getSellLevels() == 1);
+        annClient.submitMassCancel(null);
+        depth = rexClient.getBookDepth("IBM");
+        check("Mass cancel empties the book", depth.getBuyLevels() == 0 && depth.getSellLevels() == 0);
+        check("Quote cancels delivered to its owner only", waitFor(new Condition() {
+            public boolean holds() {
+                synchronized (rex) {
+                    synchronized (ann) {
+                        return ann.cancels == 2 && rex.cancels == 1;
+                    }
+                }
+            }
+        }));
+        synchronized (rex) {
+            synchronized (ann) {
+                check("No messages misrouted", rex.misrouted == 0 && ann.misrouted == 0);
+            }
+        }
+
+        // Replay
+        check("Last sale replayed", rexClient.requestReplay("LAST_SALE", "IBM", 1) && waitFor(new Condition() {
+            public boolean holds() {
+                synchronized (rex) {
+                    return rex.lastSales == 2;
+                }
+            }
+        }));
+
+        // Rejects
+        try {
+            rexClient.submitOrder("NOPE", PriceFactory.makeLimitPrice("1.00"), 10, "BUY");
+            check("Unknown product rejected", false);
+        } catch (RequestRejectedException e) {
+            check("Unknown product rejected (" + e.getMessage() + ")", e.getMessage().startsWith("NoSuchProductException"));
+        }
+        try {
+            rexClient.subscribe("MESSAGES", "IBM");
+            check("Second subscription rejected", false);
+        } catch (RequestRejectedException e) {
+            check("Second subscription rejected (" + e.getMessage() + ")", e.getMessage().startsWith("AlreadySubscribedException"));
+        }
+
+        // Round trip timing
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            rexClient.submitOrder("GE", PriceFactory.makeLimitPrice(1000 + i % 50), 10, "BUY");
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        System.out.println(orders + " orders in " + micros / 1000 + " ms, " + (micros / Math.max(orders, 1)) + " us per round trip");
+        rexClient.submitMassCancel("GE");
+        check("All orders booked then cancelled", rexClient.getBookDepth("GE").getBuyLevels() == 0);
+
+        // More orders than a short can count, booked directly and listed over the gateway
+        int many = Short.MAX_VALUE + 100;
+        for (int i = 0; i < many; i++) {
+            ProductService.getInstance().submitOrder(new Order("REX", "T", PriceFactory.makeLimitPrice(500 + i % 50), 1, "BUY"));
+        }
+        check("More than 32767 orders listed", rexClient.getOrdersWithRemainingQty("T").size() == many);
+
+        // Log off and disconnect
+        rexClient.disConnect();
+        try {
+            rexClient.getMarketState();
+            check("Requests after log off rejected", false);
+        } catch (RequestRejectedException e) {
+            check("Requests after log off rejected", true);
+        }
+        rexClient.close();
+        annClient.close();
+        final GatewayServer s = server;
+        check("Sessions closed", waitFor(new Condition() {
+            public boolean holds() {
+                return s.getSessionCount() == 0;
+            }
+        }));
+        server.stop();
+
+        System.out.println(passed + " checks passed, " + failed + " failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    //Waits up to five seconds for the condition, since the stream arrives on the client's reader thread
+    private static boolean waitFor(Condition c) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!c.holds()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private static void check(String what, boolean ok) {
+        if (ok) {
+            passed++;
+        } else {
+            failed++;
+        }
+        System.out.println((ok ? "OK      " : "FAILED  ") + what);
+    }
+}
@@ -0,0 +1,159 @@
+package driver;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import journal.Journal;
+import journal.JournalHandler;
+import pricePackage.PriceFactory;
+import tradablePackage.Order;
+import tradablePackage.Quote;
+
+/*
+ * Checks that the Journal recovers from a record torn by a crash. A journal
+ * is written, its last record is damaged the two ways a crash can leave
+ * it, and it is reopened, appended to with a shorter record and replayed
+ * again. Recovery must stop at the torn record, and what the torn record
+ * left behind must never be read back as a record of its own. Prints each
+ * check and exits with 1 if any failed. Usage:
+ *
+ *   java driver.MainJournalTest
+ */
+public class MainJournalTest {
+
+    private static int passed;
+    private static int failed;
+
+    /*
+     * Records each command replayed, as a line of text, and the offset of
+     * each record
+     */
+    private static class Recorder implements JournalHandler {
+
+        private ArrayList<String> commands = new ArrayList<>();
+        private ArrayList<Long> offsets = new ArrayList<>();
+
+        public void recordOffset(long offset) {
+            offsets.add(offset);
+        }
+
+        public void productCreated(String product) {
+            commands.add("PRODUCT " + product);
+        }
+
+        public void marketStateChanged(String state) {
+            commands.add("STATE " + state);
+        }
+
+        public void orderSubmitted(Order o) {
+            commands.add("ORDER " + o.getUser() + " " + o.getOriginalVolume());
+        }
+
+        public void quoteSubmitted(Quote q) {
+            commands.add("QUOTE " + q.getUserName());
+        }
+
+        public void orderCancelled(String product, String side, long orderId) {
+            commands.add("CANCEL " + orderId);
+        }
+
+        public void quoteCancelled(String userName, String product) {
+            commands.add("QUOTE CANCEL " + userName);
+        }
+
+        public void massCancelled(String product, String userName) {
+            commands.add("MASS CANCEL " + userName);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        // The length reached the disk, but the end of the body did not
+        File torn = writeJournal();
+        long last = lastRecordOffset(torn);
+        RandomAccessFile f = new RandomAccessFile(torn, "rw");
+        f.seek(last);
+        int length = f.readInt();
+        f.seek(last + 40);
+        for (int i = 40; i < 4 + length; i++) {
+            f.write(0);
+        }
+        f.close();
+        recover("Torn body", torn);
+
+        // The body reached the disk, but the length did not
+        File unwritten = writeJournal();
+        last = lastRecordOffset(unwritten);
+        f = new RandomAccessFile(unwritten, "rw");
+        f.seek(last);
+        f.writeInt(0);
+        f.close();
+        recover("Unwritten length", unwritten);
+
+        System.out.println(passed + " checks passed, " + failed + " failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /*
+     * Writes a product and two orders, the second with a long user name so
+     * its body outlasts the record written over it
+     */
+    private static File writeJournal() throws Exception {
+        File file = File.createTempFile("journal", ".bin");
+        file.deleteOnExit();
+        Journal journal = Journal.open(file.getPath(), "EVERY_WRITE", 0, 0, null);
+        journal.appendProduct("IBM");
+        journal.appendOrder(new Order("REX", "IBM", PriceFactory.makeLimitPrice("10.00"), 100, "BUY", 1));
+        journal.appendOrder(new Order("A_VERY_LONG_USER_NAME_THAT_LEAVES_A_LONG_TAIL_BEHIND_IT", "IBM",
+                PriceFactory.makeLimitPrice("11.00"), 200, "SELL", 2));
+        journal.close();
+        return file;
+    }
+
+    private static long lastRecordOffset(File file) throws Exception {
+        Recorder r = replay(file);
+        return r.offsets.get(r.offsets.size() - 1);
+    }
+
+    private static void recover(String what, File file) throws Exception {
+        Recorder r = new Recorder();
+        Journal journal = Journal.open(file.getPath(), "EVERY_WRITE", 0, 0, r);
+        check(what + ": replay stops at the torn record",
+                r.commands.toString().equals("[PRODUCT IBM, ORDER REX 100]"));
+        journal.appendMarketState("OPEN");
+        journal.close();
+
+        r = replay(file);
+        check(what + ": the new record replaces it, and nothing follows",
+                r.commands.toString().equals("[PRODUCT IBM, ORDER REX 100, STATE OPEN]"));
+
+        r = new Recorder();
+        journal = Journal.open(file.getPath(), "EVERY_WRITE", 0, 0, r);
+        journal.appendOrder(new Order("TOM", "IBM", PriceFactory.makeLimitPrice("9.00"), 50, "BUY", 3));
+        journal.close();
+        r = replay(file);
+        check(what + ": appends after recovery replay in order",
+                r.commands.toString().equals("[PRODUCT IBM, ORDER REX 100, STATE OPEN, ORDER TOM 50]"));
+    }
+
+    private static Recorder replay(File file) throws Exception {
+        Recorder r = new Recorder();
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            Journal.replay(f.getChannel(), 0, r);
+        } finally {
+            f.close();
+        }
+        return r;
+    }
+
+    private static void check(String what, boolean ok) {
+        if (ok) {
+            passed++;
+        } else {
+            failed++;
+        }
+        System.out.println((ok ? "OK      " : "FAILED  ") + what);
+    }
+}
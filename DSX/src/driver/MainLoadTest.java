@@ -0,0 +1,130 @@
+package driver;
+
+import book.ProductService;
+import client.LoadGenerator;
+import client.UserSimSettings;
+import metrics.MetricsRegistry;
+import publishers.DeliveryService;
+import publishers.MarketDataDTO;
+
+/*
+ * Headless load test. Sets up the same products as MainAutomatedTest,
+ * opens the market and runs a LoadGenerator against it. Usage:
+ *
+ *   java driver.MainLoadTest [-users 2000] [-threads 8] [-rate 20000]
+ *        [-seconds 30] [-subscribe] [-delivery 2] [-sequenced 4]
+ *
+ * -rate is the target number of events per second across all users, and
+ * -subscribe subscribes every user to every product's market data.
+ * -delivery is the number of DeliveryService threads; 0 delivers market
+ * data on the matching threads instead of through subscriber queues.
+ * -sequenced runs the engine in sequenced mode with the given number of
+ * matching shards, and stops it again once the load has run. The engine's
+ * own metrics are printed after the load generator's report, and can be
+ * watched over JMX while the test runs.
+ *
+ * When the load has run, every book is checked for being crossed, with
+ * its best buy at or above its best sell, which matching must never leave
+ * behind. The test exits with 1 if any is.
+ */
+public class MainLoadTest {
+
+    public static void main(String[] args) throws Exception {
+
+        int users = 2000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double rate = 20000;
+        int seconds = 30;
+        boolean subscribe = false;
+        int deliveryThreads = 2;
+        int shards = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-users":
+                    users = Integer.parseInt(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "-seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "-subscribe":
+                    subscribe = true;
+                    break;
+                case "-delivery":
+                    deliveryThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "-sequenced":
+                    shards = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.out.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        if (deliveryThreads > 0) {
+            DeliveryService.getInstance().start(deliveryThreads, 1024, "DROP_OLDEST");
+        }
+        if (shards > 0) {
+            ProductService.getInstance().startSequencedMode(shards, 4096);
+        }
+        setupTradingSystem();
+        MetricsRegistry.getInstance().registerMBean();
+
+        LoadGenerator generator = new LoadGenerator(users, threads, rate, seconds * 1000L, subscribe);
+        generator.connectUsers();
+        System.out.println("Running " + users + " simulated users for " + seconds + " seconds...");
+        generator.run();
+
+        boolean consistent = checkBooks();
+        if (shards > 0) {
+            ProductService.getInstance().stopSequencedMode();
+        }
+        ProductService.getInstance().setMarketState("CLOSED");
+        generator.printReport();
+        System.out.println();
+        System.out.print(MetricsRegistry.getInstance().getReport());
+        if (!consistent) {
+            System.exit(1);
+        }
+    }
+
+    //Prints any book left crossed and returns false if there is one
+    private static boolean checkBooks() {
+        boolean consistent = true;
+        for (String product : ProductService.getInstance().getProductList()) {
+            MarketDataDTO md = ProductService.getInstance().getMarketData(product);
+            if (md.getBuyVolume() > 0 && md.getSellVolume() > 0 && md.getBuyPrice().greaterOrEqual(md.getSellPrice())) {
+                System.out.println("Crossed book: " + md);
+                consistent = false;
+            }
+        }
+        System.out.println(consistent ? "All books uncrossed" : "BOOKS CROSSED");
+        return consistent;
+    }
+
+    private static void setupTradingSystem() throws Exception {
+        ProductService.getInstance().createProduct("IBM");
+        ProductService.getInstance().createProduct("CBOE");
+        ProductService.getInstance().createProduct("GOOG");
+        ProductService.getInstance().createProduct("AAPL");
+        ProductService.getInstance().createProduct("GE");
+        ProductService.getInstance().createProduct("T");
+
+        UserSimSettings.addProductData("IBM", 189.40, 189.60, 200);
+        UserSimSettings.addProductData("CBOE", 28.00, 28.15, 300);
+        UserSimSettings.addProductData("GOOG", 608.00, 608.75, 500);
+        UserSimSettings.addProductData("AAPL", 600.00, 601.00, 350);
+        UserSimSettings.addProductData("GE", 19.55, 19.95, 100);
+        UserSimSettings.addProductData("T", 34.25, 34.65, 250);
+
+        ProductService.getInstance().setMarketState("PREOPEN");
+        ProductService.getInstance().setMarketState("OPEN");
+    }
+}
@@ -8,6 +8,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
 import book.ProductService;
+import publishers.DeliveryService;
 
 
 public class MainManualTest {
@@ -28,6 +29,8 @@ public class MainManualTest {
             ProductService.getInstance().createProduct("AAPL");
             ProductService.getInstance().createProduct("GE");
             ProductService.getInstance().createProduct("T");
+            // Deliver on a pool so a slow display never holds up matching
+            DeliveryService.getInstance().start(2, 1024, "CONFLATE");
             ProductService.getInstance().setMarketState("PREOPEN"); // Replace PREOPEN with your preresenation of PREOPEN
             ProductService.getInstance().setMarketState("OPEN");  // Replace OPEN with your preresenation of OPEN
         } catch (Exception ex) {
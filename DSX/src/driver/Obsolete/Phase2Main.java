@@ -2,6 +2,7 @@ package driver.Obsolete;
 
 // HERE you should add any imports for your classes that you need to make this class compile.
 import java.util.ArrayList;
+import java.util.List;
 
 import exceptions.AlreadyConnectedException;
 import exceptions.AlreadySubscribedException;
@@ -292,35 +293,47 @@ public class Phase2Main {
         }
 
         @Override
-        public void acceptLastSale(String product, Price p, int v) {
+        public void acceptLastSale(String product, Price p, int v, long sequence) {
             System.out.println("User " + getUserName() + " Received Last Sale for " + product + " " + v + "@" + p);
         }
 
         @Override
-        public void acceptMessage(FillMessage fm) {
+        public void acceptMessage(FillMessage fm, long sequence) {
             System.out.println("User " + getUserName() + " Received Fill Message: " + fm);
         }
 
         @Override
-        public void acceptMessage(CancelMessage cm) {
+        public void acceptMessage(CancelMessage cm, long sequence) {
             System.out.println("User " + getUserName() + " Received Cancel Message: " + cm);
         }
 
         @Override
-        public void acceptMarketMessage(String message) {
+        public void acceptMarketMessage(String message, long sequence) {
             System.out.println("User " + getUserName() + " Received Market Message: " + message);
         }
 
         @Override
-        public void acceptTicker(String product, Price p, char direction) {
+        public void acceptTicker(String product, Price p, char direction, long sequence) {
             System.out.println("User " + getUserName() + " Received Ticker for " + product + " " + p + " " + direction);
         }
 
         @Override
-        public void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv) {
+        public void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv, long sequence) {
             System.out.println("User " + getUserName() + " Received Current Market for " + product + " " + bv + "@" + bp + " - " + sv + "@" + sp);
         }
 
+		@Override
+		public void acceptDepthSnapshot(BookDepthDTO depth, long sequence) {
+			// TODO Auto-generated method stub
+			
+		}
+
+		@Override
+		public void acceptDepthUpdate(DepthUpdate update) {
+			// TODO Auto-generated method stub
+			
+		}
+
 		@Override
 		public void connect() throws AlreadyConnectedException,
 				UserNotConnectedException, InvalidConnectionIdException {
@@ -377,6 +390,30 @@ public class Phase2Main {
 			
 		}
 
+		@Override
+		public ArrayList<String> submitOrders(List<Order> orders) {
+			// TODO Auto-generated method stub
+			return null;
+		}
+
+		@Override
+		public void submitQuotes(List<Quote> quotes) {
+			// TODO Auto-generated method stub
+			
+		}
+
+		@Override
+		public void cancelOrders(List<TradableDTO> orders) {
+			// TODO Auto-generated method stub
+			
+		}
+
+		@Override
+		public void submitMassCancel(String product) {
+			// TODO Auto-generated method stub
+			
+		}
+
 		@Override
 		public void subscribeCurrentMarket(String product)
 				throws AlreadySubscribedException, UserNotConnectedException,
@@ -409,6 +446,12 @@ public class Phase2Main {
 			
 		}
 
+		@Override
+		public void subscribeDepth(String product) {
+			// TODO Auto-generated method stub
+			
+		}
+
 		@Override
 		public Price getAllStockValue() throws InvalidPriceOperation {
 			// TODO Auto-generated method stub
@@ -428,7 +471,7 @@ public class Phase2Main {
 		}
 
 		@Override
-		public String[][] getBookDepth(String product)
+		public BookDepthDTO getBookDepth(String product)
 				throws NoSuchProductException, UserNotConnectedException,
 				InvalidConnectionIdException {
 			// TODO Auto-generated method stub
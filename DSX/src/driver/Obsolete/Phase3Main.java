@@ -1,6 +1,7 @@
 package driver.Obsolete;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import exceptions.AlreadyConnectedException;
 import exceptions.AlreadySubscribedException;
@@ -15,6 +16,9 @@ import messages.FillMessage;
 import book.ProductService;
 import pricePackage.Price;
 import pricePackage.PriceFactory;
+import pricePackage.PriceTicks;
+import publishers.BookDepthDTO;
+import publishers.DepthUpdate;
 import publishers.CurrentMarketPublisher;
 import publishers.LastSalePublisher;
 import publishers.MessagePublisher;
@@ -447,16 +451,20 @@ public class Phase3Main {
         System.out.println();
     }
 
-    private static void printOutBD(String[][] bd) {
-        String[] buy = bd[0];
-        String[] sell = bd[1];
+    private static void printOutBD(BookDepthDTO bd) {
         System.out.println("Buy Side:");
-        for (String s : buy) {
-            System.out.println("\t" + s);
+        if (bd.getBuyLevels() == 0) {
+            System.out.println("\t<Empty>");
+        }
+        for (int i = 0; i < bd.getBuyLevels(); i++) {
+            System.out.println("\t" + PriceTicks.toPrice(bd.getBuyPrice(i)) + " x " + bd.getBuyVolume(i));
         }
         System.out.println("Sell Side:");
-        for (String s : sell) {
-            System.out.println("\t" + s);
+        if (bd.getSellLevels() == 0) {
+            System.out.println("\t<Empty>");
+        }
+        for (int i = 0; i < bd.getSellLevels(); i++) {
+            System.out.println("\t" + PriceTicks.toPrice(bd.getSellPrice(i)) + " x " + bd.getSellVolume(i));
         }
     }
 
@@ -475,35 +483,47 @@ public class Phase3Main {
         }
 
         @Override
-        public void acceptLastSale(String product, Price p, int v) {
+        public void acceptLastSale(String product, Price p, int v, long sequence) {
             System.out.println("User " + getUserName() + " Received Last Sale for " + product + " " + v + "@" + p);
         }
 
         @Override
-        public void acceptMessage(FillMessage fm) {
+        public void acceptMessage(FillMessage fm, long sequence) {
             System.out.println("User " + getUserName() + " Received Fill Message: " + fm);
         }
 
         @Override
-        public void acceptMessage(CancelMessage cm) {
+        public void acceptMessage(CancelMessage cm, long sequence) {
             System.out.println("User " + getUserName() + " Received Cancel Message: " + cm);
         }
 
         @Override
-        public void acceptMarketMessage(String message) {
+        public void acceptMarketMessage(String message, long sequence) {
             System.out.println("User " + getUserName() + " Received Market Message: " + message);
         }
 
         @Override
-        public void acceptTicker(String product, Price p, char direction) {
+        public void acceptTicker(String product, Price p, char direction, long sequence) {
             System.out.println("User " + getUserName() + " Received Ticker for " + product + " " + p + " " + direction);
         }
 
         @Override
-        public void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv) {
+        public void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv, long sequence) {
             System.out.println("User " + getUserName() + " Received Current Market for " + product + " " + bv + "@" + bp + " - " + sv + "@" + sp);
         }
 
+		@Override
+		public void acceptDepthSnapshot(BookDepthDTO depth, long sequence) {
+			// TODO Auto-generated method stub
+			
+		}
+
+		@Override
+		public void acceptDepthUpdate(DepthUpdate update) {
+			// TODO Auto-generated method stub
+			
+		}
+
 		@Override
 		public void connect() throws AlreadyConnectedException,
 				UserNotConnectedException, InvalidConnectionIdException {
@@ -560,6 +580,30 @@ public class Phase3Main {
 			
 		}
 
+		@Override
+		public ArrayList<String> submitOrders(List<Order> orders) {
+			// TODO Auto-generated method stub
+			return null;
+		}
+
+		@Override
+		public void submitQuotes(List<Quote> quotes) {
+			// TODO Auto-generated method stub
+			
+		}
+
+		@Override
+		public void cancelOrders(List<TradableDTO> orders) {
+			// TODO Auto-generated method stub
+			
+		}
+
+		@Override
+		public void submitMassCancel(String product) {
+			// TODO Auto-generated method stub
+			
+		}
+
 		@Override
 		public void subscribeCurrentMarket(String product)
 				throws AlreadySubscribedException, UserNotConnectedException,
@@ -592,6 +636,12 @@ public class Phase3Main {
 			
 		}
 
+		@Override
+		public void subscribeDepth(String product) {
+			// TODO Auto-generated method stub
+			
+		}
+
 		@Override
 		public Price getAllStockValue() throws InvalidPriceOperation {
 			// TODO Auto-generated method stub
@@ -611,7 +661,7 @@ public class Phase3Main {
 		}
 
 		@Override
-		public String[][] getBookDepth(String product)
+		public BookDepthDTO getBookDepth(String product)
 				throws NoSuchProductException, UserNotConnectedException,
 				InvalidConnectionIdException {
 			// TODO Auto-generated method stub
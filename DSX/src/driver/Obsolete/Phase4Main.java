@@ -7,6 +7,8 @@ import user.UserImpl;
 import java.util.ArrayList;
 import pricePackage.PriceFactory;
 import book.ProductService;
+import pricePackage.PriceTicks;
+import publishers.BookDepthDTO;
 
 
 public class Phase4Main {
@@ -95,7 +97,7 @@ public class Phase4Main {
             System.out.println();
 
             System.out.println(runCount + ".4) User REX does a Book Depth query for " + stock);
-            System.out.println("Book Depth: " + users.get(0).getBookDepth(stock)[0][0] + " -- " + users.get(0).getBookDepth(stock)[1][0]);
+            System.out.println("Book Depth: " + topOfBook(users.get(0).getBookDepth(stock)));
             System.out.println();
 
             System.out.println(runCount + ".5) User REX does a query for their orders with remaining quantity for " + stock);
@@ -139,14 +141,14 @@ public class Phase4Main {
             System.out.println();
 
             System.out.println(runCount + ".14) User RAJ enters an order for " + stock + ", SELL 150@$10.00 - results in a trade");
-            String [][] st = users.get(2).getBookDepth(stock);
+            BookDepthDTO st = users.get(2).getBookDepth(stock);
  
             
             users.get(2).submitOrder(stock, PriceFactory.makeLimitPrice("$10.00"), 150, "SELL");
             System.out.println();
 
             System.out.println(runCount + ".15) User REX does a Book Depth query for " + stock);
-            System.out.println("IBM Book Depth: " + users.get(0).getBookDepth(stock)[0][0] + " -- " + users.get(0).getBookDepth(stock)[1][0]);
+            System.out.println("IBM Book Depth: " + topOfBook(users.get(0).getBookDepth(stock)));
             System.out.println();
 
             System.out.println(runCount + ".16) User REX enters a market order for " + stock + ", SELL 75@MKT - results in a trade");
@@ -154,7 +156,7 @@ public class Phase4Main {
             System.out.println();
 
             System.out.println(runCount + ".17) User ANN does a Book Depth query for " + stock);
-            System.out.println("IBM Book Depth: " + users.get(1).getBookDepth(stock)[0][0] + " -- " + users.get(1).getBookDepth(stock)[1][0]);
+            System.out.println("IBM Book Depth: " + topOfBook(users.get(1).getBookDepth(stock)));
             System.out.println();
 
             System.out.println(runCount + ".18) User ANN cancels her quote for "+ stock);
@@ -188,4 +190,10 @@ public class Phase4Main {
         }
 
     }
+
+    private static String topOfBook(BookDepthDTO bd) {
+        String buy = bd.getBuyLevels() == 0 ? "<Empty>" : PriceTicks.toPrice(bd.getBuyPrice(0)) + " x " + bd.getBuyVolume(0);
+        String sell = bd.getSellLevels() == 0 ? "<Empty>" : PriceTicks.toPrice(bd.getSellPrice(0)) + " x " + bd.getSellVolume(0);
+        return buy + " -- " + sell;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+package exceptions;
+
+public class RequestRejectedException extends Exception {
+	  
+	public RequestRejectedException(String message)
+	  {
+	    super(message);
+	  }
+}
@@ -0,0 +1,53 @@
+package gateway;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/*
+ * A pool of direct buffers of BUFFER_SIZE bytes, used by the gateway's
+ * sessions to read requests and to queue their output. Direct buffers are
+ * slow to allocate and are only freed by the garbage collector, so released
+ * buffers are kept for reuse, up to maxPooled of them. A frame too big for
+ * one buffer gets a buffer of its own, which is not pooled.
+ */
+class BufferPool {
+
+	static final int BUFFER_SIZE = 16 * 1024;
+	
+	private ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+	private int maxPooled;
+	private long allocated;
+	
+	BufferPool(int max){
+		maxPooled = max;
+	}
+	
+	synchronized ByteBuffer acquire(int size){
+		if(size > BUFFER_SIZE){
+			return ByteBuffer.allocateDirect(size);
+		}
+		ByteBuffer b = free.pollFirst();
+		if(b == null){
+			allocated++;
+			b = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		return b;
+	}
+	
+	synchronized void release(ByteBuffer b){
+		if(b.capacity() != BUFFER_SIZE || free.size() >= maxPooled){
+			return;
+		}
+		b.clear();
+		free.addFirst(b);
+	}
+	
+	//The number of pooled size buffers ever allocated
+	synchronized long getAllocated(){
+		return allocated;
+	}
+	
+	synchronized int getPooled(){
+		return free.size();
+	}
+}
@@ -0,0 +1,428 @@
+package gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import codec.CancelCodec;
+import codec.Codec;
+import codec.FillCodec;
+import codec.MarketDataCodec;
+import codec.TradableCodec;
+import exceptions.DataValidationException;
+import exceptions.RequestRejectedException;
+import pricePackage.Price;
+import pricePackage.PriceTicks;
+import publishers.BookDepthDTO;
+import publishers.DepthUpdate;
+import tradablePackage.TradableDTO;
+import user.User;
+
+/*
+ * The client side of the WireProtocol, for one user's connection to a
+ * GatewayServer. Requests are sent from the calling thread and wait for
+ * their response, while a reader thread takes the responses and passes the
+ * market data streamed back to the listener's accept methods, in the order
+ * the server sent it. The reader decodes fills, cancels and current markets
+ * through reused flyweights, making only the objects the listener is given.
+ * 
+ * A rejected request throws a RequestRejectedException whose message is
+ * the name of the exception the server threw and its message.
+ */
+public class GatewayClient {
+
+	private static final long RESPONSE_TIMEOUT_MILLIS = 10000;
+	
+	private SocketChannel channel;
+	private User listener;
+	private ByteBuffer request;
+	private ConcurrentHashMap<Integer, Response> pending = new ConcurrentHashMap<>();
+	private int nextRequestId;
+	private volatile boolean closed;
+	private Thread reader;
+	//Used only by the reader thread
+	private FillCodec fill = new FillCodec();
+	private CancelCodec cancel = new CancelCodec();
+	private MarketDataCodec market = new MarketDataCodec();
+	private TradableCodec tradable = new TradableCodec();
+	
+	//A request waiting for its response, filled in by the reader thread
+	private static class Response {
+		
+		private boolean done;
+		private byte type;
+		private long value;
+		private String text;
+		private String error;
+		private BookDepthDTO depth;
+		private ArrayList<TradableDTO> orders;
+	}
+	
+	public GatewayClient(String host, int port, User l) throws IOException{
+		listener = l;
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		request = ByteBuffer.allocateDirect(WireProtocol.MAX_REQUEST);
+		reader = new Thread(new Runnable(){
+			public void run(){
+				readResponses();
+			}
+		}, "GatewayClient");
+		reader.setDaemon(true);
+		reader.start();
+	}
+	
+	// Requests
+	
+	//Logs the user on and returns its connection id
+	public long connect(String userName) throws IOException, RequestRejectedException{
+		synchronized(this){
+			int start = begin(WireProtocol.LOGON, Codec.size(userName));
+			Codec.putString(request, userName);
+			return send(start).value;
+		}
+	}
+	
+	public void disConnect() throws IOException, RequestRejectedException{
+		synchronized(this){
+			send(begin(WireProtocol.LOGOFF, 0));
+		}
+	}
+	
+	public String submitOrder(String product, Price price, int volume, String side) throws IOException,
+																						  RequestRejectedException,
+																						  DataValidationException{
+		synchronized(this){
+			byte sideCode = WireProtocol.code(WireProtocol.SIDES, side);
+			int start = begin(WireProtocol.SUBMIT_ORDER, 13 + Codec.size(product));
+			request.putLong(PriceTicks.toTicks(price));
+			request.putInt(volume);
+			request.put(sideCode);
+			Codec.putString(request, product);
+			return send(start).text;
+		}
+	}
+	
+	public void submitOrderCancel(String product, String side, String orderId) throws IOException,
+																					  RequestRejectedException,
+																					  DataValidationException{
+		synchronized(this){
+			byte sideCode = WireProtocol.code(WireProtocol.SIDES, side);
+			int start = begin(WireProtocol.CANCEL_ORDER, 1 + Codec.size(product) + Codec.size(orderId));
+			request.put(sideCode);
+			Codec.putString(request, product);
+			Codec.putString(request, orderId);
+			send(start);
+		}
+	}
+	
+	public void submitQuote(String product, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume) throws IOException,
+																												 RequestRejectedException{
+		synchronized(this){
+			int start = begin(WireProtocol.SUBMIT_QUOTE, 24 + Codec.size(product));
+			request.putLong(PriceTicks.toTicks(buyPrice));
+			request.putInt(buyVolume);
+			request.putLong(PriceTicks.toTicks(sellPrice));
+			request.putInt(sellVolume);
+			Codec.putString(request, product);
+			send(start);
+		}
+	}
+	
+	public void submitQuoteCancel(String product) throws IOException, RequestRejectedException{
+		synchronized(this){
+			int start = begin(WireProtocol.CANCEL_QUOTE, Codec.size(product));
+			Codec.putString(request, product);
+			send(start);
+		}
+	}
+	
+	//Cancels the user's Orders and Quotes in the product, or in every product when product is null
+	public void submitMassCancel(String product) throws IOException, RequestRejectedException{
+		synchronized(this){
+			int start = begin(WireProtocol.MASS_CANCEL, Codec.size(product));
+			Codec.putString(request, product);
+			send(start);
+		}
+	}
+	
+	/*
+	 * Subscribes to one of the streams CURRENT_MARKET, LAST_SALE, TICKER,
+	 * MESSAGES or DEPTH for the product
+	 */
+	public void subscribe(String stream, String product) throws IOException, RequestRejectedException,
+																DataValidationException{
+		subscription(WireProtocol.SUBSCRIBE, stream, product);
+	}
+	
+	public void unSubscribe(String stream, String product) throws IOException, RequestRejectedException,
+																  DataValidationException{
+		subscription(WireProtocol.UNSUBSCRIBE, stream, product);
+	}
+	
+	private void subscription(byte type, String stream, String product) throws IOException, RequestRejectedException,
+																			   DataValidationException{
+		synchronized(this){
+			byte streamCode = WireProtocol.code(WireProtocol.STREAMS, stream);
+			int start = begin(type, 1 + Codec.size(product));
+			request.put(streamCode);
+			Codec.putString(request, product);
+			send(start);
+		}
+	}
+	
+	public BookDepthDTO getBookDepth(String product) throws IOException, RequestRejectedException{
+		synchronized(this){
+			int start = begin(WireProtocol.BOOK_DEPTH, Codec.size(product));
+			Codec.putString(request, product);
+			return send(start).depth;
+		}
+	}
+	
+	public String getMarketState() throws IOException, RequestRejectedException{
+		synchronized(this){
+			return send(begin(WireProtocol.MARKET_STATE, 0)).text;
+		}
+	}
+	
+	//Returns the user's orders in the product that have remaining volume
+	public ArrayList<TradableDTO> getOrdersWithRemainingQty(String product) throws IOException, RequestRejectedException{
+		synchronized(this){
+			int start = begin(WireProtocol.ORDERS, Codec.size(product));
+			Codec.putString(request, product);
+			return send(start).orders;
+		}
+	}
+	
+	/*
+	 * Asks for the stream's events for the product from fromSequence on to
+	 * be sent again. Returns false if some were no longer kept and only the
+	 * latest was sent.
+	 */
+	public boolean requestReplay(String stream, String product, long fromSequence) throws IOException,
+																						  RequestRejectedException,
+																						  DataValidationException{
+		synchronized(this){
+			byte streamCode = WireProtocol.code(WireProtocol.STREAMS, stream);
+			int start = begin(WireProtocol.REPLAY, 9 + Codec.size(product));
+			request.put(streamCode);
+			request.putLong(fromSequence);
+			Codec.putString(request, product);
+			return send(start).value == 1;
+		}
+	}
+	
+	public void close() throws IOException{
+		closed = true;
+		channel.close();
+	}
+	
+	/*
+	 * Starts a request frame with room for fields of the given size, and
+	 * returns the position of its length field. Called holding the lock.
+	 */
+	private int begin(byte type, int size) throws IOException{
+		if(closed){
+			throw new IOException("Connection closed");
+		}
+		if(4 + 1 + 4 + size > WireProtocol.MAX_REQUEST){
+			throw new IOException("Request too large: " + size + " bytes");
+		}
+		request.clear();
+		int start = WireProtocol.begin(request, type);
+		request.putInt(++nextRequestId);
+		return start;
+	}
+	
+	/*
+	 * Sends the request and waits for its response. Called holding the
+	 * lock, so requests are answered one at a time.
+	 */
+	private Response send(int start) throws IOException, RequestRejectedException{
+		WireProtocol.end(request, start);
+		Response r = new Response();
+		pending.put(nextRequestId, r);
+		try{
+			request.flip();
+			while(request.hasRemaining()){
+				channel.write(request);
+			}
+			synchronized(r){
+				long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT_MILLIS;
+				while(!r.done && !closed){
+					long wait = deadline - System.currentTimeMillis();
+					if(wait <= 0){
+						throw new IOException("No response from the gateway");
+					}
+					r.wait(wait);
+				}
+			}
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the gateway");
+		}
+		finally{
+			pending.remove(nextRequestId);
+		}
+		if(!r.done){
+			throw new IOException("Connection closed");
+		}
+		if(r.type == WireProtocol.REJECT){
+			throw new RequestRejectedException(r.error + ": " + r.text);
+		}
+		return r;
+	}
+	
+	// Responses and Events
+	
+	private void readResponses(){
+		ByteBuffer in = ByteBuffer.allocateDirect(BufferPool.BUFFER_SIZE);
+		try{
+			while(channel.read(in) >= 0){
+				in.flip();
+				while(in.remaining() >= 4){
+					int length = in.getInt(in.position());
+					if(in.remaining() < 4 + length){
+						break;
+					}
+					int limit = in.limit();
+					int end = in.position() + 4 + length;
+					in.position(in.position() + 4);
+					in.limit(end);
+					try{
+						dispatch(in);
+					}
+					catch(RuntimeException e){
+						System.out.println("Gateway frame could not be handled: " + e);
+					}
+					in.limit(limit);
+					in.position(end);
+				}
+				in.compact();
+				
+				//A frame bigger than the buffer, such as a deep book, needs a bigger one
+				if(!in.hasRemaining()){
+					ByteBuffer bigger = ByteBuffer.allocateDirect(in.capacity() * 2);
+					in.flip();
+					bigger.put(in);
+					in = bigger;
+				}
+			}
+		}
+		catch(IOException e){
+			if(!closed){
+				System.out.println("Gateway connection lost: " + e.getMessage());
+			}
+		}
+		catch(DataValidationException e){
+			System.out.println("Invalid frame from the gateway: " + e.getMessage());
+		}
+		finally{
+			closed = true;
+			for(Response r : pending.values()){
+				synchronized(r){
+					r.notifyAll();
+				}
+			}
+		}
+	}
+	
+	private void dispatch(ByteBuffer in) throws DataValidationException{
+		byte type = in.get();
+		switch(type){
+			case WireProtocol.ACK:
+			case WireProtocol.REJECT:
+			case WireProtocol.DEPTH:
+			case WireProtocol.TRADABLES:{
+				Response r = pending.get(in.getInt());
+				if(r == null){
+					return;
+				}
+				synchronized(r){
+					r.type = type;
+					if(type == WireProtocol.ACK){
+						r.value = in.getLong();
+						r.text = Codec.getString(in);
+					}
+					else if(type == WireProtocol.REJECT){
+						r.error = Codec.getString(in);
+						r.text = Codec.getString(in);
+					}
+					else if(type == WireProtocol.DEPTH){
+						r.depth = WireProtocol.getDepth(in);
+					}
+					else{
+						int count = in.getInt();
+						r.orders = new ArrayList<>(count);
+						int offset = in.position();
+						for(int i = 0; i < count; i++){
+							tradable.wrap(in, offset);
+							r.orders.add(tradable.toTradableDTO());
+							offset += tradable.getLength();
+						}
+					}
+					r.done = true;
+					r.notifyAll();
+				}
+				return;
+			}
+			case WireProtocol.FILL:{
+				long seq = in.getLong();
+				listener.acceptMessage(fill.wrap(in, in.position()).toFillMessage(), seq);
+				return;
+			}
+			case WireProtocol.CANCEL:{
+				long seq = in.getLong();
+				listener.acceptMessage(cancel.wrap(in, in.position()).toCancelMessage(), seq);
+				return;
+			}
+			case WireProtocol.LAST_SALE:{
+				long seq = in.getLong();
+				Price price = PriceTicks.toPrice(in.getLong());
+				int volume = in.getInt();
+				listener.acceptLastSale(Codec.getString(in), price, volume, seq);
+				return;
+			}
+			case WireProtocol.TICKER:{
+				long seq = in.getLong();
+				Price price = PriceTicks.toPrice(in.getLong());
+				char direction = (char) (in.get() & 0xFF);
+				listener.acceptTicker(Codec.getString(in), price, direction, seq);
+				return;
+			}
+			case WireProtocol.CURRENT_MARKET:{
+				long seq = in.getLong();
+				market.wrap(in, in.position());
+				listener.acceptCurrentMarket(market.getProduct(), PriceTicks.toPrice(market.getBuyPrice()), market.getBuyVolume(),
+											 PriceTicks.toPrice(market.getSellPrice()), market.getSellVolume(), seq);
+				return;
+			}
+			case WireProtocol.MARKET_MESSAGE:{
+				long seq = in.getLong();
+				listener.acceptMarketMessage(Codec.getString(in), seq);
+				return;
+			}
+			case WireProtocol.DEPTH_SNAPSHOT:{
+				long seq = in.getLong();
+				listener.acceptDepthSnapshot(WireProtocol.getDepth(in), seq);
+				return;
+			}
+			case WireProtocol.DEPTH_UPDATE:{
+				long seq = in.getLong();
+				long price = in.getLong();
+				int volume = in.getInt();
+				String side = WireProtocol.name(WireProtocol.SIDES, in.get());
+				String action = WireProtocol.name(WireProtocol.ACTIONS, in.get());
+				listener.acceptDepthUpdate(new DepthUpdate(Codec.getString(in), seq, side, action, price, volume));
+				return;
+			}
+			default:
+				throw new DataValidationException("Unknown frame type: " + type);
+		}
+	}
+}
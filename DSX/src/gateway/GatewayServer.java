@@ -0,0 +1,204 @@
+package gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * The GatewayServer lets remote trading clients use the UserCommandService
+ * over TCP, speaking the WireProtocol. A single selector thread accepts
+ * connections, reads their requests and writes their output. Each
+ * connection is a GatewaySession, which the publishers deliver market data
+ * to like any other User.
+ * 
+ * Requests are handled on a small pool of command threads rather than the
+ * selector thread, since the UserCommandService blocks the caller until
+ * the matching shard has run the command. A session's requests are still
+ * handled one at a time in the order they arrive, and a busy shard only
+ * holds up the sessions trading its products, not the reading and writing
+ * of every connection.
+ * 
+ * Threads that encode output for a session (the engine and delivery
+ * threads) queue the session for flushing and wake the selector, so writes
+ * only ever happen on the selector thread.
+ */
+public class GatewayServer implements Runnable {
+
+	private static final int POOLED_BUFFERS = 1024;
+	private static final int COMMAND_THREADS = 4;
+	
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private BufferPool pool = new BufferPool(POOLED_BUFFERS);
+	private ConcurrentLinkedQueue<GatewaySession> flushes = new ConcurrentLinkedQueue<>();
+	private HashSet<GatewaySession> sessions = new HashSet<>();
+	private ExecutorService commands = Executors.newFixedThreadPool(COMMAND_THREADS, new ThreadFactory(){
+		private int count;
+		public synchronized Thread newThread(Runnable r){
+			Thread t = new Thread(r, "GatewayCommands-" + (++count));
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private volatile int sessionCount;
+	private volatile boolean running;
+	private Thread thread;
+	
+	/*
+	 * Binds the server to the host and port. A null host listens on every
+	 * interface, and port 0 picks a free port (see getPort).
+	 */
+	public GatewayServer(String host, int port) throws IOException{
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		serverChannel.bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+	
+	public int getPort(){
+		return serverChannel.socket().getLocalPort();
+	}
+	
+	public int getSessionCount(){
+		return sessionCount;
+	}
+	
+	public synchronized void start(){
+		if(thread != null){
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "Gateway");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/*
+	 * Stops the selector thread, closing every connection and the server
+	 * socket. Requests already read are still handled, and the closed
+	 * sessions logged off, by the command threads.
+	 */
+	public void stop() throws InterruptedException{
+		Thread t;
+		synchronized(this){
+			t = thread;
+			running = false;
+		}
+		selector.wakeup();
+		if(t != null){
+			t.join();
+		}
+	}
+	
+	public void run(){
+		try{
+			while(running){
+				selector.select();
+				
+				GatewaySession s;
+				while((s = flushes.poll()) != null){
+					s.write();
+				}
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid()){
+						continue;
+					}
+					if(key.isAcceptable()){
+						accept();
+						continue;
+					}
+					GatewaySession session = (GatewaySession) key.attachment();
+					if(key.isReadable()){
+						session.read();
+					}
+					if(key.isValid() && key.isWritable()){
+						session.write();
+					}
+				}
+			}
+		}
+		catch(IOException e){
+			System.out.println("Gateway stopped: " + e.getMessage());
+		}
+		finally{
+			for(GatewaySession s : new ArrayList<>(sessions)){
+				s.close(null);
+			}
+			commands.shutdown();
+			try{
+				serverChannel.close();
+				selector.close();
+			}
+			catch(IOException e){
+				//Shutting down anyway
+			}
+		}
+	}
+	
+	/*
+	 * Accepts a pending connection. A connection that fails while being set
+	 * up (the client may already have gone) is dropped and logged, so it
+	 * does not stop the server.
+	 */
+	private void accept(){
+		SocketChannel ch = null;
+		try{
+			ch = serverChannel.accept();
+			if(ch == null){
+				return;
+			}
+			ch.configureBlocking(false);
+			ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+			GatewaySession session = new GatewaySession(this, ch, key, pool);
+			key.attach(session);
+			sessions.add(session);
+			sessionCount = sessions.size();
+		}
+		catch(IOException e){
+			System.out.println("Gateway accept failed: " + e.getMessage());
+			if(ch != null){
+				try{
+					ch.close();
+				}
+				catch(IOException ce){
+					//Dropping the connection anyway
+				}
+			}
+		}
+	}
+	
+	//Called by a session with requests to handle
+	void execute(Runnable r){
+		commands.execute(r);
+	}
+	
+	//Called by a session with output to write
+	void scheduleFlush(GatewaySession s){
+		flushes.add(s);
+		selector.wakeup();
+	}
+	
+	//Called by a session on the selector thread as it closes
+	void sessionClosed(GatewaySession s){
+		sessions.remove(s);
+		sessionCount = sessions.size();
+	}
+}
@@ -0,0 +1,732 @@
+package gateway;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import codec.CancelCodec;
+import codec.Codec;
+import codec.FillCodec;
+import codec.MarketDataCodec;
+import codec.TradableCodec;
+import exceptions.DataValidationException;
+import exceptions.UserNotConnectedException;
+import messages.CancelMessage;
+import messages.FillMessage;
+import metrics.MetricsRegistry;
+import pricePackage.Price;
+import pricePackage.PriceTicks;
+import publishers.BookDepthDTO;
+import publishers.DeliveryService;
+import publishers.DepthUpdate;
+import tradablePackage.Order;
+import tradablePackage.Quote;
+import tradablePackage.TradableDTO;
+import user.TradableUserData;
+import user.User;
+import user.UserCommandService;
+
+/*
+ * One client connection to the GatewayServer. The session decodes the
+ * client's requests and passes them to the UserCommandService, and is
+ * itself the User the publishers deliver to once the client has logged on,
+ * so the client's market data is encoded into the same connection as the
+ * responses to its requests. It is driven by its remote client, so the
+ * User command methods do nothing.
+ * 
+ * Requests are read on the server's selector thread into a pooled buffer.
+ * Once a read completes some requests, that buffer is handed over whole to
+ * the session's request queue, each request being queued as a view of its
+ * bytes in it, and the selector reads on into a fresh one. The queue is
+ * handled one request at a time on the server's command threads, so a
+ * command waiting for its shard never holds up the selector, and the
+ * buffer goes back to the pool after its last request is handled. Closing the session queues its logoff behind the
+ * requests already read. Output is encoded into pooled direct buffers by
+ * whichever thread produces it, and written by the selector thread. A
+ * client that lets more than MAX_QUEUED_BUFFERS of output, or
+ * MAX_QUEUED_REQUESTS of requests, build up is disconnected.
+ */
+class GatewaySession implements User {
+
+	static final int MAX_QUEUED_BUFFERS = 64;
+	static final int MAX_QUEUED_REQUESTS = 1024;
+	
+	//Queued by close to log the session off once its requests are handled
+	private static final Request CLOSE_REQUEST = new Request(null, null);
+	
+	/*
+	 * A queued request: a view of its bytes in the buffer it was read into,
+	 * and, on the last request read into that buffer, the buffer itself, to
+	 * be released once the request has been handled
+	 */
+	private static class Request {
+		
+		ByteBuffer body;
+		ByteBuffer release;
+		
+		Request(ByteBuffer b, ByteBuffer r){
+			body = b;
+			release = r;
+		}
+	}
+	
+	private GatewayServer server;
+	private SocketChannel channel;
+	private SelectionKey key;
+	private BufferPool pool;
+	private ByteBuffer in;
+	private ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+	private boolean flushScheduled;
+	private boolean overflowed;
+	private volatile boolean closed;
+	private volatile String userName;
+	private long connectionId;
+	private ArrayDeque<Request> requests = new ArrayDeque<>();
+	private boolean handling;
+	private Runnable handler = new Runnable(){
+		public void run(){
+			handleRequests();
+		}
+	};
+	
+	GatewaySession(GatewayServer s, SocketChannel ch, SelectionKey k, BufferPool p){
+		server = s;
+		channel = ch;
+		key = k;
+		pool = p;
+		in = pool.acquire(BufferPool.BUFFER_SIZE);
+	}
+	
+	public String getUserName(){
+		return userName;
+	}
+	
+	// Request Handling
+	
+	/*
+	 * Reads what the client has sent and queues every complete request in
+	 * it to be handled. Called by the selector thread when the channel is
+	 * readable.
+	 */
+	void read(){
+		try{
+			if(channel.read(in) < 0){
+				close(null);
+				return;
+			}
+		}
+		catch(IOException e){
+			close("read failed: " + e.getMessage());
+			return;
+		}
+		
+		in.flip();
+		int end = in.position();
+		int count = 0;
+		while(in.limit() - end >= 4){
+			int length = in.getInt(end);
+			if(length < 5 || length + 4 > WireProtocol.MAX_REQUEST){
+				close("invalid request length " + length);
+				return;
+			}
+			if(in.limit() - end < length + 4){
+				break;
+			}
+			end += 4 + length;
+			count++;
+		}
+		if(count == 0){
+			in.compact();
+			return;
+		}
+		
+		//The complete requests stay where they were read; a partial one carries over
+		ByteBuffer full = in;
+		in = pool.acquire(BufferPool.BUFFER_SIZE);
+		ByteBuffer partial = full.duplicate();
+		partial.position(end);
+		in.put(partial);
+		
+		int start = full.position();
+		for(int i = 1; i <= count; i++){
+			ByteBuffer body = full.duplicate();
+			body.limit(start + 4 + full.getInt(start));
+			body.position(start + 4);
+			start = body.limit();
+			if(!queueRequest(new Request(body, i == count ? full : null))){
+				close("too many requests queued");
+				return;
+			}
+		}
+	}
+	
+	/*
+	 * Adds a request to the queue, and hands the queue to a command thread
+	 * unless one is already working through it. Returns false if the client
+	 * has sent more requests than it can have waiting.
+	 */
+	private boolean queueRequest(Request req){
+		synchronized(requests){
+			if(req != CLOSE_REQUEST && requests.size() >= MAX_QUEUED_REQUESTS){
+				return false;
+			}
+			requests.addLast(req);
+			if(handling){
+				return true;
+			}
+			handling = true;
+		}
+		server.execute(handler);
+		return true;
+	}
+	
+	//Handles the queued requests in order. Called by a command thread.
+	private void handleRequests(){
+		while(true){
+			Request req;
+			synchronized(requests){
+				req = requests.pollFirst();
+				if(req == null){
+					handling = false;
+					return;
+				}
+			}
+			if(req == CLOSE_REQUEST){
+				logOff();
+				continue;
+			}
+			if(!closed){
+				handle(req.body);
+			}
+			if(req.release != null){
+				pool.release(req.release);
+			}
+		}
+	}
+	
+	private void handle(ByteBuffer req){
+		long start = System.nanoTime();
+		byte type = req.get();
+		int id = req.getInt();
+		UserCommandService ucs = UserCommandService.getInstance();
+		try{
+			if(type == WireProtocol.LOGON){
+				logon(id, Codec.getString(req));
+				return;
+			}
+			if(userName == null){
+				throw new UserNotConnectedException("Not logged on");
+			}
+			switch(type){
+				case WireProtocol.LOGOFF:
+					ucs.disConnect(userName, connectionId);
+					DeliveryService.getInstance().removeSubscriber(this);
+					userName = null;
+					ack(id, 0, null);
+					break;
+				case WireProtocol.SUBMIT_ORDER:{
+					Price price = PriceTicks.toPrice(req.getLong());
+					int volume = req.getInt();
+					String side = WireProtocol.name(WireProtocol.SIDES, req.get());
+					String product = Codec.getString(req);
+					ack(id, 0, ucs.submitOrder(userName, connectionId, product, price, volume, side));
+					break;
+				}
+				case WireProtocol.CANCEL_ORDER:{
+					String side = WireProtocol.name(WireProtocol.SIDES, req.get());
+					String product = Codec.getString(req);
+					ucs.submitOrderCancel(userName, connectionId, product, side, Codec.getString(req));
+					ack(id, 0, null);
+					break;
+				}
+				case WireProtocol.SUBMIT_QUOTE:{
+					Price buyPrice = PriceTicks.toPrice(req.getLong());
+					int buyVolume = req.getInt();
+					Price sellPrice = PriceTicks.toPrice(req.getLong());
+					int sellVolume = req.getInt();
+					ucs.submitQuote(userName, connectionId, Codec.getString(req), buyPrice, buyVolume, sellPrice, sellVolume);
+					ack(id, 0, null);
+					break;
+				}
+				case WireProtocol.CANCEL_QUOTE:
+					ucs.submitQuoteCancel(userName, connectionId, Codec.getString(req));
+					ack(id, 0, null);
+					break;
+				case WireProtocol.MASS_CANCEL:
+					ucs.submitMassCancel(userName, connectionId, Codec.getString(req));
+					ack(id, 0, null);
+					break;
+				case WireProtocol.SUBSCRIBE:{
+					String stream = WireProtocol.name(WireProtocol.STREAMS, req.get());
+					subscribe(stream, Codec.getString(req));
+					ack(id, 0, null);
+					break;
+				}
+				case WireProtocol.UNSUBSCRIBE:{
+					String stream = WireProtocol.name(WireProtocol.STREAMS, req.get());
+					unSubscribe(stream, Codec.getString(req));
+					ack(id, 0, null);
+					break;
+				}
+				case WireProtocol.BOOK_DEPTH:
+					depth(id, ucs.getBookDepth(userName, connectionId, Codec.getString(req)));
+					break;
+				case WireProtocol.MARKET_STATE:
+					ack(id, 0, ucs.getMarketState(userName, connectionId));
+					break;
+				case WireProtocol.ORDERS:
+					orders(id, ucs.getOrdersWithRemainingQty(userName, connectionId, Codec.getString(req)));
+					break;
+				case WireProtocol.REPLAY:{
+					String stream = WireProtocol.name(WireProtocol.STREAMS, req.get());
+					long from = req.getLong();
+					boolean all = ucs.requestReplay(userName, connectionId, stream, Codec.getString(req), from);
+					ack(id, all ? 1 : 0, null);
+					break;
+				}
+				default:
+					throw new DataValidationException("Unknown request type: " + type);
+			}
+		}
+		catch(Exception e){
+			reject(id, e);
+		}
+		finally{
+			MetricsRegistry.getInstance().recordLatency("gateway.request", null, start);
+		}
+	}
+	
+	private void logon(int id, String name) throws Exception{
+		if(userName != null){
+			throw new DataValidationException("Already logged on as " + userName);
+		}
+		if(name == null || name.isEmpty()){
+			throw new DataValidationException("Invalid user name: " + name);
+		}
+		userName = name;
+		try{
+			connectionId = UserCommandService.getInstance().connect(this);
+		}
+		catch(Exception e){
+			userName = null;
+			throw e;
+		}
+		ack(id, connectionId, null);
+	}
+	
+	//Logs the closed session off and removes it from the publishers
+	private void logOff(){
+		if(userName == null){
+			return;
+		}
+		DeliveryService.getInstance().removeSubscriber(this);
+		try{
+			UserCommandService.getInstance().disConnect(userName, connectionId);
+		}
+		catch(Exception e){
+			//Already disconnected
+		}
+		userName = null;
+	}
+	
+	private void subscribe(String stream, String product) throws Exception{
+		UserCommandService ucs = UserCommandService.getInstance();
+		switch(stream){
+			case "CURRENT_MARKET":
+				ucs.subscribeCurrentMarket(userName, connectionId, product);
+				break;
+			case "LAST_SALE":
+				ucs.subscribeLastSale(userName, connectionId, product);
+				break;
+			case "TICKER":
+				ucs.subscribeTicker(userName, connectionId, product);
+				break;
+			case "MESSAGES":
+				ucs.subscribeMessages(userName, connectionId, product);
+				break;
+			case "DEPTH":
+				ucs.subscribeDepth(userName, connectionId, product);
+				break;
+			default:
+				throw new DataValidationException(stream + " is sent to every Messages subscriber");
+		}
+	}
+	
+	private void unSubscribe(String stream, String product) throws Exception{
+		UserCommandService ucs = UserCommandService.getInstance();
+		switch(stream){
+			case "CURRENT_MARKET":
+				ucs.unSubscribeCurrentMarket(userName, connectionId, product);
+				break;
+			case "LAST_SALE":
+				ucs.unSubscribeLastSale(userName, connectionId, product);
+				break;
+			case "TICKER":
+				ucs.unSubscribeTicker(userName, connectionId, product);
+				break;
+			case "MESSAGES":
+				ucs.unSubscribeMessages(userName, connectionId, product);
+				break;
+			case "DEPTH":
+				ucs.unSubscribeDepth(userName, connectionId, product);
+				break;
+			default:
+				throw new DataValidationException(stream + " is sent to every Messages subscriber");
+		}
+	}
+	
+	// Responses
+	
+	private synchronized void ack(int id, long value, String text){
+		ByteBuffer b = reserve(4 + 1 + 4 + 8 + Codec.size(text));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.ACK);
+		b.putInt(id);
+		b.putLong(value);
+		Codec.putString(b, text);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	private synchronized void reject(int id, Exception e){
+		String name = e.getClass().getSimpleName();
+		String message = e.getMessage();
+		ByteBuffer b = reserve(4 + 1 + 4 + Codec.size(name) + Codec.size(message));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.REJECT);
+		b.putInt(id);
+		Codec.putString(b, name);
+		Codec.putString(b, message);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	private synchronized void depth(int id, BookDepthDTO d){
+		ByteBuffer b = reserve(4 + 1 + 4 + WireProtocol.depthSize(d));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.DEPTH);
+		b.putInt(id);
+		WireProtocol.putDepth(b, d);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	private synchronized void orders(int id, ArrayList<TradableDTO> orders){
+		int size = 4 + 1 + 4 + 4;
+		for(TradableDTO dto : orders){
+			size += TradableCodec.size(dto);
+		}
+		ByteBuffer b = reserve(size);
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.TRADABLES);
+		b.putInt(id);
+		b.putInt(orders.size());
+		for(TradableDTO dto : orders){
+			TradableCodec.encode(b, dto);
+		}
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	// Delivery methods
+	
+	public synchronized void acceptLastSale(String product, Price p, int v, long sequence){
+		ByteBuffer b = reserve(4 + 1 + 8 + 8 + 4 + Codec.size(product));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.LAST_SALE);
+		b.putLong(sequence);
+		b.putLong(PriceTicks.toTicks(p));
+		b.putInt(v);
+		Codec.putString(b, product);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	public synchronized void acceptMessage(FillMessage fm, long sequence){
+		ByteBuffer b = reserve(4 + 1 + 8 + FillCodec.size(fm));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.FILL);
+		b.putLong(sequence);
+		FillCodec.encode(b, fm);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	public synchronized void acceptMessage(CancelMessage cm, long sequence){
+		ByteBuffer b = reserve(4 + 1 + 8 + CancelCodec.size(cm));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.CANCEL);
+		b.putLong(sequence);
+		CancelCodec.encode(b, cm);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	public synchronized void acceptMarketMessage(String message, long sequence){
+		ByteBuffer b = reserve(4 + 1 + 8 + Codec.size(message));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.MARKET_MESSAGE);
+		b.putLong(sequence);
+		Codec.putString(b, message);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	public synchronized void acceptTicker(String product, Price p, char direction, long sequence){
+		ByteBuffer b = reserve(4 + 1 + 8 + 8 + 1 + Codec.size(product));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.TICKER);
+		b.putLong(sequence);
+		b.putLong(PriceTicks.toTicks(p));
+		b.put((byte) direction);
+		Codec.putString(b, product);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	public synchronized void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv, long sequence){
+		ByteBuffer b = reserve(4 + 1 + 8 + MarketDataCodec.size(product));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.CURRENT_MARKET);
+		b.putLong(sequence);
+		MarketDataCodec.encode(b, product, bp, bv, sp, sv);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	public synchronized void acceptDepthSnapshot(BookDepthDTO depth, long sequence){
+		ByteBuffer b = reserve(4 + 1 + 8 + WireProtocol.depthSize(depth));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.DEPTH_SNAPSHOT);
+		b.putLong(sequence);
+		WireProtocol.putDepth(b, depth);
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	public synchronized void acceptDepthUpdate(DepthUpdate update){
+		ByteBuffer b = reserve(4 + 1 + 8 + 8 + 4 + 2 + Codec.size(update.getProduct()));
+		if(b == null){
+			return;
+		}
+		int start = WireProtocol.begin(b, WireProtocol.DEPTH_UPDATE);
+		b.putLong(update.getSequence());
+		b.putLong(update.getPrice());
+		b.putInt(update.getVolume());
+		b.put(Codec.sideCode(update.getSide()));
+		b.put(code(WireProtocol.ACTIONS, update.getAction()));
+		Codec.putString(b, update.getProduct());
+		WireProtocol.end(b, start);
+		sent();
+	}
+	
+	//Values from the engine are always valid, so an unknown one is sent as -1 for the client to reject
+	private static byte code(String[] names, String name){
+		for(int i = 0; i < names.length; i++){
+			if(names[i].equals(name)){
+				return (byte) i;
+			}
+		}
+		return -1;
+	}
+	
+	// Output
+	
+	/*
+	 * Returns a queued buffer with room for a frame of the given size,
+	 * taking a new one from the pool when the last is full. Returns null
+	 * if the session is closed or its output has backed up, in which case
+	 * the frame is dropped and the selector thread closes the session.
+	 */
+	private ByteBuffer reserve(int size){
+		if(closed || overflowed){
+			return null;
+		}
+		ByteBuffer last = out.peekLast();
+		if(last != null && last.remaining() >= size){
+			return last;
+		}
+		if(out.size() >= MAX_QUEUED_BUFFERS){
+			overflowed = true;
+			sent();
+			return null;
+		}
+		ByteBuffer b = pool.acquire(size);
+		out.addLast(b);
+		return b;
+	}
+	
+	//Asks the selector thread to write the output, unless it has already been asked
+	private void sent(){
+		if(!flushScheduled){
+			flushScheduled = true;
+			server.scheduleFlush(this);
+		}
+	}
+	
+	/*
+	 * Writes as much of the queued output as the channel takes, and keeps
+	 * the selector watching for the channel to become writable while some
+	 * is left. Called by the selector thread.
+	 */
+	void write(){
+		String failure = null;
+		synchronized(this){
+			flushScheduled = false;
+			if(closed){
+				return;
+			}
+			if(overflowed){
+				failure = "output backed up";
+			}
+			else{
+				try{
+					while(!out.isEmpty()){
+						ByteBuffer b = out.peekFirst();
+						b.flip();
+						channel.write(b);
+						if(b.hasRemaining()){
+							b.compact();
+							break;
+						}
+						out.pollFirst();
+						pool.release(b);
+					}
+					key.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+				catch(IOException e){
+					failure = "write failed: " + e.getMessage();
+				}
+			}
+		}
+		if(failure != null){
+			close(failure);
+		}
+	}
+	
+	/*
+	 * Closes the connection, and queues the logoff behind the requests
+	 * already read, so it happens on the command thread after them. Called
+	 * by the selector thread.
+	 */
+	void close(String reason){
+		synchronized(this){
+			if(closed){
+				return;
+			}
+			closed = true;
+			key.cancel();
+			try{
+				channel.close();
+			}
+			catch(IOException e){
+				//The connection is being dropped anyway
+			}
+			pool.release(in);
+			while(!out.isEmpty()){
+				pool.release(out.pollFirst());
+			}
+		}
+		String name = userName;
+		server.sessionClosed(this);
+		queueRequest(CLOSE_REQUEST);
+		if(reason != null){
+			System.out.println("Gateway session for " + name + " closed: " + reason);
+		}
+	}
+	
+	// Command methods
+	public void connect(){
+	}
+	public void disConnect(){
+	}
+	public void showMarketDisplay(){
+	}
+	public String submitOrder(String product, Price price, int volume, String side){
+		return null;
+	}
+	public void submitOrderCancel(String product, String side, String orderId){
+	}
+	public void submitQuote(String product, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume){
+	}
+	public void submitQuoteCancel(String product){
+	}
+	public ArrayList<String> submitOrders(List<Order> orders){
+		return new ArrayList<>();
+	}
+	public void submitQuotes(List<Quote> quotes){
+	}
+	public void cancelOrders(List<TradableDTO> orders){
+	}
+	public void submitMassCancel(String product){
+	}
+	public void subscribeCurrentMarket(String product){
+	}
+	public void subscribeLastSale(String product){
+	}
+	public void subscribeMessages(String product){
+	}
+	public void subscribeTicker(String product){
+	}
+	public void subscribeDepth(String product){
+	}
+	public Price getAllStockValue(){
+		return null;
+	}
+	public Price getAccountCosts(){
+		return null;
+	}
+	public Price getNetAccountValue(){
+		return null;
+	}
+	public BookDepthDTO getBookDepth(String product){
+		return null;
+	}
+	public String getMarketState(){
+		return null;
+	}
+	public ArrayList<TradableUserData> getOrderIds(){
+		return new ArrayList<>();
+	}
+	public ArrayList<String> getProductList(){
+		return new ArrayList<>();
+	}
+	public Price getStockPositionValue(String sym){
+		return null;
+	}
+	public int getStockPositionVolume(String product){
+		return 0;
+	}
+	public ArrayList<String> getHoldings(){
+		return new ArrayList<>();
+	}
+	public ArrayList<TradableDTO> getOrdersWithRemainingQty(String product){
+		return new ArrayList<>();
+	}
+}
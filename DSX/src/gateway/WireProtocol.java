@@ -0,0 +1,172 @@
+package gateway;
+
+import java.nio.ByteBuffer;
+
+import codec.Codec;
+import exceptions.DataValidationException;
+import publishers.BookDepthDTO;
+
+/*
+ * The binary protocol spoken between a GatewayClient and the GatewayServer.
+ * Every frame is an int length (of the rest of the frame) followed by a one
+ * byte frame type and the type's fields, always in the same order and
+ * width: prices are longs in ticks, volumes ints, sequence numbers longs,
+ * and sides, streams and depth actions one byte codes. Strings come last
+ * and are written as Codec writes them. Fills, cancels, current markets
+ * and orders are written by the codec package's flyweights, the encoding
+ * the journal uses too.
+ * 
+ * Requests carry an int request id after the type, and are answered in
+ * order with an ACK, a REJECT or, for BOOK_DEPTH, a DEPTH frame with the
+ * same id:
+ * 
+ * LOGON          id, user
+ * LOGOFF         id
+ * SUBMIT_ORDER   id, price, volume, side, product
+ * CANCEL_ORDER   id, side, product, order id
+ * SUBMIT_QUOTE   id, buy price, buy volume, sell price, sell volume, product
+ * CANCEL_QUOTE   id, product
+ * MASS_CANCEL    id, product (null for every product)
+ * SUBSCRIBE      id, stream, product
+ * UNSUBSCRIBE    id, stream, product
+ * BOOK_DEPTH     id, product
+ * MARKET_STATE   id
+ * REPLAY         id, stream, from sequence, product
+ * ORDERS         id, product
+ * 
+ * ACK            id, value, text (the connection id or replay result, and
+ *                the order id or market state)
+ * REJECT         id, exception name, message
+ * DEPTH          id, depth
+ * TRADABLES      id, int count, each order with remaining volume (TradableCodec)
+ * 
+ * The publishers' events are streamed over the same connection, each
+ * starting with its sequence number:
+ * 
+ * FILL           sequence, fill (FillCodec)
+ * CANCEL         sequence, cancel (CancelCodec)
+ * LAST_SALE      sequence, price, volume, product
+ * TICKER         sequence, price, direction, product
+ * CURRENT_MARKET sequence, current market (MarketDataCodec)
+ * MARKET_MESSAGE sequence, message
+ * DEPTH_SNAPSHOT sequence, depth
+ * DEPTH_UPDATE   sequence, price, volume, side, action, product
+ * 
+ * A depth is its version, a short count of buy and of sell levels, a price
+ * and volume for each level, best first, and the product.
+ */
+public final class WireProtocol {
+
+	// Requests
+	public static final byte LOGON = 1;
+	public static final byte LOGOFF = 2;
+	public static final byte SUBMIT_ORDER = 3;
+	public static final byte CANCEL_ORDER = 4;
+	public static final byte SUBMIT_QUOTE = 5;
+	public static final byte CANCEL_QUOTE = 6;
+	public static final byte MASS_CANCEL = 7;
+	public static final byte SUBSCRIBE = 8;
+	public static final byte UNSUBSCRIBE = 9;
+	public static final byte BOOK_DEPTH = 10;
+	public static final byte MARKET_STATE = 11;
+	public static final byte REPLAY = 12;
+	public static final byte ORDERS = 13;
+	
+	// Responses
+	public static final byte ACK = 32;
+	public static final byte REJECT = 33;
+	public static final byte DEPTH = 34;
+	public static final byte TRADABLES = 35;
+	
+	// Events
+	public static final byte FILL = 48;
+	public static final byte CANCEL = 49;
+	public static final byte LAST_SALE = 50;
+	public static final byte TICKER = 51;
+	public static final byte CURRENT_MARKET = 52;
+	public static final byte MARKET_MESSAGE = 53;
+	public static final byte DEPTH_SNAPSHOT = 54;
+	public static final byte DEPTH_UPDATE = 55;
+	
+	//The largest request frame the server accepts, length field included
+	public static final int MAX_REQUEST = 1024;
+	
+	//One byte codes are the index of the name in these
+	static final String[] SIDES = {"BUY", "SELL"};
+	static final String[] STREAMS = {"CURRENT_MARKET", "LAST_SALE", "TICKER", "MESSAGES", "DEPTH", "MARKET_MESSAGE"};
+	static final String[] ACTIONS = {"ADD", "CHANGE", "DELETE"};
+	
+	private WireProtocol(){
+		
+	}
+	
+	static byte code(String[] names, String name) throws DataValidationException{
+		for(int i = 0; i < names.length; i++){
+			if(names[i].equals(name)){
+				return (byte) i;
+			}
+		}
+		throw new DataValidationException("Invalid value: " + name);
+	}
+	
+	static String name(String[] names, byte code) throws DataValidationException{
+		if(code < 0 || code >= names.length){
+			throw new DataValidationException("Invalid code: " + code);
+		}
+		return names[code];
+	}
+	
+	// Framing
+	
+	//Starts a frame of the type and returns the position of its length field
+	static int begin(ByteBuffer out, byte type){
+		int start = out.position();
+		out.position(start + 4);
+		out.put(type);
+		return start;
+	}
+	
+	//Writes the length of the frame begun at start
+	static void end(ByteBuffer out, int start){
+		out.putInt(start, out.position() - start - 4);
+	}
+	
+	// Depth
+	
+	static int depthSize(BookDepthDTO d){
+		return 12 + 12 * (d.getBuyLevels() + d.getSellLevels()) + Codec.size(d.getProduct());
+	}
+	
+	static void putDepth(ByteBuffer out, BookDepthDTO d){
+		out.putLong(d.getVersion());
+		out.putShort((short) d.getBuyLevels());
+		out.putShort((short) d.getSellLevels());
+		for(int i = 0; i < d.getBuyLevels(); i++){
+			out.putLong(d.getBuyPrice(i));
+			out.putInt(d.getBuyVolume(i));
+		}
+		for(int i = 0; i < d.getSellLevels(); i++){
+			out.putLong(d.getSellPrice(i));
+			out.putInt(d.getSellVolume(i));
+		}
+		Codec.putString(out, d.getProduct());
+	}
+	
+	static BookDepthDTO getDepth(ByteBuffer in){
+		long version = in.getLong();
+		long[] buyPrices = new long[in.getShort()];
+		long[] sellPrices = new long[in.getShort()];
+		int[] buyVolumes = new int[buyPrices.length];
+		int[] sellVolumes = new int[sellPrices.length];
+		for(int i = 0; i < buyPrices.length; i++){
+			buyPrices[i] = in.getLong();
+			buyVolumes[i] = in.getInt();
+		}
+		for(int i = 0; i < sellPrices.length; i++){
+			sellPrices[i] = in.getLong();
+			sellVolumes[i] = in.getInt();
+		}
+		return new BookDepthDTO(Codec.getString(in), version, buyPrices, buyVolumes, sellPrices, sellVolumes);
+	}
+	
+}
@@ -7,6 +7,8 @@ package gui;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.DefaultListModel;
+import pricePackage.PriceTicks;
+import publishers.BookDepthDTO;
 
 
 /**
@@ -17,6 +19,8 @@ public class BookDepthDisplay extends javax.swing.JFrame {
 
     private String product;
     private MarketDisplay marketDisplay;
+    private DefaultListModel<String> buyModel = new DefaultListModel<>();
+    private DefaultListModel<String> sellModel = new DefaultListModel<>();
 
     /**
      * Creates new form BookDepthDisplay
@@ -38,10 +42,10 @@ public class BookDepthDisplay extends javax.swing.JFrame {
         jPanel1 = new javax.swing.JPanel();
         jLabel1 = new javax.swing.JLabel();
         jScrollPane1 = new javax.swing.JScrollPane();
-        buyList = new javax.swing.JList();
+        buyList = new javax.swing.JList<>();
         jLabel2 = new javax.swing.JLabel();
         jScrollPane2 = new javax.swing.JScrollPane();
-        sellList = new javax.swing.JList();
+        sellList = new javax.swing.JList<>();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
 
@@ -49,12 +53,12 @@ public class BookDepthDisplay extends javax.swing.JFrame {
 
         jLabel1.setText("Buy Side:");
 
-        buyList.setModel(new DefaultListModel());
+        buyList.setModel(buyModel);
         jScrollPane1.setViewportView(buyList);
 
         jLabel2.setText("Sell Side:");
 
-        sellList.setModel(new DefaultListModel());
+        sellList.setModel(sellModel);
         jScrollPane2.setViewportView(sellList);
 
         javax.swing.GroupLayout jPanel1Layout = new javax.swing.GroupLayout(jPanel1);
@@ -105,14 +109,18 @@ public class BookDepthDisplay extends javax.swing.JFrame {
 
     public void setVisible(String p) {
         product = p;
-        ((DefaultListModel) buyList.getModel()).clear();
-        ((DefaultListModel) sellList.getModel()).clear();
+        buyModel.clear();
+        sellModel.clear();
         try {
-            String[][] depth = marketDisplay.getUser().getBookDepth(product);
-            for (String s : depth[0])
-                ((DefaultListModel) buyList.getModel()).addElement(s);
-            for (String s : depth[1])
-                ((DefaultListModel) sellList.getModel()).addElement(s);
+            BookDepthDTO depth = marketDisplay.getUser().getBookDepth(product);
+            for (int i = 0; i < depth.getBuyLevels(); i++)
+                buyModel.addElement(formatLevel(depth.getBuyPrice(i), depth.getBuyVolume(i)));
+            for (int i = 0; i < depth.getSellLevels(); i++)
+                sellModel.addElement(formatLevel(depth.getSellPrice(i), depth.getSellVolume(i)));
+            if (buyModel.isEmpty())
+                buyModel.addElement("<Empty>");
+            if (sellModel.isEmpty())
+                sellModel.addElement("<Empty>");
             
         } catch (Exception ex) {
             Logger.getLogger(BookDepthDisplay.class.getName()).log(Level.SEVERE, null, ex);
@@ -123,13 +131,17 @@ public class BookDepthDisplay extends javax.swing.JFrame {
         super.setVisible(true);
 
     }
+
+    private static String formatLevel(long ticks, int volume) {
+        return PriceTicks.toPrice(ticks) + " x " + volume;
+    }
     // Variables declaration - do not modify//GEN-BEGIN:variables
-    private javax.swing.JList buyList;
+    private javax.swing.JList<String> buyList;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JLabel jLabel2;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JScrollPane jScrollPane1;
     private javax.swing.JScrollPane jScrollPane2;
-    private javax.swing.JList sellList;
+    private javax.swing.JList<String> sellList;
     // End of variables declaration//GEN-END:variables
 }
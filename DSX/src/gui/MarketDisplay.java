@@ -371,6 +371,7 @@ public class MarketDisplay extends javax.swing.JFrame {
             user.subscribeLastSale(product);
             user.subscribeTicker(product);
             user.subscribeMessages(product);
+            user.subscribeDepth(product);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(null, ex.getMessage(), ex.getMessage(), JOptionPane.ERROR_MESSAGE);
         }
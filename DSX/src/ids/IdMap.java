@@ -0,0 +1,136 @@
+package ids;
+
+import java.util.ArrayList;
+
+/*
+ * A map from long keys, such as order ids, to values, which keeps the keys
+ * in a long array rather than boxing them. It is an open-addressing table
+ * with linear probing; removal shifts the rest of the probe run back, so
+ * there are no tombstones. A slot is empty when its value is null, so null
+ * values cannot be stored. Not thread safe.
+ */
+public class IdMap<V> {
+
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int shift;
+	
+	public IdMap(){
+		allocate(INITIAL_CAPACITY);
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public V get(long key){
+		return (V) values[index(key)];
+	}
+	
+	//Returns the value the key had, or null
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value){
+		if(value == null){
+			throw new NullPointerException("IdMap values cannot be null");
+		}
+		int i = index(key);
+		V old = (V) values[i];
+		keys[i] = key;
+		values[i] = value;
+		if(old == null && ++size > keys.length / 2){
+			resize(keys.length * 2);
+		}
+		return old;
+	}
+	
+	//Returns the value the key had, or null
+	@SuppressWarnings("unchecked")
+	public V remove(long key){
+		int i = index(key);
+		V old = (V) values[i];
+		if(old != null){
+			removeAt(i);
+			size--;
+		}
+		return old;
+	}
+	
+	public void clear(){
+		if(size > 0){
+			allocate(INITIAL_CAPACITY);
+		}
+	}
+	
+	//Adds every value to the list, in no particular order
+	@SuppressWarnings("unchecked")
+	public void values(ArrayList<V> out){
+		for(int i = 0; i < values.length; i++){
+			if(values[i] != null){
+				out.add((V) values[i]);
+			}
+		}
+	}
+	
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		values = new Object[capacity];
+		size = 0;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+	
+	//Spreads the key over the table, since ids tend to differ only in their low bits
+	private int home(long key){
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+	
+	//Returns the index holding the key, or the empty index where it would go
+	private int index(long key){
+		int mask = keys.length - 1;
+		int i = home(key);
+		while(values[i] != null && keys[i] != key){
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+	
+	//Empties index i, moving later entries of the probe run back into the hole
+	private void removeAt(int i){
+		int mask = keys.length - 1;
+		values[i] = null;
+		int j = (i + 1) & mask;
+		while(values[j] != null){
+			int h = home(keys[j]);
+			//Move the entry back if its home is not between the hole and j
+			if(((j - h) & mask) >= ((j - i) & mask)){
+				keys[i] = keys[j];
+				values[i] = values[j];
+				values[j] = null;
+				i = j;
+			}
+			j = (j + 1) & mask;
+		}
+	}
+	
+	private void resize(int capacity){
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		int oldSize = size;
+		allocate(capacity);
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldValues[i] != null){
+				int j = index(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+		size = oldSize;
+	}
+}
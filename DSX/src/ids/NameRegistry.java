@@ -0,0 +1,82 @@
+package ids;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Gives each name a dense int id: the first name registered gets 0, the
+ * next 1, and so on, and an id is never reused. There is one registry for
+ * user names and one for product symbols. Inside the engine users and
+ * products are known by id, so state kept per user or per product can live
+ * in arrays indexed by id; names are only looked up where commands come in
+ * and turned back into names where results go out.
+ * 
+ * Looking up a name reads a ConcurrentHashMap and looking up an id reads an
+ * array, so neither takes a lock. Only registering a new name does.
+ */
+public final class NameRegistry {
+
+	private static final NameRegistry users = new NameRegistry();
+	private static final NameRegistry products = new NameRegistry();
+	
+	private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private volatile String[] names = new String[16];
+	private int count;
+	
+	public static NameRegistry getUsers(){
+		return users;
+	}
+	
+	public static NameRegistry getProducts(){
+		return products;
+	}
+	
+	private NameRegistry(){
+		
+	}
+	
+	//Returns the name's id, registering the name if it is new
+	public int idOf(String name){
+		Integer id = ids.get(name);
+		if(id != null){
+			return id;
+		}
+		return register(name);
+	}
+	
+	//Returns the name's id, or -1 if it has never been registered
+	public int lookup(String name){
+		if(name == null){
+			return -1;
+		}
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+	
+	public String nameOf(int id){
+		return names[id];
+	}
+	
+	public int size(){
+		return ids.size();
+	}
+	
+	/*
+	 * The name is stored before it is put in the map, so a thread that has
+	 * been given the id by the map always finds the name
+	 */
+	private synchronized int register(String name){
+		Integer id = ids.get(name);
+		if(id != null){
+			return id;
+		}
+		String[] n = names;
+		if(count == n.length){
+			n = Arrays.copyOf(n, n.length * 2);
+		}
+		n[count] = name;
+		names = n;
+		ids.put(name, count);
+		return count++;
+	}
+}
@@ -0,0 +1,55 @@
+package ids;
+
+/*
+ * Order ids are longs. The top 24 bits hold the id of the product the
+ * order was submitted to and the low 40 bits the number its book gave it,
+ * counting from 1, so ids are unique across books without the books
+ * sharing a counter. 0 (NONE) is never an id. Ids are handed to users, and
+ * taken back from them, as decimal Strings.
+ */
+public final class OrderIds {
+
+	public static final long NONE = 0;
+	
+	private static final int SEQUENCE_BITS = 40;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	
+	private OrderIds(){
+		
+	}
+	
+	public static long make(int productId, long sequence){
+		return ((long) productId << SEQUENCE_BITS) | (sequence & SEQUENCE_MASK);
+	}
+	
+	public static int productOf(long id){
+		return (int) (id >>> SEQUENCE_BITS);
+	}
+	
+	public static long sequenceOf(long id){
+		return id & SEQUENCE_MASK;
+	}
+	
+	public static String toString(long id){
+		return Long.toString(id);
+	}
+	
+	/*
+	 * Returns the id written as s, or NONE if s is not one. An id that was
+	 * never given out simply will not be found, so nothing is thrown here.
+	 */
+	public static long parse(String s){
+		if(s == null || s.isEmpty()){
+			return NONE;
+		}
+		long id = 0;
+		for(int i = 0; i < s.length(); i++){
+			int digit = s.charAt(i) - '0';
+			if(digit < 0 || digit > 9 || id > (Long.MAX_VALUE - digit) / 10){
+				return NONE;
+			}
+			id = id * 10 + digit;
+		}
+		return id;
+	}
+}
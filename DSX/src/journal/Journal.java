@@ -0,0 +1,379 @@
+package journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import codec.Codec;
+import codec.FillCodec;
+import codec.TradableCodec;
+import exceptions.DataValidationException;
+import exceptions.InvalidVolumeOperation;
+import ids.OrderIds;
+import pricePackage.PriceTicks;
+import tradablePackage.Order;
+import tradablePackage.Quote;
+import tradablePackage.QuoteSide;
+import tradablePackage.Tradable;
+
+/*
+ * The Journal is an append-only, memory-mapped file of every command the
+ * ProductService accepts and every fill it produces. Each record is an int
+ * length followed by a one byte record type and the record's fields. The
+ * length is written after the rest of the record, and a 0 length is always
+ * left just past the last record, so a record cut short by a crash reads as
+ * length 0 and marks the end of the journal. A record that still cannot be
+ * read, such as one whose length reached the disk but whose body did not,
+ * also ends the journal, and the next record is written over it. Orders, quote
+ * sides and fills are written by the TradableCodec and FillCodec, in the
+ * same encoding the gateway uses, and strings as Codec writes them. An
+ * order id is written as the TradableCodec writes it or, in a cancel, as
+ * a long.
+ * 
+ * The file is mapped SEGMENT_SIZE bytes at a time. How often the mapped
+ * pages are forced to disk is set by the sync policy:
+ * 
+ * NONE        - left to the operating system
+ * EVERY_WRITE - after every record, before the command returns
+ * GROUP       - by a background thread every groupCommitMillis, so many
+ *               records share one force
+ */
+public class Journal {
+
+	static final byte PRODUCT = 1;
+	static final byte MARKET_STATE = 2;
+	static final byte ORDER = 3;
+	static final byte QUOTE = 4;
+	static final byte ORDER_CANCEL = 5;
+	static final byte QUOTE_CANCEL = 6;
+	static final byte FILL = 7;
+	static final byte MASS_CANCEL = 8;
+	
+	private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+	
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer segment;
+	private long writeOffset;
+	private String syncPolicy;
+	private ScheduledExecutorService committer;
+	private volatile boolean dirty;
+	
+	private Journal(RandomAccessFile f, long endOffset, String policy, long groupCommitMillis) throws IOException{
+		file = f;
+		channel = f.getChannel();
+		syncPolicy = policy;
+		writeOffset = endOffset;
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, writeOffset, SEGMENT_SIZE);
+		//Replay may have stopped at an unreadable record rather than a 0 length
+		segment.putInt(0, 0);
+		
+		if(policy.equals("GROUP")){
+			committer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "JournalGroupCommit");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			committer.scheduleWithFixedDelay(new Runnable(){
+				public void run(){
+					force();
+				}
+			}, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/*
+	 * Opens the journal file, creating it if needed. The records from
+	 * replayFrom on are replayed into the handler first, and new records are
+	 * appended after the last complete one.
+	 */
+	public static Journal open(String path, String syncPolicy, long groupCommitMillis,
+							   long replayFrom, JournalHandler handler) throws IOException, DataValidationException{
+		if(syncPolicy == null || (!syncPolicy.equals("NONE") && !syncPolicy.equals("EVERY_WRITE") &&
+				!syncPolicy.equals("GROUP"))){
+			throw new DataValidationException("Invalid journal sync policy: " + syncPolicy);
+		}
+		if(syncPolicy.equals("GROUP") && groupCommitMillis < 1){
+			throw new DataValidationException("Group commit interval must be at least 1 ms: " + groupCommitMillis);
+		}
+		
+		RandomAccessFile f = new RandomAccessFile(new File(path), "rw");
+		long end = replay(f.getChannel(), replayFrom, handler);
+		return new Journal(f, end, syncPolicy, groupCommitMillis);
+	}
+	
+	/*
+	 * Reads the records from the given offset on, passing the commands to
+	 * the handler, and returns the offset just past the last complete record.
+	 * A record that cannot be decoded is taken as the end of the journal.
+	 */
+	public static long replay(FileChannel ch, long offset, JournalHandler handler) throws IOException{
+		long size = ch.size();
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		TradableCodec tradable = new TradableCodec();
+		
+		while(offset + 4 <= size){
+			if(window == null || offset + 4 > windowStart + window.limit()){
+				windowStart = offset;
+				window = ch.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(SEGMENT_SIZE, size - windowStart));
+			}
+			int length = window.getInt((int) (offset - windowStart));
+			if(length <= 0 || offset + 4 + length > size){
+				break;
+			}
+			if(offset + 4 + length > windowStart + window.limit()){
+				windowStart = offset;
+				window = ch.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(SEGMENT_SIZE, size - windowStart));
+			}
+			
+			window.position((int) (offset - windowStart) + 4);
+			if(handler != null){
+				handler.recordOffset(offset);
+				//Nothing past the record's own length can be read as part of it
+				window.limit((int) (offset - windowStart) + 4 + length);
+				try{
+					dispatch(window, handler, tradable);
+				}
+				catch(InvalidVolumeOperation e){
+					System.out.println("Skipping journal record at " + offset + ": " + e.getMessage());
+				}
+				catch(RuntimeException e){
+					System.out.println("Journal ends at unreadable record at " + offset + ": " + e);
+					break;
+				}
+				finally{
+					window.limit(window.capacity());
+				}
+			}
+			offset += 4 + length;
+		}
+		return offset;
+	}
+	
+	/*
+	 * Decodes the record at the buffer's position, which must end exactly
+	 * at the buffer's limit, and passes it to the handler. A record that
+	 * does not is rejected before the handler sees any of it.
+	 */
+	private static void dispatch(MappedByteBuffer in, JournalHandler handler, TradableCodec t) throws InvalidVolumeOperation{
+		byte type = in.get();
+		switch(type){
+			case PRODUCT:{
+				String product = Codec.getString(in);
+				expectEnd(in, in.position());
+				handler.productCreated(product);
+				break;
+			}
+			case MARKET_STATE:{
+				String state = Codec.getString(in);
+				expectEnd(in, in.position());
+				handler.marketStateChanged(state);
+				break;
+			}
+			case ORDER:{
+				t.wrap(in, in.position());
+				expectEnd(in, in.position() + t.getLength());
+				handler.orderSubmitted(new Order(t.getUser(), t.getProduct(), PriceTicks.toPrice(t.getPrice()),
+												 t.getOriginalVolume(), t.getSide(), OrderIds.parse(t.getId())));
+				break;
+			}
+			case QUOTE:{
+				t.wrap(in, in.position());
+				String user = t.getUser();
+				String product = t.getProduct();
+				long buyPrice = t.getPrice();
+				int buyVolume = t.getOriginalVolume();
+				long buyId = OrderIds.parse(t.getId());
+				int sellOffset = in.position() + t.getLength();
+				t.wrap(in, sellOffset);
+				expectEnd(in, sellOffset + t.getLength());
+				handler.quoteSubmitted(new Quote(user, product, PriceTicks.toPrice(buyPrice), buyVolume, buyId,
+												 PriceTicks.toPrice(t.getPrice()), t.getOriginalVolume(), OrderIds.parse(t.getId())));
+				break;
+			}
+			case ORDER_CANCEL:{
+				String product = Codec.getString(in);
+				String side = Codec.getString(in);
+				long orderId = in.getLong();
+				expectEnd(in, in.position());
+				handler.orderCancelled(product, side, orderId);
+				break;
+			}
+			case QUOTE_CANCEL:{
+				String user = Codec.getString(in);
+				String product = Codec.getString(in);
+				expectEnd(in, in.position());
+				handler.quoteCancelled(user, product);
+				break;
+			}
+			case MASS_CANCEL:{
+				String product = Codec.getString(in);
+				String user = Codec.getString(in);
+				expectEnd(in, in.position());
+				handler.massCancelled(product, user);
+				break;
+			}
+			case FILL:
+				//Fill records are skipped
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown record type " + type);
+		}
+	}
+	
+	private static void expectEnd(MappedByteBuffer in, int end){
+		if(end != in.limit()){
+			throw new IllegalArgumentException("Record length does not match its contents");
+		}
+	}
+	
+	// Append Methods
+	
+	public synchronized void appendProduct(String product){
+		int start = begin(1 + Codec.size(product));
+		segment.put(PRODUCT);
+		Codec.putString(segment, product);
+		end(start);
+	}
+	
+	public synchronized void appendMarketState(String state){
+		int start = begin(1 + Codec.size(state));
+		segment.put(MARKET_STATE);
+		Codec.putString(segment, state);
+		end(start);
+	}
+	
+	public synchronized void appendOrder(Order o){
+		int start = begin(1 + TradableCodec.size(o));
+		segment.put(ORDER);
+		TradableCodec.encode(segment, o);
+		end(start);
+	}
+	
+	public synchronized void appendQuote(Quote q){
+		QuoteSide buy = q.getQuoteSide("BUY");
+		QuoteSide sell = q.getQuoteSide("SELL");
+		int start = begin(1 + TradableCodec.size(buy) + TradableCodec.size(sell));
+		segment.put(QUOTE);
+		TradableCodec.encode(segment, buy);
+		TradableCodec.encode(segment, sell);
+		end(start);
+	}
+	
+	public synchronized void appendOrderCancel(String product, String side, long orderId){
+		int start = begin(1 + Codec.size(product) + Codec.size(side) + 8);
+		segment.put(ORDER_CANCEL);
+		Codec.putString(segment, product);
+		Codec.putString(segment, side);
+		segment.putLong(orderId);
+		end(start);
+	}
+	
+	public synchronized void appendQuoteCancel(String userName, String product){
+		int start = begin(1 + Codec.size(userName) + Codec.size(product));
+		segment.put(QUOTE_CANCEL);
+		Codec.putString(segment, userName);
+		Codec.putString(segment, product);
+		end(start);
+	}
+	
+	//userName is null for a cancel of the whole book
+	public synchronized void appendMassCancel(String product, String userName){
+		int start = begin(1 + Codec.size(product) + Codec.size(userName));
+		segment.put(MASS_CANCEL);
+		Codec.putString(segment, product);
+		Codec.putString(segment, userName);
+		end(start);
+	}
+	
+	public synchronized void appendFill(Tradable t, long priceTicks, int volume, int leaving){
+		int start = begin(1 + FillCodec.size(t.getUser(), t.getProduct(), t.getId(), null));
+		segment.put(FILL);
+		FillCodec.encode(segment, t, priceTicks, volume, leaving);
+		end(start);
+	}
+	
+	/*
+	 * Returns the file offset just past the last record written
+	 */
+	public synchronized long getOffset(){
+		return writeOffset;
+	}
+	
+	/*
+	 * Forces everything written so far to disk
+	 */
+	public void force(){
+		MappedByteBuffer s;
+		synchronized(this){
+			if(!dirty){
+				return;
+			}
+			dirty = false;
+			s = segment;
+		}
+		s.force();
+	}
+	
+	public void close() throws IOException{
+		if(committer != null){
+			committer.shutdown();
+		}
+		synchronized(this){
+			dirty = true;
+			force();
+			channel.close();
+			file.close();
+		}
+	}
+	
+	// Record Encoding
+	
+	/*
+	 * Makes room for a record of the given size in the current segment,
+	 * mapping the next segment if it does not fit, and returns the position
+	 * of its length field. The record is written after it, with room left
+	 * for the 0 length that follows it.
+	 */
+	private int begin(int size){
+		if(segment.remaining() < size + 8){
+			try{
+				segment.force();
+				segment = channel.map(FileChannel.MapMode.READ_WRITE, writeOffset, SEGMENT_SIZE);
+			}
+			catch(IOException e){
+				throw new IllegalStateException("Could not extend the journal: " + e.getMessage(), e);
+			}
+		}
+		int start = segment.position();
+		segment.position(start + 4);
+		return start;
+	}
+	
+	/*
+	 * Writes the length of the record begun at start, which makes it visible
+	 * to replay. A 0 length goes after it first, so whatever an earlier, torn
+	 * record left there is never read as the next one.
+	 */
+	private void end(int start){
+		int length = segment.position() - start - 4;
+		segment.putInt(segment.position(), 0);
+		segment.putInt(start, length);
+		writeOffset += 4 + length;
+		if(syncPolicy.equals("EVERY_WRITE")){
+			segment.force();
+		}
+		else{
+			dirty = true;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package journal;
+
+import tradablePackage.Order;
+import tradablePackage.Quote;
+
+/*
+ * Receives the commands read back from a Journal, in the order they were
+ * written. Fill records are written for audit only; the book rebuilds its
+ * fills by replaying the commands, so they are not passed on.
+ * 
+ * recordOffset is called with each record's offset in the file before the
+ * record itself, so a handler recovering from a snapshot can skip what the
+ * snapshot already holds.
+ */
+public interface JournalHandler {
+
+	void recordOffset(long offset);
+	void productCreated(String product);
+	void marketStateChanged(String state);
+	void orderSubmitted(Order o);
+	void quoteSubmitted(Quote q);
+	void orderCancelled(String product, String side, long orderId);
+	void quoteCancelled(String userName, String product);
+	//userName is null when every user's entries in the book were cancelled
+	void massCancelled(String product, String userName);
+}
@@ -9,6 +9,8 @@ public class FillMessage implements Comparable<FillMessage> {
 	private Price price;
 	private int volume;
 	private String details;
+	//The volume left after the fill, or -1 when the details are free text
+	private int leaving = -1;
 	private String side;
 	public String id;
 	
@@ -23,6 +25,21 @@ public class FillMessage implements Comparable<FillMessage> {
 		this.setId(i);
 	}
 	
+	/*
+	 * A fill from the book, whose details are the volume left. The details
+	 * String is only built if it is asked for.
+	 */
+	public FillMessage(String u, String p, Price pr, int v,
+					   int l, String s, String i){
+		this.setUser(u);
+		this.setProduct(p);
+		this.setPrice(pr);
+		this.setVolume(v);
+		leaving = l;
+		this.setSide(s);
+		this.setId(i);
+	}
+	
 	private void setUser(String u){
 		user = u;
 	}
@@ -37,6 +54,7 @@ public class FillMessage implements Comparable<FillMessage> {
 	}
 	public void setDetails(String d){
 		details = d;
+		leaving = -1;
 	}
 	private void setSide(String s){
 		side = s;
@@ -57,8 +75,14 @@ public class FillMessage implements Comparable<FillMessage> {
 		return volume;
 	}
 	public String getDetails(){
+		if(details == null && leaving >= 0){
+			details = "leaving " + leaving;
+		}
 		return details;
 	}
+	public int getLeavingVolume(){
+		return leaving;
+	}
 	public String getSide(){
 		return side;
 	}
@@ -79,7 +103,7 @@ public class FillMessage implements Comparable<FillMessage> {
 	public String toString(){
 		return "User: " + user + ", Product: " + product + ", Price: "
 				+ price + ", Volume: " + volume + ", Details: " +
-				details + ", Side: " + side + ", ID: " + id;
+				getDetails() + ", Side: " + side + ", ID: " + id;
 	}
 	
 }
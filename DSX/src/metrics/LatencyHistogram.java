@@ -0,0 +1,104 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A concurrent histogram of latencies in nanoseconds. Values are counted
+ * in log-linear buckets: exact below 64 ns, and above that each power of
+ * two is split into 32 buckets, so a reported percentile is within about
+ * 3% of the true value. Recording is a couple of atomic increments and
+ * never allocates, so it can be called from any thread on a hot path.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	public void record(long nanos){
+		if(nanos < 0){
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucketFor(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m = max.get();
+		while(nanos > m && !max.compareAndSet(m, nanos)){
+			m = max.get();
+		}
+	}
+	
+	public long getCount(){
+		return count.get();
+	}
+	
+	public long getMax(){
+		return max.get();
+	}
+	
+	public double getMean(){
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+	
+	/*
+	 * Returns the latency at or below which the given percentage (0-100)
+	 * of recorded values fall, as the upper end of its bucket. Returns 0
+	 * if nothing has been recorded.
+	 */
+	public long getPercentile(double percent){
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++){
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if(n == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil(percent / 100 * n);
+		rank = Math.max(1, Math.min(n, rank));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += snapshot[i];
+			if(seen >= rank){
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+	
+	public void reset(){
+		for(int i = 0; i < BUCKETS; i++){
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+	
+	//Values below 2 * SUB_BUCKETS have a bucket each. Above that, the
+	//bucket is chosen by the highest set bit and the SUB_BITS below it.
+	private static int bucketFor(long v){
+		if(v < 2 * SUB_BUCKETS){
+			return (int) v;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((v >>> shift) - SUB_BUCKETS);
+	}
+	
+	private static long upperBound(int bucket){
+		if(bucket < 2 * SUB_BUCKETS){
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
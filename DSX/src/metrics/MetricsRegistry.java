@@ -0,0 +1,242 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * The in-process registry of latency histograms and counters. Every
+ * metric has a name, and is kept in total and, where a product is given,
+ * per product:
+ * 
+ *   command.<method>        UserCommandService entry points
+ *   stage.<stage>           matching, the opening auction and each publisher
+ *   fills, cancels          fill slots and cancels the books produce
+ *   rejects, rejects.<method>  commands that ended in an exception
+ * 
+ * Recording looks the metric up in a couple of ConcurrentHashMaps and
+ * updates atomics, so it allocates nothing once a metric exists and can
+ * stay on in production. It can also be switched off altogether.
+ * 
+ * The registry is also a standard MBean; registerMBean publishes it on
+ * the platform MBean server. There, a histogram or counter is addressed
+ * as "name" for the total or "name:product" for one product.
+ */
+public class MetricsRegistry implements MetricsRegistryMBean {
+
+	public static final String OBJECT_NAME = "DSX:type=MetricsRegistry";
+	
+	private static volatile MetricsRegistry ourInstance;
+	
+	private volatile boolean enabled = true;
+	private final ConcurrentHashMap<String, Latency> latencies = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+	
+	public static MetricsRegistry getInstance(){
+		
+		if(ourInstance == null){
+			synchronized(MetricsRegistry.class){
+				if(ourInstance == null){
+					ourInstance = new MetricsRegistry();
+				}
+			}
+		}
+		return ourInstance;
+	}
+	
+	private MetricsRegistry(){}
+	
+	/*
+	 * Registers the registry with the platform MBean server, if it is not
+	 * registered already
+	 */
+	public synchronized void registerMBean() throws JMException{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if(!server.isRegistered(name)){
+			server.registerMBean(this, name);
+		}
+	}
+	
+	public boolean isEnabled(){
+		return enabled;
+	}
+	
+	public void setEnabled(boolean e){
+		enabled = e;
+	}
+	
+	//Recording Methods
+	
+	/*
+	 * Records the time since startNanos (a System.nanoTime value) under
+	 * name, in total and for product if it is not null
+	 */
+	public void recordLatency(String name, String product, long startNanos){
+		if(!enabled){
+			return;
+		}
+		long nanos = System.nanoTime() - startNanos;
+		Latency latency = latencies.get(name);
+		if(latency == null){
+			latency = putIfAbsent(latencies, name, new Latency());
+		}
+		latency.total.record(nanos);
+		if(product != null){
+			latency.forProduct(product).record(nanos);
+		}
+	}
+	
+	public void increment(String name, String product){
+		add(name, product, 1);
+	}
+	
+	/*
+	 * Adds n to the counter name, in total and for product if it is not null
+	 */
+	public void add(String name, String product, long n){
+		if(!enabled || n == 0){
+			return;
+		}
+		Counter counter = counters.get(name);
+		if(counter == null){
+			counter = putIfAbsent(counters, name, new Counter());
+		}
+		counter.total.addAndGet(n);
+		if(product != null){
+			counter.forProduct(product).addAndGet(n);
+		}
+	}
+	
+	//Query Methods
+	
+	/*
+	 * Returns the histogram for a key ("name" or "name:product"), or null if
+	 * nothing has been recorded under it
+	 */
+	public LatencyHistogram getHistogram(String key){
+		int colon = key.indexOf(':');
+		Latency latency = latencies.get(colon < 0 ? key : key.substring(0, colon));
+		if(latency == null){
+			return null;
+		}
+		return colon < 0 ? latency.total : latency.byProduct.get(key.substring(colon + 1));
+	}
+	
+	public String[] getHistogramNames(){
+		ArrayList<String> names = new ArrayList<>();
+		for(Map.Entry<String, Latency> e : latencies.entrySet()){
+			names.add(e.getKey());
+			for(String product : e.getValue().byProduct.keySet()){
+				names.add(e.getKey() + ":" + product);
+			}
+		}
+		Collections.sort(names);
+		return names.toArray(new String[names.size()]);
+	}
+	
+	public String[] getCounterNames(){
+		ArrayList<String> names = new ArrayList<>();
+		for(Map.Entry<String, Counter> e : counters.entrySet()){
+			names.add(e.getKey());
+			for(String product : e.getValue().byProduct.keySet()){
+				names.add(e.getKey() + ":" + product);
+			}
+		}
+		Collections.sort(names);
+		return names.toArray(new String[names.size()]);
+	}
+	
+	public long getLatencyCount(String key){
+		LatencyHistogram h = getHistogram(key);
+		return h == null ? 0 : h.getCount();
+	}
+	
+	public long getLatencyPercentile(String key, double percent){
+		LatencyHistogram h = getHistogram(key);
+		return h == null ? 0 : h.getPercentile(percent);
+	}
+	
+	public double getLatencyMean(String key){
+		LatencyHistogram h = getHistogram(key);
+		return h == null ? 0 : h.getMean();
+	}
+	
+	public long getLatencyMax(String key){
+		LatencyHistogram h = getHistogram(key);
+		return h == null ? 0 : h.getMax();
+	}
+	
+	public long getCounterValue(String key){
+		int colon = key.indexOf(':');
+		Counter counter = counters.get(colon < 0 ? key : key.substring(0, colon));
+		if(counter == null){
+			return 0;
+		}
+		if(colon < 0){
+			return counter.total.get();
+		}
+		AtomicLong value = counter.byProduct.get(key.substring(colon + 1));
+		return value == null ? 0 : value.get();
+	}
+	
+	/*
+	 * Returns every histogram (count, mean, p50, p99, p99.9 and max in
+	 * microseconds) and every counter, one per line
+	 */
+	public String getReport(){
+		StringBuilder sb = new StringBuilder();
+		for(String key : getHistogramNames()){
+			LatencyHistogram h = getHistogram(key);
+			sb.append(String.format("%-40s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+									key, h.getCount(), h.getMean() / 1e3, h.getPercentile(50) / 1e3,
+									h.getPercentile(99) / 1e3, h.getPercentile(99.9) / 1e3, h.getMax() / 1e3));
+		}
+		for(String key : getCounterNames()){
+			sb.append(String.format("%-40s %d%n", key, getCounterValue(key)));
+		}
+		return sb.toString();
+	}
+	
+	/*
+	 * Forgets every metric recorded so far
+	 */
+	public void reset(){
+		latencies.clear();
+		counters.clear();
+	}
+	
+	private static <T> T putIfAbsent(ConcurrentHashMap<String, T> map, String key, T value){
+		T existing = map.putIfAbsent(key, value);
+		return existing == null ? value : existing;
+	}
+	
+	//One latency metric: its total histogram and one per product
+	private static class Latency {
+		final LatencyHistogram total = new LatencyHistogram();
+		final ConcurrentHashMap<String, LatencyHistogram> byProduct = new ConcurrentHashMap<>();
+		
+		LatencyHistogram forProduct(String product){
+			LatencyHistogram h = byProduct.get(product);
+			return h != null ? h : putIfAbsent(byProduct, product, new LatencyHistogram());
+		}
+	}
+	
+	//One counter: its total and one per product
+	private static class Counter {
+		final AtomicLong total = new AtomicLong();
+		final ConcurrentHashMap<String, AtomicLong> byProduct = new ConcurrentHashMap<>();
+		
+		AtomicLong forProduct(String product){
+			AtomicLong c = byProduct.get(product);
+			return c != null ? c : putIfAbsent(byProduct, product, new AtomicLong());
+		}
+	}
+}
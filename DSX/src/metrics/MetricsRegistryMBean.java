@@ -0,0 +1,21 @@
+package metrics;
+
+/*
+ * The JMX management interface of the MetricsRegistry. Keys are "name" for
+ * a metric's total or "name:product" for one product; latencies are in
+ * nanoseconds.
+ */
+public interface MetricsRegistryMBean {
+
+	boolean isEnabled();
+	void setEnabled(boolean e);
+	String[] getHistogramNames();
+	String[] getCounterNames();
+	long getLatencyCount(String key);
+	long getLatencyPercentile(String key, double percent);
+	double getLatencyMean(String key);
+	long getLatencyMax(String key);
+	long getCounterValue(String key);
+	String getReport();
+	void reset();
+}
@@ -99,6 +99,23 @@ public class Price implements Comparable<Price> {
 			return false;
 		}
 		
+		/*
+		 * Prices are interned by the PriceFactory, but a price outside its
+		 * table can be evicted and created again, so hashed collections must
+		 * compare by value
+		 */
+		public boolean equals(Object o){
+			if(!(o instanceof Price)){
+				return false;
+			}
+			Price p = (Price) o;
+			return MKT == p.MKT && amount == p.amount;
+		}
+		
+		public int hashCode(){
+			return MKT ? -1 : (int) (amount ^ (amount >>> 32));
+		}
+		
 		public boolean isMarket(){
 			if(getMarketPrice() == true){
 				return true;
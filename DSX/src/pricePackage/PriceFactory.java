@@ -1,78 +1,169 @@
 package pricePackage;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/*
+ * The PriceFactory hands out shared Price objects, so the same limit price
+ * is normally the same object. Prices are kept in two places:
+ * 
+ * - a table indexed by cents covering a configurable range around where
+ *   trading happens ($0.00 to $1,000.00 by default). Slots are filled on
+ *   first use with a compare-and-set, so lookups take no lock and, once
+ *   a price has been seen, create no garbage.
+ * - a bounded ConcurrentHashMap for prices outside that range. When it
+ *   grows past its limit, entries are evicted, so a long session with
+ *   drifting prices does not grow without bound. An evicted price is
+ *   simply created again the next time it is asked for, which is why
+ *   Prices must be compared with equals or compareTo, never ==.
+ */
 public class PriceFactory {
 	
-	private static HashMap <Long, Price> priceMap = new HashMap<>();
+	private static final Price MARKET_PRICE = new Price();
 	
-	public static Price makeLimitPrice(String value){		
-		
-		//Converts string to long value
-		String s = value.replaceAll("[$,]","");
-		double d = Double.parseDouble(s);
-		d = d*100;
-		long l = (long) d;
+	/*
+	 * The table and the cent value of its first slot. configure replaces
+	 * both at once, so a lookup reads the field once and never indexes one
+	 * table with another's low end.
+	 */
+	private static final class PriceTable {
 		
-		//Creates new price object and gets it from the hashMap
-		Price price = priceMap.get(l);
+		final long low;
+		final AtomicReferenceArray<Price> prices;
 		
-		//Checks to see if the price object is already in the hashMap
-		//If it is not in there, it will put the new price object in the hashMap 
-		if(price == null){
-			price = new Price(l);
-			priceMap.put(l, price);
+		PriceTable(long lowCents, int size){
+			low = lowCents;
+			prices = new AtomicReferenceArray<>(size);
 		}
-		
-		//returns the price object to the constructor
-		return price;
+	}
+	
+	private static volatile PriceTable priceTable = new PriceTable(0, 100001);
+	private static volatile int overflowLimit = 10000;
+	private static ConcurrentHashMap<Long, Price> overflowMap = new ConcurrentHashMap<>();
+	
+	/*
+	 * Sets the range of cent values, inclusive, kept in the lock-free table
+	 * and the number of prices outside it that are kept before evicting.
+	 * Prices already handed out stay valid.
+	 */
+	public static synchronized void configure(long lowCents, long highCents, int maxOverflow){
+		if(highCents < lowCents || highCents - lowCents >= Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Invalid price table range: " + lowCents + " to " + highCents);
+		}
+		if(maxOverflow < 1){
+			throw new IllegalArgumentException("Overflow limit must be at least 1: " + maxOverflow);
+		}
+		priceTable = new PriceTable(lowCents, (int) (highCents - lowCents + 1));
+		overflowLimit = maxOverflow;
+		overflowMap.clear();
+	}
+	
+	public static Price makeLimitPrice(String value){		
+		return makeLimitPrice(parseCents(value));
 	}
 	
 	public static Price makeLimitPrice(long value){
 		
-		//Creates new price object and gets it from the hashMap
-		Price price = priceMap.get(value);
+		//Prices in range come from the table
+		PriceTable t = priceTable;
+		AtomicReferenceArray<Price> table = t.prices;
+		long index = value - t.low;
+		if(index >= 0 && index < table.length()){
+			Price price = table.get((int) index);
+			if(price == null){
+				table.compareAndSet((int) index, null, new Price(value));
+				price = table.get((int) index);
+			}
+			return price;
+		}
 		
-		//Checks to see if the price object is already in the hashMap
-		//If it is not in there, it will put the new price object in the hashMap 
+		//Everything else comes from the bounded overflow map
+		Price price = overflowMap.get(value);
 		if(price == null){
-			price = new Price(value);
-			priceMap.put(value, price);
+			Price newPrice = new Price(value);
+			price = overflowMap.putIfAbsent(value, newPrice);
+			if(price == null){
+				price = newPrice;
+				if(overflowMap.size() > overflowLimit){
+					evict();
+				}
+			}
 		}
-		
-		//returns the price object to the constructor
 		return price;
 	}
 	
 	public static Price makeMarketPrice(){
+		return MARKET_PRICE;
+	}
+	
+	/*
+	 * Converts a dollar string such as "12.34", "$1,234.5" or "-0.07" to
+	 * cents without going through a double. '$' and ',' are ignored, and
+	 * digits beyond the second decimal place are truncated, as before.
+	 */
+	public static long parseCents(String value){
+		value = value.trim();
+		int length = value.length();
+		int i = 0;
+		boolean negative = false;
+		long dollars = 0;
+		long cents = 0;
+		int centDigits = 0;
+		boolean decimal = false;
+		boolean digits = false;
 		
-		Boolean MKT = true;
-		long k = MKT.hashCode();
-		
-		Price price = priceMap.get(k);
-		
-		if(priceMap.containsKey(k) == true){
-			price = priceMap.get(k);
-			return price;
+		while(i < length && value.charAt(i) == '$'){
+			i++;
+		}
+		if(i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')){
+			negative = value.charAt(i) == '-';
+			i++;
 		}
 		
-		price = new Price();
-		priceMap.put(k, price);
-		return price;
-		/*
-		//Creates new price object and gets it from the hashMap
-		Price price = (Price)priceMap.get(0);
-		
-		
-		//Checks to see if the price object is already in the hashMap
-		//If it is not in there, it will put the new price object in the hashMap 
-		if(price == null){
-			price = new Price();
-			priceMap.put((long) 0, price);
+		for(; i < length; i++){
+			char c = value.charAt(i);
+			if(c >= '0' && c <= '9'){
+				digits = true;
+				if(!decimal){
+					dollars = dollars * 10 + (c - '0');
+					if(dollars > Long.MAX_VALUE / 100){
+						throw new NumberFormatException("Price out of range: " + value);
+					}
+				}
+				else if(centDigits < 2){
+					cents = cents * 10 + (c - '0');
+					centDigits++;
+				}
+			}
+			else if(c == '.' && !decimal){
+				decimal = true;
+			}
+			else if(c == ',' || c == '$'){
+				continue;
+			}
+			else{
+				throw new NumberFormatException("Invalid price: " + value);
+			}
+		}
+		if(!digits){
+			throw new NumberFormatException("Invalid price: " + value);
+		}
+		if(centDigits == 1){
+			cents *= 10;
 		}
 		
-		//returns price object with value of 0 (MKT) to constructor
-		return price;
-		*/
+		long total = dollars * 100 + cents;
+		return negative ? -total : total;
+	}
+	
+	//Drops overflow prices until the map is back to three quarters of its limit
+	private static void evict(){
+		int target = overflowLimit - overflowLimit / 4;
+		Iterator<Long> it = overflowMap.keySet().iterator();
+		while(overflowMap.size() > target && it.hasNext()){
+			it.next();
+			it.remove();
+		}
 	}
 }
@@ -0,0 +1,78 @@
+package pricePackage;
+
+import exceptions.InvalidPriceOperation;
+
+/*
+ * Static helpers for prices held as primitive longs, used inside the
+ * book and the position keeping so matching and accounting never touch a
+ * Price object. A price is its value in ticks (cents), and MKT is the
+ * reserved value Long.MIN_VALUE, which no limit price can have. Price
+ * objects are only made, with toPrice, where a price leaves the engine.
+ */
+public final class PriceTicks {
+
+	public static final long MKT = Long.MIN_VALUE;
+	
+	private PriceTicks(){
+		
+	}
+	
+	// conversions
+	public static long toTicks(Price p){
+		if(p.isMarket()){
+			return MKT;
+		}
+		return p.getValue();
+	}
+	
+	public static Price toPrice(long ticks){
+		if(ticks == MKT){
+			return PriceFactory.makeMarketPrice();
+		}
+		return PriceFactory.makeLimitPrice(ticks);
+	}
+	
+	public static boolean isMarket(long ticks){
+		return ticks == MKT;
+	}
+	
+	// comparisons, valid for limit prices
+	public static int compare(long t1, long t2){
+		if(t1 == t2){
+			return 0;
+		}
+		return t1 < t2 ? -1 : 1;
+	}
+	
+	public static boolean greaterOrEqual(long t1, long t2){
+		return t1 >= t2;
+	}
+	
+	public static boolean lessOrEqual(long t1, long t2){
+		return t1 <= t2;
+	}
+	
+	// arithmetic, which like Price's is not allowed on MKT
+	public static long add(long t1, long t2) throws InvalidPriceOperation{
+		checkLimit(t1, t2);
+		return t1 + t2;
+	}
+	
+	public static long subtract(long t1, long t2) throws InvalidPriceOperation{
+		checkLimit(t1, t2);
+		return t1 - t2;
+	}
+	
+	public static long multiply(long t, int n) throws InvalidPriceOperation{
+		if(t == MKT){
+			throw new InvalidPriceOperation("Cannot multiply a MARKET price.");
+		}
+		return t * n;
+	}
+	
+	private static void checkLimit(long t1, long t2) throws InvalidPriceOperation{
+		if(t1 == MKT || t2 == MKT){
+			throw new InvalidPriceOperation("Cannot do arithmetic with a MARKET price.");
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package publishers;
+
+/*
+ * A BookDepthDTO is the depth of one product's book: the price and total
+ * remaining volume of every level, best price first on each side. Prices
+ * are in ticks (PriceTicks.MKT for a MKT level) and nothing is formatted;
+ * turning the levels into text is left to whoever displays them.
+ * 
+ * The version changes whenever the book does, so a caller holding a
+ * BookDepthDTO can tell whether it is still current. The same instance is
+ * handed to every caller until the book changes, so it is never modified.
+ */
+public class BookDepthDTO {
+
+	private final String product;
+	private final long version;
+	private final long[] buyPrices;
+	private final int[] buyVolumes;
+	private final long[] sellPrices;
+	private final int[] sellVolumes;
+	
+	public BookDepthDTO(String p, long v, long[] bp, int[] bv, long[] sp, int[] sv){
+		product = p;
+		version = v;
+		buyPrices = bp;
+		buyVolumes = bv;
+		sellPrices = sp;
+		sellVolumes = sv;
+	}
+	
+	public String getProduct(){
+		return product;
+	}
+	public long getVersion(){
+		return version;
+	}
+	public int getBuyLevels(){
+		return buyPrices.length;
+	}
+	public long getBuyPrice(int level){
+		return buyPrices[level];
+	}
+	public int getBuyVolume(int level){
+		return buyVolumes[level];
+	}
+	public int getSellLevels(){
+		return sellPrices.length;
+	}
+	public long getSellPrice(int level){
+		return sellPrices[level];
+	}
+	public int getSellVolume(int level){
+		return sellVolumes[level];
+	}
+}
@@ -1,36 +1,65 @@
 package publishers;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import metrics.MetricsRegistry;
 import user.*;
 import pricePackage.*;
 import exceptions.*;
 
 public final class CurrentMarketPublisher {
 
-	private static CurrentMarketPublisher ourInstance;
-	private static HashMap <String, ArrayList<User>> productMap = new HashMap();
+	private static volatile CurrentMarketPublisher ourInstance;
+	private static ConcurrentHashMap<String, CopyOnWriteArrayList<User>> productMap = new ConcurrentHashMap<>();
 	
-	public static synchronized CurrentMarketPublisher getInstance(){
+	//Conflation mode: the latest current market per product waiting for the
+	//next flush, and the last one flushed to the product's subscribers.
+	//Books add to pending without the publisher's lock; only flush takes
+	//from it and uses lastFlushed.
+	private volatile ScheduledExecutorService flusher;
+	private ConcurrentHashMap<String, MarketEvent> pending = new ConcurrentHashMap<>();
+	private HashMap<String, MarketEvent> lastFlushed = new HashMap<>();
+	//Current markets are state, so only each product's latest is kept for replay
+	private EventSequencer sequencer = new EventSequencer();
+	
+	public static CurrentMarketPublisher getInstance(){
 		
 		if(ourInstance == null){
-			ourInstance = new CurrentMarketPublisher();
+			synchronized(CurrentMarketPublisher.class){
+				if(ourInstance == null){
+					ourInstance = new CurrentMarketPublisher();
+				}
+			}
 		}
 		return ourInstance;
 	}
 	
 	private CurrentMarketPublisher(){
-		
+		sequencer.setCapacity(1);
+	}
+	
+	//Resends the product's latest current market to the user
+	public synchronized void replay(User u, String product){
+		MarketEvent event = sequencer.latest(EventSequencer.key(product));
+		if(event != null){
+			DeliveryService.getInstance().deliverNow(u, event);
+		}
 	}
 	
 	public synchronized void subscribe(User u, String product) throws AlreadySubscribedException{
 		
-		ArrayList<User> userList = productMap.get(product);
+		DeliveryService.getInstance().subscribing(u);
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
 		
 		//if List does not exist, create it and add subscription
 		if(userList == null){
-			userList = new ArrayList<User>();
+			userList = new CopyOnWriteArrayList<User>();
 			userList.add(u);
 			productMap.put(product, userList);
 		}
@@ -49,7 +78,7 @@ public final class CurrentMarketPublisher {
 	
 	public synchronized void unSubscribe(User u, String product) throws NotSubscribedException {
 		
-		ArrayList<User> userList = productMap.get(product);
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
 		
 		//if product exists and contains subscription
 		if(userList.contains(u)){
@@ -63,14 +92,95 @@ public final class CurrentMarketPublisher {
 		}
 	}
 	
-	public synchronized void publishCurrentMarket(MarketDataDTO md){
+	/*
+	 * Drops the user from every product's subscriber list. Used when the
+	 * user's delivery queue is disconnected.
+	 */
+	synchronized void removeSubscriber(User u){
+		for(CopyOnWriteArrayList<User> userList : productMap.values()){
+			userList.remove(u);
+		}
+	}
+	
+	/*
+	 * Turns on conflation. From now on publishCurrentMarket only records
+	 * the product's latest current market, and the latest values are sent
+	 * to subscribers at most maxUpdatesPerSecond times a second. States
+	 * overwritten between two flushes are never delivered, and a flush is
+	 * skipped for a product whose market is back where it was last flushed.
+	 */
+	public synchronized void startConflation(int maxUpdatesPerSecond) throws DataValidationException{
+		if(maxUpdatesPerSecond < 1){
+			throw new DataValidationException("Max update rate must be at least 1 per second: " + maxUpdatesPerSecond);
+		}
+		if(flusher != null){
+			throw new DataValidationException("Current market conflation has already been started");
+		}
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "CurrentMarketFlusher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = 1000000000L / maxUpdatesPerSecond;
+		flusher.scheduleAtFixedRate(new Runnable(){
+			public void run(){
+				flush();
+			}
+		}, period, period, TimeUnit.NANOSECONDS);
+	}
+	
+	/*
+	 * Turns conflation off, delivering anything still pending
+	 */
+	public synchronized void stopConflation(){
+		if(flusher == null){
+			return;
+		}
+		flusher.shutdown();
+		flusher = null;
+		flush();
+		lastFlushed.clear();
+	}
+	
+	public boolean isConflating(){
+		return flusher != null;
+	}
+	
+	/*
+	 * Sends each product's pending current market to its subscribers
+	 */
+	public synchronized void flush(){
+		for(String product : pending.keySet()){
+			MarketEvent event = pending.remove(product);
+			if(event == null){
+				continue;
+			}
+			MarketEvent last = lastFlushed.get(event.getProduct());
+			if(last != null && event.sameMarket(last)){
+				continue;
+			}
+			lastFlushed.put(event.getProduct(), event);
+			
+			CopyOnWriteArrayList<User> userList = productMap.get(event.getProduct());
+			if(userList != null){
+				for(User user : userList){
+					DeliveryService.getInstance().deliver(user, event);
+				}
+			}
+		}
+	}
+	
+	public void publishCurrentMarket(MarketDataDTO md){
+		long start = System.nanoTime();
 		
 		Price buyPrice;
 		Price sellPrice;
 		
 		//gets product name from DTO
 		String dtoProduct = md.getProduct();
-		ArrayList<User> userList = productMap.get(dtoProduct);
+		CopyOnWriteArrayList<User> userList = productMap.get(dtoProduct);
 		
 		if(md.getBuyPrice() == null){
 			buyPrice = PriceFactory.makeLimitPrice(0);
@@ -86,14 +196,23 @@ public final class CurrentMarketPublisher {
 			sellPrice = md.getSellPrice();
 		}		
 		
-		if(userList != null){
-		for(int i = 0; i < userList.size(); i++){
-			User u = userList.get(i);
-			u.acceptCurrentMarket(md.getProduct(), buyPrice, md.getBuyVolume(),
-								  sellPrice, md.getSellVolume());
+		long key = EventSequencer.key(dtoProduct);
+		MarketEvent event = MarketEvent.currentMarket(md.getProduct(), buyPrice, md.getBuyVolume(),
+													  sellPrice, md.getSellVolume(), sequencer.next(key));
+		sequencer.record(key, event);
+		if(flusher != null){
+			pending.put(dtoProduct, event);
+			//Conflation was stopped and pending flushed while this was put
+			if(flusher == null){
+				flush();
+			}
 		}
+		else if(userList != null){
+		for(User user : userList){
+			DeliveryService.getInstance().deliver(user, event);
 		}
-		
+		}
+		MetricsRegistry.getInstance().recordLatency("stage.publish.currentMarket", dtoProduct, start);
 	}
 	
 }
@@ -0,0 +1,214 @@
+package publishers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import exceptions.DataValidationException;
+import user.User;
+
+/*
+ * The DeliveryService is the dispatch stage between the publishers and the
+ * subscribers. Until start is called every event is delivered on the
+ * publishing thread, as it always was. Once started, publishing only puts
+ * the event on each subscriber's bounded SubscriberQueue, and a pool of
+ * delivery threads calls the User's accept methods, so a slow subscriber
+ * no longer holds up matching.
+ * 
+ * Asynchronous delivery is opted into by whoever sets the system up: the
+ * Swing drivers start it with the CONFLATE policy, since a display only
+ * needs the latest market, and MainLoadTest starts it unless told not to
+ * with -delivery 0. MainDeliveryTest checks each overflow policy.
+ */
+public final class DeliveryService {
+
+	private static volatile DeliveryService ourInstance;
+	
+	private volatile ExecutorService pool;
+	private volatile int queueCapacity = 1024;
+	private volatile String defaultPolicy = "DROP_OLDEST";
+	private ConcurrentHashMap<User, SubscriberQueue> queues = new ConcurrentHashMap<>();
+	
+	public static DeliveryService getInstance(){
+		
+		if(ourInstance == null){
+			synchronized(DeliveryService.class){
+				if(ourInstance == null){
+					ourInstance = new DeliveryService();
+				}
+			}
+		}
+		return ourInstance;
+	}
+	
+	private DeliveryService(){
+		
+	}
+	
+	/*
+	 * Starts asynchronous delivery with the given number of delivery threads.
+	 * Each subscriber gets a queue of queueCap events with the overflow
+	 * policy p (DROP_OLDEST, CONFLATE or DISCONNECT) unless one is set for
+	 * it with setOverflowPolicy.
+	 */
+	public synchronized void start(int threads, int queueCap, String p) throws DataValidationException{
+		if(pool != null){
+			throw new DataValidationException("Delivery service has already been started");
+		}
+		if(threads < 1 || queueCap < 1){
+			throw new DataValidationException("Thread count and queue capacity must be at least 1");
+		}
+		validatePolicy(p);
+		queueCapacity = queueCap;
+		defaultPolicy = p;
+		
+		final AtomicInteger threadNumber = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "Delivery-" + threadNumber.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	public boolean isAsynchronous(){
+		return pool != null;
+	}
+	
+	/*
+	 * Sets the overflow policy used for the user's queue
+	 */
+	public void setOverflowPolicy(User u, String p) throws DataValidationException{
+		validatePolicy(p);
+		queueFor(u).setPolicy(p);
+	}
+	
+	/*
+	 * Returns how many events have been dropped or conflated away for the user
+	 */
+	public long getDroppedCount(User u){
+		SubscriberQueue q = queues.get(u);
+		return q == null ? 0 : q.getDroppedCount();
+	}
+	
+	/*
+	 * Waits until every queued event has been delivered, or the timeout has
+	 * passed. Returns true if all queues are empty.
+	 */
+	public boolean awaitIdle(long timeoutMillis) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(true){
+			boolean idle = true;
+			for(SubscriberQueue q : queues.values()){
+				if(!q.isIdle()){
+					idle = false;
+					break;
+				}
+			}
+			if(idle){
+				return true;
+			}
+			if(System.currentTimeMillis() >= deadline){
+				return false;
+			}
+			Thread.sleep(1);
+		}
+	}
+	
+	/*
+	 * Called by the publishers for every subscriber of an event
+	 */
+	void deliver(User u, MarketEvent e){
+		if(pool == null){
+			e.deliverTo(u);
+			return;
+		}
+		queueFor(u).offer(e);
+	}
+	
+	/*
+	 * Delivers straight to the user on the calling thread, bypassing its
+	 * queue. Used to answer replay requests: they usually come from the
+	 * user's own delivery thread after a gap, and an answer queued behind
+	 * a full queue could be dropped the same way the missed events were.
+	 */
+	void deliverNow(User u, MarketEvent e){
+		try{
+			e.deliverTo(u);
+		}
+		catch(RuntimeException ex){
+			System.out.println("Delivery to " + u.getUserName() + " failed: " + ex);
+		}
+	}
+	
+	void schedule(SubscriberQueue q){
+		pool.execute(q);
+	}
+	
+	/*
+	 * Removes a subscriber whose queue overflowed under the DISCONNECT
+	 * policy from the publishers. Runs on the delivery pool, since the
+	 * overflow is detected while a book's lock is held. The closed queue
+	 * stays in place, so events from a publish that was already under way,
+	 * and still had the subscriber on its list, are discarded rather than
+	 * put on a new queue. It takes events again once the subscriber
+	 * subscribes again.
+	 */
+	void disconnect(final User u){
+		pool.execute(new Runnable(){
+			public void run(){
+				unsubscribeAll(u);
+				System.out.println("User " + u.getUserName() + " disconnected: delivery queue overflowed");
+			}
+		});
+	}
+	
+	/*
+	 * Removes the user from every publisher and discards its queue, as when
+	 * the connection the user's events were going to has closed
+	 */
+	public void removeSubscriber(User u){
+		unsubscribeAll(u);
+		queues.remove(u);
+	}
+	
+	/*
+	 * Called by the publishers when the user subscribes, to reopen a queue
+	 * a DISCONNECT overflow closed
+	 */
+	void subscribing(User u){
+		SubscriberQueue q = queues.get(u);
+		if(q != null){
+			q.reopen();
+		}
+	}
+	
+	private void unsubscribeAll(User u){
+		MessagePublisher.getInstance().removeSubscriber(u);
+		CurrentMarketPublisher.getInstance().removeSubscriber(u);
+		LastSalePublisher.getInstance().removeSubscriber(u);
+		TickerPublisher.getInstance().removeSubscriber(u);
+		DepthPublisher.getInstance().removeSubscriber(u);
+	}
+	
+	private SubscriberQueue queueFor(User u){
+		SubscriberQueue q = queues.get(u);
+		if(q == null){
+			SubscriberQueue newQueue = new SubscriberQueue(this, u, queueCapacity, defaultPolicy);
+			q = queues.putIfAbsent(u, newQueue);
+			if(q == null){
+				q = newQueue;
+			}
+		}
+		return q;
+	}
+	
+	private static void validatePolicy(String p) throws DataValidationException{
+		if(p == null || (!p.equals("DROP_OLDEST") && !p.equals("CONFLATE") && !p.equals("DISCONNECT"))){
+			throw new DataValidationException("Invalid overflow policy: " + p);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package publishers;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import metrics.MetricsRegistry;
+import user.*;
+import exceptions.*;
+
+/*
+ * The DepthPublisher sends subscribers the depth of a product's book as it
+ * changes. A new subscriber is first sent a snapshot of the whole book and
+ * then the per-level updates made after it, so it can keep its own copy
+ * of the book without ever asking for the depth again.
+ * 
+ * The books call subscribe and publishDepthUpdates while holding their own
+ * lock, so no update can fall between a snapshot and the first update a
+ * subscriber is sent after it. Publishing takes no lock of the publisher's
+ * own, so books for different products publish in parallel.
+ */
+public final class DepthPublisher {
+
+	private static volatile DepthPublisher ourInstance;
+	private static ConcurrentHashMap<String, CopyOnWriteArrayList<User>> productMap = new ConcurrentHashMap<>();
+	
+	public static DepthPublisher getInstance(){
+		
+		if(ourInstance == null){
+			synchronized(DepthPublisher.class){
+				if(ourInstance == null){
+					ourInstance = new DepthPublisher();
+				}
+			}
+		}
+		return ourInstance;
+	}
+	
+	private DepthPublisher(){
+		
+	}
+	
+	/*
+	 * Subscribes the user and queues the snapshot of the book, which
+	 * includes every update up to and including sequence
+	 */
+	public synchronized void subscribe(User u, BookDepthDTO snapshot, long sequence) throws AlreadySubscribedException{
+		
+		DeliveryService.getInstance().subscribing(u);
+		String product = snapshot.getProduct();
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
+		
+		if(userList == null){
+			userList = new CopyOnWriteArrayList<User>();
+			productMap.put(product, userList);
+		}
+		else if(userList.contains(u)){
+			throw new AlreadySubscribedException("User " + u + " is already subscribed");
+		}
+		userList.add(u);
+		DeliveryService.getInstance().deliver(u, MarketEvent.depthSnapshot(snapshot, sequence));
+	}
+	
+	/*
+	 * Sends a fresh snapshot straight to a subscriber whose copy of the depth
+	 * has fallen out of step; updates still queued before it are ignored
+	 */
+	public synchronized void resendSnapshot(User u, BookDepthDTO snapshot, long sequence) throws NotSubscribedException{
+		CopyOnWriteArrayList<User> userList = productMap.get(snapshot.getProduct());
+		if(userList == null || !userList.contains(u)){
+			throw new NotSubscribedException("User " + u + " is not subscribed");
+		}
+		DeliveryService.getInstance().deliverNow(u, MarketEvent.depthSnapshot(snapshot, sequence));
+	}
+	
+	public synchronized void unSubscribe(User u, String product) throws NotSubscribedException {
+		
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
+		
+		if(userList != null && userList.contains(u)){
+			userList.remove(u);
+		}
+		else{
+			throw new NotSubscribedException("User " + u + " is not subscribed");
+		}
+	}
+	
+	/*
+	 * Drops the user from every product's subscriber list. Used when the
+	 * user's delivery queue is disconnected.
+	 */
+	synchronized void removeSubscriber(User u){
+		for(CopyOnWriteArrayList<User> userList : productMap.values()){
+			userList.remove(u);
+		}
+	}
+	
+	public boolean hasSubscribers(String product){
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
+		return userList != null && !userList.isEmpty();
+	}
+	
+	/*
+	 * Sends the updates made to one product's book by one command. They are
+	 * queued to each subscriber as a single event, in sequence order.
+	 */
+	public void publishDepthUpdates(ArrayList<DepthUpdate> updates){
+		long start = System.nanoTime();
+		
+		String product = updates.get(0).getProduct();
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
+		if(userList != null){
+			MarketEvent event = MarketEvent.depth(product, updates);
+			for(User user : userList){
+				DeliveryService.getInstance().deliver(user, event);
+			}
+		}
+		MetricsRegistry.getInstance().recordLatency("stage.publish.depth", product, start);
+	}
+}
@@ -0,0 +1,56 @@
+package publishers;
+
+/*
+ * A DepthUpdate is one change to one price level of a product's book:
+ * 
+ * ADD    - a level that was not in the book now has volume
+ * CHANGE - the total volume of a level already in the book changed
+ * DELETE - the level has left the book; volume is 0
+ * 
+ * The sequence numbers of a product's updates increase by one with each
+ * update. A depth snapshot carries the sequence of the last update it
+ * includes, so a subscriber applying the updates that follow it can spot
+ * one that is missing. Prices are in ticks, as in BookDepthDTO.
+ */
+public class DepthUpdate {
+
+	private final String product;
+	private final long sequence;
+	private final String side;
+	private final String action;
+	private final long price;
+	private final int volume;
+	
+	public DepthUpdate(String p, long seq, String s, String a, long pr, int v){
+		product = p;
+		sequence = seq;
+		side = s;
+		action = a;
+		price = pr;
+		volume = v;
+	}
+	
+	public String getProduct(){
+		return product;
+	}
+	public long getSequence(){
+		return sequence;
+	}
+	public String getSide(){
+		return side;
+	}
+	public String getAction(){
+		return action;
+	}
+	public long getPrice(){
+		return price;
+	}
+	public int getVolume(){
+		return volume;
+	}
+	
+	public String toString(){
+		return "Product: " + product + ", Sequence: " + sequence + ", Side: " + side
+				+ ", Action: " + action + ", Price: " + price + ", Volume: " + volume;
+	}
+}
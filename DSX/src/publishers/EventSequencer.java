@@ -0,0 +1,161 @@
+package publishers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import ids.IdMap;
+import ids.NameRegistry;
+import user.User;
+
+/*
+ * Numbers the events of a publisher's streams and keeps the most recent
+ * of them for replay. A stream is named by a long key, usually the
+ * product's id (see key), so no String is built or hashed per event.
+ * Sequence numbers start at 1 and go up by one with each event, so a
+ * subscriber that sees a number skipped knows it has missed something.
+ * 
+ * Only the last capacity events of each stream are kept, so a subscriber
+ * that has fallen further behind than that is sent the latest state
+ * instead of everything it missed.
+ * 
+ * The streams are split over STRIPES stripes by key, each with its own
+ * lock, so the books publishing different products do not wait on each
+ * other. A stream's events are numbered in the order its book publishes
+ * them, since a book publishes while holding its own lock.
+ */
+class EventSequencer {
+
+	static final int DEFAULT_REPLAY_EVENTS = 1024;
+	private static final int STRIPES = 64;
+	
+	private static class Stripe {
+		private IdMap<long[]> sequences = new IdMap<>();
+		private IdMap<ArrayDeque<MarketEvent>> recent = new IdMap<>();
+	}
+	
+	private Stripe[] stripes = new Stripe[STRIPES];
+	private volatile int capacity = DEFAULT_REPLAY_EVENTS;
+	
+	EventSequencer(){
+		for(int i = 0; i < STRIPES; i++){
+			stripes[i] = new Stripe();
+		}
+	}
+	
+	//Both halves of a user's key take part, so one product's users are spread out
+	private Stripe stripe(long key){
+		return stripes[(int) (key ^ (key >>> 32)) & (STRIPES - 1)];
+	}
+	
+	//The key of a product's stream
+	static long key(String product){
+		return NameRegistry.getProducts().idOf(product);
+	}
+	
+	//The key of a user's own stream for a product
+	static long key(String userName, String product){
+		return ((long) NameRegistry.getUsers().idOf(userName) << 32) | NameRegistry.getProducts().idOf(product);
+	}
+	
+	void setCapacity(int cap){
+		capacity = cap;
+		ArrayList<ArrayDeque<MarketEvent>> streams = new ArrayList<>();
+		for(Stripe s : stripes){
+			synchronized(s){
+				streams.clear();
+				s.recent.values(streams);
+				for(ArrayDeque<MarketEvent> events : streams){
+					while(events.size() > cap){
+						events.removeFirst();
+					}
+				}
+			}
+		}
+	}
+	
+	//Returns the sequence number for the stream's next event
+	long next(long key){
+		Stripe s = stripe(key);
+		synchronized(s){
+			long[] seq = s.sequences.get(key);
+			if(seq == null){
+				seq = new long[1];
+				s.sequences.put(key, seq);
+			}
+			return ++seq[0];
+		}
+	}
+	
+	//Keeps the event for replay, dropping the stream's oldest if it is full
+	void record(long key, MarketEvent e){
+		Stripe s = stripe(key);
+		synchronized(s){
+			ArrayDeque<MarketEvent> events = s.recent.get(key);
+			if(events == null){
+				events = new ArrayDeque<>();
+				s.recent.put(key, events);
+			}
+			if(events.size() >= capacity){
+				events.removeFirst();
+			}
+			events.addLast(e);
+		}
+	}
+	
+	MarketEvent latest(long key){
+		Stripe s = stripe(key);
+		synchronized(s){
+			ArrayDeque<MarketEvent> events = s.recent.get(key);
+			return events == null ? null : events.peekLast();
+		}
+	}
+	
+	/*
+	 * Returns the stream's events from fromSequence on, or null if some of
+	 * them are no longer kept. The list is empty if there are none yet.
+	 */
+	ArrayList<MarketEvent> since(long key, long fromSequence){
+		ArrayList<MarketEvent> events = new ArrayList<>();
+		Stripe s = stripe(key);
+		synchronized(s){
+			ArrayDeque<MarketEvent> kept = s.recent.get(key);
+			long[] seq = s.sequences.get(key);
+			if(fromSequence > (seq == null ? 0 : seq[0])){
+				return events;
+			}
+			if(kept == null || kept.isEmpty() || kept.peekFirst().getSequence() > fromSequence){
+				return null;
+			}
+			Iterator<MarketEvent> it = kept.iterator();
+			while(it.hasNext()){
+				MarketEvent e = it.next();
+				if(e.getSequence() >= fromSequence){
+					events.add(e);
+				}
+			}
+		}
+		return events;
+	}
+	
+	/*
+	 * Delivers the events the user missed from fromSequence on, and returns
+	 * true. If they are no longer all kept, delivers only the latest event,
+	 * which holds the latest state for a state stream, and returns false.
+	 * Nothing is delivered while a stripe is locked.
+	 */
+	boolean replay(User u, long key, long fromSequence){
+		ArrayList<MarketEvent> events = since(key, fromSequence);
+		if(events == null){
+			MarketEvent last = latest(key);
+			if(last != null){
+				DeliveryService.getInstance().deliverNow(u, last);
+			}
+			return false;
+		}
+		for(int i = 0; i < events.size(); i++){
+			DeliveryService.getInstance().deliverNow(u, events.get(i));
+		}
+		return true;
+	}
+}
@@ -1,10 +1,11 @@
 package publishers;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import exceptions.AlreadySubscribedException;
 import exceptions.NotSubscribedException;
+import metrics.MetricsRegistry;
 import pricePackage.Price;
 import pricePackage.PriceFactory;
 import user.*;
@@ -12,13 +13,18 @@ import exceptions.*;
 
 public final class LastSalePublisher {
 
-	private static LastSalePublisher ourInstance;
-	private static HashMap <String, ArrayList<User>> productMap = new HashMap();
+	private static volatile LastSalePublisher ourInstance;
+	private static ConcurrentHashMap<String, CopyOnWriteArrayList<User>> productMap = new ConcurrentHashMap<>();
+	private EventSequencer sequencer = new EventSequencer();
 	
-	public static synchronized LastSalePublisher getInstance(){
+	public static LastSalePublisher getInstance(){
 		
 		if(ourInstance == null){
-			ourInstance = new LastSalePublisher();
+			synchronized(LastSalePublisher.class){
+				if(ourInstance == null){
+					ourInstance = new LastSalePublisher();
+				}
+			}
 		}
 		return ourInstance;
 	}
@@ -27,13 +33,37 @@ public final class LastSalePublisher {
 		
 	}
 	
+	/*
+	 * Sets how many of each product's latest sales are kept for replay
+	 */
+	public synchronized void setReplayCapacity(int events) throws DataValidationException{
+		if(events < 1){
+			throw new DataValidationException("Replay capacity must be at least 1: " + events);
+		}
+		sequencer.setCapacity(events);
+	}
+	
+	/*
+	 * Delivers the last sales for the product the user missed from
+	 * fromSequence on. If they are no longer all kept, only the latest is
+	 * sent and false is returned.
+	 */
+	public synchronized boolean replay(User u, String product, long fromSequence){
+		long key = EventSequencer.key(product);
+		if(sequencer.latest(key) == null){
+			return true;
+		}
+		return sequencer.replay(u, key, fromSequence);
+	}
+	
 	public synchronized void subscribe(User u, String product) throws AlreadySubscribedException{
 		
-		ArrayList<User> userList = productMap.get(product);
+		DeliveryService.getInstance().subscribing(u);
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
 		
 		//if List does not exist, create it and add subscription
 		if(userList == null){
-			userList = new ArrayList<User>();
+			userList = new CopyOnWriteArrayList<User>();
 			userList.add(u);
 			productMap.put(product, userList);
 		}
@@ -52,7 +82,7 @@ public final class LastSalePublisher {
 	
 	public synchronized void unSubscribe(User u, String product) throws NotSubscribedException {
 		
-		ArrayList<User> userList = productMap.get(product);
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
 
 		//if product exists and contains subscription
 		if(userList.contains(u)){
@@ -66,7 +96,18 @@ public final class LastSalePublisher {
 		}
 	}
 	
-	public synchronized void publishLastSale(String product, Price p, int v){
+	/*
+	 * Drops the user from every product's subscriber list. Used when the
+	 * user's delivery queue is disconnected.
+	 */
+	synchronized void removeSubscriber(User u){
+		for(CopyOnWriteArrayList<User> userList : productMap.values()){
+			userList.remove(u);
+		}
+	}
+	
+	public void publishLastSale(String product, Price p, int v){
+		long start = System.nanoTime();
 		
 		Price lastSale;
 		
@@ -79,16 +120,18 @@ public final class LastSalePublisher {
 		
 		
 		//get product List
-		ArrayList<User> userList = productMap.get(product);
+		CopyOnWriteArrayList<User> userList = productMap.get(product);
 
 		if(userList != null){
-			for(int i = 0; i < userList.size(); i++){
-				User u = userList.get(i);
-				u.acceptLastSale(product, lastSale, v);
+			long key = EventSequencer.key(product);
+			MarketEvent event = MarketEvent.lastSale(product, lastSale, v, sequencer.next(key));
+			sequencer.record(key, event);
+			for(User user : userList){
+				DeliveryService.getInstance().deliver(user, event);
 			}
 			TickerPublisher.getInstance().publishTicker(product,lastSale);
 		}
-		
+		MetricsRegistry.getInstance().recordLatency("stage.publish.lastSale", product, start);
 	}
 	
 }
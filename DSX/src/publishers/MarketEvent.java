@@ -0,0 +1,159 @@
+package publishers;
+
+import java.util.ArrayList;
+
+import messages.CancelMessage;
+import messages.FillMessage;
+import pricePackage.Price;
+import user.User;
+
+/*
+ * A MarketEvent is one publication waiting to be delivered to a subscriber.
+ * The publishers build one event per publish call and hand the same event
+ * to every subscriber's queue, so events must not be changed once built.
+ * Each event carries the sequence number its publisher gave it, which is
+ * passed on to the subscriber with the event.
+ */
+class MarketEvent {
+
+	private String type;
+	private String product;
+	private FillMessage fill;
+	private CancelMessage cancel;
+	private String state;
+	private Price buyPrice;
+	private int buyVolume;
+	private Price sellPrice;
+	private int sellVolume;
+	private char direction;
+	private long sequence;
+	private BookDepthDTO depth;
+	private ArrayList<DepthUpdate> depthUpdates;
+	
+	private MarketEvent(String t, String p, long seq){
+		type = t;
+		product = p;
+		sequence = seq;
+	}
+	
+	static MarketEvent fill(FillMessage fm, long seq){
+		MarketEvent e = new MarketEvent("FILL", fm.getProduct(), seq);
+		e.fill = fm;
+		return e;
+	}
+	
+	static MarketEvent cancel(CancelMessage cm, long seq){
+		MarketEvent e = new MarketEvent("CANCEL", cm.getProduct(), seq);
+		e.cancel = cm;
+		return e;
+	}
+	
+	static MarketEvent marketMessage(String state, long seq){
+		MarketEvent e = new MarketEvent("MARKET_MESSAGE", null, seq);
+		e.state = state;
+		return e;
+	}
+	
+	static MarketEvent currentMarket(String product, Price bp, int bv, Price sp, int sv, long seq){
+		MarketEvent e = new MarketEvent("CURRENT_MARKET", product, seq);
+		e.buyPrice = bp;
+		e.buyVolume = bv;
+		e.sellPrice = sp;
+		e.sellVolume = sv;
+		return e;
+	}
+	
+	static MarketEvent lastSale(String product, Price p, int v, long seq){
+		MarketEvent e = new MarketEvent("LAST_SALE", product, seq);
+		e.buyPrice = p;
+		e.buyVolume = v;
+		return e;
+	}
+	
+	static MarketEvent ticker(String product, Price p, char d, long seq){
+		MarketEvent e = new MarketEvent("TICKER", product, seq);
+		e.buyPrice = p;
+		e.direction = d;
+		return e;
+	}
+	
+	static MarketEvent depthSnapshot(BookDepthDTO d, long seq){
+		MarketEvent e = new MarketEvent("DEPTH_SNAPSHOT", d.getProduct(), seq);
+		e.depth = d;
+		return e;
+	}
+	
+	static MarketEvent depth(String product, ArrayList<DepthUpdate> updates){
+		MarketEvent e = new MarketEvent("DEPTH", product, updates.get(updates.size() - 1).getSequence());
+		e.depthUpdates = updates;
+		return e;
+	}
+	
+	/*
+	 * Current market and ticker events only carry the latest state of a
+	 * product, so a newer one can replace an older one still queued.
+	 * Fills, cancels, last sales, market messages and depth are never
+	 * conflated.
+	 */
+	boolean isConflatable(){
+		return type.equals("CURRENT_MARKET") || type.equals("TICKER");
+	}
+	
+	String getProduct(){
+		return product;
+	}
+	
+	long getSequence(){
+		return sequence;
+	}
+	
+	/*
+	 * True if both current market events hold the same prices and volumes
+	 */
+	boolean sameMarket(MarketEvent other){
+		return buyVolume == other.buyVolume && sellVolume == other.sellVolume &&
+				samePrice(buyPrice, other.buyPrice) && samePrice(sellPrice, other.sellPrice);
+	}
+	
+	private static boolean samePrice(Price a, Price b){
+		if(a == null || b == null){
+			return a == b;
+		}
+		return a.isMarket() == b.isMarket() && a.getValue() == b.getValue();
+	}
+	
+	boolean isTicker(){
+		return type.equals("TICKER");
+	}
+	
+	void deliverTo(User u){
+		switch(type){
+			case "FILL":
+				u.acceptMessage(fill, sequence);
+				break;
+			case "CANCEL":
+				u.acceptMessage(cancel, sequence);
+				break;
+			case "MARKET_MESSAGE":
+				u.acceptMarketMessage(state, sequence);
+				break;
+			case "CURRENT_MARKET":
+				u.acceptCurrentMarket(product, buyPrice, buyVolume, sellPrice, sellVolume, sequence);
+				break;
+			case "LAST_SALE":
+				u.acceptLastSale(product, buyPrice, buyVolume, sequence);
+				break;
+			case "TICKER":
+				u.acceptTicker(product, buyPrice, direction, sequence);
+				break;
+			case "DEPTH_SNAPSHOT":
+				u.acceptDepthSnapshot(depth, sequence);
+				break;
+			case "DEPTH":
+				for(int i = 0; i < depthUpdates.size(); i++){
+					u.acceptDepthUpdate(depthUpdates.get(i));
+				}
+				break;
+		}
+	}
+}
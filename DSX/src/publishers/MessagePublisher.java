@@ -1,36 +1,106 @@
 package publishers;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import messages.*;
+import metrics.MetricsRegistry;
 import pricePackage.Price;
 import user.*;
 import exceptions.*;
 
+/*
+ * Subscriptions change rarely and are made under the publisher's lock, but
+ * the lists are copy-on-write in a concurrent map, so the books publishing
+ * fills and cancels for different products never wait on each other or on
+ * a subscribe.
+ */
 public class MessagePublisher {
 
-	private static MessagePublisher ourInstance;
-	private static HashMap <String, ArrayList<User>> userMap = new HashMap<>();
+	//The key of the one stream of market messages
+	private static final long MARKET = 0;
+	private static volatile MessagePublisher ourInstance;
+	private static ConcurrentHashMap<String, CopyOnWriteArrayList<User>> userMap = new ConcurrentHashMap<>();
+	//Fills and cancels are numbered per recipient and product; market
+	//messages have a single stream of their own
+	private EventSequencer sequencer = new EventSequencer();
+	private EventSequencer marketSequencer = new EventSequencer();
 	
-	public static synchronized MessagePublisher getInstance(){
+	public static MessagePublisher getInstance(){
 		
 		if(ourInstance == null){
-			ourInstance = new MessagePublisher();
+			synchronized(MessagePublisher.class){
+				if(ourInstance == null){
+					ourInstance = new MessagePublisher();
+				}
+			}
 		}
 		return ourInstance;
 	}
 	
 	private MessagePublisher(){
-		
+		marketSequencer.setCapacity(1);
+	}
+	
+	/*
+	 * Sets how many of each recipient's latest fills and cancels per
+	 * product are kept for replay
+	 */
+	public synchronized void setReplayCapacity(int events) throws DataValidationException{
+		if(events < 1){
+			throw new DataValidationException("Replay capacity must be at least 1: " + events);
+		}
+		sequencer.setCapacity(events);
+	}
+	
+	/*
+	 * Delivers the fills and cancels for the product the user missed from
+	 * fromSequence on. Returns false if they are no longer all kept, in
+	 * which case the user must rebuild its orders from the book instead.
+	 */
+	public synchronized boolean replay(User u, String product, long fromSequence){
+		long key = EventSequencer.key(u.getUserName(), product);
+		if(sequencer.since(key, fromSequence) == null){
+			return false;
+		}
+		return sequencer.replay(u, key, fromSequence);
+	}
+	
+	//Market messages carry the market state, so only the latest is resent
+	public synchronized void replayMarketMessage(User u){
+		MarketEvent event = marketSequencer.latest(MARKET);
+		if(event != null){
+			DeliveryService.getInstance().deliverNow(u, event);
+		}
+	}
+	
+	/*
+	 * Numbers the message in its owner's stream for the product and queues
+	 * it to the owner. The stream is the owner's, and numbers are only
+	 * taken when the owner is subscribed, so a gap always means the owner
+	 * missed one of its own messages.
+	 */
+	private void deliver(CopyOnWriteArrayList<User> userList, String owner, String product, FillMessage fm, CancelMessage cm){
+		User u = findSubscriber(userList, owner);
+		if(u == null){
+			return;
+		}
+		long key = EventSequencer.key(owner, product);
+		long seq = sequencer.next(key);
+		MarketEvent event = fm != null ? MarketEvent.fill(fm, seq) : MarketEvent.cancel(cm, seq);
+		sequencer.record(key, event);
+		DeliveryService.getInstance().deliver(u, event);
 	}
 	
 	public synchronized void subscribe(User u, String product) throws AlreadySubscribedException{
 		
-		ArrayList<User> userList = userMap.get(product);
+		DeliveryService.getInstance().subscribing(u);
+		CopyOnWriteArrayList<User> userList = userMap.get(product);
 		
 		//if List does not exist, create it and add subscription
 		if(userList == null){
-			userList = new ArrayList<User>();
+			userList = new CopyOnWriteArrayList<User>();
 			userList.add(u);
 			userMap.put(product, userList);
 		}
@@ -49,7 +119,7 @@ public class MessagePublisher {
 	
 	public synchronized void unSubscribe(User u, String product) throws NotSubscribedException {
 		
-		ArrayList<User> userList = userMap.get(product);
+		CopyOnWriteArrayList<User> userList = userMap.get(product);
 		
 		//if product exists and contains subscription
 		if(userList.contains(u)){
@@ -63,40 +133,88 @@ public class MessagePublisher {
 		}
 	}
 	
-	public synchronized void publishCancel(CancelMessage cm){
-		
-		ArrayList<User> userList = userMap.get(cm.getProduct());
-		if(userList!=null){
-		int i = userList.indexOf(cm.getUser());
-		User u = userList.get(i+1);
-		u.acceptMessage(cm);
+	/*
+	 * Drops the user from every product's subscriber list. Used when the
+	 * user's delivery queue is disconnected.
+	 */
+	synchronized void removeSubscriber(User u){
+		for(CopyOnWriteArrayList<User> userList : userMap.values()){
+			userList.remove(u);
 		}
 	}
 	
-	public synchronized void publishFill(FillMessage fm){
+	/*
+	 * Lets the book skip building Fill and Cancel messages for a product
+	 * nobody has subscribed to messages for
+	 */
+	public boolean hasSubscribers(String product){
+		CopyOnWriteArrayList<User> userList = userMap.get(product);
+		return userList != null && !userList.isEmpty();
+	}
+	
+	/*
+	 * Fills and cancels go only to the user whose order or quote they are
+	 * about. Returns that user if it is subscribed to the product's
+	 * messages, or null if it is not.
+	 */
+	private static User findSubscriber(CopyOnWriteArrayList<User> userList, String userName){
+		if(userList == null){
+			return null;
+		}
+		for(User user : userList){
+			if(user.getUserName().equals(userName)){
+				return user;
+			}
+		}
+		return null;
+	}
+	
+	public void publishCancel(CancelMessage cm){
+		long start = System.nanoTime();
+		
+		deliver(userMap.get(cm.getProduct()), cm.getUser(), cm.getProduct(), null, cm);
+		MetricsRegistry.getInstance().recordLatency("stage.publish.cancel", cm.getProduct(), start);
+	}
+	
+	//Publishes the cancels from a mass cancel of one product
+	public void publishCancels(List<CancelMessage> cms){
+		if(cms.isEmpty()){
+			return;
+		}
+		long start = System.nanoTime();
 		
-		ArrayList<User> userList = userMap.get(fm.getProduct());
-		if(userList != null){
-		int i = userList.indexOf(fm.getUser());
-		User u = userList.get(i+1);
-		u.acceptMessage(fm);
+		CopyOnWriteArrayList<User> userList = userMap.get(cms.get(0).getProduct());
+		for(CancelMessage cm : cms){
+			deliver(userList, cm.getUser(), cm.getProduct(), null, cm);
 		}
+		MetricsRegistry.getInstance().recordLatency("stage.publish.cancels", cms.get(0).getProduct(), start);
+	}
+	
+	public void publishFill(FillMessage fm){
+		long start = System.nanoTime();
+		
+		deliver(userMap.get(fm.getProduct()), fm.getUser(), fm.getProduct(), fm, null);
+		MetricsRegistry.getInstance().recordLatency("stage.publish.fill", fm.getProduct(), start);
 	}
 	
 	public synchronized void publishMarketMessage(MarketMessage mm){
+		long start = System.nanoTime();
 		
 		ArrayList<User> userList = new ArrayList<>();
 		
-		for(String product : userMap.keySet()){
-			for(User user : userMap.get(product)){
+		for(CopyOnWriteArrayList<User> productUsers : userMap.values()){
+			for(User user : productUsers){
 				if(!userList.contains(user)){
 					userList.add(user);
 				}
 			}
 		}
 		
+		MarketEvent event = MarketEvent.marketMessage(mm.getState(), marketSequencer.next(MARKET));
+		marketSequencer.record(MARKET, event);
 		for(User user : userList){
-			user.acceptMarketMessage(mm.getState());
+			DeliveryService.getInstance().deliver(user, event);
 		}
+		MetricsRegistry.getInstance().recordLatency("stage.publish.marketMessage", null, start);
 	}
 }
@@ -0,0 +1,173 @@
+package publishers;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import user.User;
+
+/*
+ * The bounded queue of events waiting to be delivered to one subscriber.
+ * At most one delivery thread works on a queue at a time, so a subscriber
+ * sees its events in publication order, in batches of up to BATCH_SIZE.
+ * When the queue is full the subscriber's overflow policy decides what
+ * happens:
+ * 
+ * DROP_OLDEST - the oldest queued event is discarded
+ * CONFLATE    - the oldest event that is not a current market or ticker
+ *               is discarded, and in addition a newer current market or
+ *               ticker event always replaces one still queued for the
+ *               same product. The latest current market and tick of a
+ *               product are never discarded; there is at most one of each
+ *               per product in the queue, which may hold that many events
+ *               beyond its capacity.
+ * DISCONNECT  - the queue is discarded and the subscriber is removed from
+ *               every publisher. The queue stays closed, discarding
+ *               events, until the subscriber subscribes again.
+ * 
+ * A conflated event keeps the queued event's place in the queue: the newest
+ * event for each product is held in currentMarkets or tickers, and is
+ * delivered in place of the queued one when that is reached.
+ */
+class SubscriberQueue implements Runnable {
+
+	private static final int BATCH_SIZE = 64;
+	
+	private User user;
+	private int capacity;
+	private boolean conflate;
+	private boolean disconnect;
+	private DeliveryService service;
+	private ArrayDeque<MarketEvent> events = new ArrayDeque<>();
+	private HashMap<String, MarketEvent> currentMarkets = new HashMap<>();
+	private HashMap<String, MarketEvent> tickers = new HashMap<>();
+	private MarketEvent[] batch = new MarketEvent[BATCH_SIZE];
+	private boolean scheduled;
+	private boolean closed;
+	private long dropped;
+	
+	SubscriberQueue(DeliveryService ds, User u, int cap, String p){
+		service = ds;
+		user = u;
+		capacity = cap;
+		setPolicy(p);
+	}
+	
+	/*
+	 * The policy has been validated by the DeliveryService. Events already
+	 * conflated are still delivered in their place after it changes.
+	 */
+	synchronized void setPolicy(String p){
+		conflate = p.equals("CONFLATE");
+		disconnect = p.equals("DISCONNECT");
+	}
+	
+	//Takes events again after a DISCONNECT overflow closed the queue
+	synchronized void reopen(){
+		closed = false;
+	}
+	
+	synchronized long getDroppedCount(){
+		return dropped;
+	}
+	
+	synchronized boolean isIdle(){
+		return !scheduled;
+	}
+	
+	/*
+	 * Queues the event and schedules the queue on the delivery pool if it
+	 * is not already scheduled. Never blocks on the subscriber.
+	 */
+	synchronized void offer(MarketEvent e){
+		if(closed){
+			return;
+		}
+		
+		if(conflate && e.isConflatable()){
+			HashMap<String, MarketEvent> queued = e.isTicker() ? tickers : currentMarkets;
+			if(queued.put(e.getProduct(), e) != null){
+				dropped++;
+				return;
+			}
+		}
+		
+		if(events.size() >= capacity){
+			if(disconnect){
+				closed = true;
+				dropped += events.size() + 1;
+				events.clear();
+				currentMarkets.clear();
+				tickers.clear();
+				service.disconnect(user);
+				return;
+			}
+			if(conflate){
+				dropOldestUnconflatable();
+			}
+			else{
+				latest(events.pollFirst());
+				dropped++;
+			}
+		}
+		events.addLast(e);
+		
+		if(!scheduled){
+			scheduled = true;
+			service.schedule(this);
+		}
+	}
+	
+	//Discards the oldest event that is not a current market or ticker, if there is one
+	private void dropOldestUnconflatable(){
+		Iterator<MarketEvent> it = events.iterator();
+		while(it.hasNext()){
+			if(!it.next().isConflatable()){
+				it.remove();
+				dropped++;
+				return;
+			}
+		}
+	}
+	
+	/*
+	 * Returns the newest event conflated into the queued one, taking it off
+	 * the conflation maps, or the event itself if none replaced it
+	 */
+	private MarketEvent latest(MarketEvent e){
+		if(!e.isConflatable()){
+			return e;
+		}
+		HashMap<String, MarketEvent> queued = e.isTicker() ? tickers : currentMarkets;
+		MarketEvent newest = queued.remove(e.getProduct());
+		return newest == null ? e : newest;
+	}
+	
+	public void run(){
+		int n = 0;
+		synchronized(this){
+			while(n < BATCH_SIZE && !events.isEmpty()){
+				batch[n++] = latest(events.pollFirst());
+			}
+		}
+		
+		for(int i = 0; i < n; i++){
+			try{
+				batch[i].deliverTo(user);
+			}
+			catch(RuntimeException e){
+				System.out.println("Delivery to " + user.getUserName() + " failed: " + e);
+			}
+			batch[i] = null;
+		}
+		
+		synchronized(this){
+			if(events.isEmpty() || closed){
+				scheduled = false;
+			}
+			else{
+				service.schedule(this);
+			}
+		}
+	}
+}
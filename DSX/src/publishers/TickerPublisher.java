@@ -1,8 +1,9 @@
 package publishers;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import metrics.MetricsRegistry;
 import pricePackage.Price;
 import pricePackage.PriceFactory;
 import user.*;
@@ -11,29 +12,44 @@ import exceptions.*;
 public class TickerPublisher {
 
 
-	private static TickerPublisher ourInstance;
-	private static HashMap <String, ArrayList<User>> userMap = new HashMap<>();
-	private static HashMap <String, Price> priceMap = new HashMap<>();
+	private static volatile TickerPublisher ourInstance;
+	private static ConcurrentHashMap<String, CopyOnWriteArrayList<User>> userMap = new ConcurrentHashMap<>();
+	private static ConcurrentHashMap<String, Price> priceMap = new ConcurrentHashMap<>();
+	//Ticks carry the latest price, so only the latest is kept for replay
+	private EventSequencer sequencer = new EventSequencer();
 	
-	public static synchronized TickerPublisher getInstance(){
+	public static TickerPublisher getInstance(){
 		
 		if(ourInstance == null){
-			ourInstance = new TickerPublisher();
+			synchronized(TickerPublisher.class){
+				if(ourInstance == null){
+					ourInstance = new TickerPublisher();
+				}
+			}
 		}
 		return ourInstance;
 	}
 	
 	private TickerPublisher(){
-		
+		sequencer.setCapacity(1);
+	}
+	
+	//Resends the product's latest tick to the user
+	public synchronized void replay(User u, String product){
+		MarketEvent event = sequencer.latest(EventSequencer.key(product));
+		if(event != null){
+			DeliveryService.getInstance().deliverNow(u, event);
+		}
 	}
 	
 	public synchronized void subscribe(User u, String product) throws AlreadySubscribedException{
 		
-		ArrayList<User> userList = userMap.get(product);
+		DeliveryService.getInstance().subscribing(u);
+		CopyOnWriteArrayList<User> userList = userMap.get(product);
 		
 		//if List does not exist, create it and add subscription
 		if(userList == null){
-			userList = new ArrayList<User>();
+			userList = new CopyOnWriteArrayList<User>();
 			userList.add(u);
 			userMap.put(product, userList);
 		}
@@ -52,7 +68,7 @@ public class TickerPublisher {
 	
 	public synchronized void unSubscribe(User u, String product) throws NotSubscribedException {
 		
-		ArrayList<User> userList = userMap.get(product);
+		CopyOnWriteArrayList<User> userList = userMap.get(product);
 		
 		//if product exists and contains subscription
 		if(userList.contains(u)){
@@ -66,7 +82,18 @@ public class TickerPublisher {
 		}
 	}
 	
-	public synchronized void publishTicker(String product, Price p){
+	/*
+	 * Drops the user from every product's subscriber list. Used when the
+	 * user's delivery queue is disconnected.
+	 */
+	synchronized void removeSubscriber(User u){
+		for(CopyOnWriteArrayList<User> userList : userMap.values()){
+			userList.remove(u);
+		}
+	}
+	
+	public void publishTicker(String product, Price p){
+		long start = System.nanoTime();
 		
 		Price lastPrice = priceMap.get(product);
 		char direction;
@@ -98,13 +125,16 @@ public class TickerPublisher {
 		}
 		
 		//get product List
-		ArrayList<User> userList = userMap.get(product);
+		CopyOnWriteArrayList<User> userList = userMap.get(product);
 
 		if(userList != null){
-			for(int i = 0; i < userList.size(); i++){
-				User u = userList.get(i);
-				u.acceptTicker(product, newPrice, direction);
+			long key = EventSequencer.key(product);
+			MarketEvent event = MarketEvent.ticker(product, newPrice, direction, sequencer.next(key));
+			sequencer.record(key, event);
+			for(User user : userList){
+				DeliveryService.getInstance().deliver(user, event);
 			}
 		}
+		MetricsRegistry.getInstance().recordLatency("stage.publish.ticker", product, start);
 	}
 }
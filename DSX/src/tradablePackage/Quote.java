@@ -24,6 +24,20 @@ public class Quote {
 		}
 	}
 	
+	//Recreates a Quote whose sides keep the ids they were originally given
+	public Quote(String userName, String productSymbol, Price buyPrice, int buyVolume, long buyId,
+				 Price sellPrice, int sellVolume, long sellId) throws InvalidVolumeOperation {
+		user = userName;
+		product = productSymbol;
+		if(sellVolume < 0){
+			throw new InvalidVolumeOperation("Invalid SELL-Side Volume: " + sellVolume);
+		}
+		else{
+			BUY = new QuoteSide(user, product, buyPrice, buyVolume, "BUY", buyId);
+			SELL = new QuoteSide(user, product, sellPrice, sellVolume, "SELL", sellId);
+		}
+	}
+	
 	public String getUserName(){
 		return user;
 	}
@@ -2,6 +2,8 @@ package tradablePackage;
 
 import exceptions.InvalidPriceOperation;
 import exceptions.InvalidVolumeOperation;
+import ids.NameRegistry;
+import ids.OrderIds;
 import pricePackage.Price;
 import pricePackage.PriceFactory;
 
@@ -9,7 +11,11 @@ public class QuoteSide implements Tradable {
 	
 	private String user;
 	private String product;
+	private long orderId;
+	//The decimal form of orderId, made the first time it is asked for
 	private String id;
+	private int userId;
+	private int productId;
 	private String bookSide;
 	private Price price;
 	private int originalOrderVolume;
@@ -27,10 +33,17 @@ public class QuoteSide implements Tradable {
 		originalOrderVolume = originalVolume;
 		remainingOrderVolume = originalVolume;
 		bookSide = side;
-		id = user + product + System.nanoTime();
+		userId = NameRegistry.getUsers().idOf(user);
+		productId = NameRegistry.getProducts().lookup(product);
 		}
 	}
 	
+	//Recreates a QuoteSide with the id it was originally given, e.g. when replaying the journal
+	public QuoteSide(String userName, String productSymbol, Price orderPrice, int originalVolume, String side, long sideId) throws InvalidVolumeOperation{
+		this(userName, productSymbol, orderPrice, originalVolume, side);
+		orderId = sideId;
+	}
+	
 	public String getProduct(){
 		return product;
 	}
@@ -88,10 +101,32 @@ public class QuoteSide implements Tradable {
 		return true;
 	}
 	
+	//Returns null until the book has given the Tradable its id
 	public String getId(){
+		if(id == null && orderId != OrderIds.NONE){
+			id = OrderIds.toString(orderId);
+		}
 		return id;
 	}
 	
+	public long getOrderId(){
+		return orderId;
+	}
+	
+	public void setOrderId(long newId){
+		orderId = newId;
+		id = null;
+	}
+	
+	public int getUserId(){
+		return userId;
+	}
+	
+	//-1 if the product did not exist when the Tradable was made
+	public int getProductId(){
+		return productId;
+	}
+	
 	/*	
 	public String getProduct(){
 		return delegate.getProduct();
@@ -159,7 +194,7 @@ public class QuoteSide implements Tradable {
 	
 	public String toString(){
 		return price + " x " + remainingOrderVolume + " (Original Vol: " + originalOrderVolume + ", CXL'd Vol: " +
-	           cancelledOrderVolume + ") [" + id + "]"; 
+	           cancelledOrderVolume + ") [" + getId() + "]"; 
 	}
 	
 }
@@ -18,5 +18,9 @@ public interface Tradable {
 	String getSide();
 	boolean isQuote();
 	String getId();
+	long getOrderId();
+	void setOrderId(long id);
+	int getUserId();
+	int getProductId();
 	
 }
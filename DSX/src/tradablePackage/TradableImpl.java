@@ -1,13 +1,19 @@
 package tradablePackage;
 
 import exceptions.InvalidVolumeOperation;
+import ids.NameRegistry;
+import ids.OrderIds;
 import pricePackage.Price;
 
 public class TradableImpl implements Tradable {
 
 	private String user;
 	private String product;
+	private long orderId;
+	//The decimal form of orderId, made the first time it is asked for
 	private String id;
+	private int userId;
+	private int productId;
 	private String bookSide;
 	private Price price;
 	private int originalOrderVolume;
@@ -25,7 +31,8 @@ public class TradableImpl implements Tradable {
 		originalOrderVolume = originalVolume;
 		remainingOrderVolume = originalVolume;
 		bookSide = side;
-		id = user + product + price + System.nanoTime();
+		userId = NameRegistry.getUsers().idOf(user);
+		productId = NameRegistry.getProducts().lookup(product);
 		}
 	}
 	
@@ -86,8 +93,30 @@ public class TradableImpl implements Tradable {
 		return true;
 	}
 	
+	//Returns null until the book has given the Tradable its id
 	public String getId(){
+		if(id == null && orderId != OrderIds.NONE){
+			id = OrderIds.toString(orderId);
+		}
 		return id;
 	}
 	
+	public long getOrderId(){
+		return orderId;
+	}
+	
+	public void setOrderId(long newId){
+		orderId = newId;
+		id = null;
+	}
+	
+	public int getUserId(){
+		return userId;
+	}
+	
+	//-1 if the product did not exist when the Tradable was made
+	public int getProductId(){
+		return productId;
+	}
+	
 }
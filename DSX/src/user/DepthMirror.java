@@ -0,0 +1,138 @@
+package user;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import pricePackage.PriceTicks;
+import publishers.BookDepthDTO;
+import publishers.DepthUpdate;
+
+/*
+ * A DepthMirror is a subscriber's copy of one product's book depth, built
+ * from the DepthPublisher's snapshot and kept current by its updates.
+ * 
+ * An update whose sequence does not follow the last one applied means
+ * something was missed. The mirror then stops applying updates and reports
+ * itself out of date until the next snapshot arrives. Updates the snapshot
+ * already includes are ignored, since a snapshot sent to recover can reach
+ * the mirror after updates queued before it.
+ */
+public class DepthMirror {
+
+	private String product;
+	private TreeMap<Long, Integer> buyLevels;
+	private TreeMap<Long, Integer> sellLevels;
+	private long sequence;
+	private boolean inSync;
+	//The depth last built by getDepth, until the next change
+	private BookDepthDTO depth;
+	
+	public DepthMirror(String p){
+		product = p;
+		buyLevels = new TreeMap<>(new LevelOrder(true));
+		sellLevels = new TreeMap<>(new LevelOrder(false));
+	}
+	
+	/*
+	 * Orders levels as the book does: MKT first, then best price first
+	 */
+	private static class LevelOrder implements Comparator<Long> {
+		
+		private boolean buySide;
+		
+		LevelOrder(boolean buy){
+			buySide = buy;
+		}
+		
+		public int compare(Long p1, Long p2){
+			long t1 = p1;
+			long t2 = p2;
+			if(PriceTicks.isMarket(t1) || PriceTicks.isMarket(t2)){
+				if(t1 == t2){
+					return 0;
+				}
+				return PriceTicks.isMarket(t1) ? -1 : 1;
+			}
+			return buySide ? PriceTicks.compare(t2, t1) : PriceTicks.compare(t1, t2);
+		}
+	}
+	
+	public synchronized String getProduct(){
+		return product;
+	}
+	
+	public synchronized long getSequence(){
+		return sequence;
+	}
+	
+	public synchronized boolean isInSync(){
+		return inSync;
+	}
+	
+	//Replaces the mirror's contents with the snapshot
+	public synchronized void applySnapshot(BookDepthDTO snapshot, long seq){
+		buyLevels.clear();
+		sellLevels.clear();
+		for(int i = 0; i < snapshot.getBuyLevels(); i++){
+			buyLevels.put(snapshot.getBuyPrice(i), snapshot.getBuyVolume(i));
+		}
+		for(int i = 0; i < snapshot.getSellLevels(); i++){
+			sellLevels.put(snapshot.getSellPrice(i), snapshot.getSellVolume(i));
+		}
+		sequence = seq;
+		inSync = true;
+		depth = null;
+	}
+	
+	/*
+	 * Applies the update. Returns false only for the update that shows
+	 * one was missed, putting the mirror out of date; the owner should then
+	 * ask for a new snapshot.
+	 */
+	public synchronized boolean applyUpdate(DepthUpdate u){
+		if(!inSync || u.getSequence() <= sequence){
+			return true;
+		}
+		if(u.getSequence() != sequence + 1){
+			inSync = false;
+			return false;
+		}
+		TreeMap<Long, Integer> levels = u.getSide().equals("BUY") ? buyLevels : sellLevels;
+		if(u.getAction().equals("DELETE")){
+			levels.remove(u.getPrice());
+		}
+		else{
+			levels.put(u.getPrice(), u.getVolume());
+		}
+		sequence = u.getSequence();
+		depth = null;
+		return true;
+	}
+	
+	/*
+	 * Returns the mirrored depth. Its version is the sequence of the last
+	 * update applied.
+	 */
+	public synchronized BookDepthDTO getDepth(){
+		if(depth == null){
+			long[] buyPrices = new long[buyLevels.size()];
+			int[] buyVolumes = new int[buyPrices.length];
+			copy(buyLevels, buyPrices, buyVolumes);
+			long[] sellPrices = new long[sellLevels.size()];
+			int[] sellVolumes = new int[sellPrices.length];
+			copy(sellLevels, sellPrices, sellVolumes);
+			depth = new BookDepthDTO(product, sequence, buyPrices, buyVolumes, sellPrices, sellVolumes);
+		}
+		return depth;
+	}
+	
+	private static void copy(TreeMap<Long, Integer> levels, long[] prices, int[] volumes){
+		int i = 0;
+		for(Map.Entry<Long, Integer> e : levels.entrySet()){
+			prices[i] = e.getKey();
+			volumes[i] = e.getValue();
+			i++;
+		}
+	}
+}
@@ -6,13 +6,13 @@ import java.util.HashMap;
 
 import exceptions.InvalidPriceOperation;
 import pricePackage.Price;
-import pricePackage.PriceFactory;
+import pricePackage.PriceTicks;
 
 public class Position {
 
 	private HashMap<String, Integer> holdings = new HashMap<>();
 	private HashMap<String, Price> lastSales = new HashMap<>();
-	private Price accountCost = PriceFactory.makeLimitPrice(0);
+	private long accountCost = 0; //in ticks; a Price is only made when it is asked for
 
 	//Constructor
 	public Position(){}
@@ -29,7 +29,7 @@ public class Position {
 			adjustedVolume = volume;
 		}
 		if(side.equals("SELL")){
-			adjustedVolume *= -1;
+			adjustedVolume = -volume;
 		}
 		
 		if(!holdings.containsKey(product)){
@@ -40,18 +40,17 @@ public class Position {
 				holdings.remove(product);
 			}
 			else{
-				adjustedVolume += holdings.get(product);
 				holdings.put(product, adjustedVolume);
 			}
 		}
 		
-		Price totalPrice = price.multiply(volume);
+		long totalPrice = PriceTicks.multiply(PriceTicks.toTicks(price), volume);
 		
 		if(side.equals("BUY")){
-			accountCost = accountCost.subtract(totalPrice);
+			accountCost = PriceTicks.subtract(accountCost, totalPrice);
 		}
 		else{
-			accountCost = accountCost.add(totalPrice);
+			accountCost = PriceTicks.add(accountCost, totalPrice);
 		}
 	}
 	
@@ -91,32 +90,38 @@ public class Position {
 	 * passed in that is owned by the user
 	 */
 	public Price getStockPositionValue(String product) throws InvalidPriceOperation{
-		if(!holdings.containsKey(product)){
-			return PriceFactory.makeLimitPrice(0);
-		}
+		return PriceTicks.toPrice(stockPositionTicks(product));
+	}
+	
+	private long stockPositionTicks(String product) throws InvalidPriceOperation{
+		Integer volume = holdings.get(product);
+		Price lastSale = lastSales.get(product);
 		
-		if(lastSales.get(product) == null){
-			return PriceFactory.makeLimitPrice(0);
+		if(volume == null || lastSale == null){
+			return 0;
 		}
-		
-		return lastSales.get(product).multiply(holdings.get(product));
+		return PriceTicks.multiply(PriceTicks.toTicks(lastSale), volume);
 	}
 	
 	/*
 	 * Returns the accountCost data member
 	 */
 	public Price getAccountCosts(){
-		return accountCost;
+		return PriceTicks.toPrice(accountCost);
 	}
 	
 	/*
 	 * This method returns the total current value of all stocks this user owns
 	 */
-	public Price getAllStockValue() throws InvalidPriceOperation{ // POSSIBLE LOOP BUG
-		Price sumValue = PriceFactory.makeLimitPrice(0);
+	public Price getAllStockValue() throws InvalidPriceOperation{
+		return PriceTicks.toPrice(allStockTicks());
+	}
+	
+	private long allStockTicks() throws InvalidPriceOperation{
+		long sumValue = 0;
 		
 		for(String stock : holdings.keySet()){
-			sumValue.add(getStockPositionValue(stock)); // << RIGHT HERE
+			sumValue = PriceTicks.add(sumValue, stockPositionTicks(stock));
 		}
 		return sumValue;
 	}
@@ -125,7 +130,7 @@ public class Position {
 	 * Returns the total current value of all stocks plus the account costs
 	 */
 	public Price getNetAccountValue() throws InvalidPriceOperation{
-		return getAccountCosts().add(getAllStockValue());
+		return PriceTicks.toPrice(PriceTicks.add(accountCost, allStockTicks()));
 	}
 	
 }
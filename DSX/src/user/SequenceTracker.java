@@ -0,0 +1,79 @@
+package user;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Follows the sequence numbers of the market data streams a user receives,
+ * one stream per name and product. There are two kinds of stream:
+ * 
+ * State streams (current market, ticker, market messages) - each event
+ * replaces the last, so a skipped number needs no recovery; an event older
+ * than the last one applied is simply stale.
+ * 
+ * Event streams (last sales, fills and cancels) - every event matters.
+ * When a number is skipped the stream is marked as recovering and check
+ * returns the sequence to ask for a replay from. Events are then dropped
+ * until the replay brings the stream back in order.
+ */
+public class SequenceTracker {
+
+	public static final long APPLY = 0;
+	public static final long DROP = -1;
+	
+	private HashMap<String, long[]> lastApplied = new HashMap<>();
+	private HashSet<String> recovering = new HashSet<>();
+	
+	/*
+	 * Returns true if the event of a state stream is newer than the last
+	 * one applied, and records it as applied
+	 */
+	public synchronized boolean isNewer(String stream, String product, long sequence){
+		long[] last = lastFor(stream + ":" + product);
+		if(sequence <= last[0]){
+			return false;
+		}
+		last[0] = sequence;
+		return true;
+	}
+	
+	/*
+	 * Checks an event of an event stream. Returns APPLY if it is the next
+	 * one (or the first seen) and records it as applied, DROP if it is a
+	 * repeat or arrives while the stream is recovering, or else the
+	 * sequence number the replay should start from.
+	 */
+	public synchronized long check(String stream, String product, long sequence){
+		String key = stream + ":" + product;
+		long[] last = lastFor(key);
+		if(last[0] == 0 || sequence == last[0] + 1){
+			last[0] = sequence;
+			recovering.remove(key);
+			return APPLY;
+		}
+		if(sequence <= last[0] || recovering.contains(key)){
+			return DROP;
+		}
+		recovering.add(key);
+		return last[0] + 1;
+	}
+	
+	/*
+	 * Gives up on replaying what was missed and carries on from the next
+	 * event received, as when the missed events are no longer kept
+	 */
+	public synchronized void reset(String stream, String product){
+		String key = stream + ":" + product;
+		lastApplied.remove(key);
+		recovering.remove(key);
+	}
+	
+	private long[] lastFor(String key){
+		long[] last = lastApplied.get(key);
+		if(last == null){
+			last = new long[1];
+			lastApplied.put(key, last);
+		}
+		return last;
+	}
+}
@@ -1,9 +1,11 @@
 package user;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import exceptions.AlreadyConnectedException;
 import exceptions.AlreadySubscribedException;
+import exceptions.DataValidationException;
 import exceptions.InvalidConnectionIdException;
 import exceptions.InvalidMarketStateException;
 import exceptions.InvalidPriceOperation;
@@ -12,18 +14,24 @@ import exceptions.NoSuchProductException;
 import exceptions.OrderNotFoundException;
 import exceptions.UserNotConnectedException;
 import pricePackage.*;
+import publishers.BookDepthDTO;
+import publishers.DepthUpdate;
+import tradablePackage.Order;
+import tradablePackage.Quote;
 import tradablePackage.TradableDTO;
 import messages.*;
 
 public interface User {
 
 	String getUserName();
-	void acceptLastSale(String product, Price p, int v);
-	void acceptMessage(FillMessage fm);
-	void acceptMessage(CancelMessage cm);
-	void acceptMarketMessage(String message);
-	void acceptTicker(String product, Price p, char direction);
-	void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv );
+	void acceptLastSale(String product, Price p, int v, long sequence);
+	void acceptMessage(FillMessage fm, long sequence);
+	void acceptMessage(CancelMessage cm, long sequence);
+	void acceptMarketMessage(String message, long sequence);
+	void acceptTicker(String product, Price p, char direction, long sequence);
+	void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv, long sequence);
+	void acceptDepthSnapshot(BookDepthDTO depth, long sequence);
+	void acceptDepthUpdate(DepthUpdate update);
 	
 	void connect() throws AlreadyConnectedException, UserNotConnectedException, InvalidConnectionIdException; // Instructs a User object to connect to the trading system.
 	void disConnect() throws UserNotConnectedException, InvalidConnectionIdException; // Instructs a User object to disconnect from the trading system.
@@ -32,14 +40,19 @@ public interface User {
 	void submitOrderCancel(String product, String side, String orderId) throws InvalidMarketStateException, NoSuchProductException, InvalidVolumeOperation, UserNotConnectedException, InvalidConnectionIdException, OrderNotFoundException; // Allows the User object to submit a new Order Cancel request
 	void submitQuote(String product, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume) throws InvalidVolumeOperation, InvalidMarketStateException, NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to submit a new Quote request
 	void submitQuoteCancel(String product) throws InvalidMarketStateException, NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to submit a new Quote Cancel request
+	ArrayList<String> submitOrders(List<Order> orders) throws DataValidationException, InvalidVolumeOperation, InvalidMarketStateException, NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to submit a batch of its own Orders
+	void submitQuotes(List<Quote> quotes) throws DataValidationException, InvalidVolumeOperation, InvalidMarketStateException, NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to submit a batch of its own Quotes
+	void cancelOrders(List<TradableDTO> orders) throws DataValidationException, InvalidVolumeOperation, InvalidMarketStateException, NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException, OrderNotFoundException; // Allows the User object to cancel a batch of its Orders with remaining volume
+	void submitMassCancel(String product) throws InvalidVolumeOperation, InvalidMarketStateException, NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to cancel all of its Orders and Quotes in the specified Stock, or in every Stock when product is null
 	void subscribeCurrentMarket(String product) throws AlreadySubscribedException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to subscribe for Current Market for the specified Stock.
 	void subscribeLastSale(String product) throws AlreadySubscribedException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to subscribe for Last Sale for the specified Stock.
 	void subscribeMessages(String product) throws AlreadySubscribedException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to subscribe for Messages for the specified Stock.
 	void subscribeTicker(String product) throws AlreadySubscribedException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to subscribe for Ticker for the specified Stock.
+	void subscribeDepth(String product) throws AlreadySubscribedException, NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to subscribe for Book Depth updates for the specified Stock.
 	Price getAllStockValue() throws InvalidPriceOperation; // Returns the value of the all Sock the User owns (has bought but not sold)
 	Price getAccountCosts(); // Returns the difference between cost of all stock purchases and stock sales
 	Price getNetAccountValue() throws InvalidPriceOperation; // Returns the difference between current value of all stocks owned and the account costs
-	String[][] getBookDepth(String product) throws NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to submit a Book Depth request for the specified stock.
+	BookDepthDTO getBookDepth(String product) throws NoSuchProductException, UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to submit a Book Depth request for the specified stock.
 	String getMarketState() throws UserNotConnectedException, InvalidConnectionIdException; // Allows the User object to query the market state (OPEN, PREOPEN, CLOSED).
 	ArrayList<TradableUserData> getOrderIds(); // Returns a list of order ids for the orders this user has submitted.
 	ArrayList<String> getProductList(); // Returns a list of the stock products available in the trading system.
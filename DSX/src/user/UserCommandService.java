@@ -1,11 +1,13 @@
 package user;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
 
 import exceptions.AlreadyConnectedException;
 import exceptions.AlreadySubscribedException;
+import exceptions.DataValidationException;
 import exceptions.InvalidConnectionIdException;
 import exceptions.InvalidMarketStateException;
 import exceptions.InvalidVolumeOperation;
@@ -14,8 +16,12 @@ import exceptions.NotSubscribedException;
 import exceptions.OrderNotFoundException;
 import exceptions.UserNotConnectedException;
 import book.ProductService;
+import ids.NameRegistry;
+import metrics.MetricsRegistry;
 import pricePackage.Price;
+import publishers.BookDepthDTO;
 import publishers.CurrentMarketPublisher;
+import publishers.DepthPublisher;
 import publishers.LastSalePublisher;
 import publishers.MessagePublisher;
 import publishers.TickerPublisher;
@@ -25,15 +31,34 @@ import tradablePackage.TradableDTO;
 
 public class UserCommandService {
 	
-	private static UserCommandService ourInstance;
-	private HashMap<String, Long> connectedIDs = new HashMap<>();
-	private HashMap<String, User> connectedUsers = new HashMap<>();
-	private HashMap<String, Long> connectedTimes = new HashMap<>();
+	private static volatile UserCommandService ourInstance;
+	/*
+	 * Indexed by user id, null where the user is not connected. The array is
+	 * copied on every connect and disconnect and never changed once
+	 * published, so the commands read it without locking.
+	 */
+	private volatile Connection[] connections = new Connection[16];
 	
-	public static synchronized UserCommandService getInstance(){
+	private static class Connection {
+		private final long id;
+		private final User user;
+		private final long time;
+		
+		private Connection(long i, User u, long t){
+			id = i;
+			user = u;
+			time = t;
+		}
+	}
+	
+	public static UserCommandService getInstance(){
 		
 		if(ourInstance == null){
-			ourInstance = new UserCommandService();
+			synchronized(UserCommandService.class){
+				if(ourInstance == null){
+					ourInstance = new UserCommandService();
+				}
+			}
 		}
 		return ourInstance;
 	}
@@ -43,30 +68,53 @@ public class UserCommandService {
 	/*
 	 * Utility method that will be used by many methods in this class to verify
 	 * the integrity of the user name and connection id passed in with many of
-	 * the method calls found here
+	 * the method calls found here. Returns the User connected under the name.
 	 */
-	private void verifyUser(String userName, long connId) throws UserNotConnectedException,
+	private User verifyUser(String userName, long connId) throws UserNotConnectedException,
 																 InvalidConnectionIdException{
-		if(!connectedIDs.containsKey(userName)){
+		int id = NameRegistry.getUsers().lookup(userName);
+		Connection[] c = connections;
+		if(id < 0 || id >= c.length || c[id] == null){
 			throw new UserNotConnectedException("User " + userName + " not connected");
 		}
-		if(connectedIDs.get(userName) != connId){
+		if(c[id].id != connId){
 			throw new InvalidConnectionIdException("Invalid Connection Id Exception");
 		}
+		return c[id].user;
+	}
+	
+	/*
+	 * Records a command's latency, and counts it as a reject if it ended in an
+	 * exception. Only accepted commands are recorded per product, so a caller
+	 * naming made-up products cannot grow the registry.
+	 */
+	private void recordCommand(String latencyName, String rejectName, String product, long start, boolean accepted){
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.recordLatency(latencyName, accepted ? product : null, start);
+		if(!accepted){
+			metrics.increment("rejects", null);
+			metrics.increment(rejectName, null);
+		}
 	}
 	
 	/*
 	 * This method will connect the user to the trading system
 	 */
 	public synchronized long connect(User user) throws AlreadyConnectedException{
-		if(connectedIDs.containsKey(user)){
+		int id = NameRegistry.getUsers().idOf(user.getUserName());
+		Connection[] c = connections;
+		if(id < c.length && c[id] != null){
 			throw new AlreadyConnectedException("User " + user.getUserName() + " already connected");
 		}
-		connectedIDs.put(user.getUserName(), System.nanoTime());
-		connectedUsers.put(user.getUserName(), user);
-		connectedTimes.put(user.getUserName(), System.currentTimeMillis());
+		long connId = System.nanoTime();
+		if(connId == 0){
+			connId = 1;
+		}
+		c = Arrays.copyOf(c, id < c.length ? c.length : Math.max(c.length * 2, id + 1));
+		c[id] = new Connection(connId, user, System.currentTimeMillis());
+		connections = c;
 		
-		return connectedIDs.get(user.getUserName()); // << POSSIBLE ERROR. User or GetUserName?
+		return connId;
 	}
 	
 	/*
@@ -75,19 +123,28 @@ public class UserCommandService {
 	public synchronized void disConnect(String userName, long connId) throws UserNotConnectedException,
 																			 InvalidConnectionIdException{
 		verifyUser(userName, connId);
-		connectedIDs.remove(userName);
-		connectedUsers.remove(userName);
-		connectedTimes.remove(userName);
+		Connection[] c = connections.clone();
+		c[NameRegistry.getUsers().lookup(userName)] = null;
+		connections = c;
 	}
 	
 	/*
 	 * Forwards the call of "getBookDepth" to the ProductService
 	 */
-	public String[][] getBookDepth(String userName, long connId, String product) throws NoSuchProductException,
-																						UserNotConnectedException,
-																						InvalidConnectionIdException{
-		verifyUser(userName, connId);
-		return ProductService.getInstance().getBookDepth(product);
+	public BookDepthDTO getBookDepth(String userName, long connId, String product) throws NoSuchProductException,
+																						  UserNotConnectedException,
+																						  InvalidConnectionIdException{
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			BookDepthDTO bd = ProductService.getInstance().getBookDepth(product);
+			accepted = true;
+			return bd;
+		}
+		finally{
+			recordCommand("command.getBookDepth", "rejects.getBookDepth", product, start, accepted);
+		}
 	}
 	
 	/*
@@ -130,9 +187,18 @@ public class UserCommandService {
 							  											   NoSuchProductException,
 							  											   UserNotConnectedException,
 							  											   InvalidConnectionIdException{
-		verifyUser(userName, connId);
-		Order order = new Order(userName, product, price, volume, side);
-		return ProductService.getInstance().submitOrder(order);
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			Order order = new Order(userName, product, price, volume, side);
+			String id = ProductService.getInstance().submitOrder(order);
+			accepted = true;
+			return id;
+		}
+		finally{
+			recordCommand("command.submitOrder", "rejects.submitOrder", product, start, accepted);
+		}
 	}
 	
 	/*
@@ -146,8 +212,16 @@ public class UserCommandService {
 								  									  UserNotConnectedException,
 								  									  InvalidConnectionIdException,
 								  									  OrderNotFoundException {
-		verifyUser(userName, connId);
-		ProductService.getInstance().submitOrderCancel(product, side, orderId);
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			ProductService.getInstance().submitOrderCancel(product, side, orderId);
+			accepted = true;
+		}
+		finally{
+			recordCommand("command.submitOrderCancel", "rejects.submitOrderCancel", product, start, accepted);
+		}
 	}
 	
 	/*
@@ -160,9 +234,17 @@ public class UserCommandService {
 																						 NoSuchProductException,
 																						 UserNotConnectedException,
 																						 InvalidConnectionIdException{
-		verifyUser(userName, connId);
-		Quote quote = new Quote(userName, product, bPrice, bVolume, sPrice, sVolume);
-		ProductService.getInstance().submitQuote(quote);
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			Quote quote = new Quote(userName, product, bPrice, bVolume, sPrice, sVolume);
+			ProductService.getInstance().submitQuote(quote);
+			accepted = true;
+		}
+		finally{
+			recordCommand("command.submitQuote", "rejects.submitQuote", product, start, accepted);
+		}
 	}
 	
 	/*
@@ -173,8 +255,124 @@ public class UserCommandService {
 																					   NoSuchProductException,
 																					   UserNotConnectedException,
 																					   InvalidConnectionIdException{
-		verifyUser(userName, connId);
-		ProductService.getInstance().submitQuoteCancel(userName, product);
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			ProductService.getInstance().submitQuoteCancel(userName, product);
+			accepted = true;
+		}
+		finally{
+			recordCommand("command.submitQuoteCancel", "rejects.submitQuoteCancel", product, start, accepted);
+		}
+	}
+	
+	/*
+	 * Submits a batch of Orders, which may be for any number of products. The
+	 * connection is verified once, every Order must be the user's own, and
+	 * ProductService applies the batch one book at a time. Returns the order
+	 * ids in the order the Orders were given.
+	 */
+	public ArrayList<String> submitOrders(String userName, long connId, List<Order> orders) throws DataValidationException,
+																								   InvalidVolumeOperation,
+																								   InvalidMarketStateException,
+																								   NoSuchProductException,
+																								   UserNotConnectedException,
+																								   InvalidConnectionIdException{
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			for(Order o : orders){
+				checkOwner(userName, o.getUser());
+			}
+			ArrayList<String> ids = ProductService.getInstance().submitOrders(orders);
+			accepted = true;
+			return ids;
+		}
+		finally{
+			recordCommand("command.submitOrders", "rejects.submitOrders", null, start, accepted);
+		}
+	}
+	
+	/*
+	 * Submits a batch of Quotes the way submitOrders does for Orders. A later
+	 * Quote for a product replaces an earlier one, as it would one at a time.
+	 */
+	public void submitQuotes(String userName, long connId, List<Quote> quotes) throws DataValidationException,
+																					  InvalidVolumeOperation,
+																					  InvalidMarketStateException,
+																					  NoSuchProductException,
+																					  UserNotConnectedException,
+																					  InvalidConnectionIdException{
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			for(Quote q : quotes){
+				checkOwner(userName, q.getUserName());
+			}
+			ProductService.getInstance().submitQuotes(quotes);
+			accepted = true;
+		}
+		finally{
+			recordCommand("command.submitQuotes", "rejects.submitQuotes", null, start, accepted);
+		}
+	}
+	
+	/*
+	 * Cancels a batch of the user's Orders, given as the DTOs returned by
+	 * getOrdersWithRemainingQty. Orders that can no longer be found are
+	 * named in the OrderNotFoundException thrown once the rest are cancelled.
+	 */
+	public void cancelOrders(String userName, long connId, List<TradableDTO> orders) throws DataValidationException,
+																							InvalidVolumeOperation,
+																							InvalidMarketStateException,
+																							NoSuchProductException,
+																							UserNotConnectedException,
+																							InvalidConnectionIdException,
+																							OrderNotFoundException{
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			for(TradableDTO d : orders){
+				checkOwner(userName, d.user);
+			}
+			ProductService.getInstance().submitOrderCancels(orders);
+			accepted = true;
+		}
+		finally{
+			recordCommand("command.cancelOrders", "rejects.cancelOrders", null, start, accepted);
+		}
+	}
+	
+	/*
+	 * Cancels all of the user's Orders and Quotes in the product, or in every
+	 * product when product is null
+	 */
+	public void submitMassCancel(String userName, long connId, String product) throws InvalidVolumeOperation,
+																					  InvalidMarketStateException,
+																					  NoSuchProductException,
+																					  UserNotConnectedException,
+																					  InvalidConnectionIdException{
+		long start = System.nanoTime();
+		boolean accepted = false;
+		try{
+			verifyUser(userName, connId);
+			ProductService.getInstance().submitMassCancel(userName, product);
+			accepted = true;
+		}
+		finally{
+			recordCommand("command.submitMassCancel", "rejects.submitMassCancel", product, start, accepted);
+		}
+	}
+	
+	//Checks that a batched Tradable belongs to the user submitting the batch
+	private void checkOwner(String userName, String owner) throws DataValidationException{
+		if(!userName.equals(owner)){
+			throw new DataValidationException("User " + userName + " cannot submit for " + owner);
+		}
 	}
 	
 	/*
@@ -183,8 +381,8 @@ public class UserCommandService {
 	public void subscribeCurrentMarket(String userName, long connId, String product) throws AlreadySubscribedException,
 																							UserNotConnectedException,
 																							InvalidConnectionIdException{
-		verifyUser(userName, connId);
-		CurrentMarketPublisher.getInstance().subscribe(connectedUsers.get(userName), product);
+		User user = verifyUser(userName, connId);
+		CurrentMarketPublisher.getInstance().subscribe(user, product);
 	}
 	
 	/*
@@ -193,8 +391,8 @@ public class UserCommandService {
 	public void subscribeLastSale(String userName, long connId, String product) throws AlreadySubscribedException,
 																					   UserNotConnectedException,
 																					   InvalidConnectionIdException{
-		verifyUser(userName, connId);
-		LastSalePublisher.getInstance().subscribe(connectedUsers.get(userName), product);
+		User user = verifyUser(userName, connId);
+		LastSalePublisher.getInstance().subscribe(user, product);
 	}
 	
 	/*
@@ -203,8 +401,8 @@ public class UserCommandService {
 	public void subscribeMessages(String userName, long conn, String product) throws AlreadySubscribedException,
 																					 UserNotConnectedException,
 																					 InvalidConnectionIdException{
-		verifyUser(userName, conn);
-		MessagePublisher.getInstance().subscribe(connectedUsers.get(userName), product);
+		User user = verifyUser(userName, conn);
+		MessagePublisher.getInstance().subscribe(user, product);
 	}
 	
 	/*
@@ -213,8 +411,33 @@ public class UserCommandService {
 	public void subscribeTicker(String userName, long conn, String product) throws AlreadySubscribedException,
 																				   UserNotConnectedException,
 																				   InvalidConnectionIdException{
-		verifyUser(userName, conn);
-		TickerPublisher.getInstance().subscribe(connectedUsers.get(userName), product);
+		User user = verifyUser(userName, conn);
+		TickerPublisher.getInstance().subscribe(user, product);
+	}
+	
+	/*
+	 * This method will forward the depth subscription request to the ProductService,
+	 * which sends the user a snapshot of the book from which updates follow
+	 */
+	public void subscribeDepth(String userName, long connId, String product) throws AlreadySubscribedException,
+																					NoSuchProductException,
+																					UserNotConnectedException,
+																					InvalidConnectionIdException{
+		User user = verifyUser(userName, connId);
+		ProductService.getInstance().subscribeDepth(user, product);
+	}
+	
+	/*
+	 * This method will forward a request to resend missed market data to the
+	 * ProductService. Returns false if some of it could not be resent.
+	 */
+	public boolean requestReplay(String userName, long connId, String stream, String product, long fromSequence) throws NoSuchProductException,
+																														NotSubscribedException,
+																														DataValidationException,
+																														UserNotConnectedException,
+																														InvalidConnectionIdException{
+		User user = verifyUser(userName, connId);
+		return ProductService.getInstance().requestReplay(user, stream, product, fromSequence);
 	}
 	
 	/*
@@ -223,8 +446,8 @@ public class UserCommandService {
 	public void unSubscribeCurrentMarket(String userName, long conn, String product) throws NotSubscribedException,
 																							UserNotConnectedException,
 																							InvalidConnectionIdException{
-		verifyUser(userName, conn);
-		CurrentMarketPublisher.getInstance().unSubscribe(connectedUsers.get(userName), product);
+		User user = verifyUser(userName, conn);
+		CurrentMarketPublisher.getInstance().unSubscribe(user, product);
 	}
 	
 	/*
@@ -233,8 +456,8 @@ public class UserCommandService {
 	public void unSubscribeLastSale(String userName, long conn, String product) throws NotSubscribedException,
 																					   UserNotConnectedException,
 																					   InvalidConnectionIdException{
-		verifyUser(userName, conn);
-		LastSalePublisher.getInstance().unSubscribe(connectedUsers.get(userName), product);
+		User user = verifyUser(userName, conn);
+		LastSalePublisher.getInstance().unSubscribe(user, product);
 	}
 	
 	/*
@@ -243,8 +466,18 @@ public class UserCommandService {
 	public void unSubscribeTicker(String userName, long conn, String product) throws NotSubscribedException,
 																					 UserNotConnectedException,
 																					 InvalidConnectionIdException{
-		verifyUser(userName, conn);
-		TickerPublisher.getInstance().unSubscribe(connectedUsers.get(userName), product);
+		User user = verifyUser(userName, conn);
+		TickerPublisher.getInstance().unSubscribe(user, product);
+	}
+	
+	/*
+	 *  This method will forward the unsubscribe request to the DepthPublisher
+	 */
+	public void unSubscribeDepth(String userName, long conn, String product) throws NotSubscribedException,
+																					UserNotConnectedException,
+																					InvalidConnectionIdException{
+		User user = verifyUser(userName, conn);
+		DepthPublisher.getInstance().unSubscribe(user, product);
 	}
 	
 	/*
@@ -253,7 +486,7 @@ public class UserCommandService {
 	public void unSubscribeMessages(String userName, long conn, String product) throws NotSubscribedException,
 																					   UserNotConnectedException,
 																					   InvalidConnectionIdException{
-		verifyUser(userName, conn);
-		MessagePublisher.getInstance().unSubscribe(connectedUsers.get(userName), product);
+		User user = verifyUser(userName, conn);
+		MessagePublisher.getInstance().unSubscribe(user, product);
 	}
 }
@@ -2,6 +2,7 @@ package user;
 
 import exceptions.AlreadyConnectedException;
 import exceptions.AlreadySubscribedException;
+import exceptions.DataValidationException;
 import exceptions.InvalidConnectionIdException;
 import exceptions.InvalidMarketStateException;
 import exceptions.InvalidPriceOperation;
@@ -13,10 +14,16 @@ import gui.UserDisplayManager;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import messages.CancelMessage;
 import messages.FillMessage;
 import pricePackage.Price;
+import publishers.BookDepthDTO;
+import publishers.DepthUpdate;
+import tradablePackage.Order;
+import tradablePackage.Quote;
 import tradablePackage.TradableDTO;
 
 public class UserImpl implements User{
@@ -26,7 +33,9 @@ public class UserImpl implements User{
 	private ArrayList<String> stocks = new ArrayList<>();
 	private ArrayList<TradableUserData> tudList = new ArrayList<>();
 	private Position position;
-	private UserDisplayManager udm; // << POSSIBLE NULL INITIALIZATION ERROR
+	private UserDisplayManager udm; // null until showMarketDisplay, e.g. for simulated users
+	private ConcurrentHashMap<String, DepthMirror> depthMirrors = new ConcurrentHashMap<>();
+	private SequenceTracker sequences = new SequenceTracker();
 	
 	//Constructor
 	public UserImpl(String userName){
@@ -54,9 +63,14 @@ public class UserImpl implements User{
 	/*
 	 * This method should call the user display manager's updateLastSale method
 	 */
-	public void acceptLastSale(String product, Price p, int v) {
+	public void acceptLastSale(String product, Price p, int v, long sequence) {
+		if(!inSequence("LAST_SALE", product, sequence)){
+			return;
+		}
 		try{
-			udm.updateLastSale(product, p, v);
+			if(udm != null){
+				udm.updateLastSale(product, p, v);
+			}
 			position.updateLastSale(product, p);
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
@@ -67,11 +81,16 @@ public class UserImpl implements User{
 	 * This method will display the fill message in the market display and will
 	 * forward the data to the Position object
 	 */
-	public void acceptMessage(FillMessage fm) { // << WRONG FORMAT FOR STRING
+	public void acceptMessage(FillMessage fm, long sequence) { // << WRONG FORMAT FOR STRING
+		if(!inSequence("MESSAGES", fm.getProduct(), sequence)){
+			return;
+		}
 		try{
-			Timestamp t = new Timestamp(System.currentTimeMillis());
-			String s = new String(fm.toString());
-			udm.updateMarketActivity(t + s);
+			if(udm != null){
+				Timestamp t = new Timestamp(System.currentTimeMillis());
+				String s = new String(fm.toString());
+				udm.updateMarketActivity(t + s);
+			}
 			position.updatePosition(fm.getProduct(), fm.getPrice(), fm.getSide(), fm.getVolume());
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
@@ -81,11 +100,16 @@ public class UserImpl implements User{
 	/*
 	 * This method will display the Cancel Message in the market display
 	 */
-	public void acceptMessage(CancelMessage cm) { // << WRONG FORMAT FOR STRING
+	public void acceptMessage(CancelMessage cm, long sequence) { // << WRONG FORMAT FOR STRING
+		if(!inSequence("MESSAGES", cm.getProduct(), sequence)){
+			return;
+		}
 		try{
-			Timestamp t = new Timestamp(System.currentTimeMillis());
-			String s = new String(cm.toString());
-			udm.updateMarketActivity(t + s);
+			if(udm != null){
+				Timestamp t = new Timestamp(System.currentTimeMillis());
+				String s = new String(cm.toString());
+				udm.updateMarketActivity(t + s);
+			}
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -94,9 +118,14 @@ public class UserImpl implements User{
 	/*
 	 * This method will display the Market Message in the market display
 	 */
-	public void acceptMarketMessage(String message) {
+	public void acceptMarketMessage(String message, long sequence) {
+		if(!sequences.isNewer("MARKET_MESSAGE", null, sequence)){
+			return;
+		}
 		try{
-			udm.updateMarketState(message);
+			if(udm != null){
+				udm.updateMarketState(message);
+			}
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -105,9 +134,14 @@ public class UserImpl implements User{
 	/*
 	 * This method will display the Ticker data in the market display
 	 */
-	public void acceptTicker(String product, Price p, char direction) {
+	public void acceptTicker(String product, Price p, char direction, long sequence) {
+		if(!sequences.isNewer("TICKER", product, sequence)){
+			return;
+		}
 		try{
-			udm.updateTicker(product, p, direction);
+			if(udm != null){
+				udm.updateTicker(product, p, direction);
+			}
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -116,14 +150,66 @@ public class UserImpl implements User{
 	/*
 	 * This method will display the Current Market data in the market display
 	 */
-	public void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv) {
+	public void acceptCurrentMarket(String product, Price bp, int bv, Price sp, int sv, long sequence) {
+		if(!sequences.isNewer("CURRENT_MARKET", product, sequence)){
+			return;
+		}
 		try{
-			udm.updateMarketData(product, bp, bv, sp, sv);
+			if(udm != null){
+				udm.updateMarketData(product, bp, bv, sp, sv);
+			}
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
 		}
 	}
 
+	/*
+	 * This method will replace the user's copy of the product's book depth
+	 */
+	public void acceptDepthSnapshot(BookDepthDTO depth, long sequence) {
+		DepthMirror mirror = depthMirrors.get(depth.getProduct());
+		if(mirror != null){
+			mirror.applySnapshot(depth, sequence);
+		}
+	}
+	
+	/*
+	 * This method will apply a depth update to the user's copy of the product's book depth
+	 */
+	public void acceptDepthUpdate(DepthUpdate update) {
+		DepthMirror mirror = depthMirrors.get(update.getProduct());
+		if(mirror != null && !mirror.applyUpdate(update)){
+			requestReplay("DEPTH", update.getProduct(), 0);
+		}
+	}
+	
+	/*
+	 * Checks an event of one of the event streams against the last one
+	 * applied. When events have been missed, asks for them to be replayed
+	 * and returns false; the replay brings the stream back in order.
+	 */
+	private boolean inSequence(String stream, String product, long sequence){
+		long from = sequences.check(stream, product, sequence);
+		if(from == SequenceTracker.APPLY){
+			return true;
+		}
+		if(from != SequenceTracker.DROP && !requestReplay(stream, product, from)){
+			//The missed events are gone, so carry on from whatever comes next
+			System.out.println("User " + userName + " missed " + stream + " events for " + product + " that could not be replayed");
+			sequences.reset(stream, product);
+		}
+		return false;
+	}
+	
+	private boolean requestReplay(String stream, String product, long from){
+		try{
+			return UserCommandService.getInstance().requestReplay(userName, connectionId, stream, product, from);
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			return false;
+		}
+	}
+	
 	/*
 	 * This method will connect the user to the trading system
 	 */
@@ -206,6 +292,59 @@ public class UserImpl implements User{
 		UserCommandService.getInstance().submitQuoteCancel(userName, connectionId, product);
 	}
 
+	/*
+	 * This method forwards a batch of new orders to the user command service
+	 * and saves the resulting order ids
+	 */
+	public ArrayList<String> submitOrders(List<Order> orders) throws DataValidationException,
+																	 InvalidVolumeOperation,
+																	 InvalidMarketStateException,
+																	 NoSuchProductException,
+																	 UserNotConnectedException,
+																	 InvalidConnectionIdException {
+		ArrayList<String> orderIds = UserCommandService.getInstance().submitOrders(userName, connectionId, orders);
+		for(Order o : orders){
+			tudList.add(new TradableUserData(userName, o.getProduct(), o.getSide(), o.getId()));
+		}
+		return orderIds;
+	}
+	
+	/*
+	 * This method forwards a batch of new quotes to the user command service
+	 */
+	public void submitQuotes(List<Quote> quotes) throws DataValidationException,
+													   InvalidVolumeOperation,
+													   InvalidMarketStateException,
+													   NoSuchProductException,
+													   UserNotConnectedException,
+													   InvalidConnectionIdException {
+		UserCommandService.getInstance().submitQuotes(userName, connectionId, quotes);
+	}
+	
+	/*
+	 * This method forwards a batch of order cancels to the user command service
+	 */
+	public void cancelOrders(List<TradableDTO> orders) throws DataValidationException,
+															 InvalidVolumeOperation,
+															 InvalidMarketStateException,
+															 NoSuchProductException,
+															 UserNotConnectedException,
+															 InvalidConnectionIdException,
+															 OrderNotFoundException {
+		UserCommandService.getInstance().cancelOrders(userName, connectionId, orders);
+	}
+	
+	/*
+	 * This method forwards a mass cancel to the user command service
+	 */
+	public void submitMassCancel(String product) throws InvalidVolumeOperation,
+														InvalidMarketStateException,
+														NoSuchProductException,
+														UserNotConnectedException,
+														InvalidConnectionIdException {
+		UserCommandService.getInstance().submitMassCancel(userName, connectionId, product);
+	}
+	
 	/*
 	 * This method forwards the current market subscription to the user command service
 	 */
@@ -215,6 +354,27 @@ public class UserImpl implements User{
 		UserCommandService.getInstance().subscribeCurrentMarket(userName, connectionId, product);
 	}
 
+	/*
+	 * This method forwards the book depth subscription to the user command service.
+	 * The user keeps its own copy of the depth from then on.
+	 */
+	public void subscribeDepth(String product) throws AlreadySubscribedException,
+													  NoSuchProductException,
+													  UserNotConnectedException,
+													  InvalidConnectionIdException {
+		DepthMirror mirror = new DepthMirror(product);
+		if(depthMirrors.putIfAbsent(product, mirror) != null){
+			throw new AlreadySubscribedException("User " + userName + " is already subscribed");
+		}
+		try{
+			UserCommandService.getInstance().subscribeDepth(userName, connectionId, product);
+		}
+		catch(NoSuchProductException | UserNotConnectedException | InvalidConnectionIdException e){
+			depthMirrors.remove(product);
+			throw e;
+		}
+	}
+
 	/*
 	 * This method forwards the last sale subscription to the user command service
 	 */
@@ -265,11 +425,16 @@ public class UserImpl implements User{
 	}
 
 	/*
-	 * Allows the User object to submit a Book Depth request for the specified stock
+	 * Allows the User object to submit a Book Depth request for the specified stock.
+	 * The depth comes from the user's own copy when it is subscribed and in sync.
 	 */
-	public String[][] getBookDepth(String product) throws NoSuchProductException,
-														  UserNotConnectedException,
-														  InvalidConnectionIdException {
+	public BookDepthDTO getBookDepth(String product) throws NoSuchProductException,
+															UserNotConnectedException,
+															InvalidConnectionIdException {
+		DepthMirror mirror = depthMirrors.get(product);
+		if(mirror != null && mirror.isInSync()){
+			return mirror.getDepth();
+		}
 		return UserCommandService.getInstance().getBookDepth(userName, connectionId, product);
 	}
 